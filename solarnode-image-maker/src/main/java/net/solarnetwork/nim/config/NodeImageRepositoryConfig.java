@@ -23,6 +23,9 @@
 package net.solarnetwork.nim.config;
 
 import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,21 +34,26 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 
 import com.amazonaws.auth.AWSStaticCredentialsProvider;
 import com.amazonaws.auth.BasicAWSCredentials;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3ClientBuilder;
 
+import net.solarnetwork.nim.service.impl.AbstractNodeImageRepository;
 import net.solarnetwork.nim.service.impl.FileSystemDataStreamCache;
 import net.solarnetwork.nim.service.impl.FileSystemNodeImageRepository;
+import net.solarnetwork.nim.service.impl.NodeImageCachePrewarmer;
 import net.solarnetwork.nim.service.impl.S3NodeImageRepository;
+import net.solarnetwork.nim.util.MaxCompressorStreamFactory;
+import net.solarnetwork.nim.util.ResourceBudget;
 
 /**
  * Configuration for the node image repository.
  * 
  * @author matt
- * @version 1.0
+ * @version 1.1
  */
 @Configuration
 public class NodeImageRepositoryConfig {
@@ -62,6 +70,15 @@ public class NodeImageRepositoryConfig {
   @Value("${repo.dest.compression.ratio:1}")
   private float destRepoCompressionRatio = 1f;
 
+  @Value("${repo.dest.compression.threads:0}")
+  private int destRepoCompressionThreads = 0;
+
+  @Value("${repo.dest.compression.block:0}")
+  private int destRepoCompressionBlockSize = 0;
+
+  @Value("${repo.dest.compression.memory:0}")
+  private long destRepoCompressionMemoryMegabytes = 0;
+
   @Value("${repo.source.s3.region:us-west-2}")
   private String s3SourceRepoRegion = "us-west-2";
 
@@ -80,6 +97,36 @@ public class NodeImageRepositoryConfig {
   @Value("${repo.source.s3.cache.path:/var/tmp/node-image-cache}")
   private File s3SourceRepoCacheDirectory = new File("/var/tmp/node-image-cache");
 
+  @Value("${repo.source.s3.cache.rangeSize:8}")
+  private int s3SourceRepoCacheRangeSizeMegabytes = 8;
+
+  @Value("${repo.source.s3.cache.parallel:4}")
+  private int s3SourceRepoCacheRangeConcurrency = 4;
+
+  @Value("${repo.source.s3.cache.size:16384}")
+  private long s3SourceRepoCacheSizeMegabytes = 16384;
+
+  @Value("${repo.source.s3.meta.ttl:300}")
+  private long s3SourceRepoMetadataTtlSeconds = 300;
+
+  @Value("${repo.source.s3.meta.parallel:8}")
+  private int s3SourceRepoMetadataConcurrency = 8;
+
+  @Value("${repo.source.s3.manifest.ttl:300}")
+  private long s3SourceRepoManifestTtlSeconds = 300;
+
+  @Value("${repo.source.s3.prewarm.count:0}")
+  private int s3SourceRepoPrewarmImageCount = 0;
+
+  @Value("${repo.source.s3.prewarm.rate:20}")
+  private long s3SourceRepoPrewarmBandwidthMegabytes = 20;
+
+  @Value("${repo.source.s3.prewarm.threads:1}")
+  private int s3SourceRepoPrewarmConcurrency = 1;
+
+  @Value("${repo.source.s3.prewarm.delay:15}")
+  private long s3SourceRepoPrewarmDelayMinutes = 15;
+
   @Value("${repo.dest.s3.region:us-west-2}")
   private String s3DestRepoRegion = "us-west-2";
 
@@ -95,17 +142,89 @@ public class NodeImageRepositoryConfig {
   @Value("${repo.dest.s3.secretKey:#{null}}")
   private String s3DestRepoSecretKey = null;
 
-  @Value("${repo.dest.s3.work.path:#{systemProperties['java.io.tmpdir']}}")
-  private File s3DestRepoWorkDirectory = new File(System.getProperty("java.io.tmpdir"));
+  @Value("${repo.dest.s3.upload.partSize:8}")
+  private int s3DestRepoUploadPartSizeMegabytes = 8;
+
+  @Value("${repo.dest.s3.upload.parallel:4}")
+  private int s3DestRepoUploadConcurrency = 4;
+
+  @Value("${repo.dest.s3.upload.retries:3}")
+  private int s3DestRepoUploadMaximumRetries = 3;
+
+  @Value("${repo.dest.s3.manifest.ttl:0}")
+  private long s3DestRepoManifestTtlSeconds = 0;
 
   private final Logger log = LoggerFactory.getLogger(NodeImageRepositoryConfig.class);
 
+  /**
+   * The executor service used to compress images in parallel, shared by all compression tasks.
+   * 
+   * @return the executor service
+   */
+  @Bean(destroyMethod = "shutdownNow")
+  @Qualifier("compression")
+  public ExecutorService compressionExecutorService() {
+    int threads = compressionThreadCount();
+    log.info("Compressing images with {} threads", threads);
+    CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("compressor-");
+    threadFactory.setDaemon(true);
+    return Executors.newFixedThreadPool(threads, threadFactory);
+  }
+
+  private int compressionThreadCount() {
+    return (destRepoCompressionThreads > 0 ? destRepoCompressionThreads
+        : Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * The memory budget shared by all compression tasks.
+   * 
+   * <p>
+   * When compressing in parallel, the memory of the encoders of all compression threads is taken
+   * from the budget once, as every compression task shares them.
+   * </p>
+   * 
+   * @return the budget
+   */
+  @Bean
+  @Qualifier("compression")
+  public ResourceBudget compressionMemoryBudget() {
+    long bytes = (destRepoCompressionMemoryMegabytes > 0
+        ? destRepoCompressionMemoryMegabytes * 1024 * 1024
+        : Runtime.getRuntime().maxMemory() / 2);
+    log.info("Compressing images within {}MB of memory", bytes / 1024 / 1024);
+    if (compressionThreadCount() > 1) {
+      long encoders = new MaxCompressorStreamFactory(destRepoCompressionRatio,
+          compressionExecutorService(), destRepoCompressionBlockSize)
+              .estimatePoolMemoryUsage(destRepoCompressionType);
+      if (encoders < bytes) {
+        bytes -= encoders;
+        log.info("Compression thread encoders use {}MB of compression memory",
+            encoders / 1024 / 1024);
+      } else {
+        log.warn("Compression thread encoders need {}MB, more than all compression memory",
+            encoders / 1024 / 1024);
+      }
+    }
+    return new ResourceBudget("compression memory", bytes);
+  }
+
+  private void configureCompression(AbstractNodeImageRepository repo) {
+    repo.setCompressionRatio(destRepoCompressionRatio);
+    repo.setCompressionType(destRepoCompressionType);
+    repo.setCompressionMemoryBudget(compressionMemoryBudget());
+    if (compressionThreadCount() > 1) {
+      repo.setCompressionExecutorService(compressionExecutorService());
+      repo.setCompressionBlockSize(destRepoCompressionBlockSize);
+    }
+  }
+
   /**
    * The source repository to pull base images from.
    * 
    * @return the source image repo
    */
-  @Bean
+  @Bean(initMethod = "startup", destroyMethod = "shutdown")
   @Profile({ "default", "development" })
   @Qualifier("source")
   public FileSystemNodeImageRepository fsSourceNodeImageRepository() {
@@ -123,7 +242,7 @@ public class NodeImageRepositoryConfig {
    * 
    * @return the destination image repo
    */
-  @Bean
+  @Bean(initMethod = "startup", destroyMethod = "shutdown")
   @Profile({ "default", "development" })
   @Qualifier("dest")
   public FileSystemNodeImageRepository fsDestNodeImageRepository() {
@@ -135,8 +254,7 @@ public class NodeImageRepositoryConfig {
     }
     FileSystemNodeImageRepository repo = new FileSystemNodeImageRepository(
         fsDestRepoRootDirectory.toPath());
-    repo.setCompressionRatio(destRepoCompressionRatio);
-    repo.setCompressionType(destRepoCompressionType);
+    configureCompression(repo);
     return repo;
   }
 
@@ -167,11 +285,25 @@ public class NodeImageRepositoryConfig {
   @Qualifier("source")
   public S3NodeImageRepository s3SourceNodeImageRepository() {
     AmazonS3 client = s3SourceClient();
-    S3NodeImageRepository repo = new S3NodeImageRepository(client, s3SourceRepoBucketName,
+    final S3NodeImageRepository repo = new S3NodeImageRepository(client, s3SourceRepoBucketName,
         s3SourceRepoObjectKeyPrefix);
     log.info("Source repository s3://{}/{}/{}; accessKey = {}", s3SourceRepoRegion,
         s3SourceRepoBucketName, s3SourceRepoObjectKeyPrefix, s3SourceRepoAccessKey);
+    repo.setMetadataTtl(TimeUnit.SECONDS.toMillis(s3SourceRepoMetadataTtlSeconds));
+    repo.setMetadataConcurrency(s3SourceRepoMetadataConcurrency);
+    repo.setManifestTtl(TimeUnit.SECONDS.toMillis(s3SourceRepoManifestTtlSeconds));
+    repo.setImageCache(s3SourceImageCache());
+    return repo;
+  }
 
+  /**
+   * The cache of base image files downloaded from the S3 source repository.
+   * 
+   * @return the cache
+   */
+  @Bean
+  @Profile({ "staging", "production" })
+  public FileSystemDataStreamCache s3SourceImageCache() {
     if (!s3SourceRepoCacheDirectory.isDirectory()) {
       if (!s3SourceRepoCacheDirectory.mkdirs()) {
         throw new RuntimeException(
@@ -182,9 +314,30 @@ public class NodeImageRepositoryConfig {
 
     FileSystemDataStreamCache imageCache = new FileSystemDataStreamCache(
         s3SourceRepoCacheDirectory.toPath());
-    repo.setImageCache(imageCache);
+    imageCache.setRangeSize(s3SourceRepoCacheRangeSizeMegabytes * 1024 * 1024);
+    imageCache.setRangeConcurrency(s3SourceRepoCacheRangeConcurrency);
+    imageCache.setMaximumSize(s3SourceRepoCacheSizeMegabytes * 1024 * 1024);
+    return imageCache;
+  }
 
-    return repo;
+  /**
+   * Fetch newly published images from the S3 source repository into its cache in the background.
+   * 
+   * @return the prewarmer, or {@literal null} if not configured
+   */
+  @Bean(initMethod = "startup", destroyMethod = "shutdown")
+  @Profile({ "staging", "production" })
+  public NodeImageCachePrewarmer s3SourceImageCachePrewarmer() {
+    if (s3SourceRepoPrewarmImageCount < 1) {
+      return null;
+    }
+    NodeImageCachePrewarmer prewarmer = new NodeImageCachePrewarmer(
+        s3SourceNodeImageRepository(), s3SourceImageCache());
+    prewarmer.setImageCount(s3SourceRepoPrewarmImageCount);
+    prewarmer.setBandwidth(s3SourceRepoPrewarmBandwidthMegabytes * 1024 * 1024);
+    prewarmer.setConcurrency(s3SourceRepoPrewarmConcurrency);
+    prewarmer.setDelay(TimeUnit.MINUTES.toMillis(s3SourceRepoPrewarmDelayMinutes));
+    return prewarmer;
   }
 
   /**
@@ -212,9 +365,11 @@ public class NodeImageRepositoryConfig {
         s3DestRepoAccessKey != null ? s3DestRepoAccessKey : s3SourceRepoAccessKey);
     S3NodeImageRepository repo = new S3NodeImageRepository(client, s3DestRepoBucketName,
         s3DestRepoObjectKeyPrefix);
-    repo.setCompressionRatio(destRepoCompressionRatio);
-    repo.setCompressionType(destRepoCompressionType);
-    repo.setWorkDirectory(s3DestRepoWorkDirectory.toPath());
+    configureCompression(repo);
+    repo.setUploadPartSize(s3DestRepoUploadPartSizeMegabytes * 1024 * 1024);
+    repo.setUploadConcurrency(s3DestRepoUploadConcurrency);
+    repo.setUploadMaximumRetries(s3DestRepoUploadMaximumRetries);
+    repo.setManifestTtl(TimeUnit.SECONDS.toMillis(s3DestRepoManifestTtlSeconds));
     return repo;
   }
 
@@ -22,21 +22,36 @@
 
 package net.solarnetwork.nim.config;
 
+import java.io.File;
+import java.io.IOException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.annotation.Scheduled;
 
 import net.solarnetwork.nim.service.NodeImageAuthorizor;
+import net.solarnetwork.nim.service.NodeImageRepository;
 import net.solarnetwork.nim.service.UpdatableNodeImageRepository;
+import net.solarnetwork.nim.service.impl.AbstractNodeImageService;
+import net.solarnetwork.nim.service.impl.FileSystemBaseImageCache;
+import net.solarnetwork.nim.service.impl.FileSystemJobJournal;
+import net.solarnetwork.nim.service.impl.FileSystemResourceStore;
+import net.solarnetwork.nim.service.impl.GuestfishAppliancePool;
 import net.solarnetwork.nim.service.impl.GuestfsNodeImageService;
+import net.solarnetwork.nim.service.impl.LibguestfsNodeImageService;
+import net.solarnetwork.nim.util.FairTaskScheduler;
+import net.solarnetwork.nim.util.ResourceBudget;
 
 /**
  * Configuration for the node image service.
  * 
  * @author matt
- * @version 1.0
+ * @version 1.1
  */
 @Configuration
 public class NodeImageServiceConfig {
@@ -45,19 +60,188 @@ public class NodeImageServiceConfig {
   @Qualifier("dest")
   private UpdatableNodeImageRepository destRepository;
 
+  @Autowired
+  @Qualifier("source")
+  private NodeImageRepository sourceRepository;
+
   @Autowired(required = false)
   private NodeImageAuthorizor authorizor;
 
+  @Value("${service.cache.path:#{null}}")
+  private File baseImageCacheDirectory = null;
+
+  @Value("${service.cache.size:16384}")
+  private long baseImageCacheSizeMegabytes = 16384;
+
+  @Value("${service.overlay:false}")
+  private boolean overlayImages = false;
+
+  @Value("${service.concurrency:1}")
+  private int taskConcurrency = 1;
+
+  @Value("${service.queue.keyLimit:10}")
+  private int maximumQueuedTasksPerKey = 10;
+
+  @Value("${service.staging.space:0}")
+  private long stagingSpaceMegabytes = 0;
+
+  @Value("${service.journal.path:#{null}}")
+  private File jobJournalFile = null;
+
+  @Value("${service.dedup:true}")
+  private boolean deduplicateTasks = true;
+
+  @Value("${service.resources.path:#{null}}")
+  private File resourceStoreDirectory = null;
+
+  @Value("${service.resources.size:4096}")
+  private long resourceStoreSizeMegabytes = 4096;
+
+  @Value("${service.appliance.pool:0}")
+  private int appliancePoolSize = 0;
+
+  @Value("${service.appliance.uses:10}")
+  private int applianceMaximumUses = 10;
+
+  @Value("${service.appliance.backend:libvirt}")
+  private String applianceBackend = "libvirt";
+
+  @Value("${service.firstboot.customize:false}")
+  private boolean virtCustomizeFirstboot = false;
+
+  @Value("${service.engine:guestfish}")
+  private String engine = "guestfish";
+
+  @Value("${service.libguestfs.jar:" + LibguestfsNodeImageService.DEFAULT_BINDINGS_JAR + "}")
+  private File libguestfsBindingsJar = new File(LibguestfsNodeImageService.DEFAULT_BINDINGS_JAR);
+
+  private final Logger log = LoggerFactory.getLogger(NodeImageServiceConfig.class);
+
+  /**
+   * The scheduler to run image tasks with.
+   * 
+   * @return the scheduler
+   */
+  @Bean(destroyMethod = "shutdown")
+  public FairTaskScheduler taskScheduler() {
+    return new FairTaskScheduler(taskConcurrency, maximumQueuedTasksPerKey);
+  }
+
+  /**
+   * The journal to record image tasks in.
+   * 
+   * @return the journal, or {@literal null} if not configured
+   */
+  @Bean(destroyMethod = "close")
+  public FileSystemJobJournal jobJournal() {
+    if (jobJournalFile == null) {
+      return null;
+    }
+    File dir = jobJournalFile.getAbsoluteFile().getParentFile();
+    if (!dir.isDirectory()) {
+      if (!dir.mkdirs()) {
+        throw new RuntimeException(
+            "Job journal dir " + dir.getAbsolutePath() + " does not exist and unable to create");
+      }
+    }
+    return new FileSystemJobJournal(jobJournalFile.toPath());
+  }
+
+  /**
+   * The pool of running libguestfs appliances to customize images with.
+   * 
+   * @return the pool, or {@literal null} if not configured
+   */
+  @Bean(initMethod = "startup", destroyMethod = "shutdown")
+  public GuestfishAppliancePool appliancePool() {
+    if (appliancePoolSize < 1 || isLibguestfsEngine()) {
+      return null;
+    }
+    GuestfishAppliancePool pool = new GuestfishAppliancePool(appliancePoolSize);
+    pool.setMaximumUses(applianceMaximumUses);
+    pool.setBackend(applianceBackend);
+    return pool;
+  }
+
+  private FileSystemBaseImageCache baseImageCache() {
+    if (baseImageCacheDirectory == null) {
+      return null;
+    }
+    if (!baseImageCacheDirectory.isDirectory()) {
+      if (!baseImageCacheDirectory.mkdirs()) {
+        throw new RuntimeException("Base image cache dir "
+            + baseImageCacheDirectory.getAbsolutePath() + " does not exist and unable to create");
+      }
+    }
+    FileSystemBaseImageCache cache = new FileSystemBaseImageCache(
+        baseImageCacheDirectory.toPath());
+    cache.setMaximumSize(baseImageCacheSizeMegabytes * 1024 * 1024);
+    return cache;
+  }
+
+  private FileSystemResourceStore resourceStore() {
+    if (resourceStoreDirectory == null) {
+      return null;
+    }
+    if (!resourceStoreDirectory.isDirectory()) {
+      if (!resourceStoreDirectory.mkdirs()) {
+        throw new RuntimeException("Resource store dir "
+            + resourceStoreDirectory.getAbsolutePath() + " does not exist and unable to create");
+      }
+    }
+    FileSystemResourceStore store = new FileSystemResourceStore(resourceStoreDirectory.toPath());
+    store.setMaximumSize(resourceStoreSizeMegabytes * 1024 * 1024);
+    return store;
+  }
+
+  private boolean isLibguestfsEngine() {
+    return "libguestfs".equalsIgnoreCase(engine);
+  }
+
   /**
    * Get the node image service.
    * 
+   * <p>
+   * The {@literal service.engine} property selects the implementation: {@literal guestfish} to run
+   * the {@literal guestfish} command line tools, or {@literal libguestfs} to use libguestfs
+   * in-process through its Java bindings.
+   * </p>
+   * 
    * @return the node image service
    */
   @Bean
-  public GuestfsNodeImageService nodeImageService() {
-    GuestfsNodeImageService nis = new GuestfsNodeImageService();
+  public AbstractNodeImageService nodeImageService() {
+    final AbstractNodeImageService nis;
+    if (isLibguestfsEngine()) {
+      LibguestfsNodeImageService lnis = new LibguestfsNodeImageService();
+      lnis.setBindingsJar(libguestfsBindingsJar);
+      lnis.setBackend(applianceBackend);
+      lnis.setMaximumUses(applianceMaximumUses);
+      nis = lnis;
+    } else {
+      GuestfsNodeImageService gnis = new GuestfsNodeImageService();
+      gnis.setAppliancePool(appliancePool());
+      gnis.setVirtCustomizeFirstboot(virtCustomizeFirstboot);
+      nis = gnis;
+    }
     nis.setNodeImageRepository(destRepository);
     nis.setNodeImageAuthorizor(authorizor);
+    nis.setBaseImageCache(baseImageCache());
+    nis.setResourceStore(resourceStore());
+    nis.setOverlayImages(overlayImages);
+    nis.setTaskScheduler(taskScheduler());
+    nis.setDeduplicateTasks(deduplicateTasks);
+    if (stagingSpaceMegabytes > 0) {
+      nis.setStagingDiskBudget(
+          new ResourceBudget("staging space", stagingSpaceMegabytes * 1024 * 1024));
+    }
+    nis.setSourceImageRepository(sourceRepository);
+    nis.setJobJournal(jobJournal());
+    try {
+      nis.restoreJobs();
+    } catch (IOException e) {
+      log.error("Error restoring jobs from journal {}: {}", jobJournalFile, e.getMessage());
+    }
     return nis;
   }
 
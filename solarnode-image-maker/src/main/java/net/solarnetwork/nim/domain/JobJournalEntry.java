@@ -0,0 +1,370 @@
+/* ==================================================================
+ * JobJournalEntry.java - 18/10/2026 9:41:17 AM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.nim.domain;
+
+import java.util.List;
+
+/**
+ * A single entry in a job journal, recording an authorization or a change in the state of an image
+ * task.
+ * 
+ * <p>
+ * A {@link Type#Submitted} entry holds everything needed to run the task again. All other task
+ * entries need only the type, date and task ID plus any result of the change. A submitted task
+ * without a staging path shares the work of an identical task with the same fingerprint.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class JobJournalEntry {
+
+  /**
+   * The kind of change an entry records.
+   */
+  public enum Type {
+
+    /** A key was authorized, with an expiration date. */
+    Authorized,
+
+    /** A task was submitted. */
+    Submitted,
+
+    /** A task started running. */
+    Started,
+
+    /** A task completed successfully, with the customized image info. */
+    Completed,
+
+    /** A task failed, with a message. */
+    Failed,
+
+    /** A task and its receipt were removed. */
+    Removed;
+
+  }
+
+  private Type type;
+  private long date;
+  private String taskId;
+  private String key;
+  private Long expires;
+  private String receiptId;
+  private String sourceImageId;
+  private String outputId;
+  private String stagingPath;
+  private List<String> resources;
+  private SolarNodeImageOptions options;
+  private BasicSolarNodeImageInfo image;
+  private String message;
+  private String fingerprint;
+
+  /**
+   * Default constructor.
+   */
+  public JobJournalEntry() {
+    super();
+  }
+
+  /**
+   * Construct a task entry with the current date.
+   * 
+   * @param type
+   *          the type
+   * @param taskId
+   *          the task ID
+   */
+  public JobJournalEntry(Type type, String taskId) {
+    super();
+    this.type = type;
+    this.taskId = taskId;
+    this.date = System.currentTimeMillis();
+  }
+
+  /**
+   * Get the entry type.
+   * 
+   * @return the type
+   */
+  public Type getType() {
+    return type;
+  }
+
+  /**
+   * Set the entry type.
+   * 
+   * @param type
+   *          the type to set
+   */
+  public void setType(Type type) {
+    this.type = type;
+  }
+
+  /**
+   * Get the date of the change.
+   * 
+   * @return the date, in milliseconds since the epoch
+   */
+  public long getDate() {
+    return date;
+  }
+
+  /**
+   * Set the date of the change.
+   * 
+   * @param date
+   *          the date to set, in milliseconds since the epoch
+   */
+  public void setDate(long date) {
+    this.date = date;
+  }
+
+  /**
+   * Get the task ID.
+   * 
+   * @return the task ID
+   */
+  public String getTaskId() {
+    return taskId;
+  }
+
+  /**
+   * Set the task ID.
+   * 
+   * @param taskId
+   *          the task ID to set
+   */
+  public void setTaskId(String taskId) {
+    this.taskId = taskId;
+  }
+
+  /**
+   * Get the key the task was submitted with, or that was authorized.
+   * 
+   * @return the key
+   */
+  public String getKey() {
+    return key;
+  }
+
+  /**
+   * Set the key.
+   * 
+   * @param key
+   *          the key to set
+   */
+  public void setKey(String key) {
+    this.key = key;
+  }
+
+  /**
+   * Get the date an authorization expires.
+   * 
+   * @return the expiration date, in milliseconds since the epoch
+   */
+  public Long getExpires() {
+    return expires;
+  }
+
+  /**
+   * Set the date an authorization expires.
+   * 
+   * @param expires
+   *          the expiration date to set, in milliseconds since the epoch
+   */
+  public void setExpires(Long expires) {
+    this.expires = expires;
+  }
+
+  /**
+   * Get the receipt ID.
+   * 
+   * @return the receipt ID
+   */
+  public String getReceiptId() {
+    return receiptId;
+  }
+
+  /**
+   * Set the receipt ID.
+   * 
+   * @param receiptId
+   *          the receipt ID to set
+   */
+  public void setReceiptId(String receiptId) {
+    this.receiptId = receiptId;
+  }
+
+  /**
+   * Get the ID of the base image to customize.
+   * 
+   * @return the source image ID
+   */
+  public String getSourceImageId() {
+    return sourceImageId;
+  }
+
+  /**
+   * Set the ID of the base image to customize.
+   * 
+   * @param sourceImageId
+   *          the source image ID to set
+   */
+  public void setSourceImageId(String sourceImageId) {
+    this.sourceImageId = sourceImageId;
+  }
+
+  /**
+   * Get the ID to save the customized image as.
+   * 
+   * @return the output ID
+   */
+  public String getOutputId() {
+    return outputId;
+  }
+
+  /**
+   * Set the ID to save the customized image as.
+   * 
+   * @param outputId
+   *          the output ID to set
+   */
+  public void setOutputId(String outputId) {
+    this.outputId = outputId;
+  }
+
+  /**
+   * Get the path of the task staging directory.
+   * 
+   * @return the staging path
+   */
+  public String getStagingPath() {
+    return stagingPath;
+  }
+
+  /**
+   * Set the path of the task staging directory.
+   * 
+   * @param stagingPath
+   *          the staging path to set
+   */
+  public void setStagingPath(String stagingPath) {
+    this.stagingPath = stagingPath;
+  }
+
+  /**
+   * Get the names of the resource files in the staging directory.
+   * 
+   * @return the resource file names
+   */
+  public List<String> getResources() {
+    return resources;
+  }
+
+  /**
+   * Set the names of the resource files in the staging directory.
+   * 
+   * @param resources
+   *          the resource file names to set
+   */
+  public void setResources(List<String> resources) {
+    this.resources = resources;
+  }
+
+  /**
+   * Get the task options.
+   * 
+   * @return the options
+   */
+  public SolarNodeImageOptions getOptions() {
+    return options;
+  }
+
+  /**
+   * Set the task options.
+   * 
+   * @param options
+   *          the options to set
+   */
+  public void setOptions(SolarNodeImageOptions options) {
+    this.options = options;
+  }
+
+  /**
+   * Get the customized image info.
+   * 
+   * @return the image info
+   */
+  public BasicSolarNodeImageInfo getImage() {
+    return image;
+  }
+
+  /**
+   * Set the customized image info.
+   * 
+   * @param image
+   *          the image info to set
+   */
+  public void setImage(BasicSolarNodeImageInfo image) {
+    this.image = image;
+  }
+
+  /**
+   * Get a status message.
+   * 
+   * @return the message
+   */
+  public String getMessage() {
+    return message;
+  }
+
+  /**
+   * Set a status message.
+   * 
+   * @param message
+   *          the message to set
+   */
+  public void setMessage(String message) {
+    this.message = message;
+  }
+
+  /**
+   * Get the task fingerprint, which is the same for all tasks that would produce the same image.
+   * 
+   * @return the fingerprint, or {@literal null} if not available
+   */
+  public String getFingerprint() {
+    return fingerprint;
+  }
+
+  /**
+   * Set the task fingerprint.
+   * 
+   * @param fingerprint
+   *          the fingerprint to set
+   */
+  public void setFingerprint(String fingerprint) {
+    this.fingerprint = fingerprint;
+  }
+
+}
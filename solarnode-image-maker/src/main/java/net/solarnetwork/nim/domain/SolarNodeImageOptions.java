@@ -28,13 +28,14 @@ import java.util.Map;
  * Options and parameters to use during the image creation process.
  * 
  * @author matt
- * @version 1.0
+ * @version 1.1
  */
 public class SolarNodeImageOptions {
 
   private Map<String, String> environment;
   private Map<String, Object> parameters;
   private boolean verbose = false;
+  private TaskPriority priority;
 
   /**
    * Get the environment variables.
@@ -108,4 +109,26 @@ public class SolarNodeImageOptions {
     this.verbose = verbose;
   }
 
+  /**
+   * Get the task priority.
+   * 
+   * @return the priority, or {@literal null} for the default
+   * @since 1.1
+   */
+  public TaskPriority getPriority() {
+    return priority;
+  }
+
+  /**
+   * Set the task priority.
+   * 
+   * @param priority
+   *          the priority to set, or {@literal null} for the default of
+   *          {@link TaskPriority#Interactive}
+   * @since 1.1
+   */
+  public void setPriority(TaskPriority priority) {
+    this.priority = priority;
+  }
+
 }
@@ -32,7 +32,7 @@ import java.util.concurrent.Future;
  * </p>
  * 
  * @author matt
- * @version 1.0
+ * @version 1.1
  */
 public interface SolarNodeImageReceipt extends Future<SolarNodeImage> {
 
@@ -70,6 +70,15 @@ public interface SolarNodeImageReceipt extends Future<SolarNodeImage> {
    */
   boolean isStarted();
 
+  /**
+   * Get the position of the task in the queue of tasks waiting to start.
+   * 
+   * @return the queue position, starting from {@literal 1}, or {@literal 0} if the task is not
+   *         queued
+   * @since 1.1
+   */
+  int getQueuePosition();
+
   /**
    * Get the date the customization task started executing.
    * 
@@ -117,4 +126,36 @@ public interface SolarNodeImageReceipt extends Future<SolarNodeImage> {
    * @return a direct download link
    */
   String getDownloadUrl();
+
+  /**
+   * Add a listener to be called whenever the progress of the task changes.
+   * 
+   * <p>
+   * The listener is called on the thread doing the work, so it must return quickly. This default
+   * implementation does not support listeners and returns {@literal false}.
+   * </p>
+   * 
+   * @param listener
+   *          the listener to add
+   * @return {@literal true} if the listener was added
+   * @since 1.1
+   */
+  default boolean addProgressListener(Runnable listener) {
+    return false;
+  }
+
+  /**
+   * Remove a listener previously added with {@link #addProgressListener(Runnable)}.
+   * 
+   * <p>
+   * This default implementation does nothing.
+   * </p>
+   * 
+   * @param listener
+   *          the listener to remove
+   * @since 1.1
+   */
+  default void removeProgressListener(Runnable listener) {
+    // nothing to remove
+  }
 }
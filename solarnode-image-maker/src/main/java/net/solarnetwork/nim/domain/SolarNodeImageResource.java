@@ -31,7 +31,7 @@ import org.springframework.core.io.InputStreamSource;
  * A resource to apply to a node image.
  * 
  * @author matt
- * @version 1.0
+ * @version 1.1
  */
 public interface SolarNodeImageResource extends InputStreamSource {
 
@@ -63,4 +63,18 @@ public interface SolarNodeImageResource extends InputStreamSource {
    *           another transfer
    */
   void transferTo(File dest) throws IOException, IllegalStateException;
+
+  /**
+   * Get the SHA-256 digest of the resource data, if computed by {@link #transferTo(File)}.
+   * 
+   * <p>
+   * This default implementation returns {@literal null}.
+   * </p>
+   * 
+   * @return the hex-encoded digest, or {@literal null} if not known
+   * @since 1.1
+   */
+  default String getSha256() {
+    return null;
+  }
 }
@@ -0,0 +1,60 @@
+/* ==================================================================
+ * TaskPriority.java - 18/10/2026 1:32:08 PM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.nim.domain;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+
+/**
+ * Scheduling priority of an image task.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public enum TaskPriority {
+
+  /** A task someone is waiting on; runs before any batch task. */
+  Interactive,
+
+  /** A background task; runs only when no interactive tasks are waiting. */
+  Batch;
+
+  /**
+   * Get an enum instance for a name, ignoring case.
+   * 
+   * @param name
+   *          the name
+   * @return the enum instance
+   * @throws IllegalArgumentException
+   *           if {@code name} is not a valid value
+   */
+  @JsonCreator
+  public static TaskPriority forName(String name) {
+    for (TaskPriority p : values()) {
+      if (p.name().equalsIgnoreCase(name)) {
+        return p;
+      }
+    }
+    throw new IllegalArgumentException("Unsupported TaskPriority [" + name + "]");
+  }
+
+}
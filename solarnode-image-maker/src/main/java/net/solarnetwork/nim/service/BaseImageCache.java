@@ -0,0 +1,97 @@
+/* ==================================================================
+ * BaseImageCache.java - 18/10/2026 3:42:18 PM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.nim.service;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * API for a cache of uncompressed base image files.
+ * 
+ * <p>
+ * Images are keyed by their uncompressed SHA-256 digest, so a cached image can be used in place of
+ * decompressing any source image with the same digest.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public interface BaseImageCache {
+
+  /**
+   * Copy a cached image to a file.
+   * 
+   * @param sha256
+   *          the hex-encoded SHA-256 digest of the uncompressed image
+   * @param dest
+   *          the file to copy the image to; must not already exist
+   * @return {@literal true} if the image was cached and copied to {@code dest}, {@literal false}
+   *         if the image is not cached
+   * @throws IOException
+   *           if any IO error occurs
+   */
+  boolean copyTo(String sha256, Path dest) throws IOException;
+
+  /**
+   * Add an image to the cache.
+   * 
+   * <p>
+   * The image file is copied into the cache, so the caller retains ownership of {@code source}. The
+   * caller must have verified that the content of {@code source} matches {@code sha256}. If the
+   * image is already cached, nothing is done.
+   * </p>
+   * 
+   * @param sha256
+   *          the hex-encoded SHA-256 digest of the uncompressed image
+   * @param source
+   *          the uncompressed image file
+   * @throws IOException
+   *           if any IO error occurs
+   */
+  void put(String sha256, Path source) throws IOException;
+
+  /**
+   * Get direct, read-only access to a cached image file.
+   * 
+   * <p>
+   * The image will not be removed from the cache until {@link #release(String)} has been called
+   * once for every call to this method that returned a file. The file must not be modified.
+   * </p>
+   * 
+   * @param sha256
+   *          the hex-encoded SHA-256 digest of the uncompressed image
+   * @return the cached image file, or {@literal null} if the image is not cached
+   * @throws IOException
+   *           if any IO error occurs
+   */
+  Path acquire(String sha256) throws IOException;
+
+  /**
+   * Release an image previously returned from {@link #acquire(String)}.
+   * 
+   * @param sha256
+   *          the hex-encoded SHA-256 digest of the uncompressed image
+   */
+  void release(String sha256);
+
+}
@@ -24,6 +24,9 @@ package net.solarnetwork.nim.service;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.Map;
 import java.util.function.Supplier;
 
 /**
@@ -34,7 +37,7 @@ import java.util.function.Supplier;
  * </p>
  * 
  * @author matt
- * @version 1.0
+ * @version 1.1
  */
 public interface DataStreamCache {
 
@@ -57,4 +60,74 @@ public interface DataStreamCache {
    */
   InputStream get(String key, Supplier<InputStream> supplier) throws IOException;
 
+  /**
+   * Get a data stream that can be read in ranges.
+   * 
+   * <p>
+   * This is like {@link #get(String, Supplier)} but allows an implementation to read the data in
+   * several ranges at once, and to resume reading after an interruption. This default
+   * implementation reads all the data as a single stream.
+   * </p>
+   * 
+   * @param key
+   *          a unique key for the stream
+   * @param supplier
+   *          a ranged data provider, in case the stream is not found in the cache
+   * @return the data stream
+   * @throws IOException
+   *           if any IO error occurs
+   * @since 1.1
+   */
+  default InputStream get(String key, RangedDataSupplier supplier) throws IOException {
+    return get(key, () -> {
+      try {
+        return supplier.getData();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    });
+  }
+
+  /**
+   * Test if a data stream is cached.
+   * 
+   * <p>
+   * This default implementation returns {@literal false}.
+   * </p>
+   * 
+   * @param key
+   *          the key of the stream
+   * @return {@literal true} if the stream is fully cached
+   * @since 1.1
+   */
+  default boolean contains(String key) {
+    return false;
+  }
+
+  /**
+   * Get the number of open streams reading a data stream from the cache.
+   * 
+   * <p>
+   * This default implementation returns {@literal 0}.
+   * </p>
+   * 
+   * @param key
+   *          the key of the stream
+   * @return the number of open streams, including those reading a stream still being cached
+   * @since 1.1
+   */
+  default int readerCount(String key) {
+    return 0;
+  }
+
+  /**
+   * Get statistics about the use of the cache.
+   * 
+   * @return a mapping of statistic names to values, never {@literal null}
+   * @since 1.1
+   */
+  default Map<String, Long> statistics() {
+    return Collections.emptyMap();
+  }
+
 }
@@ -0,0 +1,92 @@
+/* ==================================================================
+ * JobJournal.java - 18/10/2026 9:58:02 AM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.nim.service;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+import net.solarnetwork.nim.domain.JobJournalEntry;
+
+/**
+ * API for a durable, append-only record of image tasks, so they can be restored after a restart.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public interface JobJournal {
+
+  /**
+   * Append an entry to the journal.
+   * 
+   * <p>
+   * This method should not block on IO; entries may be written in batches some time after this
+   * method returns, but must be written in the order they were appended.
+   * </p>
+   * 
+   * @param entry
+   *          the entry to append
+   */
+  void append(JobJournalEntry entry);
+
+  /**
+   * Read all entries in the journal, in the order they were appended.
+   * 
+   * @return the entries, never {@literal null}
+   * @throws IOException
+   *           if any IO error occurs
+   */
+  List<JobJournalEntry> replay() throws IOException;
+
+  /**
+   * Replace the contents of the journal with a set of entries.
+   * 
+   * <p>
+   * This is used after replaying the journal to discard entries that are no longer needed. Any
+   * entries appended but not yet written are kept, after {@code entries}.
+   * </p>
+   * 
+   * @param entries
+   *          the entries to keep, in order
+   * @throws IOException
+   *           if any IO error occurs
+   */
+  void compact(List<JobJournalEntry> entries) throws IOException;
+
+  /**
+   * Replace the contents of the journal with the entries chosen from all entries written so far.
+   * 
+   * <p>
+   * This is used to periodically discard entries that are no longer needed. Reading the entries and
+   * replacing them happens as one operation, so no entries written in between are lost. Any entries
+   * appended but not yet written are kept, after the chosen entries.
+   * </p>
+   * 
+   * @param filter
+   *          a function given all written entries, in order, that returns the entries to keep
+   * @throws IOException
+   *           if any IO error occurs
+   */
+  void compact(UnaryOperator<List<JobJournalEntry>> filter) throws IOException;
+
+}
@@ -29,7 +29,7 @@ import net.solarnetwork.nim.domain.SolarNodeImageInfo;
  * API for SolarNode image resources.
  * 
  * @author matt
- * @version 1.0
+ * @version 1.1
  */
 public interface NodeImageRepository {
 
@@ -64,4 +64,20 @@ public interface NodeImageRepository {
    */
   String getDownloadUrl(SolarNodeImage image);
 
+  /**
+   * Get a version number that changes whenever the images returned by {@link #findAll()} change.
+   * 
+   * <p>
+   * Callers can compare versions to know when anything derived from {@link #findAll()} must be
+   * refreshed. This default implementation returns {@literal -1}, for repositories that cannot
+   * detect all changes themselves, in which case callers should refresh periodically instead.
+   * </p>
+   * 
+   * @return the version, or {@literal -1} if changes are not tracked
+   * @since 1.1
+   */
+  default long getVersion() {
+    return -1;
+  }
+
 }
@@ -23,6 +23,8 @@
 package net.solarnetwork.nim.service;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Map;
 
@@ -35,7 +37,7 @@ import net.solarnetwork.nim.domain.SolarNodeImageResource;
  * API for a node image creation service.
  * 
  * @author matt
- * @version 1.0
+ * @version 1.1
  */
 public interface NodeImageService {
 
@@ -105,4 +107,70 @@ public interface NodeImageService {
    */
   int activeSessionCount();
 
+  /**
+   * Get statistics about the work performed by the service.
+   * 
+   * @return a mapping of statistic names to values, never {@literal null}
+   * @since 1.1
+   */
+  default Map<String, Long> statistics() {
+    return Collections.emptyMap();
+  }
+
+  /**
+   * Test if a resource has been stored, so it can be referred to by digest.
+   * 
+   * @param key
+   *          an authorized key
+   * @param sha256
+   *          the hex-encoded SHA-256 digest of the resource
+   * @return {@literal true} if the resource is stored
+   * @since 1.1
+   */
+  default boolean isResourceStored(String key, String sha256) {
+    return false;
+  }
+
+  /**
+   * Store a resource so it can be referred to by digest in future image tasks.
+   * 
+   * @param key
+   *          an authorized key
+   * @param sha256
+   *          the expected hex-encoded SHA-256 digest of the resource, or {@literal null} to accept
+   *          any
+   * @param in
+   *          the resource data
+   * @return the hex-encoded SHA-256 digest of the resource
+   * @throws IOException
+   *           if an IO error occurs
+   * @throws UnsupportedOperationException
+   *           if the service does not store resources
+   * @since 1.1
+   */
+  default String storeResource(String key, String sha256, InputStream in) throws IOException {
+    throw new UnsupportedOperationException("Resources cannot be stored.");
+  }
+
+  /**
+   * Get a resource that refers to a stored resource, to pass to
+   * {@link #createImage(String, SolarNodeImage, Iterable, SolarNodeImageOptions)}.
+   * 
+   * <p>
+   * The stored resource is only looked up when it is used, which fails if it is not available.
+   * </p>
+   * 
+   * @param sha256
+   *          the hex-encoded SHA-256 digest of the stored resource
+   * @param filename
+   *          the name to give the resource in the image task
+   * @return the resource
+   * @throws UnsupportedOperationException
+   *           if the service does not store resources
+   * @since 1.1
+   */
+  default SolarNodeImageResource storedResource(String sha256, String filename) {
+    throw new UnsupportedOperationException("Resources cannot be stored.");
+  }
+
 }
@@ -0,0 +1,89 @@
+/* ==================================================================
+ * RangedDataSupplier.java - 18/10/2026 2:05:51 PM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.nim.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * API for a remote data stream of known length that can be read in ranges.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public interface RangedDataSupplier {
+
+  /**
+   * Get the length of the data.
+   * 
+   * @return the length, in bytes
+   */
+  long getContentLength();
+
+  /**
+   * Get the SHA-256 digest of the data, to verify the data after reading all ranges.
+   * 
+   * @return the hex-encoded digest, or {@literal null} if not known
+   */
+  String getSha256();
+
+  /**
+   * Get a range of the data.
+   * 
+   * @param offset
+   *          the offset of the first byte of the range
+   * @param length
+   *          the number of bytes in the range
+   * @return a stream of exactly {@code length} bytes
+   * @throws IOException
+   *           if any IO error occurs
+   */
+  InputStream getRange(long offset, long length) throws IOException;
+
+  /**
+   * Get all of the data as a single stream, without requesting a range.
+   * 
+   * <p>
+   * This is used when the length of the data is not known, so it can not be read in ranges.
+   * </p>
+   * 
+   * @return a stream of all the data
+   * @throws IOException
+   *           if any IO error occurs
+   */
+  InputStream getData() throws IOException;
+
+  /**
+   * Get the date the data was last modified.
+   * 
+   * <p>
+   * This default implementation returns {@literal 0}.
+   * </p>
+   * 
+   * @return the date, in milliseconds since the epoch, or {@literal 0} if not known
+   */
+  default long getLastModified() {
+    return 0;
+  }
+
+}
@@ -0,0 +1,102 @@
+/* ==================================================================
+ * ResourceStore.java - 18/10/2026 7:24:51 AM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.nim.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+
+/**
+ * API for a content-addressed store of image customization resources.
+ * 
+ * <p>
+ * Resources are keyed by their SHA-256 digest, so a client can upload a resource once and then
+ * refer to it by digest in any number of image customization requests.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public interface ResourceStore {
+
+  /**
+   * Test if a resource is stored.
+   * 
+   * @param sha256
+   *          the hex-encoded SHA-256 digest of the resource
+   * @return {@literal true} if the resource is stored
+   */
+  boolean contains(String sha256);
+
+  /**
+   * Add a resource to the store.
+   * 
+   * <p>
+   * The digest of the data is computed as it is stored. If the resource is already stored, the
+   * data is still read, to verify it, but nothing else is done.
+   * </p>
+   * 
+   * @param in
+   *          the resource data
+   * @param sha256
+   *          the expected hex-encoded SHA-256 digest of the data, or {@literal null} to accept any
+   * @return the hex-encoded SHA-256 digest of the data
+   * @throws IllegalArgumentException
+   *           if the digest of the data does not match {@code sha256}, or the data is larger than
+   *           the store allows
+   * @throws IOException
+   *           if any IO error occurs
+   */
+  String put(InputStream in, String sha256) throws IOException;
+
+  /**
+   * Copy a stored resource to a file.
+   * 
+   * <p>
+   * The copy may share storage with the stored resource, for example as a reflink, but modifying
+   * the copy must never modify the stored resource.
+   * </p>
+   * 
+   * @param sha256
+   *          the hex-encoded SHA-256 digest of the resource
+   * @param dest
+   *          the file to copy the resource to; will be replaced if it already exists
+   * @return {@literal true} if the resource was stored and copied to {@code dest},
+   *         {@literal false} if the resource is not stored
+   * @throws IOException
+   *           if any IO error occurs
+   */
+  boolean copyTo(String sha256, Path dest) throws IOException;
+
+  /**
+   * Read a stored resource.
+   * 
+   * @param sha256
+   *          the hex-encoded SHA-256 digest of the resource
+   * @return the resource data, or {@literal null} if the resource is not stored
+   * @throws IOException
+   *           if any IO error occurs
+   */
+  InputStream getInputStream(String sha256) throws IOException;
+
+}
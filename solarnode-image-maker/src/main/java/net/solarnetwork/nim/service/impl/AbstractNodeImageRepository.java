@@ -22,8 +22,11 @@
 
 package net.solarnetwork.nim.service.impl;
 
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
 
 import org.apache.commons.compress.compressors.CompressorException;
 import org.apache.commons.compress.compressors.CompressorStreamFactory;
@@ -37,12 +40,13 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import net.solarnetwork.nim.domain.SolarNodeImage;
 import net.solarnetwork.nim.service.NodeImageRepository;
 import net.solarnetwork.nim.util.MaxCompressorStreamFactory;
+import net.solarnetwork.nim.util.ResourceBudget;
 
 /**
  * Supporting base class for {@link NodeImageRepository} implementations.
  * 
  * @author matt
- * @version 1.0
+ * @version 1.1
  */
 public abstract class AbstractNodeImageRepository implements NodeImageRepository {
 
@@ -55,6 +59,9 @@ public abstract class AbstractNodeImageRepository implements NodeImageRepository
 
   private String compressionType = "xz";
   private float compressionRatio = 1f;
+  private ExecutorService compressionExecutorService;
+  private int compressionBlockSize = 0;
+  private ResourceBudget compressionMemoryBudget;
 
   /** A class-level logger. */
   protected final Logger log = LoggerFactory.getLogger(getClass());
@@ -67,6 +74,22 @@ public abstract class AbstractNodeImageRepository implements NodeImageRepository
   /**
    * Create a compressing output stream.
    * 
+   * <p>
+   * If a {@code compressionMemoryBudget} is configured, the memory needed by the compressor is
+   * reserved from it first. When not enough memory is available at the configured compression
+   * ratio, progressively lower ratios are tried; ratios needing more memory than the whole budget
+   * are skipped. If even the lowest ratio does not fit, this method waits for memory to become
+   * available. The reservation is released when the returned stream is closed.
+   * </p>
+   * 
+   * <p>
+   * When compressing in parallel, only the buffers of the stream's pending blocks are reserved. The
+   * encoders of the {@code compressionExecutorService} threads are shared by all streams, so their
+   * memory should be reserved once for the executor, for example by reducing the budget capacity.
+   * </p>
+   * 
+   * @see MaxCompressorStreamFactory#estimatePoolMemoryUsage(String)
+   * 
    * @param out
    *          the output stream to write to
    * @return the output stream
@@ -77,8 +100,69 @@ public abstract class AbstractNodeImageRepository implements NodeImageRepository
    */
   protected OutputStream createCompressorOutputStream(OutputStream out)
       throws CompressorException, IOException {
-    CompressorStreamFactory compressorFactory = new MaxCompressorStreamFactory(compressionRatio);
-    return compressorFactory.createCompressorOutputStream(compressionType, out);
+    final ResourceBudget budget = compressionMemoryBudget;
+    if (budget == null) {
+      return new MaxCompressorStreamFactory(compressionRatio, compressionExecutorService,
+          compressionBlockSize).createCompressorOutputStream(compressionType, out);
+    }
+    final int maxLevel = Math.max(1, Math.round(compressionRatio * 9f));
+    MaxCompressorStreamFactory compressorFactory = null;
+    long reserved = -1;
+    for (int level = maxLevel; level > 0; level--) {
+      compressorFactory = new MaxCompressorStreamFactory(
+          (level == maxLevel ? compressionRatio : level / 9f), compressionExecutorService,
+          compressionBlockSize);
+      final long estimate = compressorFactory.estimateMemoryUsage(compressionType);
+      if (level > 1 && estimate > budget.getCapacity()) {
+        // the budget caps a reservation at its capacity, so only the lowest level may exceed it
+        continue;
+      }
+      reserved = budget.tryReserve(estimate);
+      if (reserved >= 0) {
+        if (level < maxLevel) {
+          log.info("Reduced {} compression level from {} to {} to fit {}", compressionType,
+              maxLevel, level, budget);
+        }
+        break;
+      }
+    }
+    if (reserved < 0) {
+      log.info("Waiting for compression memory from {}", budget);
+      try {
+        reserved = budget.reserve(compressorFactory.estimateMemoryUsage(compressionType));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted waiting for compression memory");
+      }
+    }
+    final long reservation = reserved;
+    try {
+      return new FilterOutputStream(
+          compressorFactory.createCompressorOutputStream(compressionType, out)) {
+
+        private boolean closed = false;
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+          out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+          try {
+            super.close();
+          } finally {
+            if (!closed) {
+              closed = true;
+              budget.release(reservation);
+            }
+          }
+        }
+      };
+    } catch (CompressorException | RuntimeException e) {
+      budget.release(reservation);
+      throw e;
+    }
   }
 
   /**
@@ -120,4 +204,50 @@ public abstract class AbstractNodeImageRepository implements NodeImageRepository
     return compressionRatio;
   }
 
+  /**
+   * Set an executor service to compress images with in parallel blocks.
+   * 
+   * <p>
+   * The service can be shared by many repositories, so all concurrent compression tasks share the
+   * same pool of threads.
+   * </p>
+   * 
+   * @param compressionExecutorService
+   *          the service to use, or {@literal null} to compress on the calling thread; defaults to
+   *          {@literal null}
+   * @since 1.1
+   */
+  public void setCompressionExecutorService(ExecutorService compressionExecutorService) {
+    this.compressionExecutorService = compressionExecutorService;
+  }
+
+  /**
+   * Set the uncompressed size of each block when compressing in parallel.
+   * 
+   * @param compressionBlockSize
+   *          the block size, in bytes, or {@literal 0} to use a default size
+   * @see net.solarnetwork.nim.util.MaxCompressorStreamFactory#DEFAULT_PARALLEL_BLOCK_SIZE
+   * @since 1.1
+   */
+  public void setCompressionBlockSize(int compressionBlockSize) {
+    this.compressionBlockSize = compressionBlockSize;
+  }
+
+  /**
+   * Set a memory budget to reserve compressor memory from.
+   * 
+   * <p>
+   * The budget can be shared by many repositories, so all concurrent compression tasks share the
+   * same limit.
+   * </p>
+   * 
+   * @param compressionMemoryBudget
+   *          the budget to use, in bytes, or {@literal null} for no limit; defaults to
+   *          {@literal null}
+   * @since 1.1
+   */
+  public void setCompressionMemoryBudget(ResourceBudget compressionMemoryBudget) {
+    this.compressionMemoryBudget = compressionMemoryBudget;
+  }
+
 }
@@ -22,26 +22,39 @@
 
 package net.solarnetwork.nim.service.impl;
 
-import java.io.BufferedOutputStream;
-import java.io.FileOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
 import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.codec.digest.DigestUtils;
@@ -53,23 +66,36 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.core.io.FileSystemResource;
 import org.springframework.core.io.Resource;
-import org.springframework.util.FileCopyUtils;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.util.FileSystemUtils;
 
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
 import net.solarnetwork.nim.AuthorizationException;
 import net.solarnetwork.nim.domain.BasicSolarNodeImageInfo;
+import net.solarnetwork.nim.domain.JobJournalEntry;
 import net.solarnetwork.nim.domain.ResourceSolarNodeImage;
 import net.solarnetwork.nim.domain.SolarNodeImage;
 import net.solarnetwork.nim.domain.SolarNodeImageInfo;
 import net.solarnetwork.nim.domain.SolarNodeImageOptions;
 import net.solarnetwork.nim.domain.SolarNodeImageReceipt;
 import net.solarnetwork.nim.domain.SolarNodeImageResource;
+import net.solarnetwork.nim.service.BaseImageCache;
+import net.solarnetwork.nim.service.JobJournal;
 import net.solarnetwork.nim.service.NodeImageAuthorizor;
+import net.solarnetwork.nim.service.NodeImageRepository;
 import net.solarnetwork.nim.service.NodeImageService;
+import net.solarnetwork.nim.service.ResourceStore;
 import net.solarnetwork.nim.service.UpdatableNodeImageRepository;
 import net.solarnetwork.nim.util.DecompressingSolarNodeImage;
-import net.solarnetwork.nim.util.MessageDigestInputStream;
+import net.solarnetwork.nim.util.FairTaskScheduler;
+import net.solarnetwork.nim.util.Qcow2Resource;
+import net.solarnetwork.nim.util.ResourceBudget;
 import net.solarnetwork.nim.util.SolarNodeImageReceiptFuture;
+import net.solarnetwork.nim.util.SparseFileOutputStream;
+import net.solarnetwork.nim.util.StreamPipeline;
 import net.solarnetwork.nim.util.TaskStepTracker;
 import net.solarnetwork.nim.util.TaskStepTrackerOutputStream;
 import net.solarnetwork.util.CachedResult;
@@ -78,15 +104,31 @@ import net.solarnetwork.util.CachedResult;
  * Abstract base class for {@link NodeImageService} with basic common features.
  * 
  * @author matt
- * @version 1.0
+ * @version 1.1
  */
 public abstract class AbstractNodeImageService implements NodeImageService {
 
+  /** The file extension used for overlay images. */
+  public static final String OVERLAY_IMAGE_EXTENSION = ".qcow2";
+
+  // encodes options in a stable order, for task fingerprints
+  private static final ObjectMapper FINGERPRINT_OBJECT_MAPPER = new ObjectMapper()
+      .configure(MapperFeature.SORT_PROPERTIES_ALPHABETICALLY, true)
+      .configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+
   private int receiptMaxAgeSeconds = (int) TimeUnit.HOURS.toSeconds(12);
   private Path stagingDir = Paths.get(System.getProperty("java.io.tmpdir"));
-  private ExecutorService executorService = Executors.newSingleThreadExecutor();
+  private FairTaskScheduler taskScheduler = new FairTaskScheduler(1, 0);
+  private ExecutorService pipelineExecutorService = defaultPipelineExecutorService();
   private UpdatableNodeImageRepository nodeImageRepository;
   private NodeImageAuthorizor nodeImageAuthorizor = null;
+  private BaseImageCache baseImageCache = null;
+  private boolean overlayImages = false;
+  private ResourceBudget stagingDiskBudget = null;
+  private JobJournal jobJournal = null;
+  private NodeImageRepository sourceImageRepository = null;
+  private boolean deduplicateTasks = true;
+  private ResourceStore resourceStore = null;
 
   // @formatter:off
   private final ConcurrentMap<String, SolarNodeImageReceiptFuture> receipts 
@@ -95,6 +137,14 @@ public abstract class AbstractNodeImageService implements NodeImageService {
       = new  ConcurrentHashMap<>();
   // @formatter:on
 
+  // shared task work by fingerprint, and by task ID for all receipts; guarded by sharedTasks
+  private final Map<String, SharedTask> sharedTasks = new HashMap<>(8);
+  private final ConcurrentMap<String, SharedTask> taskShares = new ConcurrentHashMap<>(8);
+
+  private final AtomicLong taskRequestCount = new AtomicLong(0);
+  private final AtomicLong taskCoalescedCount = new AtomicLong(0);
+  private final AtomicLong taskReusedCount = new AtomicLong(0);
+
   /** A class-level logger. */
   protected final Logger log = LoggerFactory.getLogger(getClass());
 
@@ -138,6 +188,81 @@ public abstract class AbstractNodeImageService implements NodeImageService {
 
   }
 
+  /**
+   * A resource that refers to a resource in the resource store.
+   */
+  private static final class StoredResource implements SolarNodeImageResource {
+
+    private final ResourceStore store;
+    private final String sha256;
+    private final String filename;
+
+    private StoredResource(ResourceStore store, String sha256, String filename) {
+      super();
+      this.store = store;
+      this.sha256 = sha256;
+      this.filename = filename;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+      InputStream in = store.getInputStream(sha256);
+      if (in == null) {
+        throw new IllegalArgumentException("Resource " + sha256 + " not available.");
+      }
+      return in;
+    }
+
+    @Override
+    public String getFilename() {
+      return filename;
+    }
+
+    @Override
+    public void transferTo(File dest) throws IOException, IllegalStateException {
+      if (!store.copyTo(sha256, dest.toPath())) {
+        throw new IllegalArgumentException("Resource " + sha256 + " not available.");
+      }
+    }
+
+    @Override
+    public String getSha256() {
+      return sha256;
+    }
+
+  }
+
+  /**
+   * The work of a task, shared by the receipts of all identical tasks.
+   */
+  private static final class SharedTask {
+
+    private final String fingerprint;
+    private final String outputId;
+    private final Set<String> taskIds = new LinkedHashSet<>(2);
+    private Future<SolarNodeImage> future;
+    private TaskStepTracker tracker;
+    private JobJournalEntry result;
+
+    private SharedTask(String fingerprint, String outputId) {
+      super();
+      this.fingerprint = fingerprint;
+      this.outputId = outputId;
+    }
+  }
+
+  @Override
+  public Map<String, Long> statistics() {
+    Map<String, Long> stats = new LinkedHashMap<>(4);
+    stats.put("taskRequestCount", taskRequestCount.get());
+    stats.put("taskCoalescedCount", taskCoalescedCount.get());
+    stats.put("taskReusedCount", taskReusedCount.get());
+    synchronized (sharedTasks) {
+      stats.put("taskSharedCount", (long) sharedTasks.size());
+    }
+    return stats;
+  }
+
   @Override
   public int activeSessionCount() {
     return authorizedKeys.keySet().size();
@@ -151,6 +276,12 @@ public abstract class AbstractNodeImageService implements NodeImageService {
     }
     nodeImageAuthorizor.authorize(authorization, authorizationDate);
     authorizedKeys.put(key, new CachedResult<String>(key, receiptMaxAgeSeconds, TimeUnit.SECONDS));
+    if (jobJournal != null) {
+      JobJournalEntry entry = new JobJournalEntry(JobJournalEntry.Type.Authorized, null);
+      entry.setKey(key);
+      entry.setExpires(entry.getDate() + TimeUnit.SECONDS.toMillis(receiptMaxAgeSeconds));
+      jobJournal.append(entry);
+    }
     return key;
   }
 
@@ -169,71 +300,247 @@ public abstract class AbstractNodeImageService implements NodeImageService {
     final String receiptId = UUID.randomUUID().toString();
     final String taskId = taskId(receiptId, key);
     final Path root = Files.createTempDirectory(stagingDir, "node-image-");
-    final Path imageDest = root.resolve(sourceImage.getId() + ".img");
     final String outputId = UUID.randomUUID().toString();
 
-    // copy input data on calling thread, so things like multipart temp files aren't deleted
+    // copy input data on calling thread, so things like multipart temp files aren't deleted and
+    // resources streamed from the request body are read while it is available
     final List<Path> resourceFiles = new ArrayList<>(8);
-    for (SolarNodeImageResource rsrc : resources) {
-      if (rsrc.getFilename() == null || rsrc.getFilename().isEmpty()) {
-        continue;
+    final Map<Path, String> resourceDigests = new HashMap<>(8);
+    try {
+      for (SolarNodeImageResource rsrc : resources) {
+        if (rsrc.getFilename() == null || rsrc.getFilename().isEmpty()) {
+          continue;
+        }
+        Path dest = root.resolve(rsrc.getFilename());
+        resourceFiles.add(dest);
+        log.info("Transferring resource {} to {}", rsrc.getFilename(), dest);
+        rsrc.transferTo(dest.toFile());
+        if (rsrc.getSha256() != null) {
+          resourceDigests.put(dest, rsrc.getSha256());
+        }
+      }
+    } catch (UncheckedIOException e) {
+      FileSystemUtils.deleteRecursively(root.toFile());
+      throw e.getCause();
+    } catch (IOException | RuntimeException e) {
+      FileSystemUtils.deleteRecursively(root.toFile());
+      throw e;
+    }
+
+    taskRequestCount.incrementAndGet();
+    JobJournalEntry submission = new JobJournalEntry(JobJournalEntry.Type.Submitted, taskId);
+    submission.setKey(key);
+    submission.setReceiptId(receiptId);
+    submission.setSourceImageId(sourceImage.getId());
+    submission.setOptions(options);
+    if (deduplicateTasks) {
+      submission.setFingerprint(fingerprint(sourceImage, resourceFiles, resourceDigests, options));
+    }
+    synchronized (sharedTasks) {
+      final SharedTask shared = (submission.getFingerprint() != null
+          ? sharedTasks.get(submission.getFingerprint())
+          : null);
+      if (shared != null) {
+        // an identical task is already queued, running or done, so share its work
+        (shared.result != null ? taskReusedCount : taskCoalescedCount).incrementAndGet();
+        log.info("Task {} for image {} is identical to task {}; sharing output {}", taskId,
+            sourceImage.getId(), shared.taskIds.iterator().next(), shared.outputId);
+        FileSystemUtils.deleteRecursively(root.toFile());
+        submission.setOutputId(shared.outputId);
+        if (jobJournal != null) {
+          jobJournal.append(submission);
+        }
+        return attachTask(submission, shared);
+      }
+
+      submission.setOutputId(outputId);
+      submission.setStagingPath(root.toString());
+      submission.setResources(resourceFiles.stream().map(f -> f.getFileName().toString())
+          .collect(Collectors.toList()));
+      if (jobJournal != null) {
+        jobJournal.append(submission);
+      }
+      try {
+        return submitTask(submission, sourceImage);
+      } catch (RuntimeException e) {
+        journal(JobJournalEntry.Type.Removed, taskId, null);
+        FileSystemUtils.deleteRecursively(root.toFile());
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * Compute a fingerprint that is the same for all tasks that would produce the same image.
+   * 
+   * <p>
+   * The fingerprint covers the source image, the name and content of every resource, and the
+   * options other than the priority, which does not affect the image produced. Resource digests
+   * already computed while transferring them are used instead of reading the resources again.
+   * </p>
+   */
+  private static String fingerprint(SolarNodeImage sourceImage, List<Path> resourceFiles,
+      Map<Path, String> resourceDigests, SolarNodeImageOptions options) throws IOException {
+    final MessageDigest digest = DigestUtils.getSha256Digest();
+    updateFingerprint(digest, sourceImage.getId());
+    updateFingerprint(digest, sourceImage.getUncompressedSha256());
+    List<Path> sortedFiles = new ArrayList<>(resourceFiles);
+    sortedFiles.sort((l, r) -> l.getFileName().toString().compareTo(r.getFileName().toString()));
+    for (Path file : sortedFiles) {
+      updateFingerprint(digest, file.getFileName().toString());
+      String sha256 = resourceDigests.get(file);
+      if (sha256 == null) {
+        try (InputStream in = Files.newInputStream(file)) {
+          sha256 = DigestUtils.sha256Hex(in);
+        }
+      }
+      updateFingerprint(digest, sha256);
+    }
+    @SuppressWarnings("unchecked")
+    Map<String, Object> canonicalOptions = FINGERPRINT_OBJECT_MAPPER.convertValue(
+        (options != null ? options : new SolarNodeImageOptions()), Map.class);
+    canonicalOptions.remove("priority");
+    digest.update(FINGERPRINT_OBJECT_MAPPER.writeValueAsBytes(canonicalOptions));
+    return Hex.encodeHexString(digest.digest());
+  }
+
+  private static void updateFingerprint(MessageDigest digest, String value) {
+    if (value != null) {
+      digest.update(value.getBytes(StandardCharsets.UTF_8));
+    }
+    digest.update((byte) 0);
+  }
+
+  private SolarNodeImageReceiptFuture attachTask(JobJournalEntry submission, SharedTask shared) {
+    synchronized (sharedTasks) {
+      SolarNodeImageReceiptFuture receipt = addReceipt(submission, shared);
+      if (shared.result != null && jobJournal != null) {
+        jobJournal.append(resultEntry(submission.getTaskId(), shared.result));
+      }
+      return receipt;
+    }
+  }
+
+  private SolarNodeImageReceiptFuture addReceipt(JobJournalEntry submission, SharedTask shared) {
+    final String taskId = submission.getTaskId();
+    final Future<SolarNodeImage> result = shared.future;
+    SolarNodeImageReceiptFuture receipt = new SolarNodeImageReceiptFuture(
+        submission.getReceiptId(), submission.getSourceImageId(), submission.getDate(), result,
+        shared.tracker) {
+
+      @Override
+      protected String getDownloadUrlInternal(SolarNodeImage image) {
+        return nodeImageRepository.getDownloadUrl(image);
+      }
+
+      @Override
+      protected int getQueuePositionInternal() {
+        return taskScheduler.getQueuePosition(result);
+      }
+
+    };
+    synchronized (sharedTasks) {
+      shared.taskIds.add(taskId);
+    }
+    taskShares.put(taskId, shared);
+    receipts.put(taskId, receipt);
+    return receipt;
+  }
+
+  private void finishTask(SharedTask shared, JobJournalEntry result) {
+    synchronized (sharedTasks) {
+      shared.result = result;
+      if (result.getType() != JobJournalEntry.Type.Completed && shared.fingerprint != null) {
+        // only share successful work
+        sharedTasks.remove(shared.fingerprint, shared);
+      }
+      if (jobJournal != null) {
+        for (String taskId : shared.taskIds) {
+          jobJournal.append(resultEntry(taskId, result));
+        }
+      }
+    }
+  }
+
+  private static JobJournalEntry resultEntry(String taskId, JobJournalEntry result) {
+    JobJournalEntry entry = new JobJournalEntry(result.getType(), taskId);
+    entry.setDate(result.getDate());
+    entry.setImage(result.getImage());
+    entry.setMessage(result.getMessage());
+    return entry;
+  }
+
+  private SolarNodeImageReceiptFuture submitTask(JobJournalEntry submission,
+      SolarNodeImage sourceImage) {
+    final String key = submission.getKey();
+    final String taskId = submission.getTaskId();
+    final Path root = Paths.get(submission.getStagingPath());
+    final Path imageDest = root.resolve(sourceImage.getId() + ".img");
+    final String outputId = submission.getOutputId();
+    final SolarNodeImageOptions options = submission.getOptions();
+    final List<Path> resourceFiles = new ArrayList<>(8);
+    if (submission.getResources() != null) {
+      for (String name : submission.getResources()) {
+        resourceFiles.add(root.resolve(name));
       }
-      Path dest = root.resolve(rsrc.getFilename());
-      resourceFiles.add(dest);
-      log.info("Transferring resource {} to {}", rsrc.getFilename(), dest);
-      rsrc.transferTo(dest.toFile());
     }
 
     // steps are: 1) uncompress image 2) customize image 3) compress image
     final TaskStepTracker tracker = new TaskStepTracker(
         2 + nodeImageRepository.getSaveTaskStepCount());
-    final MutableLong uncompressedLength = new MutableLong(0);
-    final MessageDigest uncompressedDigest = DigestUtils.getSha256Digest();
+    final SharedTask shared = new SharedTask(submission.getFingerprint(), outputId);
+    shared.tracker = tracker;
 
     Callable<SolarNodeImage> task = new Callable<SolarNodeImage>() {
 
+      // a base image leased from the cache, when customizing an overlay
+      private Path baseImage = null;
+
+      // the staging disk space reserved for this task
+      private long stagingReservation = 0;
+
       @Override
       public SolarNodeImage call() throws Exception {
         tracker.start();
-        tracker.setMessage("Uncompressing source image");
-        log.info("Decompressing image {} to {}", sourceImage.getId(), imageDest);
+        journal(JobJournalEntry.Type.Started, taskId, null);
         try {
-          FileCopyUtils.copy(
-              new MessageDigestInputStream(uncompressedDigest, uncompressedLength,
-                  new DecompressingSolarNodeImage(sourceImage).getInputStream()),
-              new TaskStepTrackerOutputStream(sourceImage.getUncompressedContentLength(), tracker,
-                  new BufferedOutputStream(new FileOutputStream(imageDest.toFile()))));
+          reserveStagingSpace();
+          tracker.setMessage("Uncompressing source image");
+          log.info("Decompressing image {} to {}", sourceImage.getId(), imageDest);
+          final Path imageFile = prepareImage();
           tracker.completeStep(); // step 1
 
-          // verify digest
-          final String decompressedImageDigest = new String(
-              Hex.encodeHex(uncompressedDigest.digest()));
-          if (!sourceImage.getUncompressedSha256().equalsIgnoreCase(decompressedImageDigest)) {
-            throw new RuntimeException("Image " + sourceImage.getId()
-                + " uncompressed SHA-256 digest " + decompressedImageDigest + " does not match "
-                + sourceImage.getUncompressedSha256());
-          }
-
           tracker.setMessage("Customizing image");
-          ImageSetupResult result = createImageInternal(key, sourceImage, imageDest, resourceFiles,
+          ImageSetupResult result = createImageInternal(key, sourceImage, imageFile, resourceFiles,
               options, tracker); // step 2
           tracker.completeStep();
 
           if (result.isSuccess() && result.getImageFile() != null) {
             // compress the image while copying into repo
             tracker.setMessage("Compressing customized image");
-            Resource imageResource = new FileSystemResource(result.getImageFile().toFile());
+            Resource imageResource = (baseImage != null && imageFile.equals(result.getImageFile())
+                ? new Qcow2Resource(imageFile, imageDest.getFileName().toString())
+                : new FileSystemResource(result.getImageFile().toFile()));
             ResourceSolarNodeImage image = new ResourceSolarNodeImage(
                 new BasicSolarNodeImageInfo(outputId, null, 0, null, imageResource.contentLength()),
                 imageResource);
             SolarNodeImage output = nodeImageRepository.save(image, tracker); // steps 3-N
             tracker.setMessage("Done");
+            JobJournalEntry completed = new JobJournalEntry(JobJournalEntry.Type.Completed,
+                taskId);
+            completed.setImage(new BasicSolarNodeImageInfo(output.getId(), output.getSha256(),
+                output.getContentLength(), output.getUncompressedSha256(),
+                output.getUncompressedContentLength()));
+            finishTask(shared, completed);
             return output;
           }
           throw new RuntimeException("Image " + key + " setup failed: " + result.getMessage());
         } catch (Throwable e) {
           log.error("Error processing image {}", outputId, e);
           tracker.setMessage(e.getClass().getSimpleName() + ": " + e.getMessage());
+          JobJournalEntry failed = new JobJournalEntry(JobJournalEntry.Type.Failed, taskId);
+          failed.setMessage(tracker.getMessage());
+          finishTask(shared, failed);
           try {
             nodeImageRepository.delete(outputId);
           } catch (Throwable t) {
@@ -243,8 +550,14 @@ public abstract class AbstractNodeImageService implements NodeImageService {
           throw e;
         } finally {
           // clean up
+          if (baseImage != null) {
+            baseImageCache.release(sourceImage.getUncompressedSha256());
+          }
           log.info("Deleting staging dir {}", root);
           FileSystemUtils.deleteRecursively(root.toFile());
+          if (stagingReservation > 0) {
+            stagingDiskBudget.release(stagingReservation);
+          }
           tracker.complete();
           ReadableDuration dur = new Duration(
               TimeUnit.MILLISECONDS.toSeconds(tracker.getStartedDate()) * 1000,
@@ -254,20 +567,84 @@ public abstract class AbstractNodeImageService implements NodeImageService {
               PeriodFormat.wordBased().print(dur.toPeriod()));
         }
       }
-    };
 
-    Future<SolarNodeImage> result = executorService.submit(task);
-    SolarNodeImageReceiptFuture receipt = new SolarNodeImageReceiptFuture(receiptId,
-        sourceImage.getId(), result, tracker) {
-
-      @Override
-      protected String getDownloadUrlInternal(SolarNodeImage image) {
-        return nodeImageRepository.getDownloadUrl(image);
+      private void reserveStagingSpace() throws IOException {
+        if (stagingDiskBudget == null) {
+          return;
+        }
+        long needed = sourceImage.getUncompressedContentLength();
+        for (Path rsrc : resourceFiles) {
+          needed += Files.size(rsrc);
+        }
+        stagingReservation = stagingDiskBudget.tryReserve(needed);
+        if (stagingReservation < 0) {
+          tracker.setMessage("Waiting for staging space");
+          log.info("Task {} waiting for {} bytes of staging space from {}", taskId, needed,
+              stagingDiskBudget);
+          try {
+            stagingReservation = stagingDiskBudget.reserve(needed);
+          } catch (InterruptedException e) {
+            stagingReservation = 0;
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for staging space");
+          }
+        }
       }
 
+      private Path prepareImage() throws IOException {
+        final String sha256 = sourceImage.getUncompressedSha256();
+        if (baseImageCache == null) {
+          decompressImage(sourceImage, imageDest, tracker);
+          return imageDest;
+        }
+        if (overlayImages) {
+          baseImage = baseImageCache.acquire(sha256);
+          if (baseImage == null) {
+            decompressImage(sourceImage, imageDest, tracker);
+            cacheImage(sourceImage, imageDest);
+            baseImage = baseImageCache.acquire(sha256);
+          }
+          if (baseImage != null) {
+            Path overlay = createOverlayImage(baseImage,
+                root.resolve(sourceImage.getId() + OVERLAY_IMAGE_EXTENSION), options);
+            if (overlay != null) {
+              log.info("Created overlay image {} backed by {}", overlay, baseImage);
+              Files.deleteIfExists(imageDest);
+              return overlay;
+            }
+            baseImageCache.release(sha256);
+            baseImage = null;
+          }
+        }
+        if (Files.exists(imageDest)) {
+          return imageDest;
+        }
+        if (baseImageCache.copyTo(sha256, imageDest)) {
+          log.info("Copied cached image {} to {}", sourceImage.getId(), imageDest);
+        } else {
+          decompressImage(sourceImage, imageDest, tracker);
+          cacheImage(sourceImage, imageDest);
+        }
+        return imageDest;
+      }
     };
-    receipts.put(taskId, receipt);
-    return receipt;
+
+    synchronized (sharedTasks) {
+      // register before submitting, so the task cannot finish before it is shared
+      if (shared.fingerprint != null) {
+        sharedTasks.put(shared.fingerprint, shared);
+      }
+      try {
+        shared.future = taskScheduler.submit(key,
+            (options != null ? options.getPriority() : null), task);
+      } catch (RuntimeException e) {
+        if (shared.fingerprint != null) {
+          sharedTasks.remove(shared.fingerprint, shared);
+        }
+        throw e;
+      }
+      return attachTask(submission, shared);
+    }
   }
 
   @Override
@@ -280,43 +657,427 @@ public abstract class AbstractNodeImageService implements NodeImageService {
     return receipts.get(taskId);
   }
 
+  @Override
+  public boolean isResourceStored(String key, String sha256) {
+    // validate key is authorized, as long as an Authorizor is configured
+    if (nodeImageAuthorizor != null && !authorizedKeys.containsKey(key)) {
+      throw new AuthorizationException("Key is not authorized");
+    }
+    return (resourceStore != null && resourceStore.contains(sha256));
+  }
+
+  @Override
+  public String storeResource(String key, String sha256, InputStream in) throws IOException {
+    // validate key is authorized, as long as an Authorizor is configured
+    if (key == null || (nodeImageAuthorizor != null && !authorizedKeys.containsKey(key))) {
+      throw new AuthorizationException("Key is not authorized");
+    }
+    if (resourceStore == null) {
+      throw new UnsupportedOperationException("Resource storage is not enabled.");
+    }
+    return resourceStore.put(in, sha256);
+  }
+
+  @Override
+  public SolarNodeImageResource storedResource(String sha256, String filename) {
+    if (resourceStore == null) {
+      throw new UnsupportedOperationException("Resource storage is not enabled.");
+    }
+    return new StoredResource(resourceStore, sha256, filename);
+  }
+
   /**
    * Remove expired receipts.
    * 
    * <p>
-   * This method is designed to be called periodically to remove expired receipts.
+   * This method is designed to be called periodically to remove expired receipts. If any receipts
+   * or authorized keys expired, the {@code jobJournal} is then compacted so it does not grow
+   * without bound.
    * </p>
    * 
    * @return the number of receipts removed
    */
   public int cleanExpiredReceipts() {
     int removed = 0;
-    for (Iterator<SolarNodeImageReceiptFuture> itr = receipts.values().iterator(); itr.hasNext();) {
-      SolarNodeImageReceiptFuture task = itr.next();
+    final Set<String> removedTaskIds = new HashSet<>();
+    for (Iterator<Map.Entry<String, SolarNodeImageReceiptFuture>> itr = receipts.entrySet()
+        .iterator(); itr.hasNext();) {
+      Map.Entry<String, SolarNodeImageReceiptFuture> me = itr.next();
+      SolarNodeImageReceiptFuture task = me.getValue();
       // TODO: maybe only remove done tasks, in case there is a backlog?
       if ((task.getCreatedDate() + (receiptMaxAgeSeconds * 1000)) < System.currentTimeMillis()) {
-        if (!task.isDone()) {
-          task.cancel(true);
+        // the task work is only discarded once no other receipts share it
+        boolean last = true;
+        SharedTask shared = taskShares.remove(me.getKey());
+        if (shared != null) {
+          synchronized (sharedTasks) {
+            shared.taskIds.remove(me.getKey());
+            last = shared.taskIds.isEmpty();
+            if (last && shared.fingerprint != null) {
+              sharedTasks.remove(shared.fingerprint, shared);
+            }
+          }
         }
-        SolarNodeImageInfo info = task.getImageInfo();
-        if (info != null) {
-          nodeImageRepository.delete(info.getId());
+        if (last) {
+          if (!task.isDone()) {
+            task.cancel(true);
+          }
+          SolarNodeImageInfo info = task.getImageInfo();
+          if (info != null) {
+            nodeImageRepository.delete(info.getId());
+          }
         }
         itr.remove();
+        journal(JobJournalEntry.Type.Removed, me.getKey(), null);
+        removedTaskIds.add(me.getKey());
         removed++;
       }
     }
 
     // also remove expired keys
+    boolean keysRemoved = false;
     for (Iterator<CachedResult<String>> itr = authorizedKeys.values().iterator(); itr.hasNext();) {
       CachedResult<String> key = itr.next();
       if (!key.isValid()) {
         itr.remove();
+        keysRemoved = true;
+      }
+    }
+
+    if (jobJournal != null && (removed > 0 || keysRemoved)) {
+      try {
+        jobJournal.compact(entries -> liveJournalEntries(entries, removedTaskIds));
+      } catch (IOException e) {
+        log.warn("Error compacting job journal: {}", e.getMessage());
       }
     }
     return removed;
   }
 
+  /**
+   * Get the journal entries still needed to restore jobs.
+   * 
+   * <p>
+   * The entries of removed tasks are dropped, including tasks whose {@code Removed} entry has not
+   * been written yet, along with expired keys and all but the latest state of each task.
+   * </p>
+   * 
+   * @param entries
+   *          all journal entries, in order
+   * @param removedTaskIds
+   *          the IDs of tasks just removed
+   * @return the entries to keep, in order
+   */
+  private static List<JobJournalEntry> liveJournalEntries(List<JobJournalEntry> entries,
+      Set<String> removedTaskIds) {
+    final long now = System.currentTimeMillis();
+    final Set<String> removed = new HashSet<>(removedTaskIds);
+    final Map<String, JobJournalEntry> keys = new HashMap<>();
+    final Map<String, JobJournalEntry> states = new HashMap<>();
+    for (JobJournalEntry entry : entries) {
+      if (entry.getType() == null) {
+        continue;
+      }
+      switch (entry.getType()) {
+        case Authorized:
+          keys.put(entry.getKey(), entry);
+          break;
+
+        case Submitted:
+          break;
+
+        case Removed:
+          removed.add(entry.getTaskId());
+          break;
+
+        default:
+          states.put(entry.getTaskId(), entry);
+      }
+    }
+
+    final List<JobJournalEntry> live = new ArrayList<>(entries.size());
+    for (JobJournalEntry entry : entries) {
+      if (entry.getType() == null || entry.getType() == JobJournalEntry.Type.Removed) {
+        continue;
+      }
+      if (entry.getType() == JobJournalEntry.Type.Authorized) {
+        if (keys.get(entry.getKey()) == entry && entry.getExpires() != null
+            && entry.getExpires() > now) {
+          live.add(entry);
+        }
+      } else if (!removed.contains(entry.getTaskId())
+          && (entry.getType() == JobJournalEntry.Type.Submitted
+              || states.get(entry.getTaskId()) == entry)) {
+        live.add(entry);
+      }
+    }
+    return live;
+  }
+
+  /**
+   * Restore authorized keys, receipts and tasks from the configured {@code jobJournal}.
+   * 
+   * <p>
+   * This method is designed to be called once at startup, before any images are created. Tasks that
+   * completed or failed have their receipts restored. Tasks that were queued or running are
+   * submitted again, as long as their staging directory and resources still exist and their source
+   * image can be found in the {@code sourceImageRepository}; otherwise they are failed. Expired
+   * tasks are discarded, and the journal is then compacted to just the restored entries.
+   * </p>
+   * 
+   * @return the number of receipts restored
+   * @throws IOException
+   *           if any IO error occurs reading the journal
+   * @since 1.1
+   */
+  public int restoreJobs() throws IOException {
+    if (jobJournal == null) {
+      return 0;
+    }
+    final long now = System.currentTimeMillis();
+    final Map<String, JobJournalEntry> keys = new LinkedHashMap<>();
+    final Map<String, JobJournalEntry> submissions = new LinkedHashMap<>();
+    final Map<String, JobJournalEntry> states = new HashMap<>();
+    for (JobJournalEntry entry : jobJournal.replay()) {
+      if (entry.getType() == null) {
+        continue;
+      }
+      switch (entry.getType()) {
+        case Authorized:
+          keys.put(entry.getKey(), entry);
+          break;
+
+        case Submitted:
+          submissions.put(entry.getTaskId(), entry);
+          break;
+
+        case Removed:
+          submissions.remove(entry.getTaskId());
+          states.remove(entry.getTaskId());
+          break;
+
+        default:
+          states.put(entry.getTaskId(), entry);
+      }
+    }
+
+    final List<JobJournalEntry> live = new ArrayList<>();
+    for (JobJournalEntry entry : keys.values()) {
+      if (entry.getExpires() != null && entry.getExpires() > now) {
+        authorizedKeys.put(entry.getKey(), new CachedResult<String>(entry.getKey(),
+            entry.getExpires() - now, TimeUnit.MILLISECONDS));
+        live.add(entry);
+      }
+    }
+
+    // outputs can be shared by many tasks, so only delete those no unexpired task uses
+    final long expired = now - TimeUnit.SECONDS.toMillis(receiptMaxAgeSeconds);
+    final Set<String> liveOutputs = submissions.values().stream()
+        .filter(e -> e.getDate() >= expired).map(JobJournalEntry::getOutputId)
+        .collect(Collectors.toSet());
+
+    final Map<JobJournalEntry, SolarNodeImage> resume = new LinkedHashMap<>();
+    final List<JobJournalEntry> attach = new ArrayList<>();
+    for (JobJournalEntry submission : submissions.values()) {
+      final Path root = (submission.getStagingPath() != null
+          ? Paths.get(submission.getStagingPath())
+          : null);
+      JobJournalEntry state = states.get(submission.getTaskId());
+      if (submission.getDate() < expired) {
+        if (state != null && state.getImage() != null
+            && !liveOutputs.contains(state.getImage().getId())) {
+          nodeImageRepository.delete(state.getImage().getId());
+        }
+        if (root != null) {
+          FileSystemUtils.deleteRecursively(root.toFile());
+        }
+        continue;
+      }
+      if (state == null || state.getType() == JobJournalEntry.Type.Started) {
+        if (root == null) {
+          // shares the work of another task, which must be resumed first
+          attach.add(submission);
+          live.add(submission);
+          continue;
+        }
+        SolarNodeImage sourceImage = resumableSourceImage(submission);
+        if (sourceImage != null) {
+          // discard any partial work, so the task starts over
+          Files.deleteIfExists(root.resolve(sourceImage.getId() + ".img"));
+          Files.deleteIfExists(root.resolve(sourceImage.getId() + OVERLAY_IMAGE_EXTENSION));
+          resume.put(submission, sourceImage);
+          live.add(submission);
+          continue;
+        }
+        state = new JobJournalEntry(JobJournalEntry.Type.Failed, submission.getTaskId());
+        state.setMessage("Task interrupted by restart");
+        FileSystemUtils.deleteRecursively(root.toFile());
+      }
+      restoreReceipt(submission, state);
+      live.add(submission);
+      live.add(state);
+    }
+
+    // compact before resuming tasks, so their new entries follow the restored ones
+    jobJournal.compact(live);
+    for (Map.Entry<JobJournalEntry, SolarNodeImage> me : resume.entrySet()) {
+      log.info("Resuming task {} for image {}", me.getKey().getTaskId(), me.getValue().getId());
+      submitTask(me.getKey(), me.getValue());
+    }
+    for (JobJournalEntry submission : attach) {
+      synchronized (sharedTasks) {
+        SharedTask shared = (submission.getFingerprint() != null
+            ? sharedTasks.get(submission.getFingerprint())
+            : null);
+        if (shared != null) {
+          attachTask(submission, shared);
+          continue;
+        }
+      }
+      JobJournalEntry failed = new JobJournalEntry(JobJournalEntry.Type.Failed,
+          submission.getTaskId());
+      failed.setMessage("Task interrupted by restart");
+      restoreReceipt(submission, failed);
+      jobJournal.append(failed);
+    }
+    log.info("Restored {} receipts from journal, {} tasks resumed", submissions.size(),
+        resume.size());
+    return receipts.size();
+  }
+
+  private SolarNodeImage resumableSourceImage(JobJournalEntry submission) {
+    final Path root = Paths.get(submission.getStagingPath());
+    if (sourceImageRepository == null || !Files.isDirectory(root)) {
+      return null;
+    }
+    if (submission.getResources() != null) {
+      for (String name : submission.getResources()) {
+        if (!Files.isReadable(root.resolve(name))) {
+          return null;
+        }
+      }
+    }
+    try {
+      return sourceImageRepository.findOne(submission.getSourceImageId());
+    } catch (RuntimeException e) {
+      log.warn("Error finding source image {} to resume task {}: {}",
+          submission.getSourceImageId(), submission.getTaskId(), e.getMessage());
+      return null;
+    }
+  }
+
+  private void restoreReceipt(JobJournalEntry submission, JobJournalEntry state) {
+    final TaskStepTracker tracker = new TaskStepTracker(1);
+    tracker.start(submission.getDate());
+    tracker.completeStep();
+    tracker.complete(state.getDate());
+    final Callable<SolarNodeImage> result;
+    if (state.getType() == JobJournalEntry.Type.Completed && state.getImage() != null) {
+      tracker.setMessage("Done");
+      final String outputId = state.getImage().getId();
+      result = () -> nodeImageRepository.findOne(outputId);
+    } else {
+      tracker.setMessage(state.getMessage());
+      result = () -> {
+        throw new RuntimeException(state.getMessage());
+      };
+    }
+    synchronized (sharedTasks) {
+      // share completed work again, so identical new tasks can reuse it
+      final String fingerprint = (state.getType() == JobJournalEntry.Type.Completed
+          ? submission.getFingerprint()
+          : null);
+      SharedTask shared = (fingerprint != null ? sharedTasks.get(fingerprint) : null);
+      if (shared == null || !shared.outputId.equals(submission.getOutputId())) {
+        shared = new SharedTask(fingerprint, submission.getOutputId());
+        shared.future = new CompletedFuture<>(result);
+        shared.tracker = tracker;
+        shared.result = state;
+        if (fingerprint != null) {
+          sharedTasks.putIfAbsent(fingerprint, shared);
+        }
+      }
+      addReceipt(submission, shared);
+    }
+  }
+
+  /**
+   * A completed task whose result is computed lazily, on first access.
+   */
+  private static final class CompletedFuture<V> extends FutureTask<V> {
+
+    private CompletedFuture(Callable<V> callable) {
+      super(callable);
+    }
+
+    @Override
+    public boolean isDone() {
+      return true;
+    }
+
+    @Override
+    public V get() throws InterruptedException, ExecutionException {
+      run();
+      return super.get();
+    }
+
+    @Override
+    public V get(long timeout, TimeUnit unit)
+        throws InterruptedException, ExecutionException, TimeoutException {
+      run();
+      return super.get(timeout, unit);
+    }
+
+  }
+
+  private void journal(JobJournalEntry.Type type, String taskId, String message) {
+    if (jobJournal == null) {
+      return;
+    }
+    JobJournalEntry entry = new JobJournalEntry(type, taskId);
+    entry.setMessage(message);
+    jobJournal.append(entry);
+  }
+
+  private void cacheImage(SolarNodeImage sourceImage, Path imageFile) {
+    try {
+      baseImageCache.put(sourceImage.getUncompressedSha256(), imageFile);
+    } catch (IOException e) {
+      log.warn("Error caching image {}: {}", sourceImage.getId(), e.getMessage());
+    }
+  }
+
+  private void decompressImage(SolarNodeImage sourceImage, Path imageDest, TaskStepTracker tracker)
+      throws IOException {
+    final MutableLong uncompressedLength = new MutableLong(0);
+    final MessageDigest uncompressedDigest = DigestUtils.getSha256Digest();
+
+    // decompress on this thread while digesting and writing on others; write as a sparse file as
+    // images are mostly empty space
+    try (InputStream in = new DecompressingSolarNodeImage(sourceImage).getInputStream();
+        SparseFileOutputStream out = new SparseFileOutputStream(imageDest.toFile())) {
+      new StreamPipeline(pipelineExecutorService).copy(in,
+          StreamPipeline.digestStage(uncompressedDigest, uncompressedLength),
+          StreamPipeline.outputStage(new TaskStepTrackerOutputStream(
+              sourceImage.getUncompressedContentLength(), tracker, out)));
+      log.info("Decompressed image {} to {} with {} sparse bytes", sourceImage.getId(), imageDest,
+          out.getSparseLength());
+    }
+
+    // verify digest
+    final String decompressedImageDigest = new String(Hex.encodeHex(uncompressedDigest.digest()));
+    if (!sourceImage.getUncompressedSha256().equalsIgnoreCase(decompressedImageDigest)) {
+      throw new RuntimeException("Image " + sourceImage.getId() + " uncompressed SHA-256 digest "
+          + decompressedImageDigest + " does not match " + sourceImage.getUncompressedSha256());
+    }
+  }
+
+  private static ExecutorService defaultPipelineExecutorService() {
+    CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("image-pipeline-");
+    threadFactory.setDaemon(true);
+    return Executors.newCachedThreadPool(threadFactory);
+  }
+
   private String taskId(String receiptId, String key) {
     return DigestUtils.sha256Hex(receiptId + key);
   }
@@ -325,7 +1086,7 @@ public abstract class AbstractNodeImageService implements NodeImageService {
    * Create the final node image.
    * 
    * <p>
-   * This method will be called from a task submitted to the configured {@code executorService}. The
+   * This method will be called from a task submitted to the configured {@code taskScheduler}. The
    * uncompressed base image and all resources will have been copied to a staging directory.
    * </p>
    * 
@@ -350,6 +1111,33 @@ public abstract class AbstractNodeImageService implements NodeImageService {
       Path imageFile, List<Path> resources, SolarNodeImageOptions options, TaskStepTracker tracker)
       throws IOException;
 
+  /**
+   * Create a copy-on-write overlay image backed by a read-only base image.
+   * 
+   * <p>
+   * This method is called when {@code overlayImages} is enabled, to create the image that will be
+   * passed to {@link #createImageInternal(String, SolarNodeImageInfo, Path, List,
+   * SolarNodeImageOptions, TaskStepTracker)}. The overlay must be a {@literal qcow2} image with
+   * {@code baseImage} as its raw backing file. This implementation returns {@literal null}.
+   * </p>
+   * 
+   * @param baseImage
+   *          the uncompressed base image, which must not be modified
+   * @param overlayImage
+   *          the overlay image file to create
+   * @param options
+   *          the options to use when customizing the image
+   * @return the created overlay image, or {@literal null} if an overlay cannot be used and a full
+   *         copy of the base image should be used instead
+   * @throws IOException
+   *           if any IO error occurs
+   * @since 1.1
+   */
+  protected Path createOverlayImage(Path baseImage, Path overlayImage,
+      SolarNodeImageOptions options) throws IOException {
+    return null;
+  }
+
   /**
    * Set the "staging" directory where all work is performed.
    * 
@@ -366,13 +1154,97 @@ public abstract class AbstractNodeImageService implements NodeImageService {
   }
 
   /**
-   * Set a executor service to handle work tasks with.
+   * Set a budget of staging directory disk space for tasks to reserve from.
+   * 
+   * <p>
+   * When configured, each task reserves enough space for its uncompressed image and resources
+   * before it starts, and waits if not enough space is available, rather than running out of space
+   * part way through.
+   * </p>
+   * 
+   * @param stagingDiskBudget
+   *          the budget to use, in bytes, or {@literal null} for no limit; defaults to
+   *          {@literal null}
+   * @since 1.1
+   */
+  public void setStagingDiskBudget(ResourceBudget stagingDiskBudget) {
+    this.stagingDiskBudget = stagingDiskBudget;
+  }
+
+  /**
+   * Set a journal to record tasks in, so they can be restored after a restart.
+   * 
+   * @param jobJournal
+   *          the journal to use, or {@literal null} to not record tasks; defaults to
+   *          {@literal null}
+   * @see #restoreJobs()
+   * @since 1.1
+   */
+  public void setJobJournal(JobJournal jobJournal) {
+    this.jobJournal = jobJournal;
+  }
+
+  /**
+   * Set the repository to find source images in when resuming tasks from the {@code jobJournal}.
+   * 
+   * @param sourceImageRepository
+   *          the repository to use, or {@literal null} to fail interrupted tasks instead of
+   *          resuming them; defaults to {@literal null}
+   * @since 1.1
+   */
+  public void setSourceImageRepository(NodeImageRepository sourceImageRepository) {
+    this.sourceImageRepository = sourceImageRepository;
+  }
+
+  /**
+   * Toggle sharing the work of identical tasks.
+   * 
+   * <p>
+   * When enabled, tasks with the same source image, resource names and content, and options (other
+   * than priority) share a single image. A task identical to one that is queued or running waits on
+   * that task, and a task identical to one that has completed and not yet expired is done
+   * immediately. The shared image is kept until the receipts of all the tasks sharing it expire.
+   * </p>
+   * 
+   * @param deduplicateTasks
+   *          {@literal true} to share the work of identical tasks; defaults to {@literal true}
+   * @since 1.1
+   */
+  public void setDeduplicateTasks(boolean deduplicateTasks) {
+    this.deduplicateTasks = deduplicateTasks;
+  }
+
+  /**
+   * Set the scheduler to run work tasks with.
+   * 
+   * <p>
+   * Tasks are scheduled using the key passed to
+   * {@link #createImage(String, SolarNodeImage, Iterable, SolarNodeImageOptions)} and the
+   * {@link SolarNodeImageOptions#getPriority()} value.
+   * </p>
+   * 
+   * @param taskScheduler
+   *          the scheduler to use; defaults to a scheduler that runs one task at a time
+   * @since 1.1
+   */
+  public void setTaskScheduler(FairTaskScheduler taskScheduler) {
+    this.taskScheduler = taskScheduler;
+  }
+
+  /**
+   * Set an executor service to run the image decompression pipeline stages with.
+   * 
+   * <p>
+   * Each image decompression runs its digest and write stages on separate threads from this
+   * service, so it must be able to run two tasks for every concurrently running work task.
+   * </p>
    * 
-   * @param executorService
-   *          the service to set; defaults to a single thread implementation
+   * @param pipelineExecutorService
+   *          the service to set; defaults to a cached thread pool
+   * @since 1.1
    */
-  public void setExecutorService(ExecutorService executorService) {
-    this.executorService = executorService;
+  public void setPipelineExecutorService(ExecutorService pipelineExecutorService) {
+    this.pipelineExecutorService = pipelineExecutorService;
   }
 
   /**
@@ -405,4 +1277,57 @@ public abstract class AbstractNodeImageService implements NodeImageService {
     this.nodeImageAuthorizor = nodeImageAuthorizor;
   }
 
+  /**
+   * Set a cache of uncompressed base images.
+   * 
+   * <p>
+   * If configured, base images are copied from this cache instead of being decompressed when
+   * possible, and newly decompressed base images are added to the cache.
+   * </p>
+   * 
+   * @param baseImageCache
+   *          the cache to use, or {@literal null} to always decompress base images
+   * @since 1.1
+   */
+  public void setBaseImageCache(BaseImageCache baseImageCache) {
+    this.baseImageCache = baseImageCache;
+  }
+
+  /**
+   * Toggle customizing thin overlay images instead of full copies of base images.
+   * 
+   * <p>
+   * When enabled and a {@code baseImageCache} is configured, each task customizes a copy-on-write
+   * overlay backed by the shared, read-only image in the cache, so only the changed data is written
+   * to the staging directory. The merged image is read back from the overlay when saving. Requires
+   * an implementation that supports
+   * {@link #createOverlayImage(Path, Path, SolarNodeImageOptions)}.
+   * </p>
+   * 
+   * @param overlayImages
+   *          {@literal true} to customize overlay images; defaults to {@literal false}
+   * @since 1.1
+   */
+  public void setOverlayImages(boolean overlayImages) {
+    this.overlayImages = overlayImages;
+  }
+
+  /**
+   * Set a store of resources that tasks can refer to by digest.
+   * 
+   * <p>
+   * If configured, resources can be stored once with
+   * {@link #storeResource(String, String, InputStream)} and then used by any number of tasks via
+   * {@link #storedResource(String, String)}, which copies them into the task staging directory
+   * without reading them.
+   * </p>
+   * 
+   * @param resourceStore
+   *          the store to use, or {@literal null} to not support stored resources
+   * @since 1.1
+   */
+  public void setResourceStore(ResourceStore resourceStore) {
+    this.resourceStore = resourceStore;
+  }
+
 }
@@ -0,0 +1,263 @@
+/* ==================================================================
+ * FileSystemBaseImageCache.java - 18/10/2026 4:12:33 PM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.nim.service.impl;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.solarnetwork.nim.service.BaseImageCache;
+import net.solarnetwork.nim.util.FileCloner;
+
+/**
+ * {@link BaseImageCache} implementation using files.
+ * 
+ * <p>
+ * Each image is stored as a file named after its digest. Images are copied in and out of the
+ * cache with a {@link FileCloner}, so when the cache directory and the destination are on the same
+ * reflink-capable filesystem copies are practically free. Once the total size of the cached files
+ * exceeds {@code maximumSize} the least recently used images are removed, skipping any images that
+ * are currently acquired.
+ * </p>
+ * 
+ * <p>
+ * Images are copied into the cache as temporary files, which are moved into place once complete.
+ * Only one copy of each image is made at a time, and temporary files left behind by a restart are
+ * deleted when the cache is created.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class FileSystemBaseImageCache implements BaseImageCache {
+
+  /** The default maximum size: 16 GB. */
+  public static final long DEFAULT_MAXIMUM_SIZE = 16L * 1024 * 1024 * 1024;
+
+  private static final String FILE_EXTENSION = ".img";
+
+  private static final Pattern SHA256_HEX = Pattern.compile("[0-9a-f]{64}");
+
+  private final Path cacheDirectory;
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private final ConcurrentMap<Path, Integer> leases = new ConcurrentHashMap<>(8);
+  private final ConcurrentMap<Path, Boolean> puts = new ConcurrentHashMap<>(8);
+  private FileCloner fileCloner = new FileCloner();
+  private long maximumSize = DEFAULT_MAXIMUM_SIZE;
+
+  private final Logger log = LoggerFactory.getLogger(getClass());
+
+  /**
+   * Constructor.
+   * 
+   * @param cacheDirectory
+   *          the directory to store cached images in
+   */
+  public FileSystemBaseImageCache(Path cacheDirectory) {
+    super();
+    this.cacheDirectory = cacheDirectory;
+    try {
+      deleteTemporaryFiles();
+    } catch (IOException e) {
+      log.error("Error reading cache directory {}: {}", cacheDirectory, e.getMessage());
+    }
+  }
+
+  private void deleteTemporaryFiles() throws IOException {
+    if (!Files.isDirectory(cacheDirectory)) {
+      return;
+    }
+    try (DirectoryStream<Path> ds = Files.newDirectoryStream(cacheDirectory, ".*")) {
+      for (Path p : ds) {
+        log.info("Deleting abandoned cache file {}", p);
+        Files.deleteIfExists(p);
+      }
+    }
+  }
+
+  private Path cacheFile(String sha256) {
+    String key = (sha256 != null ? sha256.toLowerCase() : null);
+    if (key == null || !SHA256_HEX.matcher(key).matches()) {
+      throw new IllegalArgumentException("Invalid SHA-256 digest [" + sha256 + "]");
+    }
+    return cacheDirectory.resolve(key + FILE_EXTENSION);
+  }
+
+  @Override
+  public boolean copyTo(String sha256, Path dest) throws IOException {
+    Path cacheFile = cacheFile(sha256);
+    lock.readLock().lock();
+    try {
+      if (!Files.isReadable(cacheFile)) {
+        return false;
+      }
+      log.info("Copying cached image {} to {}", cacheFile, dest);
+      fileCloner.cloneFile(cacheFile, dest);
+      // track use for eviction
+      Files.setLastModifiedTime(cacheFile, FileTime.fromMillis(System.currentTimeMillis()));
+      return true;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public Path acquire(String sha256) throws IOException {
+    Path cacheFile = cacheFile(sha256);
+    lock.readLock().lock();
+    try {
+      if (!Files.isReadable(cacheFile)) {
+        return null;
+      }
+      leases.merge(cacheFile, 1, Integer::sum);
+      Files.setLastModifiedTime(cacheFile, FileTime.fromMillis(System.currentTimeMillis()));
+      return cacheFile;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public void release(String sha256) {
+    leases.computeIfPresent(cacheFile(sha256), (k, v) -> (v > 1 ? v - 1 : null));
+  }
+
+  @Override
+  public void put(String sha256, Path source) throws IOException {
+    Path cacheFile = cacheFile(sha256);
+    if (Files.exists(cacheFile)) {
+      return;
+    }
+    if (maximumSize > 0 && Files.size(source) > maximumSize) {
+      log.info("Not caching image {} because it is larger than the cache", source);
+      return;
+    }
+    if (puts.putIfAbsent(cacheFile, Boolean.TRUE) != null) {
+      log.debug("Image {} is already being cached", cacheFile);
+      return;
+    }
+    Path tmpFile = null;
+    try {
+      // check again, as another put may have completed since checking
+      if (Files.exists(cacheFile)) {
+        return;
+      }
+      tmpFile = Files.createTempFile(cacheDirectory, "." + cacheFile.getFileName() + "-", "");
+      log.info("Caching image {} as {}", source, cacheFile);
+      fileCloner.cloneFile(source, tmpFile);
+      lock.writeLock().lock();
+      try {
+        Files.move(tmpFile, cacheFile, StandardCopyOption.ATOMIC_MOVE,
+            StandardCopyOption.REPLACE_EXISTING);
+        evict(cacheFile);
+      } finally {
+        lock.writeLock().unlock();
+      }
+    } finally {
+      puts.remove(cacheFile);
+      if (tmpFile != null) {
+        Files.deleteIfExists(tmpFile);
+      }
+    }
+  }
+
+  private void evict(Path keep) throws IOException {
+    if (maximumSize < 1) {
+      return;
+    }
+    List<Path> files = new ArrayList<>(8);
+    long total = 0;
+    try (DirectoryStream<Path> ds = Files.newDirectoryStream(cacheDirectory,
+        "*" + FILE_EXTENSION)) {
+      for (Path p : ds) {
+        if (!p.getFileName().toString().startsWith(".")) {
+          files.add(p);
+          total += Files.size(p);
+        }
+      }
+    }
+    if (total <= maximumSize) {
+      return;
+    }
+    files.sort(Comparator.comparing(p -> {
+      try {
+        return Files.getLastModifiedTime(p);
+      } catch (IOException e) {
+        return FileTime.fromMillis(0);
+      }
+    }));
+    for (Path p : files) {
+      if (total <= maximumSize) {
+        break;
+      }
+      if (p.equals(keep) || leases.containsKey(p)) {
+        continue;
+      }
+      long size = Files.size(p);
+      log.info("Evicting cached image {} to keep cache under {} bytes", p, maximumSize);
+      Files.deleteIfExists(p);
+      total -= size;
+    }
+  }
+
+  /**
+   * Set the file cloner to use.
+   * 
+   * @param fileCloner
+   *          the cloner to use
+   */
+  public void setFileCloner(FileCloner fileCloner) {
+    this.fileCloner = fileCloner;
+  }
+
+  /**
+   * Set the maximum total size of all cached images.
+   * 
+   * <p>
+   * The size is measured by the logical length of the image files, regardless of how much disk
+   * space they actually use.
+   * </p>
+   * 
+   * @param maximumSize
+   *          the maximum size, in bytes, or {@literal 0} for no limit; defaults to
+   *          {@link #DEFAULT_MAXIMUM_SIZE}
+   */
+  public void setMaximumSize(long maximumSize) {
+    this.maximumSize = maximumSize;
+  }
+
+}
@@ -23,65 +23,965 @@
 package net.solarnetwork.nim.service.impl;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Supplier;
 
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
 import net.solarnetwork.nim.service.DataStreamCache;
-import net.solarnetwork.nim.util.CachingFileInputStream;
+import net.solarnetwork.nim.service.RangedDataSupplier;
 
 /**
  * {@link DataStreamCache} implementation using files.
  * 
+ * <p>
+ * A cache miss starts a <i>fill</i> of the cache file on a background thread. The stream returned
+ * to the caller, and to any other callers asking for the same key while the fill is in progress,
+ * reads the file as it is filled, waiting for more data as needed. Once the fill completes the file
+ * is moved into the cache and the fill is forgotten. If every stream reading a fill is closed
+ * before the fill completes, the fill is cancelled. If a fill fails, all streams reading it throw
+ * an exception and the next request for the key starts a new fill.
+ * </p>
+ * 
+ * <p>
+ * When filling the cache from a {@link RangedDataSupplier}, the data is read as several ranges at
+ * once into a partial file of the full length, preferring the ranges nearest the start so readers
+ * can make progress. Each range is recorded in a progress file once it has been written to disk,
+ * so if filling the cache is interrupted, a later request for the same key reads only the ranges
+ * not already recorded. Once all ranges are read, the partial file is verified against the SHA-256
+ * digest of the supplier (if available) before it is moved into the cache.
+ * </p>
+ * 
+ * <p>
+ * Once the total size of the cached files exceeds {@code maximumSize}, files are evicted using the
+ * <i>Greedy-Dual-Size-Frequency</i> policy. Each file has a priority of
+ * {@code L + frequency * cost / size}, where {@code L} is the priority of the last file evicted,
+ * {@code frequency} is the number of times the file has been requested, and {@code cost} is the
+ * file size plus {@code fetchOverhead}, an estimate of the fixed cost of fetching any file
+ * expressed in bytes. The file with the lowest priority is evicted first, so files requested often
+ * are kept, smaller files are favored a little, and files not requested for a while age out as
+ * {@code L} rises. Files with open streams are never evicted. The index of cached files is rebuilt
+ * from the cache directory when the cache is created, using file modification times (which are
+ * updated on every request) to order files of equal priority.
+ * </p>
+ * 
  * @author matt
- * @version 1.0
+ * @version 1.1
  */
 public class FileSystemDataStreamCache implements DataStreamCache {
 
-  private static final ConcurrentMap<String, Lock> LOCKS = new ConcurrentHashMap<>(8);
+  /** The default size of each range to read when filling the cache. */
+  public static final int DEFAULT_RANGE_SIZE = 8 * 1024 * 1024;
+
+  private static final String PARTIAL_FILE_SUFFIX = ".part";
+  private static final String PROGRESS_FILE_SUFFIX = ".ranges";
+
+  /** The default maximum size: 16 GB. */
+  public static final long DEFAULT_MAXIMUM_SIZE = 16L * 1024 * 1024 * 1024;
+
+  /** The default fetch overhead: 8 MB. */
+  public static final long DEFAULT_FETCH_OVERHEAD = 8L * 1024 * 1024;
+
+  private static final Comparator<Entry> EVICTION_ORDER = Comparator
+      .comparingDouble((Entry e) -> e.priority).thenComparingLong(e -> e.lastUsed);
 
   private final Path cacheDirectory;
+  private final ConcurrentMap<String, Fill> fills = new ConcurrentHashMap<>(8);
+
+  // the index of cached files; all access guarded by entries
+  private final Map<String, Entry> entries = new HashMap<>(8);
+  private long totalSize = 0;
+  private double inflation = 0;
+  private long maximumSize = DEFAULT_MAXIMUM_SIZE;
+  private long fetchOverhead = DEFAULT_FETCH_OVERHEAD;
+
+  private final AtomicLong hitCount = new AtomicLong(0);
+  private final AtomicLong missCount = new AtomicLong(0);
+  private final AtomicLong evictionCount = new AtomicLong(0);
+  private final AtomicLong savedBytes = new AtomicLong(0);
+
+  private ExecutorService fillExecutorService = defaultFillExecutorService();
+  private int rangeSize = DEFAULT_RANGE_SIZE;
+  private int rangeConcurrency = 4;
+  private int rangeMaximumRetries = 3;
+  private long rangeRetryDelay = 1000;
+
+  private final Logger log = LoggerFactory.getLogger(getClass());
+
+  /**
+   * An indexed cache file.
+   */
+  private static final class Entry {
+
+    private final String key;
+    private final long size;
+    private int frequency;
+    private double priority;
+    private long lastUsed;
+    private int readers;
+
+    private Entry(String key, long size, long lastUsed) {
+      super();
+      this.key = key;
+      this.size = size;
+      this.lastUsed = lastUsed;
+    }
+
+  }
+
+  /**
+   * The state of filling one cache file, shared by all streams reading it.
+   */
+  private final class Fill {
+
+    private final String key;
+    private final Path file;
+    private final Path cacheFile;
+    private long available;
+    private boolean complete;
+    private IOException error;
+    private int readers;
+    private int joins;
+    private boolean cancelled;
+    private Future<?> task;
+    private InputStream source;
+
+    private Fill(String key, Path file, long available) {
+      super();
+      this.key = key;
+      this.file = file;
+      this.cacheFile = cacheDirectory.resolve(key);
+      this.available = available;
+    }
+
+    private synchronized void advance(long available) {
+      if (available > this.available) {
+        this.available = available;
+        notifyAll();
+      }
+    }
+
+    private synchronized void succeed() throws IOException {
+      if (cancelled) {
+        // the source may have ended early because it was closed
+        throw new IOException("Cache fill " + key + " cancelled");
+      }
+      // move while locked, so new readers open either the fill file or the cache file
+      Files.move(file, cacheFile, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+      // hand the open streams over to the index, so the file is not evicted while being read
+      addEntry(key, Files.size(cacheFile), readers, joins);
+      fills.remove(key, this);
+      complete = true;
+      notifyAll();
+    }
+
+    private synchronized void fail(Exception e) {
+      fills.remove(key, this);
+      if (!complete) {
+        error = (e instanceof IOException ? (IOException) e
+            : new IOException("Error filling cache " + key + ": " + e.getMessage(), e));
+        complete = true;
+        notifyAll();
+      }
+    }
+
+    private synchronized boolean isCancelled() {
+      return cancelled;
+    }
+
+    private synchronized void start(Future<?> task) {
+      this.task = task;
+    }
+
+    private synchronized InputStream source(InputStream source) throws IOException {
+      if (cancelled) {
+        source.close();
+        throw new IOException("Cache fill " + key + " cancelled");
+      }
+      this.source = source;
+      return source;
+    }
+
+    private synchronized InputStream newInputStream() throws IOException {
+      if (cancelled) {
+        return null;
+      }
+      if (error != null) {
+        throw new IOException(error.getMessage(), error);
+      }
+      if (complete && !acquireEntry(key)) {
+        // evicted already
+        return null;
+      }
+      FileChannel channel;
+      try {
+        channel = FileChannel.open((complete ? cacheFile : file), StandardOpenOption.READ);
+      } catch (IOException e) {
+        if (complete) {
+          releaseEntry(key);
+        }
+        throw e;
+      }
+      readers++;
+      return new BufferedInputStream(new FillInputStream(this, channel));
+    }
+
+    private synchronized long awaitAvailable(long position) throws IOException {
+      while (position >= available && !complete) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          throw new InterruptedIOException("Interrupted waiting for cache fill " + key);
+        }
+      }
+      if (error != null) {
+        throw new IOException(error.getMessage(), error);
+      }
+      return (position < available ? available : -1);
+    }
+
+    private void release() {
+      final Future<?> t;
+      final InputStream s;
+      synchronized (this) {
+        readers--;
+        if (complete) {
+          if (error == null) {
+            releaseEntry(key);
+          }
+          return;
+        }
+        if (readers > 0) {
+          return;
+        }
+        // no one is reading, so stop filling
+        cancelled = true;
+        fills.remove(key, this);
+        t = task;
+        s = source;
+      }
+      log.info("Cancelling abandoned cache fill {}", key);
+      if (t != null) {
+        t.cancel(true);
+      }
+      if (s != null) {
+        try {
+          s.close();
+        } catch (IOException e) {
+          // ignore
+        }
+      }
+    }
+
+  }
+
+  /**
+   * A stream reading a file as it is filled.
+   */
+  private static final class FillInputStream extends InputStream {
 
+    private final Fill fill;
+    private final FileChannel channel;
+    private long position = 0;
+    private boolean closed = false;
+
+    private FillInputStream(Fill fill, FileChannel channel) {
+      super();
+      this.fill = fill;
+      this.channel = channel;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      int n;
+      while ((n = read(b, 0, 1)) == 0) {
+        // keep waiting
+      }
+      return (n < 0 ? -1 : b[0] & 0xFF);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (closed) {
+        throw new IOException("Stream closed");
+      }
+      if (len == 0) {
+        return 0;
+      }
+      long available = fill.awaitAvailable(position);
+      if (available < 0) {
+        return -1;
+      }
+      int n = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, available - position)),
+          position);
+      if (n < 0) {
+        throw new IOException("Cache file " + fill.key + " ended at " + position);
+      }
+      position += n;
+      return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      try {
+        channel.close();
+      } finally {
+        fill.release();
+      }
+    }
+
+  }
+
+  /**
+   * Constructor.
+   * 
+   * <p>
+   * The index of cached files is rebuilt from {@code cacheDirectory}, and any temporary files left
+   * by fills that were interrupted by a restart are deleted. Partial files of ranged fills are
+   * kept, so they can be resumed.
+   * </p>
+   * 
+   * @param cacheDirectory
+   *          the directory to store cached files in
+   */
   public FileSystemDataStreamCache(Path cacheDirectory) {
     super();
     this.cacheDirectory = cacheDirectory;
+    try {
+      rebuildIndex();
+    } catch (IOException e) {
+      log.error("Error reading cache directory {}: {}", cacheDirectory, e.getMessage());
+    }
+  }
+
+  private void rebuildIndex() throws IOException {
+    if (!Files.isDirectory(cacheDirectory)) {
+      return;
+    }
+    List<Entry> found = new ArrayList<>(8);
+    try (DirectoryStream<Path> ds = Files.newDirectoryStream(cacheDirectory)) {
+      for (Path p : ds) {
+        String name = p.getFileName().toString();
+        if (!name.startsWith(".")) {
+          if (Files.isRegularFile(p)) {
+            found.add(new Entry(name, Files.size(p), Files.getLastModifiedTime(p).toMillis()));
+          }
+        } else if (!(name.endsWith(PARTIAL_FILE_SUFFIX) || name.endsWith(PROGRESS_FILE_SUFFIX))) {
+          log.info("Deleting abandoned cache file {}", p);
+          Files.deleteIfExists(p);
+        }
+      }
+    }
+    synchronized (entries) {
+      for (Entry e : found) {
+        touch(e, e.lastUsed);
+        entries.put(e.key, e);
+        totalSize += e.size;
+      }
+    }
+    log.info("Cache {} holds {} files totalling {} bytes", cacheDirectory, found.size(),
+        totalSize);
+  }
+
+  // update an entry for a new request; must be called with entries locked
+  private void touch(Entry entry, long now) {
+    entry.frequency++;
+    entry.lastUsed = now;
+    entry.priority = inflation
+        + entry.frequency * (double) (entry.size + fetchOverhead) / Math.max(1, entry.size);
+  }
+
+  private void addEntry(String key, long size, int readers, int joins) throws IOException {
+    synchronized (entries) {
+      Entry old = entries.remove(key);
+      if (old != null) {
+        totalSize -= old.size;
+      }
+      Entry entry = new Entry(key, size, System.currentTimeMillis());
+      entry.frequency = joins;
+      entry.readers = readers;
+      touch(entry, entry.lastUsed);
+      entries.put(key, entry);
+      totalSize += size;
+      savedBytes.addAndGet(size * joins);
+      evict(key, 0);
+    }
+  }
+
+  private boolean acquireEntry(String key) {
+    synchronized (entries) {
+      Entry entry = entries.get(key);
+      if (entry == null) {
+        return false;
+      }
+      entry.readers++;
+      return true;
+    }
+  }
+
+  private void releaseEntry(String key) {
+    synchronized (entries) {
+      Entry entry = entries.get(key);
+      if (entry != null && entry.readers > 0) {
+        entry.readers--;
+      }
+    }
+  }
+
+  /**
+   * Evict files until there is room for some more data.
+   * 
+   * <p>
+   * Files are deleted while {@code entries} is locked, so a file can not be evicted after a new
+   * file of the same key has been moved into the cache.
+   * </p>
+   */
+  private void evict(String keep, long incoming) throws IOException {
+    if (maximumSize < 1) {
+      return;
+    }
+    synchronized (entries) {
+      while (totalSize + incoming > maximumSize) {
+        Entry victim = entries.values().stream()
+            .filter(e -> e.readers < 1 && !e.key.equals(keep)).min(EVICTION_ORDER).orElse(null);
+        if (victim == null) {
+          break;
+        }
+        log.info("Evicting cached file {} ({} bytes, requested {} times) to keep cache under {} "
+            + "bytes", victim.key, victim.size, victim.frequency, maximumSize);
+        Files.deleteIfExists(cacheDirectory.resolve(victim.key));
+        entries.remove(victim.key);
+        totalSize -= victim.size;
+        inflation = victim.priority;
+        evictionCount.incrementAndGet();
+      }
+    }
+  }
+
+  @Override
+  public boolean contains(String key) {
+    synchronized (entries) {
+      return entries.containsKey(key);
+    }
+  }
+
+  @Override
+  public int readerCount(String key) {
+    final Fill fill = fills.get(key);
+    if (fill != null) {
+      synchronized (fill) {
+        return fill.readers;
+      }
+    }
+    synchronized (entries) {
+      Entry entry = entries.get(key);
+      return (entry != null ? entry.readers : 0);
+    }
+  }
+
+  @Override
+  public Map<String, Long> statistics() {
+    Map<String, Long> stats = new LinkedHashMap<>(8);
+    stats.put("cacheHitCount", hitCount.get());
+    stats.put("cacheMissCount", missCount.get());
+    stats.put("cacheEvictionCount", evictionCount.get());
+    stats.put("cacheSavedBytes", savedBytes.get());
+    synchronized (entries) {
+      stats.put("cacheFileCount", (long) entries.size());
+      stats.put("cacheSize", totalSize);
+    }
+    return stats;
+  }
+
+  private static ExecutorService defaultFillExecutorService() {
+    CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("cache-fill-");
+    threadFactory.setDaemon(true);
+    return Executors.newCachedThreadPool(threadFactory);
   }
 
   @Override
   public InputStream get(String key, Supplier<InputStream> supplier) throws IOException {
-    Lock lock = LOCKS.computeIfAbsent(key, k -> new ReentrantLock(true));
-    lock.lock();
-    return getInternal(key, supplier, lock);
+    for (;;) {
+      InputStream in = cachedInputStream(key);
+      if (in != null) {
+        return in;
+      }
+      Fill fill = fills.get(key);
+      if (fill == null) {
+        final Fill newFill = new Fill(key,
+            Files.createTempFile(cacheDirectory, "." + key + "-", ""), 0);
+        fill = fills.putIfAbsent(key, newFill);
+        if (fill != null || Files.isReadable(newFill.cacheFile)) {
+          // another fill started, or completed since checking the cache
+          fills.remove(key, newFill);
+          Files.deleteIfExists(newFill.file);
+          continue;
+        }
+        fill = newFill;
+        missCount.incrementAndGet();
+        newFill.start(fillExecutorService.submit(() -> copy(newFill, supplier)));
+        in = fill.newInputStream();
+      } else {
+        in = joinFill(fill);
+      }
+      if (in != null) {
+        return in;
+      }
+    }
   }
 
-  private InputStream getInternal(String key, Supplier<InputStream> supplier, Lock lock)
-      throws IOException {
+  @Override
+  public InputStream get(String key, RangedDataSupplier supplier) throws IOException {
+    if (supplier.getContentLength() < 1) {
+      return DataStreamCache.super.get(key, supplier);
+    }
+    for (;;) {
+      InputStream in = cachedInputStream(key);
+      if (in != null) {
+        return in;
+      }
+      Fill fill;
+      boolean started = false;
+      synchronized (fills) {
+        // ranged fills share the same partial file, so only prepare one at a time
+        fill = fills.get(key);
+        if (fill == null && !Files.isReadable(cacheDirectory.resolve(key))) {
+          fill = startRangedFill(key, supplier);
+          started = true;
+        }
+      }
+      if (fill == null) {
+        continue;
+      }
+      if (started) {
+        missCount.incrementAndGet();
+        in = fill.newInputStream();
+      } else {
+        in = joinFill(fill);
+      }
+      if (in != null) {
+        return in;
+      }
+    }
+  }
+
+  private InputStream joinFill(Fill fill) throws IOException {
+    InputStream in = fill.newInputStream();
+    if (in != null) {
+      hitCount.incrementAndGet();
+      synchronized (fill) {
+        fill.joins++;
+      }
+    }
+    return in;
+  }
+
+  private InputStream cachedInputStream(String key) throws IOException {
+    if (fills.containsKey(key)) {
+      return null;
+    }
+    final Path cacheFile = cacheDirectory.resolve(key);
+    final InputStream in;
+    final long now = System.currentTimeMillis();
+    synchronized (entries) {
+      Entry entry = entries.get(key);
+      if (entry == null) {
+        // a completed fill is indexed before it is forgotten, so a file without a fill or entry
+        // was not put there by this cache and can not be trusted; delete it so a fill starts
+        if (!fills.containsKey(key) && Files.deleteIfExists(cacheFile)) {
+          log.warn("Deleted unindexed file {} from cache directory", key);
+        }
+        return null;
+      }
+      try {
+        in = Files.newInputStream(cacheFile, StandardOpenOption.READ);
+      } catch (NoSuchFileException e) {
+        log.warn("Cached file {} deleted from cache directory", key);
+        entries.remove(key);
+        totalSize -= entry.size;
+        return null;
+      }
+      entry.readers++;
+      touch(entry, now);
+      hitCount.incrementAndGet();
+      savedBytes.addAndGet(entry.size);
+    }
     try {
-      Path cacheFile = cacheDirectory.resolve(key);
-      if (Files.isReadable(cacheFile)) {
+      // persist the use for ordering after a restart
+      Files.setLastModifiedTime(cacheFile, FileTime.fromMillis(now));
+    } catch (IOException e) {
+      // ignore
+    }
+    return new BufferedInputStream(new FilterInputStream(in) {
+
+      private boolean closed = false;
+
+      @Override
+      public void close() throws IOException {
+        if (closed) {
+          return;
+        }
+        closed = true;
         try {
-          InputStream result = new BufferedInputStream(
-              Files.newInputStream(cacheFile, StandardOpenOption.READ));
-          return result;
+          super.close();
         } finally {
-          lock.unlock();
+          releaseEntry(key);
         }
       }
 
-      // tee the input stream of the supplier to the file system
-      Path tmpCacheFile = Files.createTempFile(cacheDirectory, "." + key + "-", "");
-      return new CachingFileInputStream(supplier.get(), tmpCacheFile, cacheFile, lock);
-    } catch (RuntimeException | Error e) {
-      lock.unlock();
-      throw e;
+    });
+  }
+
+  private void copy(Fill fill, Supplier<InputStream> supplier) {
+    try (InputStream in = fill.source(supplier.get());
+        FileChannel out = FileChannel.open(fill.file, StandardOpenOption.WRITE)) {
+      final byte[] buf = new byte[64 * 1024];
+      long pos = 0;
+      int n;
+      while ((n = in.read(buf)) >= 0) {
+        ByteBuffer bb = ByteBuffer.wrap(buf, 0, n);
+        while (bb.hasRemaining()) {
+          pos += out.write(bb, pos);
+        }
+        fill.advance(pos);
+      }
+      fill.succeed();
+    } catch (IOException | RuntimeException e) {
+      if (!fill.isCancelled()) {
+        log.error("Error filling cache {}: {}", fill.key, e.getMessage());
+      }
+      try {
+        Files.deleteIfExists(fill.file);
+      } catch (IOException e2) {
+        log.warn("Error deleting partial cache file {}: {}", fill.file, e2.getMessage());
+      }
+      fill.fail(e);
+    }
+  }
+
+  private Fill startRangedFill(String key, RangedDataSupplier supplier) throws IOException {
+    final long length = supplier.getContentLength();
+    final int rangeCount = (int) ((length + rangeSize - 1) / rangeSize);
+    final Path partFile = cacheDirectory.resolve("." + key + PARTIAL_FILE_SUFFIX);
+    final Path progressFile = cacheDirectory.resolve("." + key + PROGRESS_FILE_SUFFIX);
+
+    // the progress file starts with a header, so progress is only resumed for the same data
+    final String header = length + " " + rangeSize + " " + supplier.getSha256();
+    BitSet done = readProgress(partFile, progressFile, header, rangeCount);
+    if (done == null) {
+      Files.deleteIfExists(partFile);
+      Files.write(progressFile, (header + "\n").getBytes(StandardCharsets.UTF_8));
+      done = new BitSet(rangeCount);
+    } else {
+      log.info("Resuming cache fill of {} with {} of {} ranges complete", key,
+          done.cardinality(), rangeCount);
     }
+    try (FileChannel out = FileChannel.open(partFile, StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE)) {
+      if (out.size() < length) {
+        // allocate the full file up front, so ranges can be written in any order
+        out.write(ByteBuffer.wrap(new byte[1]), length - 1);
+      }
+    }
+
+    evict(null, length);
+    final BitSet ranges = done;
+    final Fill fill = new Fill(key, partFile, contiguousLength(ranges, length));
+    fills.put(key, fill);
+    fill.start(fillExecutorService.submit(() -> fillRanges(fill, supplier, progressFile, ranges)));
+    return fill;
+  }
+
+  private long contiguousLength(BitSet done, long length) {
+    return Math.min(length, (long) done.nextClearBit(0) * rangeSize);
+  }
+
+  private void fillRanges(Fill fill, RangedDataSupplier supplier, Path progressFile,
+      BitSet done) {
+    final String key = fill.key;
+    final long length = supplier.getContentLength();
+    final int rangeCount = (int) ((length + rangeSize - 1) / rangeSize);
+    final Queue<Integer> remaining = new ConcurrentLinkedQueue<>();
+    for (int i = done.nextClearBit(0); i < rangeCount; i = done.nextClearBit(i + 1)) {
+      remaining.add(i);
+    }
+    log.info("Filling cache {} with {} ranges of {} bytes", key, remaining.size(), rangeSize);
+
+    try {
+      try (FileChannel out = FileChannel.open(fill.file, StandardOpenOption.WRITE);
+          FileChannel progress = FileChannel.open(progressFile, StandardOpenOption.WRITE,
+              StandardOpenOption.APPEND)) {
+        final AtomicBoolean failed = new AtomicBoolean(false);
+        final int workerCount = Math.min(rangeConcurrency, remaining.size());
+        final List<Future<?>> workers = new ArrayList<>(workerCount);
+        for (int w = 0; w < workerCount; w++) {
+          workers.add(fillExecutorService.submit(() -> {
+            Integer range;
+            while (!failed.get() && (range = remaining.poll()) != null) {
+              readRange(key, supplier, out, range, length);
+              synchronized (progress) {
+                // only record the range once its data is safely on disk
+                out.force(false);
+                progress.write(
+                    ByteBuffer.wrap((range + "\n").getBytes(StandardCharsets.UTF_8)));
+                done.set(range);
+                fill.advance(contiguousLength(done, length));
+              }
+            }
+            return null;
+          }));
+        }
+        awaitWorkers(key, workers, failed);
+      }
+
+      final String sha256 = supplier.getSha256();
+      if (sha256 != null) {
+        String actual = digest(fill.file);
+        if (!sha256.equalsIgnoreCase(actual)) {
+          Files.deleteIfExists(fill.file);
+          Files.deleteIfExists(progressFile);
+          throw new IOException("Cached data " + key + " SHA-256 " + actual
+              + " does not match expected " + sha256);
+        }
+      }
+      // readers may finish as soon as the fill succeeds, so clean up first
+      Files.deleteIfExists(progressFile);
+      fill.succeed();
+    } catch (IOException | RuntimeException e) {
+      // keep partial data, so the next fill can resume
+      if (!fill.isCancelled()) {
+        log.error("Error filling cache {}: {}", key, e.getMessage());
+      }
+      fill.fail(e);
+    }
+  }
+
+  private void awaitWorkers(String key, List<Future<?>> workers, AtomicBoolean failed)
+      throws IOException {
+    IOException error = null;
+    for (Future<?> worker : workers) {
+      try {
+        worker.get();
+      } catch (InterruptedException e) {
+        failed.set(true);
+        workers.forEach(f -> f.cancel(true));
+        throw new InterruptedIOException("Interrupted filling cache " + key);
+      } catch (ExecutionException e) {
+        failed.set(true);
+        if (error == null) {
+          Throwable t = e.getCause();
+          error = (t instanceof IOException ? (IOException) t
+              : new IOException("Error filling cache " + key + ": " + t.getMessage(), t));
+        }
+      }
+    }
+    if (error != null) {
+      throw error;
+    }
+  }
+
+  private void readRange(String key, RangedDataSupplier supplier, FileChannel out, int range,
+      long length) throws IOException {
+    final long offset = (long) range * rangeSize;
+    final long end = Math.min(offset + rangeSize, length);
+    final byte[] buf = new byte[64 * 1024];
+    for (int attempt = 0;; attempt++) {
+      try (InputStream in = supplier.getRange(offset, end - offset)) {
+        long pos = offset;
+        int n;
+        while (pos < end && (n = in.read(buf, 0, (int) Math.min(buf.length, end - pos))) >= 0) {
+          ByteBuffer bb = ByteBuffer.wrap(buf, 0, n);
+          while (bb.hasRemaining()) {
+            pos += out.write(bb, pos);
+          }
+        }
+        if (pos < end) {
+          throw new IOException("Range " + range + " of " + key + " ended after "
+              + (pos - offset) + " of " + (end - offset) + " bytes");
+        }
+        return;
+      } catch (IOException | RuntimeException e) {
+        if (attempt >= rangeMaximumRetries || Thread.currentThread().isInterrupted()) {
+          throw e;
+        }
+        long delay = rangeRetryDelay << attempt;
+        log.warn("Error reading range {} of {}, will retry in {}ms: {}", range, key, delay,
+            e.getMessage());
+        try {
+          Thread.sleep(delay);
+        } catch (InterruptedException e2) {
+          throw new InterruptedIOException("Interrupted reading range " + range + " of " + key);
+        }
+      }
+    }
+  }
+
+  private BitSet readProgress(Path partFile, Path progressFile, String header, int rangeCount)
+      throws IOException {
+    if (!(Files.exists(partFile) && Files.exists(progressFile))) {
+      return null;
+    }
+    BitSet done = new BitSet(rangeCount);
+    try (BufferedReader in = Files.newBufferedReader(progressFile, StandardCharsets.UTF_8)) {
+      if (!header.equals(in.readLine())) {
+        return null;
+      }
+      String line;
+      while ((line = in.readLine()) != null) {
+        try {
+          int range = Integer.parseInt(line);
+          if (range >= 0 && range < rangeCount) {
+            done.set(range);
+          }
+        } catch (NumberFormatException e) {
+          // ignore partly written line
+        }
+      }
+    }
+    return done;
+  }
+
+  private static String digest(Path file) throws IOException {
+    MessageDigest digest = DigestUtils.getSha256Digest();
+    try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+      ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+      while (in.read(buf) >= 0) {
+        buf.flip();
+        digest.update(buf);
+        buf.clear();
+      }
+    }
+    return Hex.encodeHexString(digest.digest());
+  }
+
+  /**
+   * Set the maximum total size of all cached files.
+   * 
+   * @param maximumSize
+   *          the maximum size, in bytes, or {@literal 0} for no limit; defaults to
+   *          {@link #DEFAULT_MAXIMUM_SIZE}
+   * @since 1.1
+   */
+  public void setMaximumSize(long maximumSize) {
+    this.maximumSize = maximumSize;
+  }
+
+  /**
+   * Set the estimated fixed cost of fetching a file, in bytes.
+   * 
+   * <p>
+   * This is the number of bytes that could be transferred in the time it takes to start fetching a
+   * file. Larger values favor keeping small files over large ones.
+   * </p>
+   * 
+   * @param fetchOverhead
+   *          the fetch overhead, in bytes; defaults to {@link #DEFAULT_FETCH_OVERHEAD}
+   * @since 1.1
+   */
+  public void setFetchOverhead(long fetchOverhead) {
+    this.fetchOverhead = Math.max(0, fetchOverhead);
+  }
+
+  /**
+   * Set the executor to fill the cache with.
+   * 
+   * <p>
+   * Each fill uses one thread, plus up to {@code rangeConcurrency} threads to read ranges when
+   * filling from a {@link RangedDataSupplier}.
+   * </p>
+   * 
+   * @param fillExecutorService
+   *          the executor service
+   * @since 1.1
+   */
+  public void setFillExecutorService(ExecutorService fillExecutorService) {
+    this.fillExecutorService = fillExecutorService;
+  }
+
+  /**
+   * Set the size of each range to read when filling the cache from a {@link RangedDataSupplier}.
+   * 
+   * @param rangeSize
+   *          the range size, in bytes; defaults to {@link #DEFAULT_RANGE_SIZE}
+   * @since 1.1
+   */
+  public void setRangeSize(int rangeSize) {
+    this.rangeSize = Math.max(1, rangeSize);
+  }
+
+  /**
+   * Set the maximum number of ranges to read at once when filling the cache.
+   * 
+   * @param rangeConcurrency
+   *          the number of ranges; defaults to {@literal 4}
+   * @since 1.1
+   */
+  public void setRangeConcurrency(int rangeConcurrency) {
+    this.rangeConcurrency = Math.max(1, rangeConcurrency);
+  }
+
+  /**
+   * Set the maximum number of times to retry reading a range.
+   * 
+   * @param rangeMaximumRetries
+   *          the maximum retries; defaults to {@literal 3}
+   * @since 1.1
+   */
+  public void setRangeMaximumRetries(int rangeMaximumRetries) {
+    this.rangeMaximumRetries = rangeMaximumRetries;
+  }
+
+  /**
+   * Set the delay before the first retry of a range, which doubles for each further retry.
+   * 
+   * @param rangeRetryDelay
+   *          the delay, in milliseconds; defaults to {@literal 1000}
+   * @since 1.1
+   */
+  public void setRangeRetryDelay(long rangeRetryDelay) {
+    this.rangeRetryDelay = rangeRetryDelay;
   }
 
 }
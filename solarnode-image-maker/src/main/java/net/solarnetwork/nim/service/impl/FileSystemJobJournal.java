@@ -0,0 +1,252 @@
+/* ==================================================================
+ * FileSystemJobJournal.java - 18/10/2026 10:21:44 AM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.nim.service.impl;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import net.solarnetwork.nim.domain.JobJournalEntry;
+import net.solarnetwork.nim.service.JobJournal;
+
+/**
+ * {@link JobJournal} implementation that appends JSON entries, one per line, to a file.
+ * 
+ * <p>
+ * Appended entries are queued and written by a single background thread, which writes all queued
+ * entries in one batch and then (optionally) forces them to disk. Callers of
+ * {@link #append(JobJournalEntry)} therefore never wait on IO, at the cost of possibly losing the
+ * last batch of entries if the process dies before it is written. When replaying, lines that cannot
+ * be parsed, such as a final line only partly written when the process died, are skipped.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class FileSystemJobJournal implements JobJournal {
+
+  /** The default maximum number of entries to write per batch. */
+  public static final int DEFAULT_BATCH_SIZE = 256;
+
+  private static final long POLL_MILLIS = 200;
+
+  private static final ObjectMapper OBJECT_MAPPER = AbstractNodeImageRepository.OBJECT_MAPPER;
+
+  private final Path file;
+  private final BlockingQueue<JobJournalEntry> queue = new LinkedBlockingQueue<>();
+  private final Object writeLock = new Object();
+  private int batchSize = DEFAULT_BATCH_SIZE;
+  private boolean sync = true;
+  private Thread writer;
+  private volatile boolean closed = false;
+
+  private final Logger log = LoggerFactory.getLogger(getClass());
+
+  /**
+   * Constructor.
+   * 
+   * @param file
+   *          the journal file
+   */
+  public FileSystemJobJournal(Path file) {
+    super();
+    this.file = file;
+  }
+
+  @Override
+  public void append(JobJournalEntry entry) {
+    if (closed) {
+      log.warn("Journal {} closed; discarding {} entry for task {}", file, entry.getType(),
+          entry.getTaskId());
+      return;
+    }
+    queue.add(entry);
+    startWriter();
+  }
+
+  private synchronized void startWriter() {
+    if (writer != null) {
+      return;
+    }
+    writer = new Thread(this::writeEntries, "job-journal");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  private void writeEntries() {
+    final List<JobJournalEntry> batch = new ArrayList<>(batchSize);
+    while (!(closed && queue.isEmpty())) {
+      try {
+        JobJournalEntry entry = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+        if (entry == null) {
+          continue;
+        }
+        batch.add(entry);
+        queue.drainTo(batch, batchSize - 1);
+        synchronized (writeLock) {
+          write(file, batch, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+              StandardOpenOption.APPEND);
+        }
+      } catch (InterruptedException e) {
+        // keep going until closed, so no entries are lost
+      } catch (IOException e) {
+        log.error("Error writing {} entries to journal {}: {}", batch.size(), file,
+            e.getMessage());
+      } finally {
+        batch.clear();
+      }
+    }
+  }
+
+  private void write(Path path, List<JobJournalEntry> entries, StandardOpenOption... options)
+      throws IOException {
+    ByteArrayOutputStream byos = new ByteArrayOutputStream(entries.size() * 512);
+    for (JobJournalEntry entry : entries) {
+      try {
+        byos.write(OBJECT_MAPPER.writeValueAsBytes(entry));
+        byos.write('\n');
+      } catch (JsonProcessingException e) {
+        log.error("Error encoding {} entry for task {}: {}", entry.getType(), entry.getTaskId(),
+            e.getMessage());
+      }
+    }
+    try (FileChannel channel = FileChannel.open(path, options)) {
+      ByteBuffer buf = ByteBuffer.wrap(byos.toByteArray());
+      while (buf.hasRemaining()) {
+        channel.write(buf);
+      }
+      if (sync) {
+        channel.force(false);
+      }
+    }
+  }
+
+  @Override
+  public List<JobJournalEntry> replay() throws IOException {
+    synchronized (writeLock) {
+      if (!Files.exists(file)) {
+        return Collections.emptyList();
+      }
+      List<JobJournalEntry> result = new ArrayList<>();
+      int lineNumber = 0;
+      try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+        String line;
+        while ((line = in.readLine()) != null) {
+          lineNumber++;
+          if (line.isEmpty()) {
+            continue;
+          }
+          try {
+            result.add(OBJECT_MAPPER.readValue(line, JobJournalEntry.class));
+          } catch (JsonProcessingException e) {
+            log.warn("Skipping invalid journal {} line {}: {}", file, lineNumber,
+                e.getMessage());
+          }
+        }
+      }
+      return result;
+    }
+  }
+
+  @Override
+  public void compact(List<JobJournalEntry> entries) throws IOException {
+    synchronized (writeLock) {
+      Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+      write(tmp, entries, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+          StandardOpenOption.TRUNCATE_EXISTING);
+      Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      log.info("Compacted journal {} to {} entries", file, entries.size());
+    }
+  }
+
+  @Override
+  public void compact(UnaryOperator<List<JobJournalEntry>> filter) throws IOException {
+    synchronized (writeLock) {
+      compact(filter.apply(replay()));
+    }
+  }
+
+  /**
+   * Write all queued entries and stop accepting new ones.
+   * 
+   * <p>
+   * This method waits for all queued entries to be written.
+   * </p>
+   */
+  public void close() {
+    closed = true;
+    Thread t;
+    synchronized (this) {
+      t = writer;
+    }
+    if (t == null) {
+      return;
+    }
+    try {
+      t.join(TimeUnit.SECONDS.toMillis(30));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Set the maximum number of entries to write at once.
+   * 
+   * @param batchSize
+   *          the batch size; defaults to {@link #DEFAULT_BATCH_SIZE}
+   */
+  public void setBatchSize(int batchSize) {
+    this.batchSize = Math.max(1, batchSize);
+  }
+
+  /**
+   * Toggle forcing each batch of entries to disk after writing.
+   * 
+   * @param sync
+   *          {@literal true} to force entries to disk; defaults to {@literal true}
+   */
+  public void setSync(boolean sync) {
+    this.sync = sync;
+  }
+
+}
@@ -27,10 +27,21 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.file.ClosedWatchServiceException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -58,19 +69,270 @@ import net.solarnetwork.nim.util.TaskStepTrackerOutputStream;
  * {@link NodeImageRepository} implementation that uses a file system hierarchy to store node images
  * as files, along with JSON metadata files that describe the image files.
  * 
+ * <p>
+ * The metadata and file paths of all images are indexed in memory the first time they are needed,
+ * by walking the file system hierarchy once. The index is updated by {@code save} and
+ * {@code delete}. After {@link #startup()} is called, the hierarchy is also watched for changes
+ * made by other processes, which are applied to the index as they happen.
+ * </p>
+ * 
  * @author matt
- * @version 1.0
+ * @version 1.1
  */
 public class FileSystemNodeImageRepository extends AbstractNodeImageRepository
     implements UpdatableNodeImageRepository {
 
+  private static final String INFO_FILE_SUFFIX = ".json";
+
   private final Path rootDirectory;
+  private volatile ConcurrentMap<String, IndexEntry> index = new ConcurrentHashMap<>(64);
+  private volatile boolean indexed = false;
+  private final AtomicLong version = new AtomicLong(0);
+  private WatchService watchService;
+  private Thread watcher;
+
+  /**
+   * An indexed image.
+   */
+  private static final class IndexEntry {
+
+    private final BasicSolarNodeImageInfo info;
+    private final Path infoFile;
+    private final Path imageFile;
+
+    private IndexEntry(BasicSolarNodeImageInfo info, Path infoFile, Path imageFile) {
+      super();
+      this.info = info;
+      this.infoFile = infoFile;
+      this.imageFile = imageFile;
+    }
+
+  }
 
   public FileSystemNodeImageRepository(Path rootDirectory) {
     super();
     this.rootDirectory = rootDirectory;
   }
 
+  /**
+   * Index the repository and start watching it for changes.
+   * 
+   * @since 1.1
+   */
+  public synchronized void startup() {
+    if (watcher != null) {
+      return;
+    }
+    try {
+      watchService = rootDirectory.getFileSystem().newWatchService();
+    } catch (IOException | UnsupportedOperationException e) {
+      log.warn("Unable to watch image repository {} for changes: {}", rootDirectory,
+          e.getMessage());
+      return;
+    }
+    final Map<WatchKey, Path> keys = new ConcurrentHashMap<>(16);
+    try {
+      // register before indexing, so no change is missed
+      register(rootDirectory, keys);
+    } catch (IOException e) {
+      log.warn("Unable to watch image repository {} for changes: {}", rootDirectory,
+          e.getMessage());
+    }
+    rebuildIndex();
+    final WatchService ws = watchService;
+    watcher = new Thread(() -> watch(ws, keys), "image-repo-watcher");
+    watcher.setDaemon(true);
+    watcher.start();
+  }
+
+  /**
+   * Stop watching the repository for changes.
+   * 
+   * @since 1.1
+   */
+  public synchronized void shutdown() {
+    if (watchService == null) {
+      return;
+    }
+    try {
+      watchService.close();
+    } catch (IOException e) {
+      // ignore
+    }
+    watchService = null;
+    watcher = null;
+  }
+
+  private void register(Path dir, Map<WatchKey, Path> keys) throws IOException {
+    try (Stream<Path> dirs = Files.walk(dir)) {
+      for (Path d : (Iterable<Path>) dirs.filter(Files::isDirectory)::iterator) {
+        keys.put(d.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+            StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY), d);
+      }
+    }
+  }
+
+  private void watch(WatchService ws, Map<WatchKey, Path> keys) {
+    while (true) {
+      WatchKey key;
+      try {
+        key = ws.take();
+      } catch (InterruptedException | ClosedWatchServiceException e) {
+        return;
+      }
+      final Path dir = keys.get(key);
+      for (WatchEvent<?> event : key.pollEvents()) {
+        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+          log.info("Too many changes to image repository {}; re-indexing", rootDirectory);
+          rebuildIndex();
+          continue;
+        }
+        if (dir == null) {
+          continue;
+        }
+        final Path path = dir.resolve((Path) event.context());
+        try {
+          if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+            synchronized (this) {
+              if (watchService != ws) {
+                return;
+              }
+              register(path, keys);
+            }
+            indexFiles(path, index);
+          } else {
+            fileChanged(path);
+          }
+        } catch (IOException | ClosedWatchServiceException e) {
+          log.warn("Error indexing image repository change {}: {}", path, e.getMessage());
+        }
+      }
+      if (!key.reset()) {
+        keys.remove(key);
+        if (dir != null) {
+          // directory deleted
+          index.values().removeIf(e -> e.infoFile.startsWith(dir));
+          version.incrementAndGet();
+        }
+      }
+    }
+  }
+
+  private void fileChanged(Path path) throws IOException {
+    final String name = path.getFileName().toString();
+    if (name.endsWith(INFO_FILE_SUFFIX)) {
+      indexImage(path.getParent(), name.substring(0, name.length() - INFO_FILE_SUFFIX.length()),
+          null);
+      return;
+    }
+    // an image file, named with the image ID followed by an extension
+    for (int i = name.indexOf('.'); i > 0; i = name.indexOf('.', i + 1)) {
+      String id = name.substring(0, i);
+      if (index.containsKey(id) || Files.exists(path.resolveSibling(id + INFO_FILE_SUFFIX))) {
+        indexImage(path.getParent(), id, path);
+      }
+    }
+  }
+
+  private void indexImage(Path dir, String id, Path changedFile) throws IOException {
+    final Path infoFile = dir.resolve(id + INFO_FILE_SUFFIX);
+    final IndexEntry existing = index.get(id);
+    if (!Files.isRegularFile(infoFile)) {
+      if (existing != null && existing.infoFile.equals(infoFile)) {
+        index.remove(id, existing);
+        version.incrementAndGet();
+      }
+      return;
+    }
+    BasicSolarNodeImageInfo info = readInfo(infoFile);
+    if (info == null) {
+      return;
+    }
+    Path imageFile = null;
+    if (changedFile != null && Files.isRegularFile(changedFile)) {
+      imageFile = changedFile;
+    } else if (existing != null && existing.imageFile != null
+        && Files.isRegularFile(existing.imageFile)) {
+      imageFile = existing.imageFile;
+    } else {
+      final String prefix = id + ".";
+      try (Stream<Path> files = Files.list(dir)) {
+        imageFile = files.filter(p -> {
+          String name = p.getFileName().toString();
+          return name.startsWith(prefix) && !name.endsWith(INFO_FILE_SUFFIX);
+        }).findFirst().orElse(null);
+      }
+    }
+    index.put(id, new IndexEntry(info, infoFile, imageFile));
+    version.incrementAndGet();
+  }
+
+  private BasicSolarNodeImageInfo readInfo(Path infoFile) {
+    try {
+      return OBJECT_MAPPER.readValue(infoFile.toFile(), BasicSolarNodeImageInfo.class);
+    } catch (IOException e) {
+      // possibly still being written; will be indexed again when modified
+      log.debug("Unable to read image metadata {}: {}", infoFile, e.getMessage());
+      return null;
+    }
+  }
+
+  private synchronized void rebuildIndex() {
+    // build a new index and swap it in, so readers never see a partial index
+    final ConcurrentMap<String, IndexEntry> newIndex = new ConcurrentHashMap<>(
+        Math.max(64, index.size() * 2));
+    try {
+      indexFiles(rootDirectory, newIndex);
+    } catch (IOException e) {
+      throw new RuntimeException("Error indexing images in " + rootDirectory, e);
+    }
+    index = newIndex;
+    indexed = true;
+    log.info("Indexed {} images in {}", newIndex.size(), rootDirectory);
+  }
+
+  /**
+   * Index all images in a directory hierarchy into a map with a single walk of the hierarchy.
+   */
+  private void indexFiles(Path dir, Map<String, IndexEntry> target) throws IOException {
+    final List<Path> infoFiles = new ArrayList<>(64);
+    final Map<Path, Path> imageFiles = new HashMap<>(64);
+    try (Stream<Path> files = Files.walk(dir)) {
+      files.filter(Files::isRegularFile).forEach(p -> {
+        String name = p.getFileName().toString();
+        if (name.endsWith(INFO_FILE_SUFFIX)) {
+          infoFiles.add(p);
+          return;
+        }
+        // map every possible ID to the file
+        for (int i = name.indexOf('.'); i > 0; i = name.indexOf('.', i + 1)) {
+          imageFiles.putIfAbsent(p.resolveSibling(name.substring(0, i)), p);
+        }
+      });
+    }
+    for (Path infoFile : infoFiles) {
+      String name = infoFile.getFileName().toString();
+      String id = name.substring(0, name.length() - INFO_FILE_SUFFIX.length());
+      BasicSolarNodeImageInfo info = readInfo(infoFile);
+      if (info != null) {
+        target.put(id,
+            new IndexEntry(info, infoFile, imageFiles.get(infoFile.resolveSibling(id))));
+      }
+    }
+    version.incrementAndGet();
+  }
+
+  private Map<String, IndexEntry> index() {
+    if (!indexed) {
+      synchronized (this) {
+        if (!indexed) {
+          rebuildIndex();
+        }
+      }
+    }
+    return index;
+  }
+
   /**
    * Parse a {@link BasicSolarNodeImageInfo} from a JSON file.
    * 
@@ -86,39 +348,47 @@ public class FileSystemNodeImageRepository extends AbstractNodeImageRepository
     }
   }
 
-  private Stream<Path> infoFileStream() throws IOException {
-    return Files.walk(rootDirectory).filter(p -> p.getFileName().toString().endsWith(".json"));
+  @Override
+  public Iterable<SolarNodeImageInfo> findAll() {
+    return index().values().stream().map(e -> (SolarNodeImageInfo) e.info)
+        .sorted(SolarNodeImageInfoSortById.SORT_BY_ID).collect(Collectors.toList());
   }
 
+  /**
+   * {@inheritDoc}
+   * 
+   * <p>
+   * The version changes whenever the index does, so changes made by other processes are only
+   * tracked after {@link #startup()} is called.
+   * </p>
+   */
   @Override
-  public Iterable<SolarNodeImageInfo> findAll() {
-    try {
-      return infoFileStream().map(FileSystemNodeImageRepository::infoFromJsonFile)
-          .sorted(SolarNodeImageInfoSortById.SORT_BY_ID).collect(Collectors.toList());
-    } catch (IOException e) {
-      throw new RuntimeException("Error listing node image infos: " + e.getMessage(), e);
-    }
+  public long getVersion() {
+    index();
+    return version.get();
   }
 
   @Override
   public SolarNodeImage findOne(String id) {
-    try {
-      return findOneInternal(id);
-    } catch (IOException e) {
-      throw new RuntimeException("Error getting image " + id + ": " + e.getMessage(), e);
+    IndexEntry entry = index().get(id);
+    if (entry == null || entry.imageFile == null) {
+      return null;
     }
+    FileSystemResource rsrc = new FileSystemResource(entry.imageFile.toFile());
+    return new ResourceSolarNodeImage(entry.info, rsrc);
   }
 
   @Override
   public void delete(String id) {
-    List<Path> files;
-    try {
-      files = imageFiles(id);
-    } catch (IOException e) {
-      throw new RuntimeException("Error finding image files for ID " + id, e);
-
+    IndexEntry entry = index().remove(id);
+    if (entry == null) {
+      return;
     }
-    for (Path path : files) {
+    version.incrementAndGet();
+    for (Path path : new Path[] { entry.infoFile, entry.imageFile }) {
+      if (path == null) {
+        continue;
+      }
       try {
         Files.deleteIfExists(path);
       } catch (IOException e) {
@@ -127,34 +397,6 @@ public class FileSystemNodeImageRepository extends AbstractNodeImageRepository
     }
   }
 
-  private List<Path> imageFiles(String id) throws IOException {
-    // get paths to the metadata AND any associated image (for which we don't know the extension)
-    final String imagePathsPrefix = id + ".";
-    return Files.walk(rootDirectory)
-        .filter(p -> p.getFileName().toString().startsWith(imagePathsPrefix))
-        .collect(Collectors.toList());
-  }
-
-  private ResourceSolarNodeImage findOneInternal(String id) throws IOException {
-    final String imageInfoPath = id + ".json";
-
-    // get paths to the metadata AND any associated image (for which we don't know the extension)
-    List<Path> imagePaths = imageFiles(id);
-    Path infoPath = imagePaths.stream()
-        .filter(p -> p.getFileName().toString().equals(imageInfoPath)).findFirst().orElse(null);
-    if (infoPath == null) {
-      return null;
-    }
-    Path imagePath = imagePaths.stream()
-        .filter(p -> !p.getFileName().toString().equals(imageInfoPath)).findFirst().orElse(null);
-    if (imagePath == null) {
-      return null;
-    }
-    SolarNodeImageInfo info = infoFromJsonFile(infoPath);
-    FileSystemResource rsrc = new FileSystemResource(imagePath.toFile());
-    return new ResourceSolarNodeImage(info, rsrc);
-  }
-
   @Override
   public int getSaveTaskStepCount() {
     return 1;
@@ -185,9 +427,9 @@ public class FileSystemNodeImageRepository extends AbstractNodeImageRepository
                   createCompressorOutputStream(
                       new MessageDigestOutputStream(outputDigest, outputContentLength, out)))));
 
-      String jsonFilename = id + ".json";
+      String jsonFilename = id + INFO_FILE_SUFFIX;
       Path jsonFile = rootDirectory.resolve(jsonFilename);
-      SolarNodeImageInfo info = new BasicSolarNodeImageInfo(id,
+      BasicSolarNodeImageInfo info = new BasicSolarNodeImageInfo(id,
           new String(Hex.encodeHex(outputDigest.digest())), outputContentLength.longValue(),
           new String(Hex.encodeHex(inputDigest.digest())), inputContentLength.longValue());
       try {
@@ -195,6 +437,8 @@ public class FileSystemNodeImageRepository extends AbstractNodeImageRepository
       } catch (IOException e) {
         throw new RuntimeException("Error writing image metadata to " + jsonFile, e);
       }
+      index().put(id, new IndexEntry(info, jsonFile, file));
+      version.incrementAndGet();
       tracker.completeStep();
       FileSystemResource rsrc = new FileSystemResource(file.toFile());
       return new ResourceSolarNodeImage(info, rsrc);
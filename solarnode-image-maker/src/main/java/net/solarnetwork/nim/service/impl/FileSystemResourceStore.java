@@ -0,0 +1,251 @@
+/* ==================================================================
+ * FileSystemResourceStore.java - 18/10/2026 7:38:09 AM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.nim.service.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.mutable.MutableLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.solarnetwork.nim.service.ResourceStore;
+import net.solarnetwork.nim.util.FileCloner;
+import net.solarnetwork.nim.util.MessageDigestInputStream;
+
+/**
+ * {@link ResourceStore} implementation using files.
+ * 
+ * <p>
+ * Each resource is stored as a read-only file named after its digest. Resources are copied out of
+ * the store with a {@link FileCloner}, so copies are practically free on filesystems that support
+ * reflinks. Copies are never hard linked, as a task modifying its copy would then modify the stored
+ * resource for every other task. Once the total size of the stored files
+ * exceeds {@code maximumSize} the least recently used resources are removed.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class FileSystemResourceStore implements ResourceStore {
+
+  /** The default maximum size: 4 GB. */
+  public static final long DEFAULT_MAXIMUM_SIZE = 4L * 1024 * 1024 * 1024;
+
+  private static final String FILE_EXTENSION = ".dat";
+
+  private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+  private static final Pattern SHA256_HEX = Pattern.compile("[0-9a-f]{64}");
+
+  private final Path storeDirectory;
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private FileCloner fileCloner = new FileCloner();
+  private long maximumSize = DEFAULT_MAXIMUM_SIZE;
+
+  private final Logger log = LoggerFactory.getLogger(getClass());
+
+  /**
+   * Constructor.
+   * 
+   * @param storeDirectory
+   *          the directory to store resources in
+   */
+  public FileSystemResourceStore(Path storeDirectory) {
+    super();
+    this.storeDirectory = storeDirectory;
+  }
+
+  private Path storeFile(String sha256) {
+    String key = (sha256 != null ? sha256.toLowerCase() : null);
+    if (key == null || !SHA256_HEX.matcher(key).matches()) {
+      throw new IllegalArgumentException("Invalid SHA-256 digest [" + sha256 + "]");
+    }
+    return storeDirectory.resolve(key + FILE_EXTENSION);
+  }
+
+  @Override
+  public boolean contains(String sha256) {
+    return Files.isReadable(storeFile(sha256));
+  }
+
+  @Override
+  public String put(InputStream in, String sha256) throws IOException {
+    final Path expectedFile = (sha256 != null ? storeFile(sha256) : null);
+    final MessageDigest digest = DigestUtils.getSha256Digest();
+    final MutableLong size = new MutableLong(0);
+    final Path tmpFile = Files.createTempFile(storeDirectory, ".upload-", "");
+    try {
+      // the caller owns the input stream, so it is not closed here
+      InputStream din = new MessageDigestInputStream(digest, size, in);
+      try (OutputStream out = Files.newOutputStream(tmpFile)) {
+        byte[] buf = new byte[COPY_BUFFER_SIZE];
+        int count;
+        while ((count = din.read(buf)) >= 0) {
+          if (maximumSize > 0 && size.longValue() > maximumSize) {
+            throw new IllegalArgumentException(
+                "Resource is larger than the maximum size of " + maximumSize + " bytes");
+          }
+          out.write(buf, 0, count);
+        }
+      }
+      final String actual = Hex.encodeHexString(digest.digest());
+      final Path storeFile = storeFile(actual);
+      if (expectedFile != null && !expectedFile.equals(storeFile)) {
+        throw new IllegalArgumentException(
+            "Resource digest " + actual + " does not match expected digest " + sha256);
+      }
+      // protect stored files from modification
+      tmpFile.toFile().setReadOnly();
+      lock.writeLock().lock();
+      try {
+        if (Files.exists(storeFile)) {
+          Files.setLastModifiedTime(storeFile, FileTime.fromMillis(System.currentTimeMillis()));
+        } else {
+          log.info("Storing {} byte resource as {}", size.longValue(), storeFile);
+          Files.move(tmpFile, storeFile, StandardCopyOption.ATOMIC_MOVE);
+          evict(storeFile);
+        }
+      } finally {
+        lock.writeLock().unlock();
+      }
+      return actual;
+    } finally {
+      Files.deleteIfExists(tmpFile);
+    }
+  }
+
+  @Override
+  public boolean copyTo(String sha256, Path dest) throws IOException {
+    Path storeFile = storeFile(sha256);
+    lock.readLock().lock();
+    try {
+      if (!Files.isReadable(storeFile)) {
+        return false;
+      }
+      Files.deleteIfExists(dest);
+      fileCloner.cloneFile(storeFile, dest);
+      log.debug("Copied stored resource {} to {}", storeFile, dest);
+      // track use for eviction
+      Files.setLastModifiedTime(storeFile, FileTime.fromMillis(System.currentTimeMillis()));
+      return true;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public InputStream getInputStream(String sha256) throws IOException {
+    Path storeFile = storeFile(sha256);
+    lock.readLock().lock();
+    try {
+      if (!Files.isReadable(storeFile)) {
+        return null;
+      }
+      Files.setLastModifiedTime(storeFile, FileTime.fromMillis(System.currentTimeMillis()));
+      return Files.newInputStream(storeFile);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  private void evict(Path keep) throws IOException {
+    if (maximumSize < 1) {
+      return;
+    }
+    List<Path> files = new ArrayList<>(8);
+    long total = 0;
+    try (DirectoryStream<Path> ds = Files.newDirectoryStream(storeDirectory,
+        "*" + FILE_EXTENSION)) {
+      for (Path p : ds) {
+        if (!p.getFileName().toString().startsWith(".")) {
+          files.add(p);
+          total += Files.size(p);
+        }
+      }
+    }
+    if (total <= maximumSize) {
+      return;
+    }
+    files.sort(Comparator.comparing(p -> {
+      try {
+        return Files.getLastModifiedTime(p);
+      } catch (IOException e) {
+        return FileTime.fromMillis(0);
+      }
+    }));
+    for (Path p : files) {
+      if (total <= maximumSize) {
+        break;
+      }
+      if (p.equals(keep)) {
+        continue;
+      }
+      long size = Files.size(p);
+      log.info("Evicting stored resource {} to keep store under {} bytes", p, maximumSize);
+      Files.deleteIfExists(p);
+      total -= size;
+    }
+  }
+
+  /**
+   * Set the file cloner to use when copying resources out of the store.
+   * 
+   * @param fileCloner
+   *          the cloner to use
+   */
+  public void setFileCloner(FileCloner fileCloner) {
+    this.fileCloner = fileCloner;
+  }
+
+  /**
+   * Set the maximum total size of all stored resources.
+   * 
+   * <p>
+   * A single resource larger than this is not accepted.
+   * </p>
+   * 
+   * @param maximumSize
+   *          the maximum size, in bytes, or {@literal 0} for no limit; defaults to
+   *          {@link #DEFAULT_MAXIMUM_SIZE}
+   */
+  public void setMaximumSize(long maximumSize) {
+    this.maximumSize = maximumSize;
+  }
+
+}
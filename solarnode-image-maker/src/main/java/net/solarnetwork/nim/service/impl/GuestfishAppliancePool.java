@@ -0,0 +1,487 @@
+/* ==================================================================
+ * GuestfishAppliancePool.java - 18/10/2026 8:31:12 AM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.nim.service.impl;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * A pool of running libguestfs appliances, controlled with {@literal guestfish} remote commands.
+ * 
+ * <p>
+ * Booting a libguestfs appliance takes several seconds, so instead of starting a new
+ * {@literal guestfish} for every task, appliances are launched ahead of time with
+ * {@literal guestfish --listen} and then leased by tasks. A task attaches its image to the leased
+ * appliance as a hot-plugged drive, runs its commands with {@literal guestfish --remote}, removes
+ * the drive again and releases the appliance. Hot-plugging drives requires the {@literal libvirt}
+ * libguestfs backend.
+ * </p>
+ * 
+ * <p>
+ * At most {@code size} appliances run at once; leasing waits while all are in use. An idle
+ * appliance is pinged before it is leased, and replaced if it does not respond. Appliances are shut
+ * down after {@code maximumUses} leases, or when released as unhealthy, so that no state left over
+ * from previous tasks accumulates. Once started, replacement appliances are launched in the
+ * background so the pool stays full.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class GuestfishAppliancePool {
+
+  /** The default maximum number of leases per appliance: 10. */
+  public static final int DEFAULT_MAXIMUM_USES = 10;
+
+  /** The label of the drive tasks attach their image as. */
+  public static final String IMAGE_DRIVE_LABEL = "image";
+
+  private static final Pattern PID_PATTERN = Pattern.compile("GUESTFISH_PID=(\\d+)");
+
+  private final int size;
+  private final BlockingQueue<Appliance> idle = new LinkedBlockingQueue<>();
+  private String guestfishBin = "guestfish";
+  private String backend = "libvirt";
+  private int maximumUses = DEFAULT_MAXIMUM_USES;
+  private int count = 0;
+  private boolean shutdown = false;
+  private ExecutorService executorService;
+
+  private final Logger log = LoggerFactory.getLogger(getClass());
+
+  /**
+   * A running appliance.
+   */
+  public static final class Appliance {
+
+    private final String pid;
+    private int useCount = 0;
+
+    /**
+     * Constructor.
+     * 
+     * @param pid
+     *          the process ID of the listening {@literal guestfish}
+     */
+    public Appliance(String pid) {
+      super();
+      this.pid = pid;
+    }
+
+    /**
+     * Get the process ID of the listening {@literal guestfish}.
+     * 
+     * @return the process ID
+     */
+    public String getPid() {
+      return pid;
+    }
+
+    /**
+     * Get the number of times the appliance has been leased.
+     * 
+     * @return the use count
+     */
+    public int getUseCount() {
+      return useCount;
+    }
+
+    @Override
+    public String toString() {
+      return "Appliance{" + pid + "}";
+    }
+
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param size
+   *          the maximum number of appliances to run at once
+   */
+  public GuestfishAppliancePool(int size) {
+    super();
+    if (size < 1) {
+      throw new IllegalArgumentException("Size must be > 0");
+    }
+    this.size = size;
+  }
+
+  /**
+   * Start launching appliances in the background, until the pool is full.
+   */
+  public synchronized void startup() {
+    if (executorService != null) {
+      return;
+    }
+    shutdown = false;
+    CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("appliance-launch-");
+    threadFactory.setDaemon(true);
+    executorService = Executors.newSingleThreadExecutor(threadFactory);
+    executorService.execute(this::fill);
+  }
+
+  /**
+   * Shut down all idle appliances, and all leased appliances as they are released.
+   */
+  public void shutdown() {
+    synchronized (this) {
+      shutdown = true;
+      if (executorService != null) {
+        executorService.shutdownNow();
+        executorService = null;
+      }
+    }
+    for (Appliance a = idle.poll(); a != null; a = idle.poll()) {
+      discard(a);
+    }
+  }
+
+  private void fill() {
+    while (true) {
+      synchronized (this) {
+        if (shutdown || count >= size || Thread.currentThread().isInterrupted()) {
+          return;
+        }
+        count++;
+      }
+      try {
+        idle.add(launch());
+      } catch (IOException e) {
+        synchronized (this) {
+          count--;
+        }
+        log.warn("Error launching guestfish appliance: {}", e.getMessage());
+        return;
+      }
+    }
+  }
+
+  private synchronized void refill() {
+    if (executorService != null && !shutdown) {
+      executorService.execute(this::fill);
+    }
+  }
+
+  /**
+   * Lease an appliance.
+   * 
+   * <p>
+   * An idle appliance is returned if one is available, otherwise a new appliance is launched if
+   * fewer than {@code size} are running, otherwise this method waits for an appliance to be
+   * released. The appliance must be passed to {@link #release(Appliance, boolean)} when done.
+   * </p>
+   * 
+   * @return the appliance
+   * @throws IOException
+   *           if an appliance cannot be launched
+   */
+  public Appliance lease() throws IOException {
+    while (true) {
+      Appliance a = idle.poll();
+      if (a == null) {
+        boolean launch = false;
+        synchronized (this) {
+          if (shutdown) {
+            throw new IOException("Appliance pool is shut down");
+          }
+          if (count < size) {
+            count++;
+            launch = true;
+          }
+        }
+        if (launch) {
+          try {
+            a = launch();
+          } catch (IOException | RuntimeException e) {
+            synchronized (this) {
+              count--;
+            }
+            throw e;
+          }
+        } else {
+          try {
+            a = idle.take();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for a guestfish appliance");
+          }
+        }
+      } else if (!ping(a)) {
+        log.info("Replacing unresponsive guestfish appliance {}", a.getPid());
+        discard(a);
+        continue;
+      }
+      a.useCount++;
+      return a;
+    }
+  }
+
+  /**
+   * Release an appliance previously returned by {@link #lease()}.
+   * 
+   * @param appliance
+   *          the appliance to release
+   * @param healthy
+   *          {@literal false} if the appliance may be in a bad state, so it is shut down instead of
+   *          leased again
+   */
+  public void release(Appliance appliance, boolean healthy) {
+    final boolean recycle;
+    synchronized (this) {
+      recycle = (shutdown || !healthy
+          || (maximumUses > 0 && appliance.getUseCount() >= maximumUses));
+    }
+    if (!recycle) {
+      idle.add(appliance);
+      return;
+    }
+    log.debug("Recycling guestfish appliance {} after {} uses", appliance.getPid(),
+        appliance.getUseCount());
+    discard(appliance);
+    refill();
+  }
+
+  private void discard(Appliance appliance) {
+    try {
+      destroy(appliance);
+    } finally {
+      synchronized (this) {
+        count--;
+      }
+    }
+  }
+
+  /**
+   * Run a {@literal guestfish} command in an appliance.
+   * 
+   * @param appliance
+   *          the appliance to use
+   * @param command
+   *          the command and its arguments
+   * @return the command output
+   * @throws IOException
+   *           if the command fails
+   */
+  public String execute(Appliance appliance, String... command) throws IOException {
+    return execute(appliance, null, false, command);
+  }
+
+  /**
+   * Run {@literal guestfish} commands in an appliance.
+   * 
+   * @param appliance
+   *          the appliance to use
+   * @param script
+   *          a file of commands to run, or {@literal null} to run {@code command}
+   * @param trace
+   *          {@literal true} to echo each command before running it
+   * @param command
+   *          the command and its arguments, if {@code script} is not provided
+   * @return the command output
+   * @throws IOException
+   *           if the command fails
+   */
+  public String execute(Appliance appliance, Path script, boolean trace, String... command)
+      throws IOException {
+    List<String> cmd = new ArrayList<>(4 + command.length);
+    cmd.add(guestfishBin);
+    cmd.add("--remote=" + appliance.getPid());
+    if (trace) {
+      cmd.add("-x");
+    }
+    cmd.addAll(Arrays.asList(command));
+    ProcessBuilder pb = new ProcessBuilder(cmd);
+    if (script != null) {
+      log.debug("Executing command {} <{}", cmd.stream().collect(Collectors.joining(" ")),
+          script);
+      pb.redirectInput(script.toFile());
+    } else {
+      log.debug("Executing command {}", cmd.stream().collect(Collectors.joining(" ")));
+    }
+    pb.redirectErrorStream(true);
+    return run(pb);
+  }
+
+  private String run(ProcessBuilder pb) throws IOException {
+    String command = pb.command().get(0);
+    Process proc = pb.start();
+    StringBuilder output = new StringBuilder();
+    try (BufferedReader in = new BufferedReader(new InputStreamReader(proc.getInputStream()))) {
+      String line = null;
+      while ((line = in.readLine()) != null) {
+        if (output.length() > 0) {
+          output.append('\n');
+        }
+        output.append(line);
+      }
+    }
+    try {
+      proc.waitFor();
+    } catch (InterruptedException e) {
+      proc.destroy();
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for " + command + " to complete");
+    }
+    if (proc.exitValue() != 0) {
+      throw new IOException(
+          command + " command returned non-zero exit code " + proc.exitValue() + ": " + output);
+    }
+    return output.toString();
+  }
+
+  /**
+   * Launch a new appliance.
+   * 
+   * <p>
+   * The appliance is started with a small scratch drive, as libguestfs needs at least one drive to
+   * launch, so that task images can be hot-plugged later.
+   * </p>
+   * 
+   * @return the appliance
+   * @throws IOException
+   *           if the appliance cannot be launched
+   */
+  protected Appliance launch() throws IOException {
+    List<String> cmd = Arrays.asList(guestfishBin, "--listen");
+    ProcessBuilder pb = new ProcessBuilder(cmd);
+    if (backend != null && !backend.isEmpty()) {
+      pb.environment().put("LIBGUESTFS_BACKEND", backend);
+    }
+    pb.redirectErrorStream(true);
+    String output = run(pb);
+    Matcher m = PID_PATTERN.matcher(output);
+    if (!m.find()) {
+      throw new IOException("guestfish --listen did not report a PID: " + output);
+    }
+    Appliance appliance = new Appliance(m.group(1));
+    long start = System.currentTimeMillis();
+    try {
+      execute(appliance, "add-drive-scratch", "16M", "label:scratch");
+      execute(appliance, "run");
+    } catch (IOException e) {
+      destroy(appliance);
+      throw e;
+    }
+    log.info("Launched guestfish appliance {} in {}ms", appliance.getPid(),
+        System.currentTimeMillis() - start);
+    return appliance;
+  }
+
+  /**
+   * Test if an appliance is responsive.
+   * 
+   * @param appliance
+   *          the appliance to test
+   * @return {@literal true} if the appliance responded
+   */
+  protected boolean ping(Appliance appliance) {
+    try {
+      execute(appliance, "ping-daemon");
+      return true;
+    } catch (IOException e) {
+      log.debug("Ping of guestfish appliance {} failed: {}", appliance.getPid(), e.getMessage());
+      return false;
+    }
+  }
+
+  /**
+   * Shut down an appliance.
+   * 
+   * @param appliance
+   *          the appliance to shut down
+   */
+  protected void destroy(Appliance appliance) {
+    try {
+      execute(appliance, "exit");
+    } catch (IOException e) {
+      log.debug("Error exiting guestfish appliance {}, killing: {}", appliance.getPid(),
+          e.getMessage());
+      try {
+        run(new ProcessBuilder("kill", appliance.getPid()).redirectErrorStream(true));
+      } catch (IOException e2) {
+        log.warn("Unable to kill guestfish appliance {}: {}", appliance.getPid(),
+            e2.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Get the number of appliances running or being launched.
+   * 
+   * @return the count
+   */
+  public synchronized int getApplianceCount() {
+    return count;
+  }
+
+  /**
+   * Set the {@literal guestfish} command to use.
+   * 
+   * @param guestfishBin
+   *          the {@literal guestfish} command to use; defaults to {@literal guestfish}
+   */
+  public void setGuestfishBin(String guestfishBin) {
+    this.guestfishBin = guestfishBin;
+  }
+
+  /**
+   * Set the libguestfs backend to launch appliances with.
+   * 
+   * @param backend
+   *          the backend, which must support hot-plugging drives, or {@literal null} to use the
+   *          libguestfs default; defaults to {@literal libvirt}
+   */
+  public void setBackend(String backend) {
+    this.backend = backend;
+  }
+
+  /**
+   * Set the number of times an appliance can be leased before it is shut down.
+   * 
+   * @param maximumUses
+   *          the maximum uses, or {@literal 0} for no limit; defaults to
+   *          {@link #DEFAULT_MAXIMUM_USES}
+   */
+  public synchronized void setMaximumUses(int maximumUses) {
+    this.maximumUses = maximumUses;
+  }
+
+}
@@ -0,0 +1,444 @@
+/* ==================================================================
+ * GuestfishInterpreter.java - 18/10/2026 1:47:25 PM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.nim.service.impl;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+
+/**
+ * Run {@literal guestfish} scripts against a {@link GuestfsHandle}, without {@literal guestfish}.
+ * 
+ * <p>
+ * Each script line is parsed the way {@literal guestfish} parses it and executed as the libguestfs
+ * API call of the same name, so a script behaves the same as when piped into {@literal guestfish}.
+ * A line prefixed with {@literal -} does not stop the script if it fails. Local file arguments,
+ * such as the source of {@literal upload}, are resolved against the local directory. The
+ * {@literal guestfish}-only {@literal copy-in}, {@literal copy-out}, {@literal echo} and
+ * {@literal exit} commands are supported; other local commands, which scripts are not allowed to
+ * use anyway, are not. API commands that manage the handle itself, which scripts run on a shared
+ * handle are not allowed to use either, are rejected by {@link GuestfsHandle}.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class GuestfishInterpreter {
+
+  /** The arguments of API commands that name a local file, by command. */
+  private static final Map<String, Integer> LOCAL_FILE_ARGUMENTS = localFileArguments();
+
+  private final GuestfsHandle handle;
+  private final Path localDirectory;
+  private boolean trace = false;
+
+  /**
+   * Constructor.
+   * 
+   * @param handle
+   *          the handle to run commands with
+   * @param localDirectory
+   *          the directory to resolve relative local paths against
+   */
+  public GuestfishInterpreter(GuestfsHandle handle, Path localDirectory) {
+    super();
+    this.handle = handle;
+    this.localDirectory = localDirectory;
+  }
+
+  private static Map<String, Integer> localFileArguments() {
+    Map<String, Integer> m = new HashMap<>(32);
+    m.put("base64-in", 0);
+    m.put("base64-out", 1);
+    m.put("checksums-out", 2);
+    m.put("cpio-out", 1);
+    m.put("download", 1);
+    m.put("download-blocks", 3);
+    m.put("download-inode", 2);
+    m.put("download-offset", 1);
+    m.put("find0", 1);
+    m.put("ls0", 1);
+    m.put("tar-in", 0);
+    m.put("tar-out", 1);
+    m.put("tgz-in", 0);
+    m.put("tgz-out", 1);
+    m.put("txz-in", 0);
+    m.put("txz-out", 1);
+    m.put("upload", 0);
+    m.put("upload-offset", 0);
+    return Collections.unmodifiableMap(m);
+  }
+
+  /**
+   * Run a script file.
+   * 
+   * @param script
+   *          the script to run
+   * @return the output of all commands
+   * @throws IOException
+   *           if any command fails, other than those prefixed with {@literal -}
+   */
+  public String run(Path script) throws IOException {
+    return run(script.getFileName().toString(),
+        new String(Files.readAllBytes(script), StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Run script commands.
+   * 
+   * @param name
+   *          a name for the script, for error messages
+   * @param script
+   *          the commands to run, one per line
+   * @return the output of all commands
+   * @throws IOException
+   *           if any command fails, other than those prefixed with {@literal -}
+   */
+  public String run(String name, String script) throws IOException {
+    StringBuilder output = new StringBuilder();
+    try (BufferedReader in = new BufferedReader(new StringReader(script))) {
+      int lineno = 0;
+      String line = null;
+      while ((line = in.readLine()) != null) {
+        lineno++;
+        String cmd = line.trim();
+        if (cmd.isEmpty() || cmd.startsWith("#")) {
+          continue;
+        }
+        boolean ignoreErrors = false;
+        if (cmd.startsWith("-")) {
+          ignoreErrors = true;
+          cmd = cmd.substring(1);
+        }
+        if (trace) {
+          append(output, cmd);
+        }
+        List<String> words;
+        try {
+          words = parseLine(cmd);
+        } catch (IllegalArgumentException e) {
+          throw new IOException(name + ":" + lineno + ": " + e.getMessage());
+        }
+        if (words.isEmpty()) {
+          continue;
+        }
+        String command = words.get(0);
+        if ("exit".equals(command) || "quit".equals(command)) {
+          break;
+        }
+        try {
+          append(output, execute(command, words.subList(1, words.size())));
+        } catch (IOException e) {
+          if (!ignoreErrors) {
+            throw new IOException(name + ":" + lineno + ": " + e.getMessage(), e);
+          }
+          append(output, e.getMessage());
+        }
+      }
+    }
+    return output.toString();
+  }
+
+  private static void append(StringBuilder output, String s) {
+    if (s == null || s.isEmpty()) {
+      return;
+    }
+    if (output.length() > 0) {
+      output.append('\n');
+    }
+    output.append(s);
+  }
+
+  private String execute(String command, List<String> args) throws IOException {
+    switch (command) {
+      case "echo":
+        return String.join(" ", args);
+
+      case "copy-in":
+        copyIn(args);
+        return null;
+
+      case "copy-out":
+        copyOut(args);
+        return null;
+
+      default:
+        if (command.startsWith("!") || command.startsWith("<!")) {
+          throw new IOException("Local commands are not supported");
+        }
+        Integer idx = LOCAL_FILE_ARGUMENTS.get(command);
+        if (idx != null && idx < args.size() && !"-".equals(args.get(idx))) {
+          args = new ArrayList<>(args);
+          args.set(idx, localPath(args.get(idx)).toString());
+        }
+        return handle.execute(command, args);
+    }
+  }
+
+  private Path localPath(String path) {
+    return localDirectory.resolve(path).toAbsolutePath();
+  }
+
+  private void copyIn(List<String> args) throws IOException {
+    if (args.size() < 2) {
+      throw new IOException("copy-in: expected local paths and a remote directory");
+    }
+    String remoteDir = args.get(args.size() - 1);
+    for (String arg : args.subList(0, args.size() - 1)) {
+      Path src = localPath(arg);
+      if (!Files.exists(src)) {
+        throw new IOException("copy-in: " + arg + " not found");
+      }
+      Path tar = Files.createTempFile(localDirectory, ".copy-in-", ".tar");
+      try {
+        try (TarArchiveOutputStream out = new TarArchiveOutputStream(
+            Files.newOutputStream(tar))) {
+          out.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+          out.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+          addToTar(out, src, src.getFileName().toString());
+        }
+        handle.call("tar_in", tar.toString(), remoteDir);
+      } finally {
+        Files.deleteIfExists(tar);
+      }
+    }
+  }
+
+  private static void addToTar(TarArchiveOutputStream out, Path file, String name)
+      throws IOException {
+    boolean dir = Files.isDirectory(file);
+    TarArchiveEntry entry = new TarArchiveEntry(file.toFile(), name);
+    int type = (dir ? TarArchiveEntry.DEFAULT_DIR_MODE : TarArchiveEntry.DEFAULT_FILE_MODE) & ~0777;
+    try {
+      entry.setMode(type | mode(Files.getPosixFilePermissions(file)));
+    } catch (UnsupportedOperationException e) {
+      // keep the default mode
+    }
+    out.putArchiveEntry(entry);
+    if (!dir) {
+      Files.copy(file, out);
+    }
+    out.closeArchiveEntry();
+    if (dir) {
+      List<Path> children = new ArrayList<>();
+      try (Stream<Path> s = Files.list(file)) {
+        s.sorted().forEach(children::add);
+      }
+      for (Path child : children) {
+        addToTar(out, child, name + "/" + child.getFileName());
+      }
+    }
+  }
+
+  private static int mode(Set<PosixFilePermission> perms) {
+    int mode = 0;
+    for (PosixFilePermission p : perms) {
+      // the enum is ordered from OWNER_READ to OTHERS_EXECUTE
+      mode |= 1 << (8 - p.ordinal());
+    }
+    return mode;
+  }
+
+  private void copyOut(List<String> args) throws IOException {
+    if (args.size() < 2) {
+      throw new IOException("copy-out: expected remote paths and a local directory");
+    }
+    Path localDir = localPath(args.get(args.size() - 1));
+    if (!Files.isDirectory(localDir)) {
+      throw new IOException("copy-out: " + args.get(args.size() - 1) + " is not a directory");
+    }
+    for (String remote : args.subList(0, args.size() - 1)) {
+      String name = remote.substring(remote.lastIndexOf('/') + 1);
+      if (name.isEmpty()) {
+        throw new IOException("copy-out: invalid remote path " + remote);
+      }
+      if (!Boolean.TRUE.equals(handle.call("is_dir", remote))) {
+        handle.call("download", remote, localDir.resolve(name).toString());
+        continue;
+      }
+      Path tar = Files.createTempFile(localDirectory, ".copy-out-", ".tar");
+      try {
+        handle.call("tar_out", remote, tar.toString());
+        extractTar(tar, localDir.resolve(name));
+      } finally {
+        Files.deleteIfExists(tar);
+      }
+    }
+  }
+
+  private static void extractTar(Path tar, Path dest) throws IOException {
+    Path root = dest.normalize();
+    Files.createDirectories(root);
+    try (TarArchiveInputStream in = new TarArchiveInputStream(Files.newInputStream(tar))) {
+      TarArchiveEntry entry;
+      while ((entry = in.getNextTarEntry()) != null) {
+        Path p = root.resolve(entry.getName()).normalize();
+        if (!p.startsWith(root)) {
+          throw new IOException("copy-out: invalid path in archive: " + entry.getName());
+        }
+        if (entry.isDirectory()) {
+          Files.createDirectories(p);
+        } else if (entry.isFile()) {
+          Files.createDirectories(p.getParent());
+          Files.copy(in, p, StandardCopyOption.REPLACE_EXISTING);
+        }
+        // links and special files are skipped
+      }
+    }
+  }
+
+  /**
+   * Split a command line into words, the way {@literal guestfish} does.
+   * 
+   * <p>
+   * Words are separated by whitespace. Double-quoted words may contain C-style escape sequences,
+   * while single-quoted words are taken literally.
+   * </p>
+   * 
+   * @param line
+   *          the line to parse
+   * @return the words
+   * @throws IllegalArgumentException
+   *           if the line has an unterminated quote or invalid escape sequence
+   */
+  public static List<String> parseLine(String line) {
+    List<String> words = new ArrayList<>(8);
+    final int len = line.length();
+    int i = 0;
+    while (i < len) {
+      char c = line.charAt(i);
+      if (Character.isWhitespace(c)) {
+        i++;
+        continue;
+      }
+      StringBuilder word = new StringBuilder();
+      if (c == '"') {
+        i = parseDoubleQuoted(line, i + 1, word);
+      } else if (c == '\'') {
+        int end = line.indexOf('\'', i + 1);
+        if (end < 0) {
+          throw new IllegalArgumentException("Unterminated single quote");
+        }
+        word.append(line, i + 1, end);
+        i = end + 1;
+      } else {
+        while (i < len && !Character.isWhitespace(line.charAt(i))) {
+          word.append(line.charAt(i++));
+        }
+      }
+      if (i < len && !Character.isWhitespace(line.charAt(i))) {
+        throw new IllegalArgumentException("Expected whitespace after quoted word");
+      }
+      words.add(word.toString());
+    }
+    return words;
+  }
+
+  private static int parseDoubleQuoted(String line, int i, StringBuilder word) {
+    final int len = line.length();
+    while (i < len) {
+      char c = line.charAt(i++);
+      if (c == '"') {
+        return i;
+      }
+      if (c != '\\') {
+        word.append(c);
+        continue;
+      }
+      if (i >= len) {
+        break;
+      }
+      c = line.charAt(i++);
+      switch (c) {
+        case 'a':
+          word.append('\007');
+          break;
+        case 'b':
+          word.append('\b');
+          break;
+        case 'f':
+          word.append('\f');
+          break;
+        case 'n':
+          word.append('\n');
+          break;
+        case 'r':
+          word.append('\r');
+          break;
+        case 't':
+          word.append('\t');
+          break;
+        case 'v':
+          word.append('\013');
+          break;
+        case 'x':
+          if (i + 2 > len) {
+            throw new IllegalArgumentException("Invalid \\x escape sequence");
+          }
+          word.append((char) Integer.parseInt(line.substring(i, i + 2), 16));
+          i += 2;
+          break;
+        case '0':
+        case '1':
+        case '2':
+        case '3':
+          if (i + 2 > len) {
+            throw new IllegalArgumentException("Invalid octal escape sequence");
+          }
+          word.append((char) Integer.parseInt(line.substring(i - 1, i + 2), 8));
+          i += 2;
+          break;
+        default:
+          word.append(c);
+      }
+    }
+    throw new IllegalArgumentException("Unterminated double quote");
+  }
+
+  /**
+   * Toggle including each command in the output, before its own output.
+   * 
+   * @param trace
+   *          {@literal true} to trace commands, like {@literal guestfish -x}
+   */
+  public void setTrace(boolean trace) {
+    this.trace = trace;
+  }
+
+}
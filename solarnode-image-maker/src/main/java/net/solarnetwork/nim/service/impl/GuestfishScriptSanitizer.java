@@ -34,11 +34,51 @@ import net.solarnetwork.nim.service.NodeImageScriptValidator;
 /**
  * Helper that enforces restrictions on a {@literal guestfish} script.
  * 
+ * <p>
+ * Scripts run against a shared appliance are further restricted from managing drives, configuring
+ * or launching the appliance, and ending the session, as the appliance is used by other tasks.
+ * </p>
+ * 
  * @author matt
- * @version 1.0
+ * @version 1.1
  */
 public class GuestfishScriptSanitizer implements NodeImageScriptValidator {
 
+  /**
+   * The pattern for a {@literal guestfish} command that manages drives or the appliance itself.
+   * 
+   * @since 1.1
+   */
+  public static final Pattern APPLIANCE_CMD_PAT = Pattern.compile("^\\s*-?\\s*(?:add|add-ro"
+      + "|add-cdrom|add-domain|add-drive\\S*|add-libvirt-dom|alloc|allocate|domain|scratch"
+      + "|sparse|remove-drive|hot-\\S+|config|launch|run|reopen|shutdown|kill-subprocess|exit"
+      + "|quit|close|debug\\S*|internal-\\S+|mount-local\\S*|umount-local"
+      + "|(?:set-)?(?:append|attach-method|autosync|backend|backend-settings?|cachedir|direct"
+      + "|hv|identifier|libvirt-\\S+|memsize|network|path|pgroup|program|qemu|recovery-proc"
+      + "|selinux|smp|tmpdir|trace|verbose)|clear-backend-setting)(?:\\s|$)");
+
+  private final boolean sharedAppliance;
+
+  /**
+   * Default constructor.
+   */
+  public GuestfishScriptSanitizer() {
+    this(false);
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param sharedAppliance
+   *          {@literal true} if scripts run against an appliance shared with other tasks, to also
+   *          reject commands matching {@link #APPLIANCE_CMD_PAT}
+   * @since 1.1
+   */
+  public GuestfishScriptSanitizer(boolean sharedAppliance) {
+    super();
+    this.sharedAppliance = sharedAppliance;
+  }
+
   /**
    * The pattern for a {@literal guestfish} local command.
    */
@@ -109,6 +149,10 @@ public class GuestfishScriptSanitizer implements NodeImageScriptValidator {
           throw new NodeImageScriptException(scriptFile.getFileName().toString(), lineno,
               "The lcd command is not supported: " + line);
         }
+        if (sharedAppliance && APPLIANCE_CMD_PAT.matcher(line).find()) {
+          throw new NodeImageScriptException(scriptFile.getFileName().toString(), lineno,
+              "Appliance commands are not supported: " + line);
+        }
       }
     } catch (IOException e) {
       throw new NodeImageScriptException(scriptFile.getFileName().toString(), -1,
@@ -0,0 +1,197 @@
+/* ==================================================================
+ * GuestfishSessionScript.java - 18/10/2026 9:48:40 AM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.nim.service.impl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Build the {@literal guestfish} commands a task runs in a single appliance session.
+ * 
+ * <p>
+ * A session script runs the task's own script along with generated commands, so that everything
+ * a task needs done to an image happens in one appliance boot. The generated commands may change
+ * the local directory, for appliances that were launched elsewhere, and install first boot scripts
+ * the same way {@literal virt-customize --firstboot} does for {@literal systemd} based operating
+ * systems: each script is uploaded to {@link #FIRSTBOOT_SCRIPTS_DIR}, and a
+ * {@literal guestfs-firstboot} service runs and then removes the scripts on the first boot.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public final class GuestfishSessionScript {
+
+  /** The directory the first boot runner is installed in, shared with virt-customize. */
+  public static final String FIRSTBOOT_DIR = "/usr/lib/virt-sysprep";
+
+  /** The directory first boot scripts are installed in. */
+  public static final String FIRSTBOOT_SCRIPTS_DIR = FIRSTBOOT_DIR + "/scripts";
+
+  /** The first boot runner script. */
+  public static final String FIRSTBOOT_RUNNER = FIRSTBOOT_DIR + "/firstboot.sh";
+
+  /** The first boot systemd service unit. */
+  public static final String FIRSTBOOT_SERVICE = "/etc/systemd/system/guestfs-firstboot.service";
+
+  private static final String FIRSTBOOT_SERVICE_LINK = "/etc/systemd/system/default.target.wants/"
+      + "guestfs-firstboot.service";
+
+  private static final String FIRSTBOOT_RUNNER_CONTENT = "#!/bin/sh -\n"
+      + "d=" + FIRSTBOOT_SCRIPTS_DIR + "\n"
+      + "d_done=" + FIRSTBOOT_DIR + "/scripts-done\n"
+      + "logfile=~root/virt-sysprep-firstboot.log\n"
+      + "\n"
+      + "echo \"$0\" \"$@\" 2>&1 | tee -a $logfile\n"
+      + "if test \"$1\" = \"start\"\n"
+      + "then\n"
+      + "  mkdir -p $d_done\n"
+      + "  for f in $d/* ; do\n"
+      + "    if test -x \"$f\"\n"
+      + "    then\n"
+      + "      # move the script so it is not run again on the next boot\n"
+      + "      mv $f $d_done\n"
+      + "      echo '=== Running' $f '===' 2>&1 | tee -a $logfile\n"
+      + "      $d_done/$(basename $f) 2>&1 | tee -a $logfile\n"
+      + "    fi\n"
+      + "  done\n"
+      + "  rm -f $d_done/*\n"
+      + "fi\n";
+
+  private static final String FIRSTBOOT_SERVICE_CONTENT = "[Unit]\n"
+      + "Description=libguestfs firstboot service\n"
+      + "After=network.target\n"
+      + "Before=prefdm.service\n"
+      + "\n"
+      + "[Service]\n"
+      + "Type=oneshot\n"
+      + "ExecStart=" + FIRSTBOOT_RUNNER + " start\n"
+      + "RemainAfterExit=yes\n"
+      + "StandardOutput=kmsg+console\n"
+      + "StandardError=inherit\n"
+      + "\n"
+      + "[Install]\n"
+      + "WantedBy=default.target\n";
+
+  private GuestfishSessionScript() {
+    // not available
+  }
+
+  /**
+   * Quote a value as a {@literal guestfish} command argument.
+   * 
+   * @param value
+   *          the value to quote
+   * @return the quoted value
+   */
+  public static String quote(String value) {
+    StringBuilder buf = new StringBuilder(value.length() + 2);
+    buf.append('"');
+    for (int i = 0, len = value.length(); i < len; i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        buf.append('\\').append(c);
+      } else if (c == '\n') {
+        buf.append("\\n");
+      } else {
+        buf.append(c);
+      }
+    }
+    return buf.append('"').toString();
+  }
+
+  /**
+   * Get the commands to install first boot scripts.
+   * 
+   * <p>
+   * The commands expect the operating system filesystems to be mounted. Scripts run in the order
+   * given, on the first boot of the operating system.
+   * </p>
+   * 
+   * @param firstbootScripts
+   *          the scripts to install
+   * @return the commands, or an empty string if {@code firstbootScripts} is empty
+   */
+  public static String firstbootCommands(List<Path> firstbootScripts) {
+    if (firstbootScripts.isEmpty()) {
+      return "";
+    }
+    StringBuilder buf = new StringBuilder();
+    buf.append("mkdir-p ").append(FIRSTBOOT_SCRIPTS_DIR).append('\n');
+    buf.append("write ").append(FIRSTBOOT_RUNNER).append(' ')
+        .append(quote(FIRSTBOOT_RUNNER_CONTENT)).append('\n');
+    buf.append("chmod 0755 ").append(FIRSTBOOT_RUNNER).append('\n');
+    buf.append("mkdir-p /etc/systemd/system/default.target.wants\n");
+    buf.append("write ").append(FIRSTBOOT_SERVICE).append(' ')
+        .append(quote(FIRSTBOOT_SERVICE_CONTENT)).append('\n');
+    buf.append("ln-sf ").append(FIRSTBOOT_SERVICE).append(' ').append(FIRSTBOOT_SERVICE_LINK)
+        .append('\n');
+    int index = 0;
+    for (Path script : firstbootScripts) {
+      index++;
+      String dest = quote(String.format("%s/%04d-%s", FIRSTBOOT_SCRIPTS_DIR, index,
+          script.getFileName().toString().replaceAll("[^\\w.-]", "-")));
+      buf.append("upload ").append(quote(script.toAbsolutePath().toString())).append(' ')
+          .append(dest).append('\n');
+      buf.append("chmod 0755 ").append(dest).append('\n');
+    }
+    return buf.toString();
+  }
+
+  /**
+   * Write a session script.
+   * 
+   * @param dest
+   *          the file to write the session script to
+   * @param localDirectory
+   *          the local directory for relative paths used by {@code script}, or {@literal null} to
+   *          use the directory {@literal guestfish} was started in
+   * @param firstbootScripts
+   *          first boot scripts to install
+   * @param script
+   *          the task's own script, to run last
+   * @return {@code dest}
+   * @throws IOException
+   *           if any IO error occurs
+   */
+  public static Path write(Path dest, Path localDirectory, List<Path> firstbootScripts,
+      Path script) throws IOException {
+    StringBuilder buf = new StringBuilder();
+    if (localDirectory != null) {
+      buf.append("lcd ").append(quote(localDirectory.toAbsolutePath().toString())).append('\n');
+    }
+    buf.append(firstbootCommands(firstbootScripts));
+    try (OutputStream out = Files.newOutputStream(dest)) {
+      out.write(buf.toString().getBytes(StandardCharsets.UTF_8));
+      Files.copy(script, out);
+      // end any unterminated last line of the script
+      out.write('\n');
+    }
+    return dest;
+  }
+
+}
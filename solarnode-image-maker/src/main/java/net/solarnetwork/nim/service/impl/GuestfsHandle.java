@@ -0,0 +1,343 @@
+/* ==================================================================
+ * GuestfsHandle.java - 18/10/2026 1:12:40 PM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.nim.service.impl;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * A libguestfs handle, driven through the libguestfs Java bindings.
+ * 
+ * <p>
+ * The bindings are not available from any public repository, so the {@literal GuestFS} class is
+ * loaded at runtime and its methods invoked by reflection. This also allows any object with
+ * methods named like the libguestfs API to be used as a handle. Commands can be executed by their
+ * {@literal guestfish} names, with all arguments given as strings; each argument is converted to
+ * the type of the matching method parameter. Arguments beyond the required parameters are passed
+ * as optional arguments, in {@literal guestfish} {@literal name:value} form.
+ * </p>
+ * 
+ * <p>
+ * Commands come from task scripts while handles are shared between tasks, so commands that manage
+ * drives, configure, launch or close the handle (those matching
+ * {@link GuestfishScriptSanitizer#APPLIANCE_CMD_PAT}) can not be executed. All other API commands
+ * can, so scripts work the same as with {@literal guestfish}.
+ * </p>
+ * 
+ * <p>
+ * This class is not thread safe.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class GuestfsHandle implements AutoCloseable {
+
+  /** The libguestfs Java bindings handle class name. */
+  public static final String GUESTFS_CLASS_NAME = "com.redhat.et.libguestfs.GuestFS";
+
+  private final Object guestfs;
+  private int useCount = 0;
+
+  /**
+   * Constructor.
+   * 
+   * @param guestfs
+   *          the libguestfs handle to use
+   */
+  public GuestfsHandle(Object guestfs) {
+    super();
+    this.guestfs = guestfs;
+  }
+
+  /**
+   * Create a new libguestfs handle.
+   * 
+   * @param classLoader
+   *          the class loader to load the libguestfs Java bindings from
+   * @return the new handle
+   * @throws IOException
+   *           if the bindings are not available or the handle cannot be created
+   */
+  public static GuestfsHandle create(ClassLoader classLoader) throws IOException {
+    try {
+      Class<?> clazz = Class.forName(GUESTFS_CLASS_NAME, true, classLoader);
+      return new GuestfsHandle(clazz.getConstructor().newInstance());
+    } catch (ClassNotFoundException | LinkageError e) {
+      throw new IOException("libguestfs Java bindings not available: " + e, e);
+    } catch (InvocationTargetException e) {
+      throw new IOException("Error creating libguestfs handle: " + e.getCause().getMessage(),
+          e.getCause());
+    } catch (ReflectiveOperationException e) {
+      throw new IOException("Error creating libguestfs handle: " + e, e);
+    }
+  }
+
+  /**
+   * Call a libguestfs API method.
+   * 
+   * @param method
+   *          the API method name, for example {@literal add_drive}
+   * @param args
+   *          the arguments, which must match the method parameter types
+   * @return the result, or {@literal null} if the method does not return a value
+   * @throws IOException
+   *           if the method does not exist or fails
+   */
+  public Object call(String method, Object... args) throws IOException {
+    for (Method m : guestfs.getClass().getMethods()) {
+      if (m.getName().equals(method) && m.getParameterCount() == args.length) {
+        return invoke(m, args);
+      }
+    }
+    throw new IOException("Unknown libguestfs method " + method);
+  }
+
+  /**
+   * Execute a command given in {@literal guestfish} form.
+   * 
+   * @param command
+   *          the {@literal guestfish} command name, for example {@literal add-drive}
+   * @param args
+   *          the command arguments
+   * @return the command output, formatted like {@literal guestfish} formats it
+   * @throws IOException
+   *           if the command manages the handle itself, the arguments are invalid, or the command
+   *           fails
+   */
+  public String execute(String command, List<String> args) throws IOException {
+    String name = command.replace('-', '_');
+    if (GuestfishScriptSanitizer.APPLIANCE_CMD_PAT.matcher(command).find()
+        || isObjectMethod(name)) {
+      throw new IOException(command + ": command not supported");
+    }
+    Method withOptions = null;
+    for (Method m : guestfs.getClass().getMethods()) {
+      if (!m.getName().equals(name) || Modifier.isStatic(m.getModifiers())
+          || m.getDeclaringClass() == Object.class) {
+        continue;
+      }
+      Class<?>[] types = m.getParameterTypes();
+      if (types.length == args.size()
+          && (types.length == 0 || types[types.length - 1] != Map.class)) {
+        return format(invoke(m, convertArguments(command, types, args, types.length)));
+      }
+      if (types.length > 0 && types[types.length - 1] == Map.class
+          && args.size() >= types.length - 1) {
+        withOptions = m;
+      }
+    }
+    if (withOptions == null) {
+      throw new IOException(command + ": unknown command, or wrong number of arguments");
+    }
+    Class<?>[] types = withOptions.getParameterTypes();
+    Object[] params = convertArguments(command, types, args, types.length - 1);
+    params[types.length - 1] = optionalArguments(command,
+        args.subList(types.length - 1, args.size()));
+    return format(invoke(withOptions, params));
+  }
+
+  private static boolean isObjectMethod(String name) {
+    // also match camel case names, like get_class for getClass
+    final String bare = name.replace("_", "");
+    for (Method m : Object.class.getMethods()) {
+      if (m.getName().equalsIgnoreCase(bare)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private Object invoke(Method m, Object[] args) throws IOException {
+    try {
+      return m.invoke(guestfs, args);
+    } catch (InvocationTargetException e) {
+      Throwable t = e.getCause();
+      throw new IOException(m.getName() + ": " + t.getMessage(), t);
+    } catch (IllegalAccessException | IllegalArgumentException e) {
+      throw new IOException(m.getName() + ": " + e.getMessage(), e);
+    }
+  }
+
+  private static Object[] convertArguments(String command, Class<?>[] types, List<String> args,
+      int count) throws IOException {
+    Object[] result = new Object[types.length];
+    for (int i = 0; i < count; i++) {
+      result[i] = convert(command, types[i], args.get(i));
+    }
+    return result;
+  }
+
+  private static Object convert(String command, Class<?> type, String value) throws IOException {
+    try {
+      if (type == String.class) {
+        return value;
+      } else if (type == int.class || type == Integer.class) {
+        return Long.decode(value).intValue();
+      } else if (type == long.class || type == Long.class) {
+        return Long.decode(value);
+      } else if (type == boolean.class || type == Boolean.class) {
+        return parseBoolean(value);
+      } else if (type == String[].class) {
+        // like guestfish, lists are given as a single space-separated argument
+        String v = value.trim();
+        return (v.isEmpty() ? new String[0] : v.split("\\s+"));
+      } else if (type == byte[].class) {
+        return value.getBytes(StandardCharsets.UTF_8);
+      }
+    } catch (NumberFormatException e) {
+      throw new IOException(command + ": invalid number: " + value);
+    }
+    throw new IOException(command + ": unsupported argument type " + type.getSimpleName());
+  }
+
+  private static Boolean parseBoolean(String value) throws IOException {
+    switch (value.toLowerCase()) {
+      case "1":
+      case "true":
+      case "t":
+      case "yes":
+      case "y":
+      case "on":
+        return Boolean.TRUE;
+
+      case "0":
+      case "false":
+      case "f":
+      case "no":
+      case "n":
+      case "off":
+        return Boolean.FALSE;
+
+      default:
+        throw new IOException("Invalid boolean: " + value);
+    }
+  }
+
+  /**
+   * Convert {@literal name:value} optional arguments.
+   * 
+   * <p>
+   * The bindings do not describe the types of optional arguments, so the type is inferred from the
+   * value: booleans, then integers, then strings.
+   * </p>
+   */
+  private static Map<String, Object> optionalArguments(String command, List<String> args)
+      throws IOException {
+    Map<String, Object> result = new LinkedHashMap<>(args.size());
+    for (String arg : args) {
+      int idx = arg.indexOf(':');
+      if (idx < 1) {
+        throw new IOException(command + ": optional argument must be name:value: " + arg);
+      }
+      String name = arg.substring(0, idx);
+      String value = arg.substring(idx + 1);
+      Object v = value;
+      if ("true".equalsIgnoreCase(value) || "false".equalsIgnoreCase(value)) {
+        v = Boolean.valueOf(value);
+      } else if (value.matches("-?\\d+")) {
+        long l = Long.parseLong(value);
+        v = (l == (int) l ? (Object) Integer.valueOf((int) l) : (Object) Long.valueOf(l));
+      }
+      result.put(name, v);
+    }
+    return result;
+  }
+
+  private static String format(Object result) {
+    if (result == null) {
+      return "";
+    } else if (result instanceof String) {
+      return (String) result;
+    } else if (result instanceof byte[]) {
+      return new String((byte[]) result, StandardCharsets.UTF_8);
+    } else if (result instanceof String[]) {
+      return String.join("\n", (String[]) result);
+    } else if (result instanceof Map) {
+      return new TreeMap<>((Map<?, ?>) result).entrySet().stream()
+          .map(e -> e.getKey() + ": " + e.getValue()).collect(Collectors.joining("\n"));
+    } else if (result instanceof Object[]) {
+      return Arrays.stream((Object[]) result).map(GuestfsHandle::format)
+          .collect(Collectors.joining("\n\n"));
+    } else if (result instanceof Number || result instanceof Boolean) {
+      return result.toString();
+    }
+    // a struct, with public fields
+    StringBuilder buf = new StringBuilder();
+    for (Field f : result.getClass().getFields()) {
+      if (Modifier.isStatic(f.getModifiers())) {
+        continue;
+      }
+      if (buf.length() > 0) {
+        buf.append('\n');
+      }
+      try {
+        buf.append(f.getName()).append(": ").append(f.get(result));
+      } catch (IllegalAccessException e) {
+        // skip
+      }
+    }
+    return buf.toString();
+  }
+
+  /**
+   * Get the number of tasks that have used this handle.
+   * 
+   * @return the use count
+   */
+  public int getUseCount() {
+    return useCount;
+  }
+
+  /**
+   * Increment the use count.
+   * 
+   * @return the new use count
+   */
+  public int incrementUseCount() {
+    return ++useCount;
+  }
+
+  /**
+   * Close the handle, shutting down its appliance.
+   */
+  @Override
+  public void close() {
+    try {
+      call("close");
+    } catch (IOException e) {
+      // ignore
+    }
+  }
+
+}
@@ -25,8 +25,11 @@ package net.solarnetwork.nim.service.impl;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -40,7 +43,7 @@ import net.solarnetwork.nim.util.TaskStepTracker;
  * {@link NodeImageService} using libguestfs.
  * 
  * @author matt
- * @version 1.1
+ * @version 1.2
  */
 public class GuestfsNodeImageService extends AbstractNodeImageService {
 
@@ -61,14 +64,53 @@ public class GuestfsNodeImageService extends AbstractNodeImageService {
 
   private String guestfishBin = "guestfish";
   private String virtCustomizeBin = "virt-customize";
+  private String qemuImgBin = "qemu-img";
   private NodeImageScriptValidator scriptValidator = new GuestfishScriptSanitizer();
+  private NodeImageScriptValidator applianceScriptValidator = new GuestfishScriptSanitizer(true);
+  private GuestfishAppliancePool appliancePool;
+  private boolean virtCustomizeFirstboot = false;
 
   @Override
   protected ImageSetupResult createImageInternal(String key, SolarNodeImageInfo imageInfo,
       Path imageFile, List<Path> resources, SolarNodeImageOptions options, TaskStepTracker tracker)
       throws IOException {
     Path workingDir = imageFile.getParent();
-    ProcessBuilder pb = setupProcess(workingDir, imageFile, resources, options);
+    Path scriptFile = scriptFile(resources);
+    scriptValidator.validate(scriptFile);
+
+    // install first boot scripts in the same appliance session as the script, unless configured
+    // to use virt-customize, which boots another appliance
+    List<Path> firstbootFiles = (virtCustomizeFirstboot ? Collections.emptyList()
+        : firstbootFiles(resources));
+
+    String output;
+    if (appliancePool != null
+        && (options == null || options.getEnvironment() == null
+            || options.getEnvironment().isEmpty())) {
+      // pooled appliances are shared, so the script must not manage their drives or lifecycle
+      applianceScriptValidator.validate(scriptFile);
+
+      // the environment only affects newly launched appliances; pooled appliances were launched
+      // in another directory, so relative paths in the script need the local directory changed
+      Path sessionScript = GuestfishSessionScript.write(sessionScriptFile(workingDir), workingDir,
+          firstbootFiles, scriptFile);
+      output = executeInAppliance(imageFile, sessionScript, options);
+    } else {
+      Path sessionScript = (firstbootFiles.isEmpty() ? scriptFile
+          : GuestfishSessionScript.write(sessionScriptFile(workingDir), null, firstbootFiles,
+              scriptFile));
+      ProcessBuilder pb = setupProcess(workingDir, imageFile, sessionScript, options);
+      output = execute(pb, guestfishBin);
+    }
+
+    if (virtCustomizeFirstboot) {
+      installFirstbootScript(workingDir, imageFile, resources, options);
+    }
+
+    return new ImageSetupResult(imageFile, output, true);
+  }
+
+  private String execute(ProcessBuilder pb, String command) throws IOException {
     Process proc = pb.start();
     StringBuilder output = new StringBuilder();
     try (BufferedReader in = new BufferedReader(new InputStreamReader(proc.getInputStream()))) {
@@ -83,33 +125,147 @@ public class GuestfsNodeImageService extends AbstractNodeImageService {
     try {
       proc.waitFor();
     } catch (InterruptedException e) {
-      log.warn("Interrupted waiting for guestfish command to complete");
+      log.warn("Interrupted waiting for {} command to complete", command);
     }
     if (proc.exitValue() != 0) {
-      log.error("guestfish command returned non-zero exit code {}: {}", proc.exitValue(), output);
+      log.error("{} command returned non-zero exit code {}: {}", command, proc.exitValue(), output);
       throw new IOException(
-          "guestfish command returned non-zero exit code " + proc.exitValue() + ": " + output);
+          command + " command returned non-zero exit code " + proc.exitValue() + ": " + output);
     }
+    return output.toString();
+  }
 
-    installFirstbootScript(workingDir, imageFile, resources, options);
+  static Path scriptFile(List<Path> resources) {
+    Path scriptFile = resources.stream()
+        .filter(p -> p.getFileName().toString().endsWith(SCRIPT_RESOURCE_NAME_EXTENSION))
+        .findFirst().orElse(null);
+    if (scriptFile == null) {
+      throw new IllegalArgumentException(
+          "No " + SCRIPT_RESOURCE_NAME_EXTENSION + " resource provided");
+    }
+    return scriptFile;
+  }
 
-    return new ImageSetupResult(imageFile, output.toString(), true);
+  static List<Path> firstbootFiles(List<Path> resources) {
+    return resources.stream()
+        .filter(p -> p.getFileName().toString().endsWith(FIRSTBOOT_RESOURCE_NAME_EXTENSION))
+        .collect(Collectors.toList());
   }
 
-  private ProcessBuilder setupProcess(Path workingDir, Path imageFile, List<Path> resources,
-      SolarNodeImageOptions options) {
-    List<String> cmd = new ArrayList<>(8);
-    cmd.add(guestfishBin);
-    cmd.add("--rw"); // mount image read+write
+  private static Path sessionScriptFile(Path workingDir) throws IOException {
+    return Files.createTempFile(workingDir, ".session-", ".guestfish");
+  }
+
+  private String executeInAppliance(Path imageFile, Path scriptFile,
+      SolarNodeImageOptions options) throws IOException {
+    GuestfishAppliancePool.Appliance appliance = appliancePool.lease();
+    boolean healthy = false;
+    try {
+      log.info("Executing {} in guestfish appliance {}", scriptFile, appliance.getPid());
+      appliancePool.execute(appliance, "add-drive", imageFile.toAbsolutePath().toString(),
+          "format:" + imageFormat(imageFile, options),
+          "label:" + GuestfishAppliancePool.IMAGE_DRIVE_LABEL);
+      String output = null;
+      try {
+        mountInspectedFilesystems(appliance);
+        output = appliancePool.execute(appliance, scriptFile,
+            (options != null && options.isVerbose()), new String[0]);
+      } finally {
+        // unmounting flushes all changes to the image, so must succeed if the script did
+        try {
+          appliancePool.execute(appliance, "umount-all");
+          appliancePool.execute(appliance, "remove-drive",
+              GuestfishAppliancePool.IMAGE_DRIVE_LABEL);
+          healthy = true;
+        } catch (IOException e) {
+          if (output != null) {
+            throw e;
+          }
+          log.warn("Error detaching image from guestfish appliance {}: {}", appliance.getPid(),
+              e.getMessage());
+        }
+      }
+      return output;
+    } finally {
+      appliancePool.release(appliance, healthy);
+    }
+  }
 
+  /**
+   * Mount the filesystems of the OS in the image, like {@literal guestfish -i} does.
+   */
+  private void mountInspectedFilesystems(GuestfishAppliancePool.Appliance appliance)
+      throws IOException {
+    String roots = appliancePool.execute(appliance, "inspect-os").trim();
+    if (roots.isEmpty()) {
+      throw new IOException("No operating system found in image");
+    }
+    String root = roots.split("\\s+")[0];
+    List<String[]> mounts = new ArrayList<>(4);
+    for (String line : appliancePool.execute(appliance, "inspect-get-mountpoints", root)
+        .split("\n")) {
+      int idx = line.indexOf(": ");
+      if (idx > 0) {
+        mounts.add(new String[] { line.substring(0, idx), line.substring(idx + 2).trim() });
+      }
+    }
+    // mount parents before children
+    mounts.sort(Comparator.comparingInt(m -> m[0].length()));
+    for (String[] mount : mounts) {
+      try {
+        appliancePool.execute(appliance, "mount", mount[1], mount[0]);
+      } catch (IOException e) {
+        log.warn("Unable to mount {} on {}: {}", mount[1], mount[0], e.getMessage());
+      }
+    }
+  }
+
+  static String baseImageFormat(SolarNodeImageOptions options) {
     Object format = null;
     if (options != null) {
-      format = options.getParameterValue("format");
+      format = options.getParameterValue(OPTIONS_PARAM_IMAGE_FORMAT);
     }
-    if (format == null) {
-      format = "raw";
+    return (format != null ? format.toString() : "raw");
+  }
+
+  static String imageFormat(Path imageFile, SolarNodeImageOptions options) {
+    if (imageFile.getFileName().toString().endsWith(OVERLAY_IMAGE_EXTENSION)) {
+      return "qcow2";
     }
-    cmd.add("--format=" + format);
+    return baseImageFormat(options);
+  }
+
+  @Override
+  protected Path createOverlayImage(Path baseImage, Path overlayImage,
+      SolarNodeImageOptions options) throws IOException {
+    if (!"raw".equals(baseImageFormat(options))) {
+      // the merged image can only be read back from a raw base
+      return null;
+    }
+    List<String> cmd = new ArrayList<>(8);
+    cmd.add(qemuImgBin);
+    cmd.add("create");
+    cmd.add("-f");
+    cmd.add("qcow2");
+    cmd.add("-F");
+    cmd.add("raw");
+    cmd.add("-b");
+    cmd.add(baseImage.toAbsolutePath().toString());
+    cmd.add(overlayImage.toAbsolutePath().toString());
+    log.info("Executing command {}", cmd.stream().collect(Collectors.joining(" ")));
+    ProcessBuilder pb = new ProcessBuilder(cmd);
+    pb.redirectErrorStream(true);
+    execute(pb, qemuImgBin);
+    return overlayImage;
+  }
+
+  private ProcessBuilder setupProcess(Path workingDir, Path imageFile, Path scriptFile,
+      SolarNodeImageOptions options) {
+    List<String> cmd = new ArrayList<>(8);
+    cmd.add(guestfishBin);
+    cmd.add("--rw"); // mount image read+write
+
+    cmd.add("--format=" + imageFormat(imageFile, options));
 
     cmd.add("-a");
     cmd.add(imageFile.getFileName().toString()); // assumed to be in working dir
@@ -125,14 +281,6 @@ public class GuestfsNodeImageService extends AbstractNodeImageService {
       pb.environment().putAll(options.getEnvironment());
     }
 
-    Path scriptFile = resources.stream()
-        .filter(p -> p.getFileName().toString().endsWith(SCRIPT_RESOURCE_NAME_EXTENSION))
-        .findFirst().orElse(null);
-    if (scriptFile == null) {
-      throw new IllegalArgumentException(
-          "No " + SCRIPT_RESOURCE_NAME_EXTENSION + " resource provided");
-    }
-    scriptValidator.validate(scriptFile);
     log.info("Executing command {} <{}", cmd.stream().collect(Collectors.joining(" ")), scriptFile);
     pb.redirectInput(scriptFile.toFile());
 
@@ -150,28 +298,7 @@ public class GuestfsNodeImageService extends AbstractNodeImageService {
       // nothing for first boot
       return;
     }
-    Process proc = pb.start();
-    StringBuilder output = new StringBuilder();
-    try (BufferedReader in = new BufferedReader(new InputStreamReader(proc.getInputStream()))) {
-      String line = null;
-      while ((line = in.readLine()) != null) {
-        if (output.length() > 0) {
-          output.append('\n');
-        }
-        output.append(line);
-      }
-    }
-    try {
-      proc.waitFor();
-    } catch (InterruptedException e) {
-      log.warn("Interrupted waiting for guestfish command to complete");
-    }
-    if (proc.exitValue() != 0) {
-      log.error("{} command returned non-zero exit code {}: {}", virtCustomizeBin, proc.exitValue(),
-          output);
-      throw new IOException(virtCustomizeBin + " command returned non-zero exit code "
-          + proc.exitValue() + ": " + output);
-    }
+    execute(pb, virtCustomizeBin);
   }
 
   private ProcessBuilder setupVirtCustomizerProcess(Path workingDir, Path imageFile,
@@ -179,14 +306,7 @@ public class GuestfsNodeImageService extends AbstractNodeImageService {
     List<String> cmd = new ArrayList<>(8);
     cmd.add(virtCustomizeBin);
 
-    Object format = null;
-    if (options != null) {
-      format = options.getParameterValue("format");
-    }
-    if (format == null) {
-      format = "raw";
-    }
-    cmd.add("--format=" + format);
+    cmd.add("--format=" + imageFormat(imageFile, options));
 
     cmd.add("-a");
     cmd.add(imageFile.getFileName().toString()); // assumed to be in working dir
@@ -195,9 +315,7 @@ public class GuestfsNodeImageService extends AbstractNodeImageService {
       cmd.add("--verbose");
     }
 
-    List<Path> firstBootFiles = resources.stream()
-        .filter(p -> p.getFileName().toString().endsWith(FIRSTBOOT_RESOURCE_NAME_EXTENSION))
-        .collect(Collectors.toList());
+    List<Path> firstBootFiles = firstbootFiles(resources);
     if (firstBootFiles.isEmpty()) {
       return null;
     }
@@ -264,4 +382,59 @@ public class GuestfsNodeImageService extends AbstractNodeImageService {
     this.virtCustomizeBin = virtCustomizeBin;
   }
 
+  /**
+   * Set the {@literal qemu-img} command to use.
+   * 
+   * <p>
+   * This command is used to create overlay images. If {@literal qemu-img} is not available in the
+   * default process path, this should be configured as the full path to the executable, for example
+   * {@literal /usr/local/bin/qemu-img}.
+   * </p>
+   * 
+   * @param qemuImgBin
+   *          the {@literal qemu-img} command to use; defaults to {@literal qemu-img}
+   * @since 1.2
+   */
+  public void setQemuImgBin(String qemuImgBin) {
+    this.qemuImgBin = qemuImgBin;
+  }
+
+  /**
+   * Set a pool of running appliances to execute {@literal guestfish} scripts with.
+   * 
+   * <p>
+   * If configured, scripts are run against an appliance leased from the pool instead of a newly
+   * started {@literal guestfish}, avoiding the time it takes to boot an appliance. Tasks with
+   * options that include environment variables still start their own {@literal guestfish}, as the
+   * environment can only affect a newly launched appliance.
+   * </p>
+   * 
+   * @param appliancePool
+   *          the pool to use, or {@literal null} to start {@literal guestfish} for every task
+   * @since 1.2
+   */
+  public void setAppliancePool(GuestfishAppliancePool appliancePool) {
+    this.appliancePool = appliancePool;
+  }
+
+  /**
+   * Toggle installing first boot scripts with {@literal virt-customize}.
+   * 
+   * <p>
+   * By default, {@literal *.firstboot} resources are installed by {@literal guestfish} commands
+   * run in the same appliance session as the task's script, before the script, which works for
+   * {@literal systemd} based operating systems. When enabled, {@literal virt-customize} installs
+   * them after the script instead, which supports more operating systems but boots another
+   * appliance and inspects the image again.
+   * </p>
+   * 
+   * @param virtCustomizeFirstboot
+   *          {@literal true} to install first boot scripts with {@literal virt-customize};
+   *          defaults to {@literal false}
+   * @since 1.2
+   */
+  public void setVirtCustomizeFirstboot(boolean virtCustomizeFirstboot) {
+    this.virtCustomizeFirstboot = virtCustomizeFirstboot;
+  }
+
 }
@@ -0,0 +1,358 @@
+/* ==================================================================
+ * LibguestfsNodeImageService.java - 18/10/2026 2:31:52 PM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.nim.service.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import net.solarnetwork.nim.domain.SolarNodeImageInfo;
+import net.solarnetwork.nim.domain.SolarNodeImageOptions;
+import net.solarnetwork.nim.service.NodeImageScriptValidator;
+import net.solarnetwork.nim.service.NodeImageService;
+import net.solarnetwork.nim.util.TaskStepTracker;
+
+/**
+ * {@link NodeImageService} using libguestfs in-process, through its Java bindings.
+ * 
+ * <p>
+ * This service accepts the same resources as {@link GuestfsNodeImageService}, but instead of
+ * starting {@literal guestfish} it runs the {@literal guestfish} script with a
+ * {@link GuestfishInterpreter} against a libguestfs handle. Failed commands are reported with the
+ * libguestfs error message of the command itself. First boot scripts are installed in the same
+ * session, before the script, for {@literal systemd} based operating systems.
+ * </p>
+ * 
+ * <p>
+ * Launched handles are kept and reused by later tasks, which attach their image as a hot-plugged
+ * drive; this requires the {@literal libvirt} libguestfs backend. Handles are closed after
+ * {@code maximumUses} tasks, or if a task fails to detach its image. Tasks with options that
+ * include environment variables use a handle of their own, configured from any
+ * {@literal LIBGUESTFS_*} variables.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class LibguestfsNodeImageService extends AbstractNodeImageService {
+
+  /** The default libguestfs Java bindings JAR location. */
+  public static final String DEFAULT_BINDINGS_JAR = "/usr/share/java/libguestfs.jar";
+
+  /** The default maximum number of tasks per handle: 10. */
+  public static final int DEFAULT_MAXIMUM_USES = 10;
+
+  private static final long SCRATCH_DRIVE_SIZE = 16 * 1024 * 1024;
+
+  private final BlockingQueue<GuestfsHandle> idle = new LinkedBlockingQueue<>();
+  private ClassLoader bindingsClassLoader = getClass().getClassLoader();
+  private NodeImageScriptValidator scriptValidator = new GuestfishScriptSanitizer();
+  private NodeImageScriptValidator applianceScriptValidator = new GuestfishScriptSanitizer(true);
+  private String backend = "libvirt";
+  private int maximumUses = DEFAULT_MAXIMUM_USES;
+  private volatile boolean shutdown = false;
+
+  @Override
+  protected ImageSetupResult createImageInternal(String key, SolarNodeImageInfo imageInfo,
+      Path imageFile, List<Path> resources, SolarNodeImageOptions options, TaskStepTracker tracker)
+      throws IOException {
+    Path workingDir = imageFile.getParent();
+    Path scriptFile = GuestfsNodeImageService.scriptFile(resources);
+    scriptValidator.validate(scriptFile);
+    List<Path> firstbootFiles = GuestfsNodeImageService.firstbootFiles(resources);
+
+    Map<String, String> env = (options != null ? options.getEnvironment() : null);
+    final boolean shared = (maximumUses != 1 && (env == null || env.isEmpty()));
+    if (shared) {
+      // shared handles are used by other tasks, so reject scripts that manage their drives or
+      // lifecycle before leasing one, rather than when the script gets to those commands
+      applianceScriptValidator.validate(scriptFile);
+    }
+    GuestfsHandle handle = (shared ? lease() : create(env));
+    boolean healthy = false;
+    try {
+      Map<String, Object> drive = new LinkedHashMap<>(2);
+      drive.put("format", GuestfsNodeImageService.imageFormat(imageFile, options));
+      if (shared) {
+        drive.put("label", GuestfishAppliancePool.IMAGE_DRIVE_LABEL);
+      }
+      handle.call("add_drive", imageFile.toAbsolutePath().toString(), drive);
+      if (!shared) {
+        handle.call("launch");
+      }
+      String output = null;
+      try {
+        mountInspectedFilesystems(handle);
+        GuestfishInterpreter interpreter = new GuestfishInterpreter(handle, workingDir);
+        interpreter.setTrace(options != null && options.isVerbose());
+        interpreter.run("firstboot", GuestfishSessionScript.firstbootCommands(firstbootFiles));
+        output = interpreter.run(scriptFile);
+      } finally {
+        // unmounting flushes all changes to the image, so must succeed if the script did
+        try {
+          handle.call("umount_all");
+          if (shared) {
+            handle.call("remove_drive", GuestfishAppliancePool.IMAGE_DRIVE_LABEL);
+          } else {
+            handle.call("shutdown");
+          }
+          healthy = true;
+        } catch (IOException e) {
+          if (output != null) {
+            throw e;
+          }
+          log.warn("Error detaching image from libguestfs handle: {}", e.getMessage());
+        }
+      }
+      return new ImageSetupResult(imageFile, output, true);
+    } finally {
+      if (shared) {
+        release(handle, healthy);
+      } else {
+        handle.close();
+      }
+    }
+  }
+
+  /**
+   * Mount the filesystems of the OS in the image, like {@literal guestfish -i} does.
+   */
+  private void mountInspectedFilesystems(GuestfsHandle handle) throws IOException {
+    String[] roots = (String[]) handle.call("inspect_os");
+    if (roots == null || roots.length < 1) {
+      throw new IOException("No operating system found in image");
+    }
+    @SuppressWarnings("unchecked")
+    Map<String, String> mountpoints = (Map<String, String>) handle.call("inspect_get_mountpoints",
+        roots[0]);
+    List<Map.Entry<String, String>> mounts = new ArrayList<>(mountpoints.entrySet());
+    // mount parents before children
+    mounts.sort(Comparator.comparingInt(m -> m.getKey().length()));
+    for (Map.Entry<String, String> mount : mounts) {
+      try {
+        handle.call("mount", mount.getValue(), mount.getKey());
+      } catch (IOException e) {
+        log.warn("Unable to mount {} on {}: {}", mount.getValue(), mount.getKey(),
+            e.getMessage());
+      }
+    }
+  }
+
+  private GuestfsHandle lease() throws IOException {
+    if (shutdown) {
+      throw new IOException("Service is shut down");
+    }
+    for (GuestfsHandle h = idle.poll(); h != null; h = idle.poll()) {
+      try {
+        h.call("ping_daemon");
+        h.incrementUseCount();
+        return h;
+      } catch (IOException e) {
+        log.info("Replacing unresponsive libguestfs handle: {}", e.getMessage());
+        h.close();
+      }
+    }
+    GuestfsHandle h = create(null);
+    long start = System.currentTimeMillis();
+    try {
+      // libguestfs needs at least one drive to launch, so task images can be hot-plugged later
+      h.call("add_drive_scratch", SCRATCH_DRIVE_SIZE,
+          Collections.singletonMap("label", "scratch"));
+      h.call("launch");
+    } catch (IOException e) {
+      h.close();
+      throw e;
+    }
+    log.info("Launched libguestfs handle in {}ms", System.currentTimeMillis() - start);
+    h.incrementUseCount();
+    return h;
+  }
+
+  private void release(GuestfsHandle handle, boolean healthy) {
+    if (healthy && !shutdown && (maximumUses < 1 || handle.getUseCount() < maximumUses)) {
+      idle.add(handle);
+      return;
+    }
+    log.debug("Closing libguestfs handle after {} uses", handle.getUseCount());
+    handle.close();
+  }
+
+  private GuestfsHandle create(Map<String, String> env) throws IOException {
+    GuestfsHandle h = GuestfsHandle.create(bindingsClassLoader);
+    try {
+      String be = backend;
+      if (env != null) {
+        for (Map.Entry<String, String> me : env.entrySet()) {
+          switch (me.getKey()) {
+            case "LIBGUESTFS_BACKEND":
+              be = me.getValue();
+              break;
+
+            case "LIBGUESTFS_DEBUG":
+              h.call("set_verbose", "1".equals(me.getValue()));
+              break;
+
+            case "LIBGUESTFS_TRACE":
+              h.call("set_trace", "1".equals(me.getValue()));
+              break;
+
+            case "LIBGUESTFS_MEMSIZE":
+              h.call("set_memsize", Integer.valueOf(me.getValue()));
+              break;
+
+            default:
+              log.warn("Ignoring environment variable {} for in-process libguestfs",
+                  me.getKey());
+          }
+        }
+      }
+      if (be != null && !be.isEmpty()) {
+        h.call("set_backend", be);
+      }
+    } catch (IOException | NumberFormatException e) {
+      h.close();
+      throw new IOException("Error configuring libguestfs handle: " + e.getMessage(), e);
+    }
+    return h;
+  }
+
+  @Override
+  protected Path createOverlayImage(Path baseImage, Path overlayImage,
+      SolarNodeImageOptions options) throws IOException {
+    if (!"raw".equals(GuestfsNodeImageService.baseImageFormat(options))) {
+      // the merged image can only be read back from a raw base
+      return null;
+    }
+    try (GuestfsHandle h = GuestfsHandle.create(bindingsClassLoader)) {
+      Map<String, Object> optargs = new LinkedHashMap<>(2);
+      optargs.put("backingfile", baseImage.toAbsolutePath().toString());
+      optargs.put("backingformat", "raw");
+      h.call("disk_create", overlayImage.toAbsolutePath().toString(), "qcow2", -1L, optargs);
+    }
+    return overlayImage;
+  }
+
+  /**
+   * Close all idle handles, and all handles in use as their tasks complete.
+   */
+  public void shutdown() {
+    shutdown = true;
+    for (GuestfsHandle h = idle.poll(); h != null; h = idle.poll()) {
+      h.close();
+    }
+  }
+
+  /**
+   * Get the number of launched handles waiting for a task.
+   * 
+   * @return the idle handle count
+   */
+  public int getIdleHandleCount() {
+    return idle.size();
+  }
+
+  /**
+   * Set the class loader to load the libguestfs Java bindings from.
+   * 
+   * @param bindingsClassLoader
+   *          the class loader; defaults to the class loader of this class
+   */
+  public void setBindingsClassLoader(ClassLoader bindingsClassLoader) {
+    this.bindingsClassLoader = bindingsClassLoader;
+  }
+
+  /**
+   * Set the libguestfs Java bindings JAR to load the bindings from.
+   * 
+   * <p>
+   * The native library the bindings use, {@literal libguestfs_jni}, must be available on the
+   * {@literal java.library.path}. If {@code bindingsJar} does not exist, the bindings must be
+   * available on the class path.
+   * </p>
+   * 
+   * @param bindingsJar
+   *          the JAR file, for example {@link #DEFAULT_BINDINGS_JAR}
+   */
+  public void setBindingsJar(File bindingsJar) {
+    if (bindingsJar == null || !bindingsJar.isFile()) {
+      log.info("libguestfs Java bindings JAR {} not found; using class path", bindingsJar);
+      return;
+    }
+    try {
+      this.bindingsClassLoader = new URLClassLoader(new URL[] { bindingsJar.toURI().toURL() },
+          getClass().getClassLoader());
+    } catch (MalformedURLException e) {
+      throw new IllegalArgumentException("Invalid bindings JAR " + bindingsJar, e);
+    }
+  }
+
+  /**
+   * Set a validator to use on {@literal guestfish} scripts.
+   * 
+   * @param scriptValidator
+   *          the validate to use; defaults to a {@link GuestfishScriptSanitizer} instance
+   */
+  public void setScriptValidator(NodeImageScriptValidator scriptValidator) {
+    this.scriptValidator = scriptValidator;
+  }
+
+  /**
+   * Set the libguestfs backend to launch handles with.
+   * 
+   * @param backend
+   *          the backend, which must support hot-plugging drives unless {@code maximumUses} is
+   *          {@literal 1}, or {@literal null} to use the libguestfs default; defaults to
+   *          {@literal libvirt}
+   */
+  public void setBackend(String backend) {
+    this.backend = backend;
+  }
+
+  /**
+   * Set the number of tasks a handle can be used for before it is closed.
+   * 
+   * <p>
+   * When set to {@literal 1}, every task launches its own handle with its image attached, which
+   * works with any libguestfs backend.
+   * </p>
+   * 
+   * @param maximumUses
+   *          the maximum uses, or {@literal 0} for no limit; defaults to
+   *          {@link #DEFAULT_MAXIMUM_USES}
+   */
+  public void setMaximumUses(int maximumUses) {
+    this.maximumUses = maximumUses;
+  }
+
+}
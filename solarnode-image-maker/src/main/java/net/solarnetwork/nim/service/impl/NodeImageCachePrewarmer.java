@@ -0,0 +1,283 @@
+/* ==================================================================
+ * NodeImageCachePrewarmer.java - 18/10/2026 9:52:18 AM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.nim.service.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.StreamUtils;
+
+import net.solarnetwork.nim.domain.SolarNodeImage;
+import net.solarnetwork.nim.domain.SolarNodeImageInfo;
+import net.solarnetwork.nim.service.DataStreamCache;
+import net.solarnetwork.nim.service.NodeImageRepository;
+import net.solarnetwork.nim.service.RangedDataSupplier;
+import net.solarnetwork.nim.util.BandwidthLimiter;
+
+/**
+ * Fetch the most recently published images of a repository into a {@link DataStreamCache} in the
+ * background, so they are cached before any task needs them.
+ * 
+ * <p>
+ * Once started, the repository is checked for images not in the cache after {@code initialDelay}
+ * and then again after every {@code delay}. The {@code imageCount} most recently published images
+ * are fetched, newest first, with at most {@code concurrency} images fetched at once and all
+ * fetches sharing a limited bandwidth, so that fetching does not slow down the downloads of running
+ * tasks too much. Once a task requests an image being fetched, that fetch is no longer limited, as
+ * the task is waiting for it. Only images that can be read in ranges, as a
+ * {@link RangedDataSupplier}, are fetched.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class NodeImageCachePrewarmer {
+
+  /** The default number of images to keep cached: 2. */
+  public static final int DEFAULT_IMAGE_COUNT = 2;
+
+  /** The default delay between checks for new images: 15 minutes. */
+  public static final long DEFAULT_DELAY = TimeUnit.MINUTES.toMillis(15);
+
+  private static final Comparator<SolarNodeImageInfo> NEWEST_FIRST = Comparator
+      .comparingLong(NodeImageCachePrewarmer::lastModified).reversed();
+
+  private final NodeImageRepository repository;
+  private final DataStreamCache cache;
+  private final Set<String> pending = ConcurrentHashMap.newKeySet();
+
+  private int imageCount = DEFAULT_IMAGE_COUNT;
+  private int concurrency = 1;
+  private BandwidthLimiter bandwidthLimiter = new BandwidthLimiter(0);
+  private long initialDelay = TimeUnit.SECONDS.toMillis(10);
+  private long delay = DEFAULT_DELAY;
+  private ScheduledExecutorService executorService;
+
+  private final Logger log = LoggerFactory.getLogger(getClass());
+
+  /**
+   * Constructor.
+   * 
+   * @param repository
+   *          the repository to fetch images from
+   * @param cache
+   *          the cache to fetch images into
+   */
+  public NodeImageCachePrewarmer(NodeImageRepository repository, DataStreamCache cache) {
+    super();
+    this.repository = repository;
+    this.cache = cache;
+  }
+
+  private static long lastModified(SolarNodeImageInfo info) {
+    return (info instanceof RangedDataSupplier ? ((RangedDataSupplier) info).getLastModified()
+        : 0);
+  }
+
+  /**
+   * Start checking for images to fetch.
+   */
+  public synchronized void startup() {
+    if (executorService != null) {
+      return;
+    }
+    CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("cache-prewarm-");
+    threadFactory.setDaemon(true);
+    executorService = new ScheduledThreadPoolExecutor(concurrency, threadFactory);
+    executorService.scheduleWithFixedDelay(() -> {
+      try {
+        prewarm();
+      } catch (RuntimeException e) {
+        log.warn("Error checking for images to prewarm cache with: {}", e.getMessage());
+      }
+    }, initialDelay, delay, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Stop checking for images to fetch, and cancel any fetches in progress.
+   */
+  public synchronized void shutdown() {
+    if (executorService != null) {
+      executorService.shutdownNow();
+      executorService = null;
+    }
+  }
+
+  /**
+   * Check for images to fetch now.
+   * 
+   * <p>
+   * Images not already cached or being fetched are queued to fetch. The {@link #startup()} method
+   * must be called first.
+   * </p>
+   * 
+   * @return the queued fetches, in the order they will start; each result is {@literal true} if
+   *         the image was fetched
+   */
+  public List<Future<Boolean>> prewarm() {
+    final ScheduledExecutorService executor;
+    synchronized (this) {
+      executor = executorService;
+    }
+    if (executor == null || imageCount < 1) {
+      return Collections.emptyList();
+    }
+    List<SolarNodeImageInfo> infos = new ArrayList<>(16);
+    for (SolarNodeImageInfo info : repository.findAll()) {
+      infos.add(info);
+    }
+    infos.sort(NEWEST_FIRST);
+    List<Future<Boolean>> result = new ArrayList<>(imageCount);
+    for (SolarNodeImageInfo info : infos.subList(0, Math.min(imageCount, infos.size()))) {
+      final String id = info.getId();
+      if (cache.contains(id) || !pending.add(id)) {
+        continue;
+      }
+      log.info("Queued image {} to prewarm cache with", id);
+      result.add(executor.submit(() -> {
+        try {
+          return fetch(id);
+        } finally {
+          pending.remove(id);
+        }
+      }));
+    }
+    return result;
+  }
+
+  private boolean fetch(String id) {
+    final long start = System.currentTimeMillis();
+    try {
+      final SolarNodeImage image = repository.findOne(id);
+      if (!(image instanceof RangedDataSupplier)) {
+        log.debug("Image {} can not be fetched in ranges; not prewarming cache with it", id);
+        return false;
+      }
+      final RangedDataSupplier source = (RangedDataSupplier) image;
+      final RangedDataSupplier supplier = new RangedDataSupplier() {
+
+        @Override
+        public long getContentLength() {
+          return source.getContentLength();
+        }
+
+        @Override
+        public String getSha256() {
+          return source.getSha256();
+        }
+
+        @Override
+        public InputStream getRange(long offset, long length) throws IOException {
+          // a request for the image joining the fill reads as fast as it can, without the limit
+          return bandwidthLimiter.limit(source.getRange(offset, length),
+              () -> cache.readerCount(id) > 1);
+        }
+
+        @Override
+        public InputStream getData() throws IOException {
+          return bandwidthLimiter.limit(source.getData(), () -> cache.readerCount(id) > 1);
+        }
+
+      };
+      // read to the end, so the fill is not abandoned
+      try (InputStream in = cache.get(id, supplier)) {
+        StreamUtils.drain(in);
+      }
+      log.info("Prewarmed cache with image {} ({} bytes) in {}s", id, source.getContentLength(),
+          TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - start));
+      return true;
+    } catch (IOException | RuntimeException e) {
+      log.warn("Error prewarming cache with image {}: {}", id, e.getMessage());
+      return false;
+    }
+  }
+
+  /**
+   * Set the number of most recently published images to keep cached.
+   * 
+   * @param imageCount
+   *          the number of images; defaults to {@link #DEFAULT_IMAGE_COUNT}
+   */
+  public void setImageCount(int imageCount) {
+    this.imageCount = imageCount;
+  }
+
+  /**
+   * Set the maximum number of images to fetch at once.
+   * 
+   * <p>
+   * This must be set before {@link #startup()} is called.
+   * </p>
+   * 
+   * @param concurrency
+   *          the number of images; defaults to {@literal 1}
+   */
+  public void setConcurrency(int concurrency) {
+    this.concurrency = Math.max(1, concurrency);
+  }
+
+  /**
+   * Set the maximum combined rate to fetch images at.
+   * 
+   * @param bytesPerSecond
+   *          the rate, in bytes per second, or {@literal 0} for no limit; defaults to
+   *          {@literal 0}
+   */
+  public void setBandwidth(long bytesPerSecond) {
+    this.bandwidthLimiter = new BandwidthLimiter(bytesPerSecond);
+  }
+
+  /**
+   * Set the delay after {@link #startup()} before the first check for images to fetch.
+   * 
+   * @param initialDelay
+   *          the delay, in milliseconds; defaults to 10 seconds
+   */
+  public void setInitialDelay(long initialDelay) {
+    this.initialDelay = initialDelay;
+  }
+
+  /**
+   * Set the delay between checks for images to fetch.
+   * 
+   * @param delay
+   *          the delay, in milliseconds; defaults to {@link #DEFAULT_DELAY}
+   */
+  public void setDelay(long delay) {
+    this.delay = delay;
+  }
+
+}
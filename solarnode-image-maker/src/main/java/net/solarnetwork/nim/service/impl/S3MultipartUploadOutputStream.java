@@ -0,0 +1,357 @@
+/* ==================================================================
+ * S3MultipartUploadOutputStream.java - 18/10/2026 8:12:36 AM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.nim.service.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+
+/**
+ * {@link OutputStream} that uploads data to an S3 object in parts as it is written.
+ * 
+ * <p>
+ * Written data is collected into part buffers of a fixed size. Each full buffer is uploaded as one
+ * part of a multipart upload by an {@link ExecutorService}, so writing can continue while previous
+ * parts upload. At most {@code concurrency + 1} buffers are used, so writing blocks when that many
+ * parts are waiting to upload. Parts that fail to upload are retried with an exponential backoff.
+ * </p>
+ * 
+ * <p>
+ * The upload is completed by {@link #close()}. If all data fits into a single part, it is uploaded
+ * with a single request instead. Call {@link #abort()} to discard the upload if an error occurs
+ * while writing, <b>before</b> closing the stream, otherwise the object will be created with
+ * whatever data was written.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class S3MultipartUploadOutputStream extends OutputStream {
+
+  /** The minimum size of all but the last part of a multipart upload. */
+  public static final int MINIMUM_PART_SIZE = 5 * 1024 * 1024;
+
+  private final AmazonS3 client;
+  private final String bucketName;
+  private final String objectKey;
+  private final ExecutorService executor;
+  private final int partSize;
+  private final int bufferCount;
+  private final BlockingQueue<byte[]> freeBuffers = new LinkedBlockingQueue<>();
+  private final List<Future<PartETag>> parts = new ArrayList<>(16);
+
+  private int maximumRetries = 3;
+  private long retryDelay = 1000;
+
+  private int allocatedBuffers = 0;
+  private byte[] buffer;
+  private int count;
+  private String uploadId;
+  private boolean closed;
+  private boolean complete;
+
+  private final Logger log = LoggerFactory.getLogger(getClass());
+
+  /**
+   * Constructor.
+   * 
+   * @param client
+   *          the S3 client
+   * @param bucketName
+   *          the bucket to upload to
+   * @param objectKey
+   *          the key of the object to upload
+   * @param executor
+   *          the executor to upload parts with
+   * @param partSize
+   *          the size of each part, in bytes; will be raised to {@link #MINIMUM_PART_SIZE} if
+   *          smaller
+   * @param concurrency
+   *          the maximum number of parts to upload at once
+   */
+  public S3MultipartUploadOutputStream(AmazonS3 client, String bucketName, String objectKey,
+      ExecutorService executor, int partSize, int concurrency) {
+    super();
+    this.client = client;
+    this.bucketName = bucketName;
+    this.objectKey = objectKey;
+    this.executor = executor;
+    this.partSize = Math.max(MINIMUM_PART_SIZE, partSize);
+    this.bufferCount = Math.max(1, concurrency) + 1;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    nextBuffer();
+    buffer[count++] = (byte) b;
+    if (count == partSize) {
+      uploadPart();
+    }
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    while (len > 0) {
+      nextBuffer();
+      int n = Math.min(len, partSize - count);
+      System.arraycopy(b, off, buffer, count, n);
+      count += n;
+      off += n;
+      len -= n;
+      if (count == partSize) {
+        uploadPart();
+      }
+    }
+  }
+
+  private void nextBuffer() throws IOException {
+    if (closed) {
+      throw new IOException("Upload to " + objectKey + " closed");
+    }
+    if (buffer != null) {
+      return;
+    }
+    checkParts();
+    byte[] b = freeBuffers.poll();
+    if (b == null && allocatedBuffers < bufferCount) {
+      allocatedBuffers++;
+      b = new byte[partSize];
+    }
+    while (b == null) {
+      try {
+        b = freeBuffers.take();
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException("Interrupted waiting for upload to " + objectKey);
+      }
+      // stop filling buffers as soon as any part has failed
+      checkParts();
+    }
+    buffer = b;
+    count = 0;
+  }
+
+  private void checkParts() throws IOException {
+    for (Future<PartETag> part : parts) {
+      if (part.isDone()) {
+        partETag(part);
+      }
+    }
+  }
+
+  private PartETag partETag(Future<PartETag> part) throws IOException {
+    try {
+      return part.get();
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException("Interrupted waiting for upload to " + objectKey);
+    } catch (ExecutionException e) {
+      throw new IOException("Error uploading to " + objectKey + ": " + e.getCause().getMessage(),
+          e.getCause());
+    }
+  }
+
+  private void uploadPart() {
+    if (uploadId == null) {
+      uploadId = client
+          .initiateMultipartUpload(new InitiateMultipartUploadRequest(bucketName, objectKey))
+          .getUploadId();
+      log.debug("Started multipart upload {} to {}", uploadId, objectKey);
+    }
+    final byte[] data = buffer;
+    final int length = count;
+    final int partNumber = parts.size() + 1;
+    buffer = null;
+    count = 0;
+    parts.add(executor.submit(() -> {
+      try {
+        return retry("part " + partNumber, () -> {
+          UploadPartRequest req = new UploadPartRequest().withBucketName(bucketName)
+              .withKey(objectKey).withUploadId(uploadId).withPartNumber(partNumber)
+              .withInputStream(new ByteArrayInputStream(data, 0, length)).withPartSize(length);
+          return client.uploadPart(req).getPartETag();
+        });
+      } finally {
+        freeBuffers.add(data);
+      }
+    }));
+  }
+
+  private <T> T retry(String description, Callable<T> request)
+      throws Exception {
+    for (int attempt = 0;; attempt++) {
+      try {
+        return request.call();
+      } catch (AmazonClientException e) {
+        if (attempt >= maximumRetries || !isRetryable(e)) {
+          throw e;
+        }
+        long delay = retryDelay << attempt;
+        log.warn("Error uploading {} of {}, will retry in {}ms: {}", description, objectKey, delay,
+            e.getMessage());
+        Thread.sleep(delay);
+      }
+    }
+  }
+
+  private static boolean isRetryable(AmazonClientException e) {
+    if (e instanceof AmazonServiceException) {
+      // client errors like access denied will not succeed if repeated
+      int status = ((AmazonServiceException) e).getStatusCode();
+      return (status >= 500 || status == 429);
+    }
+    return e.isRetryable();
+  }
+
+  /**
+   * Complete the upload.
+   * 
+   * <p>
+   * This waits for all parts to finish uploading. If any part fails, the upload is aborted.
+   * </p>
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      if (uploadId == null) {
+        final byte[] data = (buffer != null ? buffer : new byte[0]);
+        final int length = count;
+        ObjectMetadata meta = new ObjectMetadata();
+        meta.setContentLength(length);
+        retry("object", () -> client.putObject(new PutObjectRequest(bucketName, objectKey,
+            new ByteArrayInputStream(data, 0, length), meta)));
+      } else {
+        if (count > 0) {
+          uploadPart();
+        }
+        List<PartETag> etags = new ArrayList<>(parts.size());
+        for (Future<PartETag> part : parts) {
+          etags.add(partETag(part));
+        }
+        client.completeMultipartUpload(
+            new CompleteMultipartUploadRequest(bucketName, objectKey, uploadId, etags));
+        log.debug("Completed multipart upload {} to {} with {} parts", uploadId, objectKey,
+            etags.size());
+      }
+      complete = true;
+    } catch (IOException e) {
+      abortUpload();
+      throw e;
+    } catch (Exception e) {
+      abortUpload();
+      throw new IOException("Error uploading to " + objectKey + ": " + e.getMessage(), e);
+    } finally {
+      buffer = null;
+      freeBuffers.clear();
+    }
+  }
+
+  /**
+   * Discard the upload.
+   * 
+   * <p>
+   * After calling this method, {@link #close()} does nothing. This method does nothing if the
+   * upload has already completed.
+   * </p>
+   */
+  public void abort() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    abortUpload();
+    buffer = null;
+    freeBuffers.clear();
+  }
+
+  private void abortUpload() {
+    for (Future<PartETag> part : parts) {
+      part.cancel(true);
+    }
+    if (uploadId == null) {
+      return;
+    }
+    try {
+      client.abortMultipartUpload(new AbortMultipartUploadRequest(bucketName, objectKey, uploadId));
+      log.info("Aborted multipart upload {} to {}", uploadId, objectKey);
+    } catch (AmazonClientException e) {
+      log.warn("Error aborting multipart upload {} to {}: {}", uploadId, objectKey,
+          e.getMessage());
+    }
+  }
+
+  /**
+   * Test if the upload completed successfully.
+   * 
+   * @return {@literal true} if {@link #close()} has completed the upload
+   */
+  public boolean isComplete() {
+    return complete;
+  }
+
+  /**
+   * Set the maximum number of times to retry uploading a part.
+   * 
+   * @param maximumRetries
+   *          the maximum retries; defaults to {@literal 3}
+   */
+  public void setMaximumRetries(int maximumRetries) {
+    this.maximumRetries = maximumRetries;
+  }
+
+  /**
+   * Set the delay before the first retry of a part, which doubles for each further retry.
+   * 
+   * @param retryDelay
+   *          the delay, in milliseconds; defaults to {@literal 1000}
+   */
+  public void setRetryDelay(long retryDelay) {
+    this.retryDelay = retryDelay;
+  }
+
+}
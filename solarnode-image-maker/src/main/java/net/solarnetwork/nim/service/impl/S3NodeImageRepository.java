@@ -22,21 +22,26 @@
 
 package net.solarnetwork.nim.service.impl;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.codec.binary.Hex;
@@ -44,17 +49,25 @@ import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.compress.compressors.CompressorException;
 import org.apache.commons.lang3.mutable.MutableLong;
 import org.springframework.http.MediaType;
-import org.springframework.util.FileCopyUtils;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.StreamUtils;
 import org.springframework.util.StringUtils;
 
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.GetObjectRequest;
 import com.amazonaws.services.s3.model.ListObjectsV2Request;
 import com.amazonaws.services.s3.model.ListObjectsV2Result;
 import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectResult;
 import com.amazonaws.services.s3.model.S3Object;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 
 import net.solarnetwork.nim.domain.BasicSolarNodeImageInfo;
 import net.solarnetwork.nim.domain.SolarNodeImage;
@@ -72,8 +85,25 @@ import net.solarnetwork.nim.util.TaskStepTrackerOutputStream;
 /**
  * {@link NodeImageRepository} backed by Amazon S3 storage.
  * 
+ * <p>
+ * Image metadata objects are cached in memory along with their ETag. Listing images reuses the
+ * cached metadata of every object whose listed ETag has not changed, and fetches the rest in
+ * parallel. Finding a single image reuses its cached metadata for up to {@code metadataTtl}, after
+ * which the metadata is revalidated with a conditional request that only returns the object if its
+ * ETag has changed.
+ * </p>
+ * 
+ * <p>
+ * The metadata of all images is also kept in a single manifest object, which is updated when images
+ * are saved or deleted, so listing images needs just one request. As other tools might publish
+ * images without updating the manifest, the manifest is rebuilt from a full listing once it is
+ * older than {@code manifestTtl}. Updates to the manifest are made one at a time, are conditional
+ * on its ETag, and are retried if another writer changed it first; if they still conflict the
+ * manifest is rebuilt by the next listing, and if they fail for another reason it is deleted.
+ * </p>
+ * 
  * @author matt
- * @version 1.0
+ * @version 1.1
  */
 public class S3NodeImageRepository extends AbstractNodeImageRepository
     implements UpdatableNodeImageRepository {
@@ -91,14 +121,72 @@ public class S3NodeImageRepository extends AbstractNodeImageRepository
   private static final String METADATA_OBJECT_KEY_SUFFIX = ".json";
   private static final String IMAGE_OBJECT_KEY_SUFFIX = ".img";
 
+  /**
+   * The S3 object key of the manifest of all image metadata.
+   */
+  public static final String MANIFEST_OBJECT_KEY = "node-image-manifest.json";
+
+  private static final int MANIFEST_MAXIMUM_RETRIES = 3;
+
   private final AmazonS3 client;
   private final String bucketName;
   private final String objectKeyPrefix;
+  private final ConcurrentMap<String, CachedMetadata> metadataCache = new ConcurrentHashMap<>(16);
 
-  private Path workDirectory = Paths.get(System.getProperty("java.io.tmpdir"));
+  private ExecutorService uploadExecutorService = defaultUploadExecutorService();
+  private int uploadPartSize = 8 * 1024 * 1024;
+  private int uploadConcurrency = 4;
+  private int uploadMaximumRetries = 3;
   private DataStreamCache imageCache;
   private int maximumKeysPerRequest = 500;
   private long downloadExpirationSeconds = TimeUnit.HOURS.toSeconds(1);
+  private ExecutorService metadataExecutorService = defaultMetadataExecutorService();
+  private int metadataConcurrency = 8;
+  private long metadataTtl = TimeUnit.MINUTES.toMillis(5);
+  private long manifestTtl = TimeUnit.HOURS.toMillis(1);
+  private final Object manifestLock = new Object();
+  private final Object manifestUpdateLock = new Object();
+  private Manifest manifest;
+  private volatile boolean manifestReadOnly = false;
+  private volatile boolean manifestStale = false;
+
+  /**
+   * Cached image metadata.
+   */
+  private static final class CachedMetadata {
+
+    private final String etag;
+    private final BasicSolarNodeImageInfo info;
+    private final long lastModified;
+    private volatile long validated;
+
+    private CachedMetadata(String etag, BasicSolarNodeImageInfo info, long lastModified) {
+      super();
+      this.etag = etag;
+      this.info = info;
+      this.lastModified = lastModified;
+      this.validated = System.currentTimeMillis();
+    }
+
+  }
+
+  /**
+   * A loaded manifest.
+   */
+  private static final class Manifest {
+
+    private final String etag;
+    private final long updated;
+    private final Map<String, CachedMetadata> images;
+
+    private Manifest(String etag, long updated, Map<String, CachedMetadata> images) {
+      super();
+      this.etag = etag;
+      this.updated = updated;
+      this.images = images;
+    }
+
+  }
 
   /**
    * Constructor.
@@ -117,6 +205,18 @@ public class S3NodeImageRepository extends AbstractNodeImageRepository
     this.objectKeyPrefix = objectKeyPrefix;
   }
 
+  private static ExecutorService defaultUploadExecutorService() {
+    CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("s3-upload-");
+    threadFactory.setDaemon(true);
+    return Executors.newCachedThreadPool(threadFactory);
+  }
+
+  private static ExecutorService defaultMetadataExecutorService() {
+    CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("s3-meta-");
+    threadFactory.setDaemon(true);
+    return Executors.newCachedThreadPool(threadFactory);
+  }
+
   private String absoluteObjectKey(String objectKey) {
     String globalPrefix = this.objectKeyPrefix;
     if (globalPrefix == null) {
@@ -125,9 +225,58 @@ public class S3NodeImageRepository extends AbstractNodeImageRepository
     return globalPrefix + objectKey;
   }
 
+  private String metaObjectKey(String id) {
+    return absoluteObjectKey(META_OBJECT_KEY_PREFIX + id + METADATA_OBJECT_KEY_SUFFIX);
+  }
+
+  private String imageObjectKey(String id) {
+    return MaxCompressorStreamFactory.getCompressedFilename(getCompressionType(),
+        absoluteObjectKey(DATA_OBJECT_KEY_PREFIX + id + IMAGE_OBJECT_KEY_SUFFIX));
+  }
+
+  private S3SolarNodeImage image(String id, String metaObjectKey, CachedMetadata meta) {
+    S3SolarNodeImage image = new S3SolarNodeImage(id, bucketName, metaObjectKey,
+        imageObjectKey(id), client, imageCache, meta.info);
+    image.setLastModified(meta.lastModified);
+    return image;
+  }
+
+  private CachedMetadata cacheMetadata(String metaObjectKey, S3Object object) throws IOException {
+    try (InputStream in = object.getObjectContent()) {
+      BasicSolarNodeImageInfo info = OBJECT_MAPPER.readValue(in, BasicSolarNodeImageInfo.class);
+      ObjectMetadata objectMeta = object.getObjectMetadata();
+      CachedMetadata meta = new CachedMetadata(objectMeta.getETag(), info,
+          objectMeta.getLastModified() != null ? objectMeta.getLastModified().getTime() : 0);
+      metadataCache.put(metaObjectKey, meta);
+      return meta;
+    }
+  }
+
   @Override
   public Iterable<SolarNodeImageInfo> findAll() {
-    List<SolarNodeImageInfo> result = new ArrayList<>(20);
+    Map<String, CachedMetadata> images = null;
+    if (isManifestEnabled()) {
+      Manifest m = loadManifest();
+      if (m != null && !manifestStale && m.updated + manifestTtl > System.currentTimeMillis()) {
+        images = m.images;
+      }
+    }
+    if (images == null) {
+      images = listMetadata();
+      if (isManifestEnabled()) {
+        rebuildManifest(images);
+      }
+    }
+    List<SolarNodeImageInfo> result = new ArrayList<>(images.size());
+    for (Map.Entry<String, CachedMetadata> me : images.entrySet()) {
+      result.add(image(me.getKey(), metaObjectKey(me.getKey()), me.getValue()));
+    }
+    Collections.sort(result, SolarNodeImageInfoSortById.SORT_BY_ID);
+    return result;
+  }
+
+  private Map<String, CachedMetadata> listMetadata() {
+    final Map<String, S3ObjectSummary> listed = new LinkedHashMap<>(20);
 
     final ListObjectsV2Request req = new ListObjectsV2Request();
     req.setBucketName(bucketName);
@@ -141,19 +290,252 @@ public class S3NodeImageRepository extends AbstractNodeImageRepository
         if (!objectSummary.getKey().endsWith(METADATA_OBJECT_KEY_SUFFIX)) {
           continue;
         }
-        String id = StringUtils.getFilename(objectSummary.getKey().substring(0,
-            objectSummary.getKey().length() - METADATA_OBJECT_KEY_SUFFIX.length()));
-
-        result.add(new S3SolarNodeImage(id, objectSummary.getBucketName(), objectSummary.getKey(),
-            absoluteObjectKey(DATA_OBJECT_KEY_PREFIX + id), client, imageCache));
+        listed.put(objectSummary.getKey(), objectSummary);
       }
       req.setContinuationToken(listResult.getNextContinuationToken());
     } while (listResult.isTruncated() == true);
 
-    Collections.sort(result, SolarNodeImageInfoSortById.SORT_BY_ID);
+    // forget deleted objects, then fetch the metadata of all new or changed objects
+    metadataCache.keySet().retainAll(listed.keySet());
+    final Queue<String> misses = new ConcurrentLinkedQueue<>();
+    for (S3ObjectSummary objectSummary : listed.values()) {
+      CachedMetadata meta = metadataCache.get(objectSummary.getKey());
+      if (meta == null || !meta.etag.equals(objectSummary.getETag())) {
+        misses.add(objectSummary.getKey());
+      } else {
+        meta.validated = System.currentTimeMillis();
+      }
+    }
+    hydrate(misses);
+
+    Map<String, CachedMetadata> result = new TreeMap<>();
+    for (String metaObjectKey : listed.keySet()) {
+      CachedMetadata meta = metadataCache.get(metaObjectKey);
+      if (meta == null) {
+        continue;
+      }
+      String id = StringUtils.getFilename(metaObjectKey.substring(0,
+          metaObjectKey.length() - METADATA_OBJECT_KEY_SUFFIX.length()));
+      result.put(id, meta);
+    }
     return result;
   }
 
+  /**
+   * Fetch the metadata of some objects into the cache, using up to {@code metadataConcurrency}
+   * requests at once.
+   */
+  private void hydrate(Queue<String> metaObjectKeys) {
+    if (metaObjectKeys.isEmpty()) {
+      return;
+    }
+    log.debug("Fetching {} image metadata objects", metaObjectKeys.size());
+    final int workerCount = Math.min(metadataConcurrency, metaObjectKeys.size());
+    final List<Future<?>> workers = new ArrayList<>(workerCount);
+    for (int i = 0; i < workerCount; i++) {
+      workers.add(metadataExecutorService.submit(() -> {
+        String metaObjectKey;
+        while ((metaObjectKey = metaObjectKeys.poll()) != null) {
+          try {
+            cacheMetadata(metaObjectKey, client.getObject(bucketName, metaObjectKey));
+          } catch (IOException | AmazonClientException e) {
+            // leave the image out of the listing, like an object deleted while listing
+            log.warn("Error fetching image metadata {}: {}", metaObjectKey, e.getMessage());
+          }
+        }
+      }));
+    }
+    for (Future<?> worker : workers) {
+      try {
+        worker.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException("Interrupted fetching image metadata", e);
+      } catch (ExecutionException e) {
+        throw new RuntimeException("Error fetching image metadata: " + e.getCause().getMessage(),
+            e.getCause());
+      }
+    }
+  }
+
+  private boolean isManifestEnabled() {
+    return (manifestTtl > 0 && !manifestReadOnly);
+  }
+
+  /**
+   * Load the manifest, if it has changed since it was last loaded.
+   * 
+   * @return the manifest, or {@literal null} if there is no manifest or it can not be loaded
+   */
+  private Manifest loadManifest() {
+    final String manifestObjectKey = absoluteObjectKey(MANIFEST_OBJECT_KEY);
+    final Manifest cached;
+    synchronized (manifestLock) {
+      cached = manifest;
+    }
+    GetObjectRequest req = new GetObjectRequest(bucketName, manifestObjectKey);
+    if (cached != null) {
+      req.withNonmatchingETagConstraint(cached.etag);
+    }
+    try {
+      S3Object object = client.getObject(req);
+      if (object == null) {
+        // not modified
+        return cached;
+      }
+      Manifest loaded;
+      try (InputStream in = object.getObjectContent()) {
+        loaded = decodeManifest(object.getObjectMetadata().getETag(), in);
+      }
+      for (Map.Entry<String, CachedMetadata> me : loaded.images.entrySet()) {
+        metadataCache.putIfAbsent(metaObjectKey(me.getKey()), me.getValue());
+      }
+      setManifest(loaded);
+      return loaded;
+    } catch (AmazonServiceException e) {
+      if (e.getStatusCode() != 404) {
+        log.warn("Error loading image manifest {}: {}", manifestObjectKey, e.getMessage());
+      }
+    } catch (IOException | AmazonClientException e) {
+      log.warn("Error loading image manifest {}: {}", manifestObjectKey, e.getMessage());
+    }
+    setManifest(null);
+    return null;
+  }
+
+  private void setManifest(Manifest manifest) {
+    synchronized (manifestLock) {
+      this.manifest = manifest;
+    }
+  }
+
+  private Manifest decodeManifest(String etag, InputStream in) throws IOException {
+    JsonNode root = OBJECT_MAPPER.readTree(in);
+    Map<String, CachedMetadata> images = new TreeMap<>();
+    for (JsonNode node : root.path("images")) {
+      BasicSolarNodeImageInfo info = OBJECT_MAPPER.treeToValue(node.path("info"),
+          BasicSolarNodeImageInfo.class);
+      images.put(node.path("id").asText(),
+          new CachedMetadata(node.path("etag").asText(), info, node.path("published").asLong()));
+    }
+    return new Manifest(etag, root.path("updated").asLong(), images);
+  }
+
+  private byte[] encodeManifest(long updated, Map<String, CachedMetadata> images)
+      throws IOException {
+    ObjectNode root = OBJECT_MAPPER.createObjectNode();
+    root.put("updated", updated);
+    ArrayNode array = root.putArray("images");
+    for (Map.Entry<String, CachedMetadata> me : images.entrySet()) {
+      ObjectNode node = array.addObject();
+      node.put("id", me.getKey());
+      node.put("etag", me.getValue().etag);
+      node.put("published", me.getValue().lastModified);
+      node.set("info", OBJECT_MAPPER.valueToTree(me.getValue().info));
+    }
+    return OBJECT_MAPPER.writeValueAsBytes(root);
+  }
+
+  /**
+   * Write the manifest, if it has not changed since it was loaded.
+   * 
+   * @return {@literal true} if the manifest was written, {@literal false} if it has changed
+   */
+  private boolean writeManifest(long updated, Map<String, CachedMetadata> images,
+      String expectedEtag) throws IOException {
+    final String manifestObjectKey = absoluteObjectKey(MANIFEST_OBJECT_KEY);
+    final byte[] json = encodeManifest(updated, images);
+    ObjectMetadata objectMeta = new ObjectMetadata();
+    objectMeta.setContentLength(json.length);
+    objectMeta.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+    PutObjectRequest req = new PutObjectRequest(bucketName, manifestObjectKey,
+        new ByteArrayInputStream(json), objectMeta);
+    if (expectedEtag != null) {
+      req.putCustomRequestHeader("If-Match", expectedEtag);
+    } else {
+      req.putCustomRequestHeader("If-None-Match", "*");
+    }
+    try {
+      PutObjectResult result = client.putObject(req);
+      setManifest(new Manifest(result.getETag(), updated, images));
+      return true;
+    } catch (AmazonServiceException e) {
+      if (e.getStatusCode() == 412 || e.getStatusCode() == 409) {
+        return false;
+      }
+      if (e.getStatusCode() == 403) {
+        // a read-only repository, so list images instead
+        log.warn("Not allowed to write image manifest {}; disabling manifest", manifestObjectKey);
+        manifestReadOnly = true;
+      }
+      throw e;
+    }
+  }
+
+  private void rebuildManifest(Map<String, CachedMetadata> images) {
+    synchronized (manifestUpdateLock) {
+      final String expectedEtag;
+      synchronized (manifestLock) {
+        expectedEtag = (manifest != null ? manifest.etag : null);
+      }
+      try {
+        if (writeManifest(System.currentTimeMillis(), images, expectedEtag)) {
+          manifestStale = false;
+          log.info("Rebuilt image manifest with {} images", images.size());
+        }
+      } catch (IOException | AmazonClientException e) {
+        log.warn("Error rebuilding image manifest: {}", e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Add, replace, or remove one image in the manifest.
+   * 
+   * <p>
+   * Updates are made one at a time, so concurrent saves in this process do not conflict with each
+   * other. If the manifest does not exist, nothing is changed as it will include the image when it
+   * is rebuilt. If other writers keep changing the manifest, it is left for the next listing to
+   * rebuild. If the manifest can not be updated for any other reason, it is deleted.
+   * </p>
+   */
+  private void updateManifest(String id, CachedMetadata meta) {
+    if (!isManifestEnabled()) {
+      return;
+    }
+    synchronized (manifestUpdateLock) {
+      try {
+        for (int attempt = 0; attempt <= MANIFEST_MAXIMUM_RETRIES; attempt++) {
+          Manifest current = loadManifest();
+          if (current == null) {
+            return;
+          }
+          Map<String, CachedMetadata> images = new TreeMap<>(current.images);
+          if (meta != null) {
+            images.put(id, meta);
+          } else {
+            images.remove(id);
+          }
+          if (writeManifest(current.updated, images, current.etag)) {
+            return;
+          }
+          log.debug("Image manifest changed while updating image {}; will retry", id);
+        }
+        log.warn("Image manifest kept changing while updating image {}; will rebuild", id);
+        manifestStale = true;
+        return;
+      } catch (IOException | AmazonClientException e) {
+        log.warn("Error updating image manifest for image {}: {}", id, e.getMessage());
+      }
+      try {
+        client.deleteObject(bucketName, absoluteObjectKey(MANIFEST_OBJECT_KEY));
+        setManifest(null);
+      } catch (AmazonClientException e) {
+        log.error("Error deleting out of date image manifest: {}", e.getMessage());
+      }
+    }
+  }
+
   @Override
   public SolarNodeImage findOne(String id) {
     try {
@@ -164,20 +546,36 @@ public class S3NodeImageRepository extends AbstractNodeImageRepository
   }
 
   private S3SolarNodeImage findOneInternal(String id) throws IOException {
-    final String metaObjectKey = absoluteObjectKey(
-        META_OBJECT_KEY_PREFIX + id + METADATA_OBJECT_KEY_SUFFIX);
-    final String imageObjectKey = MaxCompressorStreamFactory.getCompressedFilename(
-        getCompressionType(),
-        absoluteObjectKey(DATA_OBJECT_KEY_PREFIX + id + IMAGE_OBJECT_KEY_SUFFIX));
-    S3Object object = client.getObject(bucketName, metaObjectKey);
-    return new S3SolarNodeImage(id, object, imageObjectKey, client, imageCache);
+    final String metaObjectKey = metaObjectKey(id);
+    CachedMetadata meta = metadataCache.get(metaObjectKey);
+    if (meta != null && meta.validated + metadataTtl > System.currentTimeMillis()) {
+      return image(id, metaObjectKey, meta);
+    }
+    GetObjectRequest req = new GetObjectRequest(bucketName, metaObjectKey);
+    if (meta != null) {
+      req.withNonmatchingETagConstraint(meta.etag);
+    }
+    S3Object object;
+    try {
+      object = client.getObject(req);
+    } catch (AmazonServiceException e) {
+      if (e.getStatusCode() == 404) {
+        metadataCache.remove(metaObjectKey);
+      }
+      throw e;
+    }
+    if (object == null) {
+      // not modified
+      meta.validated = System.currentTimeMillis();
+    } else {
+      meta = cacheMetadata(metaObjectKey, object);
+    }
+    return image(id, metaObjectKey, meta);
   }
 
   @Override
   public String getDownloadUrl(SolarNodeImage image) {
-    final String imageObjectKey = MaxCompressorStreamFactory.getCompressedFilename(
-        getCompressionType(),
-        absoluteObjectKey(DATA_OBJECT_KEY_PREFIX + image.getId() + IMAGE_OBJECT_KEY_SUFFIX));
+    final String imageObjectKey = imageObjectKey(image.getId());
     Date expiration = new Date(
         System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(downloadExpirationSeconds));
     return client.generatePresignedUrl(bucketName, imageObjectKey, expiration).toString();
@@ -185,24 +583,14 @@ public class S3NodeImageRepository extends AbstractNodeImageRepository
 
   @Override
   public int getSaveTaskStepCount() {
-    return 3; // compress, upload data, upload meta
+    return 2; // compress and upload data, upload meta
   }
 
   @Override
   public SolarNodeImage save(SolarNodeImage image, TaskStepTracker tracker) {
     final String id = image.getId();
-    final String metaObjectKey = absoluteObjectKey(
-        META_OBJECT_KEY_PREFIX + id + METADATA_OBJECT_KEY_SUFFIX);
-    final String imageObjectKey = MaxCompressorStreamFactory.getCompressedFilename(
-        getCompressionType(),
-        absoluteObjectKey(DATA_OBJECT_KEY_PREFIX + id + IMAGE_OBJECT_KEY_SUFFIX));
-
-    final Path file;
-    try {
-      file = Files.createTempFile(workDirectory, "node-image-", "");
-    } catch (IOException e) {
-      throw new RuntimeException("Error creating temporary image data file", e);
-    }
+    final String metaObjectKey = metaObjectKey(id);
+    final String imageObjectKey = imageObjectKey(id);
 
     // compute the digests of both the input and output streams while copying...
     final long expectedInputContentLength = image.getUncompressedContentLength();
@@ -212,71 +600,73 @@ public class S3NodeImageRepository extends AbstractNodeImageRepository
     MutableLong inputContentLength = new MutableLong(0);
     MutableLong outputContentLength = new MutableLong(0);
 
-    try {
-      try (InputStream in = image.getInputStream();
-          OutputStream out = new BufferedOutputStream(new FileOutputStream(file.toFile()))) {
-        log.info("Compressing image {} to {} using {} @ {}%", image.getFilename(), file,
-            getCompressionType(), (int) (getCompressionRatio() * 100));
-        FileCopyUtils.copy(in,
-            new TaskStepTrackerOutputStream(expectedInputContentLength, tracker,
-                new MessageDigestOutputStream(inputDigest, inputContentLength,
-                    createCompressorOutputStream(
-                        new MessageDigestOutputStream(outputDigest, outputContentLength, out)))));
-        tracker.completeStep(); // step 1
-      } catch (CompressorException | IOException e) {
-        throw new RuntimeException("Error compressing image data to " + file, e);
+    // ...and upload the compressed data in parts as it is produced
+    final S3MultipartUploadOutputStream upload = new S3MultipartUploadOutputStream(client,
+        bucketName, imageObjectKey, uploadExecutorService, uploadPartSize, uploadConcurrency);
+    upload.setMaximumRetries(uploadMaximumRetries);
+    OutputStream out = null;
+    try (InputStream in = image.getInputStream()) {
+      log.info("Compressing image {} to {} using {} @ {}%", image.getFilename(), imageObjectKey,
+          getCompressionType(), (int) (getCompressionRatio() * 100));
+      tracker.setMessage("Uploading customized image");
+      out = new TaskStepTrackerOutputStream(expectedInputContentLength, tracker,
+          new MessageDigestOutputStream(inputDigest, inputContentLength,
+              createCompressorOutputStream(
+                  new MessageDigestOutputStream(outputDigest, outputContentLength, upload))));
+      StreamUtils.copy(in, out);
+      out.close(); // finishes compressing, then completes the upload
+      tracker.completeStep(); // step 1
+    } catch (CompressorException | IOException e) {
+      throw new RuntimeException("Error uploading image data to " + imageObjectKey, e);
+    } finally {
+      if (!upload.isComplete()) {
+        upload.abort();
+        if (out != null) {
+          try {
+            out.close();
+          } catch (IOException e) {
+            // ignore, as the upload has been aborted
+          }
+        }
       }
+    }
 
-      try (InputStream in = new TaskStepTrackerInputStream(outputContentLength.longValue(), tracker,
-          new BufferedInputStream(Files.newInputStream(file)))) {
-        log.info("Uploading image {} to {}", file, imageObjectKey);
-        tracker.setMessage("Uploading customized image");
-        ObjectMetadata imageObjectMeta = new ObjectMetadata();
-        imageObjectMeta.setContentLength(outputContentLength.longValue());
-        PutObjectRequest req = new PutObjectRequest(bucketName, imageObjectKey, in,
-            imageObjectMeta);
-        client.putObject(req);
+    try {
+      BasicSolarNodeImageInfo info = new BasicSolarNodeImageInfo(id,
+          new String(Hex.encodeHex(outputDigest.digest())), outputContentLength.longValue(),
+          new String(Hex.encodeHex(inputDigest.digest())), inputContentLength.longValue());
+      byte[] infoJson = OBJECT_MAPPER.writeValueAsBytes(info);
+      ObjectMetadata metaObjectMeta = new ObjectMetadata();
+      metaObjectMeta.setContentLength(infoJson.length);
+      metaObjectMeta.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+      try (InputStream in = new TaskStepTrackerInputStream(infoJson.length, tracker,
+          new ByteArrayInputStream(infoJson))) {
+        PutObjectResult putResult = client.putObject(bucketName, metaObjectKey, in,
+            metaObjectMeta);
         tracker.completeStep(); // step 2
-      } catch (IOException e) {
-        throw new RuntimeException("Error uploading image data to " + imageObjectKey, e);
-      }
-
-      try {
-        SolarNodeImageInfo info = new BasicSolarNodeImageInfo(id,
-            new String(Hex.encodeHex(outputDigest.digest())), outputContentLength.longValue(),
-            new String(Hex.encodeHex(inputDigest.digest())), inputContentLength.longValue());
-        byte[] infoJson = OBJECT_MAPPER.writeValueAsBytes(info);
-        ObjectMetadata metaObjectMeta = new ObjectMetadata();
-        metaObjectMeta.setContentLength(infoJson.length);
-        metaObjectMeta.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
-        try (InputStream in = new TaskStepTrackerInputStream(infoJson.length, tracker,
-            new ByteArrayInputStream(infoJson))) {
-          client.putObject(bucketName, metaObjectKey, in, metaObjectMeta);
-          tracker.completeStep(); // step 3
+        if (putResult != null && putResult.getETag() != null) {
+          CachedMetadata meta = new CachedMetadata(putResult.getETag(), info,
+              System.currentTimeMillis());
+          metadataCache.put(metaObjectKey, meta);
+          updateManifest(id, meta);
         }
-        return findOne(id);
-      } catch (IOException e) {
-        throw new RuntimeException("Error writing image metadata to " + metaObjectKey, e);
-      }
-    } finally {
-      try {
-        Files.deleteIfExists(file);
-      } catch (IOException e) {
-        log.warn("Error deleting temporary image file " + file + ": " + e.getMessage());
       }
+      return new S3SolarNodeImage(id, bucketName, metaObjectKey, imageObjectKey, client,
+          imageCache, info);
+    } catch (IOException e) {
+      throw new RuntimeException("Error writing image metadata to " + metaObjectKey, e);
     }
   }
 
   @Override
   public void delete(String id) {
-    final String metaObjectKey = absoluteObjectKey(
-        META_OBJECT_KEY_PREFIX + id + METADATA_OBJECT_KEY_SUFFIX);
-    final String imageObjectKey = MaxCompressorStreamFactory.getCompressedFilename(
-        getCompressionType(),
-        absoluteObjectKey(DATA_OBJECT_KEY_PREFIX + id + IMAGE_OBJECT_KEY_SUFFIX));
+    final String metaObjectKey = metaObjectKey(id);
+    final String imageObjectKey = imageObjectKey(id);
     DeleteObjectsRequest req = new DeleteObjectsRequest(bucketName).withKeys(metaObjectKey,
         imageObjectKey);
     client.deleteObjects(req);
+    metadataCache.remove(metaObjectKey);
+    updateManifest(id, null);
   }
 
   /**
@@ -300,18 +690,96 @@ public class S3NodeImageRepository extends AbstractNodeImageRepository
   }
 
   /**
-   * Set a directory to store temporary data files in.
+   * Set the executor to upload image data parts with.
+   * 
+   * @param uploadExecutorService
+   *          the executor service
+   * @since 1.1
+   */
+  public void setUploadExecutorService(ExecutorService uploadExecutorService) {
+    this.uploadExecutorService = uploadExecutorService;
+  }
+
+  /**
+   * Set the size of each part of uploaded image data.
    * 
    * <p>
-   * This directory will be used to hold compressed images files, so the file system must be large
-   * enough to hold that data.
+   * Up to {@code uploadConcurrency + 1} parts are held in memory for each image being saved.
    * </p>
    * 
-   * @param workDirectory
-   *          the work directory to use
+   * @param uploadPartSize
+   *          the part size, in bytes; defaults to 8MB and can be no less than
+   *          {@link S3MultipartUploadOutputStream#MINIMUM_PART_SIZE}
+   * @since 1.1
+   */
+  public void setUploadPartSize(int uploadPartSize) {
+    this.uploadPartSize = uploadPartSize;
+  }
+
+  /**
+   * Set the maximum number of parts of an image to upload at once.
+   * 
+   * @param uploadConcurrency
+   *          the number of parts; defaults to {@literal 4}
+   * @since 1.1
+   */
+  public void setUploadConcurrency(int uploadConcurrency) {
+    this.uploadConcurrency = uploadConcurrency;
+  }
+
+  /**
+   * Set the maximum number of times to retry uploading a part of an image.
+   * 
+   * @param uploadMaximumRetries
+   *          the maximum retries; defaults to {@literal 3}
+   * @since 1.1
+   */
+  public void setUploadMaximumRetries(int uploadMaximumRetries) {
+    this.uploadMaximumRetries = uploadMaximumRetries;
+  }
+
+  /**
+   * Set the executor to fetch image metadata with.
+   * 
+   * @param metadataExecutorService
+   *          the executor service
+   * @since 1.1
+   */
+  public void setMetadataExecutorService(ExecutorService metadataExecutorService) {
+    this.metadataExecutorService = metadataExecutorService;
+  }
+
+  /**
+   * Set the maximum number of image metadata objects to fetch at once when listing images.
+   * 
+   * @param metadataConcurrency
+   *          the number of objects; defaults to {@literal 8}
+   * @since 1.1
+   */
+  public void setMetadataConcurrency(int metadataConcurrency) {
+    this.metadataConcurrency = Math.max(1, metadataConcurrency);
+  }
+
+  /**
+   * Set the amount of time to use cached image metadata for before revalidating it.
+   * 
+   * @param metadataTtl
+   *          the time, in milliseconds; defaults to 5 minutes
+   * @since 1.1
+   */
+  public void setMetadataTtl(long metadataTtl) {
+    this.metadataTtl = metadataTtl;
+  }
+
+  /**
+   * Set the age after which the image manifest is rebuilt from a full listing of the repository.
+   * 
+   * @param manifestTtl
+   *          the age, in milliseconds, or {@literal 0} to not use a manifest; defaults to 1 hour
+   * @since 1.1
    */
-  public void setWorkDirectory(Path workDirectory) {
-    this.workDirectory = workDirectory;
+  public void setManifestTtl(long manifestTtl) {
+    this.manifestTtl = manifestTtl;
   }
 
   /**
@@ -24,11 +24,11 @@ package net.solarnetwork.nim.service.impl;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.function.Supplier;
 
 import org.springframework.util.StringUtils;
 
 import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
 import com.amazonaws.services.s3.model.S3Object;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 
@@ -36,14 +36,19 @@ import net.solarnetwork.nim.domain.BasicSolarNodeImageInfo;
 import net.solarnetwork.nim.domain.SolarNodeImage;
 import net.solarnetwork.nim.domain.SolarNodeImageInfo;
 import net.solarnetwork.nim.service.DataStreamCache;
+import net.solarnetwork.nim.service.RangedDataSupplier;
 
 /**
  * S3 backed {@link SolarNodeImage}.
  * 
+ * <p>
+ * The image data can also be read in ranges, as a {@link RangedDataSupplier}.
+ * </p>
+ * 
  * @author matt
- * @version 1.0
+ * @version 1.1
  */
-public class S3SolarNodeImage implements SolarNodeImage {
+public class S3SolarNodeImage implements SolarNodeImage, RangedDataSupplier {
 
   private final String id;
   private final String bucketName;
@@ -54,6 +59,7 @@ public class S3SolarNodeImage implements SolarNodeImage {
   private final DataStreamCache imageCache;
 
   private BasicSolarNodeImageInfo info = null;
+  private long lastModified = 0;
 
   /**
    * Constructor.
@@ -83,6 +89,31 @@ public class S3SolarNodeImage implements SolarNodeImage {
     this.imageCache = imageCache;
   }
 
+  /**
+   * Construct with known metadata.
+   * 
+   * @param id
+   *          the ID of the image
+   * @param bucketName
+   *          the S3 bucket name to use
+   * @param objectKey
+   *          the S3 object key for the metadata
+   * @param imageObjectKey
+   *          the S3 object key for the data
+   * @param client
+   *          the S3 client
+   * @param imageCache
+   *          a cache to use for the image data
+   * @param info
+   *          the metadata
+   * @since 1.1
+   */
+  public S3SolarNodeImage(String id, String bucketName, String objectKey, String imageObjectKey,
+      AmazonS3 client, DataStreamCache imageCache, BasicSolarNodeImageInfo info) {
+    this(id, bucketName, objectKey, imageObjectKey, client, imageCache);
+    this.info = info;
+  }
+
   /**
    * Construct from a {@link S3Object} of the metadata.
    * 
@@ -140,11 +171,46 @@ public class S3SolarNodeImage implements SolarNodeImage {
   @JsonIgnore
   @Override
   public InputStream getInputStream() throws IOException {
-    Supplier<InputStream> s = () -> client.getObject(bucketName, imageObjectKey).getObjectContent();
     if (imageCache != null) {
-      return imageCache.get(id, s);
+      return imageCache.get(id, this);
     }
-    return s.get();
+    return getData();
+  }
+
+  @Override
+  public InputStream getRange(long offset, long length) throws IOException {
+    GetObjectRequest req = new GetObjectRequest(bucketName, imageObjectKey).withRange(offset,
+        offset + length - 1);
+    return client.getObject(req).getObjectContent();
+  }
+
+  @JsonIgnore
+  @Override
+  public InputStream getData() throws IOException {
+    return client.getObject(bucketName, imageObjectKey).getObjectContent();
+  }
+
+  /**
+   * Get the date the image was published, which is the date its metadata was last modified.
+   * 
+   * @return the date, in milliseconds since the epoch, or {@literal 0} if not known
+   * @since 1.1
+   */
+  @JsonIgnore
+  @Override
+  public long getLastModified() {
+    return lastModified;
+  }
+
+  /**
+   * Set the date the image was published.
+   * 
+   * @param lastModified
+   *          the date to set, in milliseconds since the epoch
+   * @since 1.1
+   */
+  public void setLastModified(long lastModified) {
+    this.lastModified = lastModified;
   }
 
   @Override
@@ -0,0 +1,149 @@
+/* ==================================================================
+ * BandwidthLimiter.java - 18/10/2026 9:14:52 AM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.nim.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Limit the combined rate of data read from any number of streams.
+ * 
+ * <p>
+ * Each stream returned by {@link #limit(InputStream)} reserves time for the bytes it reads, in the
+ * order they are read, and sleeps until that time arrives. The streams of one limiter therefore
+ * share its rate between them, no matter how many threads read them.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class BandwidthLimiter {
+
+  private final long bytesPerSecond;
+  private long nextNanos = System.nanoTime();
+
+  /**
+   * Constructor.
+   * 
+   * @param bytesPerSecond
+   *          the maximum rate, in bytes per second, or {@literal 0} for no limit
+   */
+  public BandwidthLimiter(long bytesPerSecond) {
+    super();
+    this.bytesPerSecond = bytesPerSecond;
+  }
+
+  /**
+   * Wait until some bytes may be transferred.
+   * 
+   * @param count
+   *          the number of bytes
+   * @throws InterruptedIOException
+   *           if interrupted while waiting
+   */
+  public void acquire(long count) throws InterruptedIOException {
+    if (bytesPerSecond < 1 || count < 1) {
+      return;
+    }
+    final long wait;
+    synchronized (this) {
+      final long now = System.nanoTime();
+      final long start = Math.max(now, nextNanos);
+      nextNanos = start + TimeUnit.SECONDS.toNanos(count) / bytesPerSecond;
+      wait = start - now;
+    }
+    if (wait > 0) {
+      try {
+        TimeUnit.NANOSECONDS.sleep(wait);
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException("Interrupted waiting for bandwidth");
+      }
+    }
+  }
+
+  /**
+   * Limit the rate of reading from a stream.
+   * 
+   * @param in
+   *          the stream to limit
+   * @return the limited stream
+   */
+  public InputStream limit(InputStream in) {
+    return limit(in, () -> false);
+  }
+
+  /**
+   * Limit the rate of reading from a stream, unless a condition is met.
+   * 
+   * <p>
+   * The condition is tested after every read, so the limit can be lifted (and applied again) while
+   * the stream is being read.
+   * </p>
+   * 
+   * @param in
+   *          the stream to limit
+   * @param unlimited
+   *          a condition that returns {@literal true} when the rate should not be limited
+   * @return the limited stream
+   */
+  public InputStream limit(InputStream in, BooleanSupplier unlimited) {
+    if (bytesPerSecond < 1) {
+      return in;
+    }
+    return new FilterInputStream(in) {
+
+      @Override
+      public int read() throws IOException {
+        int b = super.read();
+        if (b >= 0 && !unlimited.getAsBoolean()) {
+          acquire(1);
+        }
+        return b;
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        int n = super.read(b, off, len);
+        if (n > 0 && !unlimited.getAsBoolean()) {
+          acquire(n);
+        }
+        return n;
+      }
+
+    };
+  }
+
+  /**
+   * Get the maximum rate.
+   * 
+   * @return the rate, in bytes per second, or {@literal 0} for no limit
+   */
+  public long getBytesPerSecond() {
+    return bytesPerSecond;
+  }
+
+}
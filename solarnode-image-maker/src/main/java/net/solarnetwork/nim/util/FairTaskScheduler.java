@@ -0,0 +1,312 @@
+/* ==================================================================
+ * FairTaskScheduler.java - 18/10/2026 1:47:55 PM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.nim.util;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import net.solarnetwork.nim.domain.TaskPriority;
+
+/**
+ * Run tasks with a fixed number of workers, fairly across keys and by priority.
+ * 
+ * <p>
+ * Queued tasks are held in one lane per {@link TaskPriority}; a task is only started from a lane
+ * when all higher priority lanes are empty. Within a lane, tasks are started round-robin across
+ * keys, so a key with many queued tasks gets no more turns than a key with one. Each key may have
+ * at most {@code maximumQueuedPerKey} tasks waiting to start; submitting more is rejected.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class FairTaskScheduler {
+
+  private final int concurrency;
+  private final int maximumQueuedPerKey;
+  private final ThreadFactory threadFactory;
+  private final Map<TaskPriority, Lane> lanes = new EnumMap<>(TaskPriority.class);
+  private final Map<String, Integer> queuedCounts = new HashMap<>(16);
+
+  private int workerCount = 0;
+  private boolean shutdown = false;
+
+  /** Queued tasks of one priority, by key. */
+  private static final class Lane {
+
+    // keys in round-robin order; only keys with queued tasks are present
+    private final Deque<String> rotation = new ArrayDeque<>(8);
+    private final Map<String, Deque<Task<?>>> queues = new HashMap<>(8);
+
+    private boolean isEmpty() {
+      return rotation.isEmpty();
+    }
+
+    private int size() {
+      int count = 0;
+      for (Deque<Task<?>> q : queues.values()) {
+        count += q.size();
+      }
+      return count;
+    }
+  }
+
+  private final class Task<T> extends FutureTask<T> {
+
+    private final String key;
+    private final TaskPriority priority;
+
+    private Task(String key, TaskPriority priority, Callable<T> callable) {
+      super(callable);
+      this.key = key;
+      this.priority = priority;
+    }
+
+    @Override
+    protected void done() {
+      if (isCancelled()) {
+        dequeue(this);
+      }
+    }
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param concurrency
+   *          the maximum number of tasks to run at once
+   * @param maximumQueuedPerKey
+   *          the maximum number of tasks a single key may have waiting to start, or {@literal 0}
+   *          for no limit
+   */
+  public FairTaskScheduler(int concurrency, int maximumQueuedPerKey) {
+    super();
+    if (concurrency < 1) {
+      throw new IllegalArgumentException("Concurrency must be > 0");
+    }
+    this.concurrency = concurrency;
+    this.maximumQueuedPerKey = maximumQueuedPerKey;
+    CustomizableThreadFactory tf = new CustomizableThreadFactory("image-task-");
+    tf.setDaemon(true);
+    this.threadFactory = tf;
+    for (TaskPriority p : TaskPriority.values()) {
+      lanes.put(p, new Lane());
+    }
+  }
+
+  /**
+   * Submit a task.
+   * 
+   * @param <T>
+   *          the task result type
+   * @param key
+   *          the key to schedule the task fairly with
+   * @param priority
+   *          the task priority, or {@literal null} for {@link TaskPriority#Interactive}
+   * @param callable
+   *          the task
+   * @return the task future
+   * @throws RejectedExecutionException
+   *           if {@code key} already has the maximum number of tasks queued, or the scheduler has
+   *           been shut down
+   */
+  public synchronized <T> Future<T> submit(String key, TaskPriority priority,
+      Callable<T> callable) {
+    if (shutdown) {
+      throw new RejectedExecutionException("Scheduler is shut down");
+    }
+    int queued = queuedCounts.getOrDefault(key, 0);
+    if (maximumQueuedPerKey > 0 && queued >= maximumQueuedPerKey) {
+      throw new RejectedExecutionException("Too many tasks queued (" + queued
+          + "); wait for a queued task to start before submitting another");
+    }
+    Task<T> task = new Task<>(key, priority != null ? priority : TaskPriority.Interactive,
+        callable);
+    Lane lane = lanes.get(task.priority);
+    Deque<Task<?>> q = lane.queues.get(key);
+    if (q == null) {
+      q = new ArrayDeque<>(4);
+      lane.queues.put(key, q);
+      lane.rotation.add(key);
+    }
+    q.add(task);
+    queuedCounts.put(key, queued + 1);
+    if (workerCount < concurrency) {
+      workerCount++;
+      threadFactory.newThread(this::work).start();
+    } else {
+      notify();
+    }
+    return task;
+  }
+
+  /**
+   * Get the position of a task in the queue.
+   * 
+   * <p>
+   * The position is the number of tasks that would be started before the given task, plus one,
+   * if no more tasks were submitted. Higher priority tasks submitted later can move a task further
+   * back in the queue.
+   * </p>
+   * 
+   * @param future
+   *          a future previously returned by {@link #submit(String, TaskPriority, Callable)}
+   * @return the position, starting from {@literal 1}, or {@literal 0} if the task is not queued
+   */
+  public synchronized int getQueuePosition(Future<?> future) {
+    if (!(future instanceof Task)) {
+      return 0;
+    }
+    final Task<?> task = (Task<?>) future;
+    int ahead = 0;
+    for (Map.Entry<TaskPriority, Lane> me : lanes.entrySet()) {
+      Lane lane = me.getValue();
+      if (me.getKey() != task.priority) {
+        ahead += lane.size();
+        continue;
+      }
+      Deque<Task<?>> q = lane.queues.get(task.key);
+      int index = indexOf(q, task);
+      if (index < 0) {
+        return 0;
+      }
+      // tasks started before this one in round-robin order: up to index + 1 from each key ahead
+      // in the rotation, and up to index from each key behind it
+      boolean before = true;
+      for (String k : lane.rotation) {
+        if (k.equals(task.key)) {
+          before = false;
+          continue;
+        }
+        ahead += Math.min(lane.queues.get(k).size(), before ? index + 1 : index);
+      }
+      return ahead + index + 1;
+    }
+    return 0;
+  }
+
+  private static int indexOf(Deque<Task<?>> q, Task<?> task) {
+    if (q == null) {
+      return -1;
+    }
+    int i = 0;
+    for (Task<?> t : q) {
+      if (t == task) {
+        return i;
+      }
+      i++;
+    }
+    return -1;
+  }
+
+  private synchronized void dequeue(Task<?> task) {
+    Lane lane = lanes.get(task.priority);
+    Deque<Task<?>> q = lane.queues.get(task.key);
+    if (q != null && q.remove(task)) {
+      queuedCounts.computeIfPresent(task.key, (k, v) -> (v > 1 ? v - 1 : null));
+      if (q.isEmpty()) {
+        lane.queues.remove(task.key);
+        lane.rotation.remove(task.key);
+      }
+    }
+  }
+
+  private synchronized Task<?> next() throws InterruptedException {
+    while (true) {
+      for (Lane lane : lanes.values()) {
+        if (lane.isEmpty()) {
+          continue;
+        }
+        String key = lane.rotation.poll();
+        Deque<Task<?>> q = lane.queues.get(key);
+        Task<?> task = q.poll();
+        if (q.isEmpty()) {
+          lane.queues.remove(key);
+        } else {
+          lane.rotation.add(key);
+        }
+        queuedCounts.computeIfPresent(key, (k, v) -> (v > 1 ? v - 1 : null));
+        return task;
+      }
+      if (shutdown) {
+        return null;
+      }
+      wait();
+    }
+  }
+
+  private void work() {
+    try {
+      Task<?> task;
+      while ((task = next()) != null) {
+        task.run();
+        // clear any interrupt used to cancel the task
+        Thread.interrupted();
+      }
+    } catch (InterruptedException e) {
+      // stop working
+    } finally {
+      synchronized (this) {
+        workerCount--;
+      }
+    }
+  }
+
+  /**
+   * Shut down the scheduler, cancelling all queued tasks.
+   * 
+   * <p>
+   * Running tasks are allowed to complete.
+   * </p>
+   */
+  public void shutdown() {
+    Deque<Task<?>> cancelled = new ArrayDeque<>();
+    synchronized (this) {
+      shutdown = true;
+      for (Lane lane : lanes.values()) {
+        for (Iterator<Deque<Task<?>>> itr = lane.queues.values().iterator(); itr.hasNext();) {
+          cancelled.addAll(itr.next());
+          itr.remove();
+        }
+        lane.rotation.clear();
+      }
+      queuedCounts.clear();
+      notifyAll();
+    }
+    for (Task<?> task : cancelled) {
+      task.cancel(false);
+    }
+  }
+
+}
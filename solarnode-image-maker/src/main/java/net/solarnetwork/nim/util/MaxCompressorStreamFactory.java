@@ -24,6 +24,8 @@ package net.solarnetwork.nim.util;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
 
 import org.apache.commons.compress.compressors.CompressorException;
 import org.apache.commons.compress.compressors.CompressorOutputStream;
@@ -33,6 +35,8 @@ import org.apache.commons.compress.compressors.gzip.GzipUtils;
 import org.apache.commons.compress.compressors.lzma.LZMAUtils;
 import org.apache.commons.compress.compressors.xz.XZCompressorOutputStream;
 import org.apache.commons.compress.compressors.xz.XZUtils;
+import org.tukaani.xz.LZMA2Options;
+import org.tukaani.xz.UnsupportedOptionsException;
 
 /**
  * Extension of {@link CompressorStreamFactory} to use maximum compression.
@@ -42,12 +46,27 @@ import org.apache.commons.compress.compressors.xz.XZUtils;
  * a {@code compressionRatio} value < {@literal 1} to an appropriate constructor.
  * </p>
  * 
+ * <p>
+ * If an {@link ExecutorService} is provided then {@link #XZ} and {@link #GZIP} compression will be
+ * performed in parallel blocks on that service, via {@link ParallelXzCompressorOutputStream} and
+ * {@link ParallelGzipCompressorOutputStream}.
+ * </p>
+ * 
  * @author matt
- * @version 1.0
+ * @version 1.1
  */
 public class MaxCompressorStreamFactory extends CompressorStreamFactory {
 
+  /**
+   * The default block size used for parallel compression, in bytes.
+   * 
+   * @since 1.1
+   */
+  public static final int DEFAULT_PARALLEL_BLOCK_SIZE = 24 * 1024 * 1024;
+
   private final float compressionRatio;
+  private final ExecutorService executorService;
+  private final int blockSize;
 
   /**
    * Default constructor.
@@ -68,27 +87,155 @@ public class MaxCompressorStreamFactory extends CompressorStreamFactory {
    *          (most compression, slowest operation)
    */
   public MaxCompressorStreamFactory(float compressionRatio) {
+    this(compressionRatio, null, 0);
+  }
+
+  /**
+   * Construct with a desired compression ratio and parallel compression support.
+   * 
+   * @param compressionRatio
+   *          a value between {@literal 0} (least compression, fastest operation) and {@literal 1}
+   *          (most compression, slowest operation)
+   * @param executorService
+   *          the executor to compress blocks in parallel with, or {@literal null} to compress on
+   *          the calling thread
+   * @param blockSize
+   *          the uncompressed size of each parallel block, in bytes, or {@literal 0} to use
+   *          {@link #DEFAULT_PARALLEL_BLOCK_SIZE}
+   * @since 1.1
+   */
+  public MaxCompressorStreamFactory(float compressionRatio, ExecutorService executorService,
+      int blockSize) {
     super();
     this.compressionRatio = compressionRatio;
+    this.executorService = executorService;
+    this.blockSize = (blockSize > 0 ? blockSize : DEFAULT_PARALLEL_BLOCK_SIZE);
   }
 
+  /**
+   * Construct with a decompress until EOF flag.
+   * 
+   * @param decompressUntilEof
+   *          {@literal true} to decompress concatenated streams until the end of the input
+   */
   public MaxCompressorStreamFactory(boolean decompressUntilEof) {
     super(decompressUntilEof);
     this.compressionRatio = 1f;
+    this.executorService = null;
+    this.blockSize = DEFAULT_PARALLEL_BLOCK_SIZE;
   }
 
+  /**
+   * Construct with decompression settings and a desired compression ratio.
+   * 
+   * @param decompressUntilEof
+   *          {@literal true} to decompress concatenated streams until the end of the input
+   * @param memoryLimitInKb
+   *          a memory limit to apply to decompression, in KB
+   * @param compressionRatio
+   *          a value between {@literal 0} (least compression, fastest operation) and {@literal 1}
+   *          (most compression, slowest operation)
+   */
   public MaxCompressorStreamFactory(boolean decompressUntilEof, int memoryLimitInKb,
       float compressionRatio) {
     super(decompressUntilEof, memoryLimitInKb);
     this.compressionRatio = compressionRatio;
+    this.executorService = null;
+    this.blockSize = DEFAULT_PARALLEL_BLOCK_SIZE;
+  }
+
+  private int compressionLevel() {
+    return Math.max(1, Math.round(compressionRatio * 9f));
+  }
+
+  private int poolSize() {
+    return (executorService instanceof ThreadPoolExecutor
+        ? ((ThreadPoolExecutor) executorService).getMaximumPoolSize()
+        : Runtime.getRuntime().availableProcessors());
+  }
+
+  private int maxPendingBlocks() {
+    // allow each stream to keep every pool thread busy, plus one block queued per thread
+    return 2 * poolSize();
+  }
+
+  private long estimateEncoderMemoryUsage(String name) {
+    if (XZ.equals(name)) {
+      try {
+        LZMA2Options options = new LZMA2Options(compressionLevel());
+        if (executorService != null && options.getDictSize() > blockSize) {
+          options.setDictSize(Math.max(LZMA2Options.DICT_SIZE_MIN, blockSize));
+        }
+        return options.getEncoderMemoryUsage() * 1024L;
+      } catch (UnsupportedOptionsException e) {
+        return 0;
+      }
+    } else if (GZIP.equals(name)) {
+      // zlib deflate state at default window and memory level
+      return 256 * 1024L;
+    }
+    return 0;
+  }
+
+  /**
+   * Estimate the memory used by a compressor output stream created by this factory.
+   * 
+   * <p>
+   * When compressing in parallel this is the input and output buffers of all pending blocks of the
+   * stream; the encoders run on the executor threads, which all streams share, so they are
+   * estimated by {@link #estimatePoolMemoryUsage(String)} instead. Otherwise this is the memory of
+   * the stream's encoder. Compression types without an estimate return {@literal 0}.
+   * </p>
+   * 
+   * @param name
+   *          the compressor name, i.e. {@value #GZIP} or {@value #XZ}
+   * @return the estimated memory use, in bytes
+   * @since 1.1
+   */
+  public long estimateMemoryUsage(String name) {
+    final long encoder = estimateEncoderMemoryUsage(name);
+    if (encoder < 1 || executorService == null) {
+      return encoder;
+    }
+    return (2L * blockSize * maxPendingBlocks());
+  }
+
+  /**
+   * Estimate the memory used by the encoders of the parallel compression executor threads.
+   * 
+   * <p>
+   * This memory is shared by all streams using the same executor, so should be accounted for once
+   * per executor rather than once per stream. Without an executor this returns {@literal 0}.
+   * </p>
+   * 
+   * @param name
+   *          the compressor name, i.e. {@value #GZIP} or {@value #XZ}
+   * @return the estimated memory use, in bytes
+   * @since 1.1
+   */
+  public long estimatePoolMemoryUsage(String name) {
+    if (executorService == null) {
+      return 0;
+    }
+    return estimateEncoderMemoryUsage(name) * poolSize();
   }
 
   @Override
   public CompressorOutputStream createCompressorOutputStream(String name, OutputStream out)
       throws CompressorException {
     try {
+      final int rate = compressionLevel();
+      if (executorService != null) {
+        final int maxPending = maxPendingBlocks();
+        if (XZ.equals(name)) {
+          return new ParallelXzCompressorOutputStream(out, rate, executorService, blockSize,
+              maxPending);
+        } else if (GZIP.equals(name)) {
+          return new ParallelGzipCompressorOutputStream(out, rate, executorService, blockSize,
+              maxPending);
+        }
+      }
       if (XZ.equals(name)) {
-        int rate = Math.max(1, Math.round(compressionRatio * 9f));
         return new XZCompressorOutputStream(out, rate);
       }
     } catch (final IOException e) {
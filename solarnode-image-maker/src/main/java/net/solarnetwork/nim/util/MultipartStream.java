@@ -0,0 +1,427 @@
+/* ==================================================================
+ * MultipartStream.java - 18/10/2026 6:02:31 AM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.nim.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Parse the parts of a {@literal multipart/form-data} body incrementally, as it is read.
+ * 
+ * <p>
+ * Each call to {@link #next()} returns the next part, whose data can then be read from
+ * {@link Part#getInputStream()} directly from the body, without buffering it anywhere else. Any
+ * data of a part not read before calling {@link #next()} again is skipped.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class MultipartStream {
+
+  /** The default buffer size. */
+  public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+  private static final byte[] CRLF = new byte[] { '\r', '\n' };
+
+  private final InputStream in;
+  private final byte[] delimiter;
+  private final byte[] buf;
+  private int pos = 0;
+  private int limit = 0;
+  private long count = 0;
+  private long maximumSize = -1;
+  private PartInputStream current;
+  private boolean finished;
+
+  /**
+   * Thrown when a body is larger than the configured maximum size.
+   */
+  public static class SizeLimitExceededException extends IOException {
+
+    private static final long serialVersionUID = 4296145839027915338L;
+
+    private final long maximumSize;
+
+    /**
+     * Constructor.
+     * 
+     * @param maximumSize
+     *          the maximum size that was exceeded
+     */
+    public SizeLimitExceededException(long maximumSize) {
+      super("Data exceeds the maximum size of " + maximumSize + " bytes");
+      this.maximumSize = maximumSize;
+    }
+
+    /**
+     * Get the maximum size that was exceeded.
+     * 
+     * @return the maximum size, in bytes
+     */
+    public long getMaximumSize() {
+      return maximumSize;
+    }
+
+  }
+
+  /**
+   * A single part of a multipart body.
+   */
+  public static final class Part {
+
+    private final Map<String, String> headers;
+    private final Map<String, String> disposition;
+    private final InputStream inputStream;
+
+    private Part(Map<String, String> headers, InputStream inputStream) {
+      super();
+      this.headers = headers;
+      this.disposition = parameters(headers.get("content-disposition"));
+      this.inputStream = inputStream;
+    }
+
+    /**
+     * Get a header value.
+     * 
+     * @param name
+     *          the header name, which is not case sensitive
+     * @return the value, or {@literal null} if not available
+     */
+    public String getHeader(String name) {
+      return headers.get(name.toLowerCase(Locale.ENGLISH));
+    }
+
+    /**
+     * Get the form field name of the part.
+     * 
+     * @return the name, or {@literal null} if not available
+     */
+    public String getName() {
+      return disposition.get("name");
+    }
+
+    /**
+     * Get the file name of the part, without any directory path a client may have included.
+     * 
+     * @return the file name, or {@literal null} if the part is not a file
+     */
+    public String getFilename() {
+      String name = disposition.get("filename");
+      if (name == null) {
+        return null;
+      }
+      int idx = Math.max(name.lastIndexOf('/'), name.lastIndexOf('\\'));
+      return (idx < 0 ? name : name.substring(idx + 1));
+    }
+
+    /**
+     * Get the data of the part.
+     * 
+     * <p>
+     * The stream ends at the end of the part. It can only be read until
+     * {@link MultipartStream#next()} is called again.
+     * </p>
+     * 
+     * @return the data stream
+     */
+    public InputStream getInputStream() {
+      return inputStream;
+    }
+
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param in
+   *          the body to parse
+   * @param boundary
+   *          the boundary between parts, as given in the body content type
+   */
+  public MultipartStream(InputStream in, String boundary) {
+    this(in, boundary, DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param in
+   *          the body to parse
+   * @param boundary
+   *          the boundary between parts, as given in the body content type
+   * @param bufferSize
+   *          the size of the read buffer, which also limits the length of part headers
+   */
+  public MultipartStream(InputStream in, String boundary, int bufferSize) {
+    super();
+    this.in = in;
+    this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+    this.buf = new byte[Math.max(bufferSize, delimiter.length * 4)];
+
+    // start as if a line break preceded the body, so the first boundary looks like the others,
+    // and treat everything before the first boundary as a part to skip
+    this.buf[0] = '\r';
+    this.buf[1] = '\n';
+    this.limit = 2;
+    this.current = new PartInputStream();
+  }
+
+  /**
+   * Get the boundary parameter of a multipart content type.
+   * 
+   * @param contentType
+   *          the content type
+   * @return the boundary, or {@literal null} if not available
+   */
+  public static String boundary(String contentType) {
+    if (contentType == null
+        || !contentType.toLowerCase(Locale.ENGLISH).startsWith("multipart/")) {
+      return null;
+    }
+    String boundary = parameters(contentType).get("boundary");
+    return (boundary == null || boundary.isEmpty() ? null : boundary);
+  }
+
+  /**
+   * Get the next part.
+   * 
+   * @return the next part, or {@literal null} if there are no more parts
+   * @throws IOException
+   *           if an IO error occurs or the body is not valid multipart data
+   */
+  public Part next() throws IOException {
+    if (finished) {
+      return null;
+    }
+    if (current != null) {
+      current.skipAll();
+    }
+    // positioned at the delimiter
+    pos += delimiter.length;
+    require(2);
+    if (buf[pos] == '-' && buf[pos + 1] == '-') {
+      finished = true;
+      current = null;
+      return null;
+    }
+    readLine(); // transport padding after the boundary
+    Map<String, String> headers = new LinkedHashMap<>(4);
+    String name = null;
+    for (String line = readLine(); !line.isEmpty(); line = readLine()) {
+      if ((line.charAt(0) == ' ' || line.charAt(0) == '\t') && name != null) {
+        // folded header
+        headers.put(name, headers.get(name) + " " + line.trim());
+        continue;
+      }
+      int idx = line.indexOf(':');
+      if (idx < 1) {
+        throw new IOException("Invalid multipart header: " + line);
+      }
+      name = line.substring(0, idx).trim().toLowerCase(Locale.ENGLISH);
+      headers.put(name, line.substring(idx + 1).trim());
+    }
+    current = new PartInputStream();
+    return new Part(headers, current);
+  }
+
+  /**
+   * Parse the {@literal ;} delimited parameters of a header value.
+   */
+  private static Map<String, String> parameters(String value) {
+    Map<String, String> result = new LinkedHashMap<>(4);
+    if (value == null) {
+      return result;
+    }
+    int i = value.indexOf(';');
+    while (i >= 0 && i < value.length()) {
+      int eq = value.indexOf('=', i + 1);
+      if (eq < 0) {
+        break;
+      }
+      String name = value.substring(i + 1, eq).trim().toLowerCase(Locale.ENGLISH);
+      StringBuilder buf = new StringBuilder();
+      int j = eq + 1;
+      while (j < value.length() && value.charAt(j) == ' ') {
+        j++;
+      }
+      if (j < value.length() && value.charAt(j) == '"') {
+        for (j++; j < value.length() && value.charAt(j) != '"'; j++) {
+          char c = value.charAt(j);
+          if (c == '\\' && j + 1 < value.length()
+              && (value.charAt(j + 1) == '"' || value.charAt(j + 1) == '\\')) {
+            c = value.charAt(++j);
+          }
+          buf.append(c);
+        }
+        i = value.indexOf(';', j);
+      } else {
+        i = value.indexOf(';', j);
+        buf.append(value.substring(j, i < 0 ? value.length() : i).trim());
+      }
+      result.put(name, buf.toString());
+    }
+    return result;
+  }
+
+  /**
+   * Read more data into the buffer, after moving any unread data to the start of it.
+   */
+  private int fill() throws IOException {
+    if (pos > 0) {
+      System.arraycopy(buf, pos, buf, 0, limit - pos);
+      limit -= pos;
+      pos = 0;
+    }
+    if (limit == buf.length) {
+      return 0;
+    }
+    int n = in.read(buf, limit, buf.length - limit);
+    if (n > 0) {
+      limit += n;
+      count += n;
+      if (maximumSize >= 0 && count > maximumSize) {
+        throw new SizeLimitExceededException(maximumSize);
+      }
+    }
+    return n;
+  }
+
+  private void require(int length) throws IOException {
+    while (limit - pos < length) {
+      if (fill() < 0) {
+        throw new EOFException("Unexpected end of multipart data");
+      }
+    }
+  }
+
+  private int indexOf(byte[] pattern, int from) {
+    final int last = limit - pattern.length;
+    outer: for (int i = from; i <= last; i++) {
+      for (int j = 0; j < pattern.length; j++) {
+        if (buf[i + j] != pattern[j]) {
+          continue outer;
+        }
+      }
+      return i;
+    }
+    return -1;
+  }
+
+  private String readLine() throws IOException {
+    int idx;
+    while ((idx = indexOf(CRLF, pos)) < 0) {
+      if (limit - pos == buf.length) {
+        throw new IOException("Multipart header line too long");
+      } else if (fill() < 0) {
+        throw new EOFException("Unexpected end of multipart data");
+      }
+    }
+    String line = new String(buf, pos, idx - pos, StandardCharsets.UTF_8);
+    pos = idx + CRLF.length;
+    return line;
+  }
+
+  /**
+   * The data of the current part, up to the next delimiter.
+   */
+  private final class PartInputStream extends InputStream {
+
+    private boolean ended;
+
+    /**
+     * Get the number of bytes of part data available in the buffer, reading more if needed.
+     * 
+     * @return the number of bytes, or {@literal -1} at the end of the part
+     */
+    private int available0() throws IOException {
+      if (ended || current != this) {
+        return -1;
+      }
+      while (true) {
+        int idx = indexOf(delimiter, pos);
+        if (idx == pos) {
+          ended = true;
+          return -1;
+        } else if (idx > pos) {
+          return idx - pos;
+        }
+        // the end of the buffer might hold the start of the delimiter
+        int safe = limit - (delimiter.length - 1) - pos;
+        if (safe > 0) {
+          return safe;
+        }
+        if (fill() < 0) {
+          throw new EOFException("Unexpected end of multipart data");
+        }
+      }
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (available0() < 0) {
+        return -1;
+      }
+      return buf[pos++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      int n = available0();
+      if (n < 0) {
+        return -1;
+      }
+      n = Math.min(n, len);
+      System.arraycopy(buf, pos, b, off, n);
+      pos += n;
+      return n;
+    }
+
+    private void skipAll() throws IOException {
+      int n;
+      while ((n = available0()) >= 0) {
+        pos += n;
+      }
+    }
+
+  }
+
+  /**
+   * Set the maximum number of bytes to read.
+   * 
+   * @param maximumSize
+   *          the maximum size, or {@literal -1} for no limit; defaults to {@literal -1}
+   */
+  public void setMaximumSize(long maximumSize) {
+    this.maximumSize = maximumSize;
+  }
+
+}
@@ -0,0 +1,244 @@
+/* ==================================================================
+ * ParallelBlockCompressorOutputStream.java - 18/10/2026 9:12:05 AM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.nim.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.commons.compress.compressors.CompressorOutputStream;
+
+/**
+ * Base class for a {@link CompressorOutputStream} that splits the uncompressed data into
+ * independent blocks and compresses them in parallel on an {@link ExecutorService}.
+ * 
+ * <p>
+ * Written data is collected into blocks of {@code blockSize} bytes. Each full block is handed to
+ * {@link #createBlockTask(byte[], int, boolean)} and the resulting task submitted to the executor.
+ * Compressed blocks are written to the wrapped stream strictly in the order they were submitted. At
+ * most {@code maxPendingBlocks} blocks will be in flight at once, so writers block once the
+ * compressor falls behind rather than buffering without limit.
+ * </p>
+ * 
+ * <p>
+ * The {@link #createBlockTask(byte[], int, boolean)} method is always invoked on the writing
+ * thread, so extending classes can safely maintain running state (like checksums) there.
+ * </p>
+ * 
+ * @param <T>
+ *          the compressed block type
+ * @author matt
+ * @version 1.0
+ */
+public abstract class ParallelBlockCompressorOutputStream<T> extends CompressorOutputStream {
+
+  private final OutputStream out;
+  private final ExecutorService executorService;
+  private final int blockSize;
+  private final int maxPendingBlocks;
+  private final Deque<Future<T>> pending;
+
+  private byte[] buffer = null;
+  private int bufferLength = 0;
+  private boolean finished = false;
+
+  /**
+   * Constructor.
+   * 
+   * @param out
+   *          the stream to write the compressed data to
+   * @param executorService
+   *          the executor to compress blocks with
+   * @param blockSize
+   *          the uncompressed size of each block, in bytes
+   * @param maxPendingBlocks
+   *          the maximum number of blocks to allow to be compressing at once
+   */
+  public ParallelBlockCompressorOutputStream(OutputStream out, ExecutorService executorService,
+      int blockSize, int maxPendingBlocks) {
+    super();
+    if (blockSize < 1) {
+      throw new IllegalArgumentException("Block size must be > 0");
+    }
+    this.out = out;
+    this.executorService = executorService;
+    this.blockSize = blockSize;
+    this.maxPendingBlocks = Math.max(1, maxPendingBlocks);
+    this.pending = new ArrayDeque<>(this.maxPendingBlocks);
+  }
+
+  /**
+   * Create a task that compresses a single block.
+   * 
+   * @param data
+   *          the uncompressed data; the array is owned by the task from this point on
+   * @param length
+   *          the number of bytes in {@code data} to compress
+   * @param last
+   *          {@literal true} if this is the final block of the stream
+   * @return the task
+   */
+  protected abstract Callable<T> createBlockTask(byte[] data, int length, boolean last);
+
+  /**
+   * Write a compressed block to the output stream.
+   * 
+   * @param block
+   *          the compressed block, as returned by the task created for it
+   * @param out
+   *          the stream to write to
+   * @throws IOException
+   *           if an IO error occurs
+   */
+  protected abstract void writeBlock(T block, OutputStream out) throws IOException;
+
+  /**
+   * Write any format trailer, after all blocks have been written.
+   * 
+   * @param out
+   *          the stream to write to
+   * @throws IOException
+   *           if an IO error occurs
+   */
+  protected abstract void writeTrailer(OutputStream out) throws IOException;
+
+  @Override
+  public void write(int b) throws IOException {
+    write(new byte[] { (byte) b }, 0, 1);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    if (finished) {
+      throw new IOException("Stream already finished");
+    }
+    while (len > 0) {
+      if (buffer == null) {
+        buffer = new byte[blockSize];
+      }
+      int count = Math.min(len, blockSize - bufferLength);
+      System.arraycopy(b, off, buffer, bufferLength, count);
+      bufferLength += count;
+      off += count;
+      len -= count;
+      if (bufferLength == blockSize) {
+        submitBlock(false);
+      }
+    }
+  }
+
+  private void submitBlock(boolean last) throws IOException {
+    byte[] data = (buffer != null ? buffer : new byte[0]);
+    int length = bufferLength;
+    buffer = null;
+    bufferLength = 0;
+    Callable<T> task = createBlockTask(data, length, last);
+    while (pending.size() >= maxPendingBlocks) {
+      writeNextBlock();
+    }
+    pending.add(executorService.submit(task));
+
+    // write out whatever has finished already, without waiting
+    while (!pending.isEmpty() && pending.peek().isDone()) {
+      writeNextBlock();
+    }
+  }
+
+  private void writeNextBlock() throws IOException {
+    Future<T> f = pending.poll();
+    T block;
+    try {
+      block = f.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for compressed block");
+    } catch (ExecutionException e) {
+      Throwable t = e.getCause();
+      if (t instanceof IOException) {
+        throw (IOException) t;
+      }
+      throw new IOException("Error compressing block: " + t.getMessage(), t);
+    }
+    if (block != null) {
+      writeBlock(block, out);
+    }
+  }
+
+  /**
+   * Flush any completed blocks to the output stream.
+   * 
+   * <p>
+   * This does <b>not</b> force the current partial block to be compressed, as doing so would hurt
+   * the compression ratio.
+   * </p>
+   */
+  @Override
+  public void flush() throws IOException {
+    while (!pending.isEmpty() && pending.peek().isDone()) {
+      writeNextBlock();
+    }
+    out.flush();
+  }
+
+  /**
+   * Compress all remaining data and write the format trailer, without closing the output stream.
+   * 
+   * @throws IOException
+   *           if an IO error occurs
+   */
+  public void finish() throws IOException {
+    if (finished) {
+      return;
+    }
+    finished = true;
+    try {
+      submitBlock(true);
+      while (!pending.isEmpty()) {
+        writeNextBlock();
+      }
+      writeTrailer(out);
+      out.flush();
+    } finally {
+      for (Future<T> f : pending) {
+        f.cancel(true);
+      }
+      pending.clear();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      finish();
+    } finally {
+      out.close();
+    }
+  }
+
+}
@@ -0,0 +1,138 @@
+/* ==================================================================
+ * ParallelGzipCompressorOutputStream.java - 18/10/2026 10:05:51 AM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.nim.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Parallel gzip compressor in the style of {@literal pigz}.
+ * 
+ * <p>
+ * Each block is deflated independently, primed with the last 32KB of the previous block as a
+ * preset dictionary so compression barely suffers from the split. All blocks but the last end with
+ * a sync flush so they are byte aligned and can simply be concatenated into a single deflate
+ * stream. The result is a single gzip member, so it can be decompressed by any gzip decoder
+ * including ones that do not support concatenated members.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class ParallelGzipCompressorOutputStream
+    extends ParallelBlockCompressorOutputStream<byte[]> {
+
+  private static final int DICTIONARY_SIZE = 32768;
+
+  private final int level;
+  private final CRC32 crc = new CRC32();
+  private long uncompressedLength = 0;
+  private byte[] dictionary = null;
+
+  /**
+   * Constructor.
+   * 
+   * @param out
+   *          the stream to write the compressed data to
+   * @param level
+   *          the deflate compression level to use, from {@literal 1} to {@literal 9}
+   * @param executorService
+   *          the executor to compress blocks with
+   * @param blockSize
+   *          the uncompressed size of each block, in bytes
+   * @param maxPendingBlocks
+   *          the maximum number of blocks to allow to be compressing at once
+   * @throws IOException
+   *           if an IO error occurs writing the gzip header
+   */
+  public ParallelGzipCompressorOutputStream(OutputStream out, int level,
+      ExecutorService executorService, int blockSize, int maxPendingBlocks) throws IOException {
+    super(out, executorService, blockSize, maxPendingBlocks);
+    this.level = level;
+    int xfl = (level == Deflater.BEST_COMPRESSION ? 2 : level == Deflater.BEST_SPEED ? 4 : 0);
+    out.write(new byte[] { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, (byte) xfl,
+        (byte) 0xFF });
+  }
+
+  @Override
+  protected Callable<byte[]> createBlockTask(byte[] data, int length, boolean last) {
+    // checksum and dictionary are sequential, so maintained here on the writing thread
+    crc.update(data, 0, length);
+    uncompressedLength += length;
+    final byte[] dict = dictionary;
+    if (length > 0) {
+      dictionary = Arrays.copyOfRange(data, Math.max(0, length - DICTIONARY_SIZE), length);
+    }
+    return new Callable<byte[]>() {
+
+      @Override
+      public byte[] call() throws Exception {
+        Deflater deflater = new Deflater(level, true);
+        try {
+          if (dict != null) {
+            deflater.setDictionary(dict);
+          }
+          deflater.setInput(data, 0, length);
+          ByteArrayOutputStream result = new ByteArrayOutputStream(Math.max(1024, length / 2));
+          byte[] buf = new byte[65536];
+          if (last) {
+            deflater.finish();
+            while (!deflater.finished()) {
+              int count = deflater.deflate(buf);
+              result.write(buf, 0, count);
+            }
+          } else {
+            int count;
+            do {
+              count = deflater.deflate(buf, 0, buf.length, Deflater.SYNC_FLUSH);
+              result.write(buf, 0, count);
+            } while (count == buf.length);
+          }
+          return result.toByteArray();
+        } finally {
+          deflater.end();
+        }
+      }
+    };
+  }
+
+  @Override
+  protected void writeBlock(byte[] block, OutputStream out) throws IOException {
+    out.write(block);
+  }
+
+  @Override
+  protected void writeTrailer(OutputStream out) throws IOException {
+    long v = crc.getValue();
+    long len = uncompressedLength;
+    out.write(new byte[] { (byte) v, (byte) (v >>> 8), (byte) (v >>> 16), (byte) (v >>> 24),
+        (byte) len, (byte) (len >>> 8), (byte) (len >>> 16), (byte) (len >>> 24) });
+  }
+
+}
@@ -0,0 +1,233 @@
+/* ==================================================================
+ * ParallelXzCompressorOutputStream.java - 18/10/2026 9:40:18 AM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.nim.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.CRC32;
+
+import org.tukaani.xz.BasicArrayCache;
+import org.tukaani.xz.LZMA2Options;
+import org.tukaani.xz.UnsupportedOptionsException;
+import org.tukaani.xz.XZ;
+import org.tukaani.xz.XZOutputStream;
+
+/**
+ * Parallel XZ compressor that produces a single, standard {@literal .xz} stream made up of
+ * independently compressed blocks, similar to {@literal xz --threads}.
+ * 
+ * <p>
+ * Each block is compressed on its own into a single-block XZ stream. The block is then lifted out
+ * of that stream and written into the output stream, and its index record is collected so a
+ * combined index and stream footer can be written once all blocks are done. The result can be
+ * decompressed by any XZ decoder, including single-stream decoders.
+ * </p>
+ * 
+ * <p>
+ * The LZMA2 dictionary size is limited to the block size, because a larger dictionary cannot
+ * improve compression of an independent block and only costs memory.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class ParallelXzCompressorOutputStream
+    extends ParallelBlockCompressorOutputStream<ParallelXzCompressorOutputStream.Block> {
+
+  private static final byte[] HEADER_MAGIC = new byte[] { (byte) 0xFD, '7', 'z', 'X', 'Z', 0 };
+  private static final byte[] FOOTER_MAGIC = new byte[] { 'Y', 'Z' };
+  private static final int STREAM_HEADER_SIZE = 12;
+  private static final int STREAM_FOOTER_SIZE = 12;
+
+  private final LZMA2Options options;
+  private final int checkType;
+  private final List<long[]> records = new ArrayList<>(64);
+
+  /**
+   * A compressed block, referencing a region of a compressed single-block XZ stream.
+   */
+  public static final class Block {
+
+    private final byte[] data;
+    private final int offset;
+    private final int length;
+    private final long unpaddedSize;
+    private final long uncompressedSize;
+
+    private Block(byte[] data, int offset, int length, long unpaddedSize,
+        long uncompressedSize) {
+      super();
+      this.data = data;
+      this.offset = offset;
+      this.length = length;
+      this.unpaddedSize = unpaddedSize;
+      this.uncompressedSize = uncompressedSize;
+    }
+
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param out
+   *          the stream to write the compressed data to
+   * @param preset
+   *          the XZ preset level to use, from {@literal 0} to {@literal 9}
+   * @param executorService
+   *          the executor to compress blocks with
+   * @param blockSize
+   *          the uncompressed size of each block, in bytes
+   * @param maxPendingBlocks
+   *          the maximum number of blocks to allow to be compressing at once
+   * @throws IOException
+   *           if an IO error occurs writing the stream header
+   */
+  public ParallelXzCompressorOutputStream(OutputStream out, int preset,
+      ExecutorService executorService, int blockSize, int maxPendingBlocks) throws IOException {
+    super(out, executorService, blockSize, maxPendingBlocks);
+    try {
+      this.options = new LZMA2Options(preset);
+    } catch (UnsupportedOptionsException e) {
+      throw new IOException("Unsupported XZ preset " + preset, e);
+    }
+    if (options.getDictSize() > blockSize) {
+      options.setDictSize(Math.max(LZMA2Options.DICT_SIZE_MIN, blockSize));
+    }
+    this.checkType = XZ.CHECK_CRC64;
+    writeStreamHeader(out);
+  }
+
+  private void writeStreamHeader(OutputStream out) throws IOException {
+    byte[] flags = new byte[] { 0, (byte) checkType };
+    out.write(HEADER_MAGIC);
+    out.write(flags);
+    writeCrc32(out, flags, 0, flags.length);
+  }
+
+  @Override
+  protected Callable<Block> createBlockTask(byte[] data, int length, boolean last) {
+    return new Callable<Block>() {
+
+      @Override
+      public Block call() throws Exception {
+        if (length < 1) {
+          return null;
+        }
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(Math.max(1024, length / 4));
+        try (XZOutputStream xz = new XZOutputStream(buf, options, checkType,
+            BasicArrayCache.getInstance())) {
+          xz.write(data, 0, length);
+        }
+        return extractBlock(buf.toByteArray());
+      }
+    };
+  }
+
+  private static Block extractBlock(byte[] stream) throws IOException {
+    final int footerOffset = stream.length - STREAM_FOOTER_SIZE;
+    final long backwardSize = ((readInt32(stream, footerOffset + 4) & 0xFFFFFFFFL) + 1) * 4;
+    final int indexOffset = (int) (footerOffset - backwardSize);
+    if (indexOffset < STREAM_HEADER_SIZE || stream[indexOffset] != 0) {
+      throw new IOException("Invalid XZ index in compressed block");
+    }
+    int[] pos = new int[] { indexOffset + 1 };
+    long recordCount = readVli(stream, pos);
+    if (recordCount != 1) {
+      throw new IOException("Expected 1 XZ block record but found " + recordCount);
+    }
+    long unpaddedSize = readVli(stream, pos);
+    long uncompressedSize = readVli(stream, pos);
+    return new Block(stream, STREAM_HEADER_SIZE, indexOffset - STREAM_HEADER_SIZE, unpaddedSize,
+        uncompressedSize);
+  }
+
+  @Override
+  protected void writeBlock(Block block, OutputStream out) throws IOException {
+    out.write(block.data, block.offset, block.length);
+    records.add(new long[] { block.unpaddedSize, block.uncompressedSize });
+  }
+
+  @Override
+  protected void writeTrailer(OutputStream out) throws IOException {
+    ByteArrayOutputStream index = new ByteArrayOutputStream(8 + records.size() * 8);
+    index.write(0);
+    writeVli(index, records.size());
+    for (long[] record : records) {
+      writeVli(index, record[0]);
+      writeVli(index, record[1]);
+    }
+    while (index.size() % 4 != 0) {
+      index.write(0);
+    }
+    byte[] indexData = index.toByteArray();
+    out.write(indexData);
+    writeCrc32(out, indexData, 0, indexData.length);
+
+    // footer: CRC32, backward size, flags, magic
+    long backwardSize = (indexData.length + 4) / 4 - 1;
+    byte[] footer = new byte[] { (byte) backwardSize, (byte) (backwardSize >>> 8),
+        (byte) (backwardSize >>> 16), (byte) (backwardSize >>> 24), 0, (byte) checkType };
+    writeCrc32(out, footer, 0, footer.length);
+    out.write(footer);
+    out.write(FOOTER_MAGIC);
+  }
+
+  private static void writeCrc32(OutputStream out, byte[] data, int off, int len)
+      throws IOException {
+    CRC32 crc = new CRC32();
+    crc.update(data, off, len);
+    long v = crc.getValue();
+    out.write(new byte[] { (byte) v, (byte) (v >>> 8), (byte) (v >>> 16), (byte) (v >>> 24) });
+  }
+
+  private static int readInt32(byte[] data, int off) {
+    return (data[off] & 0xFF) | (data[off + 1] & 0xFF) << 8 | (data[off + 2] & 0xFF) << 16
+        | (data[off + 3] & 0xFF) << 24;
+  }
+
+  private static long readVli(byte[] data, int[] pos) throws IOException {
+    long result = 0;
+    for (int i = 0; i < 9; i++) {
+      int b = data[pos[0]++] & 0xFF;
+      result |= (long) (b & 0x7F) << (i * 7);
+      if ((b & 0x80) == 0) {
+        return result;
+      }
+    }
+    throw new IOException("Invalid XZ variable length integer");
+  }
+
+  private static void writeVli(OutputStream out, long value) throws IOException {
+    while (value >= 0x80) {
+      out.write((int) (value | 0x80));
+      value >>>= 7;
+    }
+    out.write((int) value);
+  }
+
+}
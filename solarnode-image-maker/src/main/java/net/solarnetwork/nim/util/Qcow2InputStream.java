@@ -0,0 +1,262 @@
+/* ==================================================================
+ * Qcow2InputStream.java - 18/10/2026 9:06:41 AM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.nim.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Read the raw disk content of a {@literal qcow2} image, merged with its backing file.
+ * 
+ * <p>
+ * This supports the simple {@literal qcow2} overlays created by {@literal qemu-img create -f qcow2
+ * -b base.img -F raw}, that is an image with an optional <b>raw</b> backing file. Clusters
+ * allocated in the image are read from the image, zero clusters are returned as zeros, and all
+ * other clusters are read from the backing file. Compressed clusters, encryption, external data
+ * files, and extended L2 entries are not supported.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class Qcow2InputStream extends InputStream {
+
+  /** The qcow2 file magic bytes. */
+  public static final int MAGIC = 0x514649fb;
+
+  private static final long L1_OFFSET_MASK = 0x00fffffffffffe00L;
+  private static final long L2_OFFSET_MASK = 0x00fffffffffffe00L;
+  private static final long L2_COMPRESSED = 1L << 62;
+  private static final long L2_ZERO = 1L;
+
+  private static final long INCOMPAT_CORRUPT = 1L << 1;
+  private static final long INCOMPAT_DATA_FILE = 1L << 2;
+  private static final long INCOMPAT_EXTENDED_L2 = 1L << 4;
+
+  private final FileChannel image;
+  private final FileChannel backing;
+  private final long backingSize;
+  private final int version;
+  private final int clusterBits;
+  private final int l2Bits;
+  private final long size;
+  private final long[] l1;
+
+  private long[] l2 = null;
+  private int l2TableIndex = -1;
+  private long position = 0;
+  private boolean closed = false;
+
+  /**
+   * Constructor.
+   * 
+   * <p>
+   * The backing file named in the image header is opened as well, resolved relative to the
+   * directory of {@code imageFile}.
+   * </p>
+   * 
+   * @param imageFile
+   *          the {@literal qcow2} image to read
+   * @throws IOException
+   *           if the image cannot be opened or is not a supported {@literal qcow2} image
+   */
+  public Qcow2InputStream(Path imageFile) throws IOException {
+    super();
+    this.image = FileChannel.open(imageFile, StandardOpenOption.READ);
+    try {
+      ByteBuffer header = readFully(image, 0, 104);
+      if (header.getInt(0) != MAGIC) {
+        throw new IOException("Image " + imageFile + " is not a qcow2 image");
+      }
+      version = header.getInt(4);
+      final long backingNameOffset = header.getLong(8);
+      final int backingNameLength = header.getInt(16);
+      clusterBits = header.getInt(20);
+      size = header.getLong(24);
+      final int cryptMethod = header.getInt(32);
+      final int l1Size = header.getInt(36);
+      final long l1Offset = header.getLong(40);
+      long incompatibleFeatures = (version >= 3 ? header.getLong(72) : 0);
+
+      if (version < 2 || version > 3) {
+        throw new IOException("Unsupported qcow2 version " + version + " in " + imageFile);
+      }
+      if (cryptMethod != 0) {
+        throw new IOException("Encrypted qcow2 image " + imageFile + " not supported");
+      }
+      if ((incompatibleFeatures
+          & (INCOMPAT_CORRUPT | INCOMPAT_DATA_FILE | INCOMPAT_EXTENDED_L2)) != 0) {
+        throw new IOException("Unsupported qcow2 features 0x"
+            + Long.toHexString(incompatibleFeatures) + " in " + imageFile);
+      }
+      if (clusterBits < 9 || clusterBits > 21) {
+        throw new IOException("Invalid qcow2 cluster bits " + clusterBits + " in " + imageFile);
+      }
+      l2Bits = clusterBits - 3;
+
+      ByteBuffer l1Table = readFully(image, l1Offset, l1Size * 8);
+      l1 = new long[l1Size];
+      l1Table.asLongBuffer().get(l1);
+
+      if (backingNameOffset != 0 && backingNameLength > 0) {
+        String backingName = new String(
+            readFully(image, backingNameOffset, backingNameLength).array(),
+            StandardCharsets.UTF_8);
+        Path parent = imageFile.toAbsolutePath().getParent();
+        Path backingFile = (parent != null ? parent.resolve(backingName)
+            : imageFile.getFileSystem().getPath(backingName));
+        backing = FileChannel.open(backingFile, StandardOpenOption.READ);
+        backingSize = backing.size();
+      } else {
+        backing = null;
+        backingSize = 0;
+      }
+    } catch (IOException | RuntimeException e) {
+      image.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Get the virtual size of the disk.
+   * 
+   * @return the size, in bytes
+   */
+  public long getSize() {
+    return size;
+  }
+
+  private static ByteBuffer readFully(FileChannel channel, long offset, int length)
+      throws IOException {
+    ByteBuffer buf = ByteBuffer.allocate(length);
+    while (buf.hasRemaining()) {
+      if (channel.read(buf, offset + buf.position()) < 0) {
+        throw new IOException("Unexpected end of qcow2 image");
+      }
+    }
+    buf.flip();
+    return buf;
+  }
+
+  @Override
+  public int read() throws IOException {
+    byte[] b = new byte[1];
+    int count = read(b, 0, 1);
+    return (count < 1 ? -1 : b[0] & 0xFF);
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+    if (len == 0) {
+      return 0;
+    }
+    if (position >= size) {
+      return -1;
+    }
+    final long clusterIndex = position >>> clusterBits;
+    final long clusterOffset = position & ((1L << clusterBits) - 1);
+    final int count = (int) Math.min(Math.min(len, (1L << clusterBits) - clusterOffset),
+        size - position);
+
+    final long entry = l2Entry(clusterIndex);
+    final long hostOffset = entry & L2_OFFSET_MASK;
+    if ((entry & L2_COMPRESSED) != 0) {
+      throw new IOException("Compressed qcow2 clusters not supported");
+    } else if (version >= 3 && (entry & L2_ZERO) != 0) {
+      Arrays.fill(b, off, off + count, (byte) 0);
+    } else if (hostOffset != 0) {
+      readAt(image, hostOffset + clusterOffset, Long.MAX_VALUE, b, off, count);
+    } else if (backing != null) {
+      readAt(backing, position, backingSize, b, off, count);
+    } else {
+      Arrays.fill(b, off, off + count, (byte) 0);
+    }
+    position += count;
+    return count;
+  }
+
+  private long l2Entry(long clusterIndex) throws IOException {
+    final int tableIndex = (int) (clusterIndex >>> l2Bits);
+    if (tableIndex >= l1.length) {
+      return 0;
+    }
+    if (tableIndex != l2TableIndex) {
+      long l2Offset = l1[tableIndex] & L1_OFFSET_MASK;
+      if (l2Offset == 0) {
+        l2 = null;
+      } else {
+        ByteBuffer table = readFully(image, l2Offset, 1 << clusterBits);
+        l2 = new long[1 << l2Bits];
+        table.asLongBuffer().get(l2);
+      }
+      l2TableIndex = tableIndex;
+    }
+    return (l2 == null ? 0 : l2[(int) (clusterIndex & ((1 << l2Bits) - 1))]);
+  }
+
+  private static void readAt(FileChannel channel, long offset, long limit, byte[] b, int off,
+      int len) throws IOException {
+    ByteBuffer buf = ByteBuffer.wrap(b, off, len);
+    while (buf.hasRemaining() && offset < limit) {
+      int count = channel.read(buf, offset);
+      if (count < 0) {
+        break;
+      }
+      offset += count;
+    }
+    // anything past the end of the file reads as zeros
+    Arrays.fill(b, buf.position(), off + len, (byte) 0);
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    long count = Math.max(0, Math.min(n, size - position));
+    position += count;
+    return count;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      image.close();
+    } finally {
+      if (backing != null) {
+        backing.close();
+      }
+    }
+  }
+
+}
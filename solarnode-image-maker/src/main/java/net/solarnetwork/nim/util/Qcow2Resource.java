@@ -0,0 +1,80 @@
+/* ==================================================================
+ * Qcow2Resource.java - 18/10/2026 9:58:20 AM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.nim.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.Resource;
+
+/**
+ * A {@link Resource} for the raw disk content of a {@literal qcow2} image.
+ * 
+ * @author matt
+ * @version 1.0
+ * @see Qcow2InputStream
+ */
+public class Qcow2Resource extends AbstractResource {
+
+  private final Path imageFile;
+  private final String filename;
+
+  /**
+   * Constructor.
+   * 
+   * @param imageFile
+   *          the {@literal qcow2} image file
+   * @param filename
+   *          the filename to use for the raw content
+   */
+  public Qcow2Resource(Path imageFile, String filename) {
+    super();
+    this.imageFile = imageFile;
+    this.filename = filename;
+  }
+
+  @Override
+  public String getDescription() {
+    return "Qcow2Resource{" + imageFile + "}";
+  }
+
+  @Override
+  public InputStream getInputStream() throws IOException {
+    return new Qcow2InputStream(imageFile);
+  }
+
+  @Override
+  public long contentLength() throws IOException {
+    try (Qcow2InputStream in = new Qcow2InputStream(imageFile)) {
+      return in.getSize();
+    }
+  }
+
+  @Override
+  public String getFilename() {
+    return filename;
+  }
+
+}
@@ -0,0 +1,128 @@
+/* ==================================================================
+ * ResourceBudget.java - 18/10/2026 4:10:37 PM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.nim.util;
+
+/**
+ * A fixed amount of some resource, such as disk space or memory, that tasks reserve before using
+ * and release when done.
+ * 
+ * <p>
+ * A single reservation larger than the whole budget is reduced to the budget capacity, so that it
+ * can still run once nothing else is reserved rather than waiting forever.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class ResourceBudget {
+
+  private final String name;
+  private final long capacity;
+  private long reserved = 0;
+
+  /**
+   * Constructor.
+   * 
+   * @param name
+   *          a name for the resource, for use in messages
+   * @param capacity
+   *          the total amount of the resource available
+   */
+  public ResourceBudget(String name, long capacity) {
+    super();
+    if (capacity < 1) {
+      throw new IllegalArgumentException("Capacity must be > 0");
+    }
+    this.name = name;
+    this.capacity = capacity;
+  }
+
+  /**
+   * Reserve an amount of the resource, if it is available now.
+   * 
+   * @param amount
+   *          the amount to reserve
+   * @return the amount reserved, which must later be passed to {@link #release(long)}, or
+   *         {@literal -1} if not enough of the resource is available
+   */
+  public synchronized long tryReserve(long amount) {
+    final long needed = Math.min(Math.max(0, amount), capacity);
+    if (reserved + needed > capacity) {
+      return -1;
+    }
+    reserved += needed;
+    return needed;
+  }
+
+  /**
+   * Reserve an amount of the resource, waiting until it is available.
+   * 
+   * @param amount
+   *          the amount to reserve
+   * @return the amount reserved, which must later be passed to {@link #release(long)}
+   * @throws InterruptedException
+   *           if interrupted while waiting
+   */
+  public synchronized long reserve(long amount) throws InterruptedException {
+    long result;
+    while ((result = tryReserve(amount)) < 0) {
+      wait();
+    }
+    return result;
+  }
+
+  /**
+   * Release a previous reservation.
+   * 
+   * @param amount
+   *          the amount returned by {@link #tryReserve(long)} or {@link #reserve(long)}
+   */
+  public synchronized void release(long amount) {
+    reserved = Math.max(0, reserved - Math.max(0, amount));
+    notifyAll();
+  }
+
+  /**
+   * Get the amount of the resource not currently reserved.
+   * 
+   * @return the available amount
+   */
+  public synchronized long getAvailable() {
+    return capacity - reserved;
+  }
+
+  /**
+   * Get the total amount of the resource.
+   * 
+   * @return the capacity
+   */
+  public long getCapacity() {
+    return capacity;
+  }
+
+  @Override
+  public String toString() {
+    return "ResourceBudget{" + name + "," + getAvailable() + "/" + capacity + "}";
+  }
+
+}
@@ -0,0 +1,97 @@
+/* ==================================================================
+ * SizeLimitInputStream.java - 18/10/2026 9:12:40 AM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.nim.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * InputStream that fails once more than a maximum number of bytes have been read.
+ * 
+ * <p>
+ * This enforces a size limit on request bodies whose length is not known up front, like a chunked
+ * upload.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class SizeLimitInputStream extends FilterInputStream {
+
+  private final long maximumSize;
+  private long count = 0;
+
+  /**
+   * Constructor.
+   * 
+   * @param in
+   *          the input stream to wrap
+   * @param maximumSize
+   *          the maximum number of bytes allowed to be read
+   */
+  public SizeLimitInputStream(InputStream in, long maximumSize) {
+    super(in);
+    this.maximumSize = maximumSize;
+  }
+
+  @Override
+  public int read() throws IOException {
+    final int b = in.read();
+    if (b >= 0) {
+      count(1);
+    }
+    return b;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    final int readLength = in.read(b, off, len);
+    if (readLength > 0) {
+      count(readLength);
+    }
+    return readLength;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    final long skipped = in.skip(n);
+    if (skipped > 0) {
+      count(skipped);
+    }
+    return skipped;
+  }
+
+  @Override
+  public boolean markSupported() {
+    return false;
+  }
+
+  private void count(long length) throws IOException {
+    count += length;
+    if (count > maximumSize) {
+      throw new MultipartStream.SizeLimitExceededException(maximumSize);
+    }
+  }
+
+}
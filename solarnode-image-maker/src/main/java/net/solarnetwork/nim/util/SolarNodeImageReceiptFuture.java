@@ -35,7 +35,7 @@ import net.solarnetwork.nim.domain.SolarNodeImageReceipt;
  * Implementation of {@link SolarNodeImageReceipt} that delegates to another {@link Future}.
  * 
  * @author matt
- * @version 1.0
+ * @version 1.1
  */
 public class SolarNodeImageReceiptFuture implements SolarNodeImageReceipt {
 
@@ -59,8 +59,28 @@ public class SolarNodeImageReceiptFuture implements SolarNodeImageReceipt {
    */
   public SolarNodeImageReceiptFuture(String id, String baseImageId, Future<SolarNodeImage> future,
       TaskStepTracker tracker) {
+    this(id, baseImageId, System.currentTimeMillis(), future, tracker);
+  }
+
+  /**
+   * Construct with a specific creation date.
+   * 
+   * @param id
+   *          the receipt ID
+   * @param baseImageId
+   *          the base image ID
+   * @param createdDate
+   *          the creation date, in milliseconds since the epoch
+   * @param future
+   *          the task
+   * @param tracker
+   *          a step tracker
+   * @since 1.1
+   */
+  public SolarNodeImageReceiptFuture(String id, String baseImageId, long createdDate,
+      Future<SolarNodeImage> future, TaskStepTracker tracker) {
     super();
-    this.createdDate = System.currentTimeMillis();
+    this.createdDate = createdDate;
     this.id = id;
     this.baseImageId = baseImageId;
     this.future = future;
@@ -102,6 +122,28 @@ public class SolarNodeImageReceiptFuture implements SolarNodeImageReceipt {
     return tracker.isStarted();
   }
 
+  @Override
+  public int getQueuePosition() {
+    if (isStarted() || isDone()) {
+      return 0;
+    }
+    return getQueuePositionInternal();
+  }
+
+  /**
+   * Hook for the queue position.
+   * 
+   * <p>
+   * This method returns {@literal 0}. Extending classes can provide an actual value.
+   * </p>
+   * 
+   * @return the queue position
+   * @since 1.1
+   */
+  protected int getQueuePositionInternal() {
+    return 0;
+  }
+
   @Override
   public Long getStartedDate() {
     return tracker.getStartedDate();
@@ -145,6 +187,17 @@ public class SolarNodeImageReceiptFuture implements SolarNodeImageReceipt {
     return tracker.getCompletedDate();
   }
 
+  @Override
+  public boolean addProgressListener(Runnable listener) {
+    tracker.addListener(listener);
+    return true;
+  }
+
+  @Override
+  public void removeProgressListener(Runnable listener) {
+    tracker.removeListener(listener);
+  }
+
   @Override
   public final String getDownloadUrl() {
     if (!isDone() || isCancelled() || getPercentComplete() < 1f) {
@@ -0,0 +1,173 @@
+/* ==================================================================
+ * SparseFileOutputStream.java - 18/10/2026 2:41:52 PM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.nim.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Write to a file, leaving holes in place of blocks that contain only zeros.
+ * 
+ * <p>
+ * Disk images are mostly empty space, so writing them as sparse files saves both the disk space and
+ * the disk writes of all those zeros. Reading back a hole is handled by the filesystem without any
+ * disk access, so later consumers of the file benefit too. Only whole, aligned blocks are skipped;
+ * the file is extended to its full length when the stream is closed.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class SparseFileOutputStream extends OutputStream {
+
+  /** The default block size. */
+  public static final int DEFAULT_BLOCK_SIZE = 4096;
+
+  private final RandomAccessFile file;
+  private final FileChannel channel;
+  private final int blockSize;
+  private long position = 0;
+  private long sparseLength = 0;
+  private boolean closed = false;
+
+  /**
+   * Construct with the default block size.
+   * 
+   * @param file
+   *          the file to write to; any existing content will be discarded
+   * @throws IOException
+   *           if the file cannot be opened
+   */
+  public SparseFileOutputStream(File file) throws IOException {
+    this(file, DEFAULT_BLOCK_SIZE);
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param file
+   *          the file to write to; any existing content will be discarded
+   * @param blockSize
+   *          the size of blocks to check for zeros; should be a multiple of the filesystem block
+   *          size
+   * @throws IOException
+   *           if the file cannot be opened
+   */
+  public SparseFileOutputStream(File file, int blockSize) throws IOException {
+    super();
+    if (blockSize < 1) {
+      throw new IllegalArgumentException("Block size must be > 0");
+    }
+    this.file = new RandomAccessFile(file, "rw");
+    this.file.setLength(0);
+    this.channel = this.file.getChannel();
+    this.blockSize = blockSize;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    write(new byte[] { (byte) b }, 0, 1);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+    // start of a run of data blocks not yet written
+    int runStart = off;
+    final int end = off + len;
+    while (off < end) {
+      // the file offset of off, including the pending run
+      final long offset = position + (off - runStart);
+      int count = (int) Math.min(end - off, blockSize - (offset % blockSize));
+      if (count == blockSize && isZero(b, off, count)) {
+        writeFully(b, runStart, off - runStart);
+        position += count;
+        sparseLength += count;
+        runStart = off + count;
+      }
+      off += count;
+    }
+    writeFully(b, runStart, end - runStart);
+  }
+
+  private void writeFully(byte[] b, int off, int len) throws IOException {
+    if (len < 1) {
+      return;
+    }
+    ByteBuffer buf = ByteBuffer.wrap(b, off, len);
+    while (buf.hasRemaining()) {
+      position += channel.write(buf, position);
+    }
+  }
+
+  private static boolean isZero(byte[] b, int off, int len) {
+    final int end = off + len;
+    int i = off;
+    if (len >= 8) {
+      ByteBuffer buf = ByteBuffer.wrap(b, off, len);
+      for (final int longEnd = end - 7; i < longEnd; i += 8) {
+        if (buf.getLong(i) != 0) {
+          return false;
+        }
+      }
+    }
+    for (; i < end; i++) {
+      if (b[i] != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Get the number of bytes skipped over as holes.
+   * 
+   * @return the sparse byte count
+   */
+  public long getSparseLength() {
+    return sparseLength;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      if (file.length() < position) {
+        // trailing holes
+        file.setLength(position);
+      }
+    } finally {
+      file.close();
+    }
+  }
+
+}
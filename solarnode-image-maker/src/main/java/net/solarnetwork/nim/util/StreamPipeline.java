@@ -0,0 +1,315 @@
+/* ==================================================================
+ * StreamPipeline.java - 18/10/2026 1:24:10 PM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.nim.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.lang3.mutable.MutableLong;
+
+/**
+ * Copy an {@link InputStream} through a series of processing stages that each run on their own
+ * thread, connected by bounded buffer queues.
+ * 
+ * <p>
+ * The input stream is read on the calling thread into a fixed pool of buffers. Each filled buffer
+ * is passed to every stage in order, and then returned to the pool. Because each stage runs on its
+ * own thread, the stages overlap one another and the total time taken approaches that of the
+ * slowest stage rather than the sum of all stages. The buffer pool bounds the memory used, and
+ * causes faster stages to wait on slower ones.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class StreamPipeline {
+
+  /** The default buffer size. */
+  public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+  /** The default number of buffers. */
+  public static final int DEFAULT_BUFFER_COUNT = 8;
+
+  private static final long POLL_MILLIS = 200;
+
+  private static final Chunk EOF = new Chunk(new byte[0]);
+
+  private final ExecutorService executorService;
+  private final int bufferSize;
+  private final int bufferCount;
+
+  /**
+   * A processing stage in the pipeline.
+   */
+  @FunctionalInterface
+  public interface Stage {
+
+    /**
+     * Process a buffer of data.
+     * 
+     * @param buffer
+     *          the data; must not be modified
+     * @param length
+     *          the number of bytes of {@code buffer} to process
+     * @throws IOException
+     *           if an IO error occurs
+     */
+    void process(byte[] buffer, int length) throws IOException;
+
+  }
+
+  private static final class Chunk {
+
+    private final byte[] data;
+    private int length;
+
+    private Chunk(byte[] data) {
+      super();
+      this.data = data;
+    }
+  }
+
+  /**
+   * Construct with default buffer settings.
+   * 
+   * @param executorService
+   *          the executor to run the stages with; it must be able to run all stages at once
+   */
+  public StreamPipeline(ExecutorService executorService) {
+    this(executorService, DEFAULT_BUFFER_SIZE, DEFAULT_BUFFER_COUNT);
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param executorService
+   *          the executor to run the stages with; it must be able to run all stages at once
+   * @param bufferSize
+   *          the size of each buffer, in bytes
+   * @param bufferCount
+   *          the number of buffers to use
+   */
+  public StreamPipeline(ExecutorService executorService, int bufferSize, int bufferCount) {
+    super();
+    this.executorService = executorService;
+    this.bufferSize = bufferSize;
+    this.bufferCount = bufferCount;
+  }
+
+  /**
+   * Create a stage that updates a message digest and byte counter.
+   * 
+   * @param digest
+   *          the digest to update
+   * @param counter
+   *          the counter to update
+   * @return the stage
+   */
+  public static Stage digestStage(MessageDigest digest, MutableLong counter) {
+    return (buf, len) -> {
+      digest.update(buf, 0, len);
+      counter.add(len);
+    };
+  }
+
+  /**
+   * Create a stage that writes to an output stream.
+   * 
+   * <p>
+   * The stream is not closed by the stage.
+   * </p>
+   * 
+   * @param out
+   *          the stream to write to
+   * @return the stage
+   */
+  public static Stage outputStage(OutputStream out) {
+    return (buf, len) -> out.write(buf, 0, len);
+  }
+
+  /**
+   * Copy an input stream through a series of stages.
+   * 
+   * <p>
+   * This method blocks until all data has been processed by all stages. The input stream is
+   * <b>not</b> closed. If any stage fails, all other stages are stopped and the failure is thrown.
+   * This method may be called concurrently by different threads.
+   * </p>
+   * 
+   * @param in
+   *          the stream to read
+   * @param stages
+   *          the stages to process the data with, in order
+   * @return the number of bytes copied
+   * @throws IOException
+   *           if any IO error occurs, in the input stream or any stage
+   */
+  public long copy(InputStream in, Stage... stages) throws IOException {
+    final AtomicReference<Throwable> failure = new AtomicReference<>();
+    final BlockingQueue<Chunk> free = new ArrayBlockingQueue<>(bufferCount);
+    for (int i = 0; i < bufferCount; i++) {
+      free.add(new Chunk(new byte[bufferSize]));
+    }
+    final List<BlockingQueue<Chunk>> queues = new ArrayList<>(stages.length);
+    for (int i = 0; i < stages.length; i++) {
+      // one extra slot for the end of stream marker
+      queues.add(new ArrayBlockingQueue<>(bufferCount + 1));
+    }
+    final List<Future<?>> futures = new ArrayList<>(stages.length);
+    long total = 0;
+    try {
+      for (int i = 0; i < stages.length; i++) {
+        final Stage stage = stages[i];
+        final BlockingQueue<Chunk> input = queues.get(i);
+        final boolean last = (i + 1 == stages.length);
+        final BlockingQueue<Chunk> output = (last ? free : queues.get(i + 1));
+        futures.add(executorService.submit(() -> {
+          runStage(stage, input, output, last, failure);
+          return null;
+        }));
+      }
+      final BlockingQueue<Chunk> first = (stages.length > 0 ? queues.get(0) : free);
+      while (true) {
+        Chunk chunk = take(free, failure);
+        int len = readFully(in, chunk.data);
+        if (len < 1) {
+          free.add(chunk);
+          break;
+        }
+        chunk.length = len;
+        total += len;
+        put(first, chunk, failure);
+      }
+      if (stages.length > 0) {
+        put(first, EOF, failure);
+      }
+      for (Future<?> f : futures) {
+        f.get();
+      }
+      return total;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for pipeline to complete");
+    } catch (ExecutionException e) {
+      Throwable t = failure.get();
+      if (t == null) {
+        t = e.getCause();
+      }
+      if (t instanceof IOException) {
+        throw (IOException) t;
+      }
+      throw new IOException("Pipeline stage failed: " + t.getMessage(), t);
+    } catch (IOException | RuntimeException e) {
+      failure.compareAndSet(null, e);
+      Throwable t = failure.get();
+      if (t != e && t instanceof IOException) {
+        // report the original stage failure rather than the resulting abort
+        throw (IOException) t;
+      }
+      throw e;
+    } finally {
+      for (Future<?> f : futures) {
+        f.cancel(true);
+      }
+    }
+  }
+
+  private static void runStage(Stage stage, BlockingQueue<Chunk> input,
+      BlockingQueue<Chunk> output, boolean last, AtomicReference<Throwable> failure)
+      throws IOException {
+    try {
+      while (true) {
+        Chunk chunk = take(input, failure);
+        if (chunk == EOF) {
+          if (!last) {
+            put(output, EOF, failure);
+          }
+          return;
+        }
+        stage.process(chunk.data, chunk.length);
+        put(output, chunk, failure);
+      }
+    } catch (IOException | RuntimeException e) {
+      failure.compareAndSet(null, e);
+      throw e;
+    }
+  }
+
+  private static Chunk take(BlockingQueue<Chunk> queue, AtomicReference<Throwable> failure)
+      throws IOException {
+    try {
+      Chunk c;
+      while ((c = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS)) == null) {
+        checkFailure(failure);
+      }
+      return c;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for pipeline buffer");
+    }
+  }
+
+  private static void put(BlockingQueue<Chunk> queue, Chunk chunk,
+      AtomicReference<Throwable> failure) throws IOException {
+    try {
+      while (!queue.offer(chunk, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+        checkFailure(failure);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for pipeline buffer");
+    }
+  }
+
+  private static void checkFailure(AtomicReference<Throwable> failure) throws IOException {
+    Throwable t = failure.get();
+    if (t != null) {
+      throw new IOException("Pipeline aborted: " + t.getMessage(), t);
+    }
+  }
+
+  private static int readFully(InputStream in, byte[] buf) throws IOException {
+    int total = 0;
+    while (total < buf.length) {
+      int count = in.read(buf, total, buf.length - total);
+      if (count < 0) {
+        break;
+      }
+      total += count;
+    }
+    return total;
+  }
+
+}
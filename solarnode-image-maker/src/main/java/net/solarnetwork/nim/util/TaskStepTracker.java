@@ -22,6 +22,9 @@
 
 package net.solarnetwork.nim.util;
 
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
 /**
  * Utility for tracking progress for a task that requires several discrete steps of possibly unknown
  * quantities of work.
@@ -31,8 +34,13 @@ package net.solarnetwork.nim.util;
  * tasks.
  * </p>
  * 
+ * <p>
+ * Listeners can be added to be told about every change in progress. They are called on the thread
+ * making the change, often many times per second, so they must return quickly.
+ * </p>
+ * 
  * @author matt
- * @version 1.0
+ * @version 1.1
  */
 public class TaskStepTracker {
 
@@ -42,6 +50,7 @@ public class TaskStepTracker {
   private String message = null;
   private Long startedDate = null;
   private Long completedDate = null;
+  private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
 
   /**
    * Constructor.
@@ -77,6 +86,7 @@ public class TaskStepTracker {
         stepPercentComplete = percent;
       }
     }
+    changed();
   }
 
   /**
@@ -114,6 +124,7 @@ public class TaskStepTracker {
       percent = 1;
     }
     stepPercentComplete = percent;
+    changed();
   }
 
   /**
@@ -147,6 +158,7 @@ public class TaskStepTracker {
    */
   public void setMessage(String message) {
     this.message = message;
+    changed();
   }
 
   /**
@@ -171,7 +183,19 @@ public class TaskStepTracker {
    * Set the started flag to {@literal true}.
    */
   public void start() {
-    this.startedDate = System.currentTimeMillis();
+    start(System.currentTimeMillis());
+  }
+
+  /**
+   * Set the started flag to {@literal true} as of a specific date.
+   * 
+   * @param date
+   *          the start date, in milliseconds since the epoch
+   * @since 1.1
+   */
+  public void start(long date) {
+    this.startedDate = date;
+    changed();
   }
 
   /**
@@ -196,7 +220,47 @@ public class TaskStepTracker {
    * Set the complete flag to {@literal true}.
    */
   public void complete() {
-    this.completedDate = System.currentTimeMillis();
+    complete(System.currentTimeMillis());
+  }
+
+  /**
+   * Set the complete flag to {@literal true} as of a specific date.
+   * 
+   * @param date
+   *          the completed date, in milliseconds since the epoch
+   * @since 1.1
+   */
+  public void complete(long date) {
+    this.completedDate = date;
+    changed();
+  }
+
+  /**
+   * Add a listener to be called whenever the progress changes.
+   * 
+   * @param listener
+   *          the listener to add
+   * @since 1.1
+   */
+  public void addListener(Runnable listener) {
+    listeners.add(listener);
+  }
+
+  /**
+   * Remove a listener previously added with {@link #addListener(Runnable)}.
+   * 
+   * @param listener
+   *          the listener to remove
+   * @since 1.1
+   */
+  public void removeListener(Runnable listener) {
+    listeners.remove(listener);
+  }
+
+  private void changed() {
+    for (Runnable listener : listeners) {
+      listener.run();
+    }
   }
 
 }
@@ -0,0 +1,231 @@
+/* ==================================================================
+ * MultipartStreamResources.java - 18/10/2026 6:41:18 AM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.nim.web;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.mutable.MutableLong;
+import org.springframework.util.StreamUtils;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import net.solarnetwork.nim.domain.SolarNodeImageResource;
+import net.solarnetwork.nim.service.NodeImageService;
+import net.solarnetwork.nim.util.MessageDigestInputStream;
+import net.solarnetwork.nim.util.MultipartStream;
+
+/**
+ * The resources in a multipart request body, parsed as they are iterated over.
+ * 
+ * <p>
+ * Each file part with the resource part name is returned as a {@link SolarNodeImageResource} whose
+ * {@link SolarNodeImageResource#transferTo(File)} method copies the data directly from the request
+ * body, computing its SHA-256 digest along the way. The resources must therefore be handled one at
+ * a time, in order. A part with the reference part name holds a value like {@code sha256:filename}
+ * that refers to a resource previously stored with the image service, and is returned as the
+ * stored resource. A part with the options part name is read with a reader, which is expected to
+ * update an existing object. All other parts are skipped. Only one iterator can be used.
+ * </p>
+ * 
+ * <p>
+ * IO errors while parsing the body are thrown by the iterator as {@link UncheckedIOException}.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class MultipartStreamResources implements Iterable<SolarNodeImageResource> {
+
+  private final MultipartStream stream;
+  private final String resourcePartName;
+  private final String referencePartName;
+  private final String optionsPartName;
+  private final ObjectReader optionsReader;
+  private final NodeImageService nodeImageService;
+  private boolean iterated;
+
+  /**
+   * A resource read from a part of the body.
+   */
+  private static final class PartResource implements SolarNodeImageResource {
+
+    private final MultipartStream.Part part;
+    private String sha256;
+
+    private PartResource(MultipartStream.Part part) {
+      super();
+      this.part = part;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+      return part.getInputStream();
+    }
+
+    @Override
+    public String getFilename() {
+      return part.getFilename();
+    }
+
+    @Override
+    public void transferTo(File dest) throws IOException, IllegalStateException {
+      if (sha256 != null) {
+        throw new IllegalStateException("Part " + getFilename() + " already transferred");
+      }
+      MessageDigest digest = DigestUtils.getSha256Digest();
+      try (InputStream in = new MessageDigestInputStream(digest, new MutableLong(0),
+          part.getInputStream())) {
+        Files.copy(in, dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+      sha256 = Hex.encodeHexString(digest.digest());
+    }
+
+    @Override
+    public String getSha256() {
+      return sha256;
+    }
+
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param stream
+   *          the multipart body
+   * @param resourcePartName
+   *          the name of the parts with resources
+   * @param referencePartName
+   *          the name of the parts with references to stored resources, or {@literal null} to skip
+   *          them
+   * @param optionsPartName
+   *          the name of the part with options
+   * @param optionsReader
+   *          the reader for the options part, or {@literal null} to skip it
+   * @param nodeImageService
+   *          the service to get stored resources from
+   */
+  public MultipartStreamResources(MultipartStream stream, String resourcePartName,
+      String referencePartName, String optionsPartName, ObjectReader optionsReader,
+      NodeImageService nodeImageService) {
+    super();
+    this.stream = stream;
+    this.resourcePartName = resourcePartName;
+    this.referencePartName = referencePartName;
+    this.optionsPartName = optionsPartName;
+    this.optionsReader = optionsReader;
+    this.nodeImageService = nodeImageService;
+  }
+
+  @Override
+  public synchronized Iterator<SolarNodeImageResource> iterator() {
+    if (iterated) {
+      throw new IllegalStateException("Multipart body already iterated");
+    }
+    iterated = true;
+    return new Iterator<SolarNodeImageResource>() {
+
+      private SolarNodeImageResource next;
+      private boolean finished;
+
+      @Override
+      public boolean hasNext() {
+        if (next == null && !finished) {
+          try {
+            next = nextResource();
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+          finished = (next == null);
+        }
+        return (next != null);
+      }
+
+      @Override
+      public SolarNodeImageResource next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        SolarNodeImageResource result = next;
+        next = null;
+        return result;
+      }
+
+    };
+  }
+
+  private SolarNodeImageResource nextResource() throws IOException {
+    for (MultipartStream.Part part = stream.next(); part != null; part = stream.next()) {
+      if (referencePartName != null && referencePartName.equals(part.getName())) {
+        String ref = StreamUtils.copyToString(part.getInputStream(), StandardCharsets.UTF_8)
+            .trim();
+        if (ref.isEmpty()) {
+          continue;
+        }
+        int idx = ref.indexOf(':');
+        String filename = (idx > 0 ? validFilename(ref.substring(idx + 1)) : null);
+        if (filename == null) {
+          throw new IllegalArgumentException(
+              "Invalid resource reference [" + ref + "]; expected sha256:filename");
+        }
+        return nodeImageService.storedResource(ref.substring(0, idx), filename);
+      }
+      if (validFilename(part.getFilename()) == null) {
+        // skip empty file uploads
+        continue;
+      }
+      if (resourcePartName.equals(part.getName())) {
+        return new PartResource(part);
+      }
+      if (optionsReader != null && optionsPartName.equals(part.getName())) {
+        byte[] data = StreamUtils.copyToByteArray(part.getInputStream());
+        if (data.length > 0) {
+          optionsReader.readValue(data);
+        }
+      }
+    }
+    return null;
+  }
+
+  private static String validFilename(String name) {
+    if (name == null) {
+      return null;
+    }
+    // only allow plain file names, so resources stay in the staging directory
+    int idx = Math.max(name.lastIndexOf('/'), name.lastIndexOf('\\'));
+    String filename = (idx < 0 ? name : name.substring(idx + 1)).trim();
+    return (filename.isEmpty() || ".".equals(filename) || "..".equals(filename) ? null
+        : filename);
+  }
+
+}
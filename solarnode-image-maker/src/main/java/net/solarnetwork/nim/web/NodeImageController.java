@@ -22,36 +22,51 @@
 
 package net.solarnetwork.nim.web;
 
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.Date;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
+import java.util.zip.GZIPOutputStream;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
-import org.springframework.core.io.InputStreamResource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
 import org.springframework.core.io.Resource;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
-import org.springframework.http.ResponseEntity;
-import org.springframework.http.ResponseEntity.BodyBuilder;
+import org.springframework.util.StreamUtils;
+import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.RestController;
-import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.context.request.WebRequest;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.databind.DeserializationFeature;
@@ -59,20 +74,23 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 
 import io.swagger.annotations.ApiOperation;
 import net.solarnetwork.nim.AuthorizationException;
+import net.solarnetwork.nim.domain.ResourceSolarNodeImage;
 import net.solarnetwork.nim.domain.SolarNodeImage;
 import net.solarnetwork.nim.domain.SolarNodeImageInfo;
 import net.solarnetwork.nim.domain.SolarNodeImageOptions;
 import net.solarnetwork.nim.domain.SolarNodeImageReceipt;
-import net.solarnetwork.nim.domain.SolarNodeImageResource;
 import net.solarnetwork.nim.service.NodeImageRepository;
 import net.solarnetwork.nim.service.NodeImageService;
+import net.solarnetwork.nim.service.RangedDataSupplier;
+import net.solarnetwork.nim.util.MultipartStream;
+import net.solarnetwork.nim.util.SizeLimitInputStream;
 import net.solarnetwork.web.domain.Response;
 
 /**
  * Web controller for node image operations.
  * 
  * @author matt
- * @version 1.0
+ * @version 1.1
  */
 @RestController
 @CrossOrigin
@@ -83,8 +101,17 @@ public class NodeImageController {
       .setSerializationInclusion(JsonInclude.Include.NON_ABSENT)
       .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
 
+  private static final String SENDFILE_SUPPORT_ATTR = "org.apache.tomcat.sendfile.support";
+  private static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+  private static final String SENDFILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+  private static final String SENDFILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+
   private final NodeImageRepository nodeImageRepo;
   private final NodeImageService nodeImageService;
+  private ObjectMapper objectMapper = OBJECT_MAPPER;
+  private long infosTtl = TimeUnit.MINUTES.toMillis(1);
+  private long maximumUploadSize = 250L * 1024 * 1024;
+  private volatile InfosCatalogue infos;
 
   /**
    * Constructor.
@@ -127,13 +154,180 @@ public class NodeImageController {
         e.getMessage(), null);
   }
 
-  @GetMapping("/infos")
-  @ApiOperation(value = "", notes = "Get all available image info.")
-  public Response<List<SolarNodeImageInfo>> allImages() {
-    Iterable<SolarNodeImageInfo> iterable = nodeImageRepo.findAll();
-    List<SolarNodeImageInfo> result = StreamSupport.stream(iterable.spliterator(), false)
-        .collect(Collectors.toList());
-    return Response.response(result);
+  /**
+   * Handle {@link RejectedExecutionException} by returning a HTTP {@literal 429} response object.
+   * 
+   * <p>
+   * This happens when too many image tasks are already queued for the same key. The resulting
+   * {@code success} will be set to {@literal false} and {@code code} will be set to the string
+   * {@literal 429}.
+   * </p>
+   * 
+   * @param e
+   *          the uncaught exception
+   * @param response
+   *          the active HTTP response
+   * @return the response object
+   * @since 1.1
+   */
+  @ExceptionHandler(RejectedExecutionException.class)
+  @ResponseBody
+  public Response<Object> handleRejectedExecutionException(RejectedExecutionException e,
+      HttpServletResponse response) {
+    response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+    response.setHeader(HttpHeaders.RETRY_AFTER, "60");
+    return new Response<>(Boolean.FALSE, String.valueOf(HttpStatus.TOO_MANY_REQUESTS.value()),
+        e.getMessage(), null);
+  }
+
+  /**
+   * Handle {@link MultipartStream.SizeLimitExceededException} by returning a HTTP {@literal 413}
+   * response object.
+   * 
+   * <p>
+   * The resulting {@code success} will be set to {@literal false} and {@code code} will be set to
+   * the string {@literal 413}.
+   * </p>
+   * 
+   * @param e
+   *          the uncaught exception
+   * @param response
+   *          the active HTTP response
+   * @return the response object
+   * @since 1.1
+   */
+  @ExceptionHandler(MultipartStream.SizeLimitExceededException.class)
+  @ResponseBody
+  public Response<Object> handleSizeLimitExceededException(
+      MultipartStream.SizeLimitExceededException e, HttpServletResponse response) {
+    response.setStatus(HttpStatus.PAYLOAD_TOO_LARGE.value());
+    return new Response<>(Boolean.FALSE, String.valueOf(HttpStatus.PAYLOAD_TOO_LARGE.value()),
+        e.getMessage(), null);
+  }
+
+  /**
+   * Handle {@link UnsupportedOperationException} by returning a HTTP {@literal 501} response
+   * object.
+   * 
+   * <p>
+   * This happens when storing or referring to stored resources while the service has no resource
+   * store configured. The resulting {@code success} will be set to {@literal false} and
+   * {@code code} will be set to the string {@literal 501}.
+   * </p>
+   * 
+   * @param e
+   *          the uncaught exception
+   * @param response
+   *          the active HTTP response
+   * @return the response object
+   * @since 1.1
+   */
+  @ExceptionHandler(UnsupportedOperationException.class)
+  @ResponseBody
+  public Response<Object> handleUnsupportedOperationException(UnsupportedOperationException e,
+      HttpServletResponse response) {
+    response.setStatus(HttpStatus.NOT_IMPLEMENTED.value());
+    return new Response<>(Boolean.FALSE, String.valueOf(HttpStatus.NOT_IMPLEMENTED.value()),
+        e.getMessage(), null);
+  }
+
+  /**
+   * Get all available image info.
+   * 
+   * <p>
+   * The response is serialized once and then reused until the repository version changes, or
+   * for {@code infosTtl} if the repository does not track changes. It includes a weak
+   * {@literal ETag} and a {@literal Last-Modified} date so clients can poll with conditional
+   * requests, which are answered with a {@literal 304} while the images are unchanged.
+   * </p>
+   * 
+   * @param webRequest
+   *          the active request
+   * @param response
+   *          the active HTTP response
+   * @throws IOException
+   *           if an IO error occurs
+   */
+  @GetMapping(path = "/infos", produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
+  @ApiOperation(value = "", notes = "Get all available image info.",
+      response = Response.class)
+  public void allImages(WebRequest webRequest, HttpServletResponse response)
+      throws IOException {
+    InfosCatalogue catalogue = infosCatalogue();
+    if (webRequest.checkNotModified(catalogue.etag, catalogue.lastModified)) {
+      return;
+    }
+    String acceptEncoding = webRequest.getHeader(HttpHeaders.ACCEPT_ENCODING);
+    byte[] body = catalogue.body;
+    if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+      response.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+      body = catalogue.gzippedBody;
+    }
+    response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+    response.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+    response.setContentLength(body.length);
+    response.getOutputStream().write(body);
+  }
+
+  private InfosCatalogue infosCatalogue() throws IOException {
+    InfosCatalogue catalogue = infos;
+    if (catalogue != null && catalogue.isValid(nodeImageRepo.getVersion(), infosTtl)) {
+      return catalogue;
+    }
+    synchronized (this) {
+      catalogue = infos;
+      final long version = nodeImageRepo.getVersion();
+      if (catalogue != null && catalogue.isValid(version, infosTtl)) {
+        return catalogue;
+      }
+      Iterable<SolarNodeImageInfo> iterable = nodeImageRepo.findAll();
+      List<SolarNodeImageInfo> result = StreamSupport.stream(iterable.spliterator(), false)
+          .collect(Collectors.toList());
+      byte[] body = objectMapper.writeValueAsBytes(Response.response(result));
+      ByteArrayOutputStream byos = new ByteArrayOutputStream(body.length / 4 + 64);
+      try (GZIPOutputStream out = new GZIPOutputStream(byos)) {
+        out.write(body);
+      }
+      String etag = "W/\"" + DigestUtils.sha256Hex(body) + "\"";
+      // keep the modification date of an unchanged catalogue, so polling clients see no change
+      long lastModified = (catalogue != null && catalogue.etag.equals(etag)
+          ? catalogue.lastModified
+          : System.currentTimeMillis());
+      infos = new InfosCatalogue(version, etag, lastModified, body, byos.toByteArray());
+      return infos;
+    }
+  }
+
+  /**
+   * A pre-serialized list of all available image info.
+   */
+  private static final class InfosCatalogue {
+
+    private final long version;
+    private final long created;
+    private final String etag;
+    private final long lastModified;
+    private final byte[] body;
+    private final byte[] gzippedBody;
+
+    private InfosCatalogue(long version, String etag, long lastModified, byte[] body,
+        byte[] gzippedBody) {
+      super();
+      this.version = version;
+      this.created = System.currentTimeMillis();
+      this.etag = etag;
+      this.lastModified = lastModified;
+      this.body = body;
+      this.gzippedBody = gzippedBody;
+    }
+
+    private boolean isValid(long currentVersion, long ttl) {
+      if (currentVersion < 0) {
+        return created + ttl > System.currentTimeMillis();
+      }
+      return version == currentVersion;
+    }
+
   }
 
   @PostMapping("/authorize")
@@ -147,42 +341,98 @@ public class NodeImageController {
   /**
    * Customize an image.
    * 
+   * <p>
+   * The request body is parsed as it is read, so each {@literal dataFile} part is copied directly
+   * into the task staging directory instead of first being buffered in memory or temporary files.
+   * An {@literal options} part, holding a JSON encoded {@link SolarNodeImageOptions} object to pass
+   * to the image customization task, may be included anywhere in the body. Resources previously
+   * stored with {@link #storeResource(String, String, HttpServletRequest)} can be included with
+   * {@literal dataRef} parts holding {@code sha256:filename} values instead of the resource data.
+   * </p>
+   * 
    * @param imageId
    *          the ID of the base image to customize
    * @param key
    *          a unique key that is required for future checks on the result
-   * @param dataFiles
-   *          a set of data file resources to customize the image with
-   * @param optionsFile
-   *          a JSON encoded {@link SolarNodeImageOptions} object to pass to the image customization
-   *          task
+   * @param request
+   *          the active HTTP request, with a {@literal multipart/form-data} body
    * @return a receipt
+   * @throws IOException
+   *           if an IO error occurs
    */
   @PostMapping(value = "/create/{imageId}/{key}", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
   public Response<SolarNodeImageReceipt> customizeImage(@PathVariable("imageId") String imageId,
-      @PathVariable("key") String key, @RequestParam("dataFile") MultipartFile[] dataFiles,
-      @RequestParam(name = "options", required = false) MultipartFile optionsFile)
-      throws IOException {
-    List<SolarNodeImageResource> resources = new ArrayList<>(dataFiles.length);
-    for (MultipartFile dataFile : dataFiles) {
-      if (dataFile.getOriginalFilename() == null || dataFile.getOriginalFilename().isEmpty()) {
-        // skip empty file uploads
-        continue;
-      }
-      resources.add(new MultipartFileSolarNodeImageResource(dataFile));
-    }
-    SolarNodeImageOptions options = null;
-    if (optionsFile != null && optionsFile.getOriginalFilename() != null
-        && !optionsFile.getOriginalFilename().isEmpty() && optionsFile.getSize() > 0) {
-      options = OBJECT_MAPPER.readValue(optionsFile.getInputStream(), SolarNodeImageOptions.class);
+      @PathVariable("key") String key, HttpServletRequest request) throws IOException {
+    String boundary = MultipartStream.boundary(request.getContentType());
+    if (boundary == null) {
+      throw new IllegalArgumentException("Multipart boundary not provided.");
     }
     SolarNodeImage image = nodeImageRepo.findOne(imageId);
-    try {
-      SolarNodeImageReceipt receipt = nodeImageService.createImage(key, image, resources, options);
-      return Response.response(receipt);
-    } catch (IOException e) {
-      throw new RuntimeException(e);
+    MultipartStream stream = new MultipartStream(request.getInputStream(), boundary);
+    stream.setMaximumSize(maximumUploadSize);
+    SolarNodeImageOptions options = new SolarNodeImageOptions();
+    MultipartStreamResources resources = new MultipartStreamResources(stream, "dataFile",
+        "dataRef", "options", OBJECT_MAPPER.readerForUpdating(options), nodeImageService);
+    SolarNodeImageReceipt receipt = nodeImageService.createImage(key, image, resources, options);
+    return Response.response(receipt);
+  }
+
+  /**
+   * Test if a resource is stored, so it can be referred to when customizing an image.
+   * 
+   * <p>
+   * If the resource is not stored, the response status is {@literal 404}.
+   * </p>
+   * 
+   * @param sha256
+   *          the hex-encoded SHA-256 digest of the resource
+   * @param key
+   *          an authorized key
+   * @param response
+   *          the active HTTP response
+   * @return {@literal true} if the resource is stored
+   * @since 1.1
+   */
+  @GetMapping("/resources/{sha256}/{key}")
+  public Response<Boolean> isResourceStored(@PathVariable("sha256") String sha256,
+      @PathVariable("key") String key, HttpServletResponse response) {
+    boolean stored = nodeImageService.isResourceStored(key, sha256);
+    if (!stored) {
+      response.setStatus(HttpStatus.NOT_FOUND.value());
+    }
+    return Response.response(stored);
+  }
+
+  /**
+   * Store a resource, so it can be referred to when customizing images without uploading it again.
+   * 
+   * <p>
+   * The request body is the resource data, which must match the given digest.
+   * </p>
+   * 
+   * @param sha256
+   *          the hex-encoded SHA-256 digest of the resource
+   * @param key
+   *          an authorized key
+   * @param request
+   *          the active HTTP request
+   * @return the digest of the stored resource
+   * @throws IOException
+   *           if an IO error occurs
+   * @since 1.1
+   */
+  @PutMapping("/resources/{sha256}/{key}")
+  public Response<String> storeResource(@PathVariable("sha256") String sha256,
+      @PathVariable("key") String key, HttpServletRequest request) throws IOException {
+    InputStream in = request.getInputStream();
+    if (maximumUploadSize >= 0) {
+      if (request.getContentLengthLong() > maximumUploadSize) {
+        throw new MultipartStream.SizeLimitExceededException(maximumUploadSize);
+      }
+      // the content length is not known for chunked requests, so also limit what is read
+      in = new SizeLimitInputStream(in, maximumUploadSize);
     }
+    return Response.response(nodeImageService.storeResource(key, sha256, in));
   }
 
   /**
@@ -190,7 +440,7 @@ public class NodeImageController {
    * 
    * @param key
    *          the same unique key previously passed to
-   *          {@link #customizeImage(String, String, MultipartFile[])}
+   *          {@link #customizeImage(String, String, HttpServletRequest)}
    * @param receiptId
    *          the ID of the receipt to get
    * @return the receipt
@@ -205,39 +455,210 @@ public class NodeImageController {
   /**
    * Get the contents of an image.
    * 
+   * <p>
+   * A single byte range may be requested with a {@literal Range} header, which results in a
+   * {@literal 206} response with just that part of the image. The image {@code sha256} is used as
+   * a strong {@literal ETag}, so interrupted downloads can be resumed safely with an
+   * {@literal If-Range} header. Images stored as local files are written without copying through
+   * a stream, using the container's {@literal sendfile} support when available.
+   * </p>
+   * 
    * @param key
    *          the same unique key previously passed to
-   *          {@link #customizeImage(String, String, MultipartFile[])}
+   *          {@link #customizeImage(String, String, HttpServletRequest)}
    * @param receiptId
    *          the ID of the receipt to get
-   * @return the image data
+   * @param request
+   *          the active HTTP request
+   * @param response
+   *          the active HTTP response
+   * @throws IOException
+   *           if an IO error occurs
    */
   @GetMapping("/{receiptId}/{key}")
-  public ResponseEntity<Resource> getImageFile(@PathVariable("key") String key,
-      @PathVariable("receiptId") String receiptId) {
+  public void getImageFile(@PathVariable("key") String key,
+      @PathVariable("receiptId") String receiptId, HttpServletRequest request,
+      HttpServletResponse response) throws IOException {
     SolarNodeImageReceipt receipt = nodeImageService.getReceipt(key, receiptId);
     if (receipt == null) {
-      return ResponseEntity.notFound().build();
+      response.setStatus(HttpStatus.NOT_FOUND.value());
+      return;
     }
 
     if (!receipt.isDone()) {
       // image not ready; return 503 + Retry-AFter
-      return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
-          .header(HttpHeaders.RETRY_AFTER, "60").build();
+      response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+      response.setHeader(HttpHeaders.RETRY_AFTER, "60");
+      return;
     }
 
+    SolarNodeImage image;
     try {
-      SolarNodeImage image = receipt.get();
-      BodyBuilder builder = ResponseEntity.ok()
-          .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=" + image.getFilename())
-          .contentType(MediaType.APPLICATION_OCTET_STREAM);
-      long length = image.getContentLength();
-      if (length > 0) {
-        builder.contentLength(length);
-      }
-      return builder.body(new InputStreamResource(image.getInputStream()));
-    } catch (ExecutionException | InterruptedException | IOException e) {
+      image = receipt.get();
+    } catch (ExecutionException | InterruptedException e) {
       throw new RuntimeException(e);
     }
+
+    final String etag = (image.getSha256() != null ? "\"" + image.getSha256() + "\"" : null);
+    final long length = image.getContentLength();
+    response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+        "attachment; filename=" + image.getFilename());
+    if (etag != null) {
+      response.setHeader(HttpHeaders.ETAG, etag);
+      if (etagMatches(request.getHeader(HttpHeaders.IF_NONE_MATCH), etag)) {
+        response.setStatus(HttpStatus.NOT_MODIFIED.value());
+        return;
+      }
+    }
+    response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+    if (length <= 0) {
+      // length unknown, so ranges not supported
+      try (InputStream in = image.getInputStream()) {
+        StreamUtils.copy(in, response.getOutputStream());
+      }
+      return;
+    }
+
+    response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+    long start = 0;
+    long end = length - 1;
+    HttpRange range = requestedRange(request, etag);
+    if (range != null) {
+      start = range.getRangeStart(length);
+      end = range.getRangeEnd(length);
+      if (start >= length || start > end) {
+        response.setStatus(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+        response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+        return;
+      }
+      response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+      response.setHeader(HttpHeaders.CONTENT_RANGE,
+          "bytes " + start + "-" + end + "/" + length);
+    }
+    final long count = end - start + 1;
+    response.setContentLengthLong(count);
+
+    File file = imageFile(image);
+    if (file != null) {
+      sendFile(file, start, count, request, response);
+    } else if (range != null && image instanceof RangedDataSupplier) {
+      try (InputStream in = ((RangedDataSupplier) image).getRange(start, count)) {
+        StreamUtils.copy(in, response.getOutputStream());
+      }
+    } else {
+      try (InputStream in = image.getInputStream()) {
+        StreamUtils.copyRange(in, response.getOutputStream(), start, end);
+      }
+    }
+  }
+
+  private static boolean etagMatches(String header, String etag) {
+    if (header == null) {
+      return false;
+    }
+    for (String tag : StringUtils.commaDelimitedListToStringArray(header)) {
+      tag = tag.trim();
+      if (tag.equals("*") || tag.equals(etag) || tag.equals("W/" + etag)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Get the single range requested, if any.
+   * 
+   * <p>
+   * A {@literal Range} header is ignored when it is invalid, asks for more than one range, or an
+   * {@literal If-Range} header does not match the image ETag, so the full image is returned.
+   * </p>
+   */
+  private static HttpRange requestedRange(HttpServletRequest request, String etag) {
+    String header = request.getHeader(HttpHeaders.RANGE);
+    if (header == null) {
+      return null;
+    }
+    String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+    if (ifRange != null && (etag == null || !ifRange.trim().equals(etag))) {
+      // dates and weak tags never match, as only a strong ETag is provided
+      return null;
+    }
+    try {
+      List<HttpRange> ranges = HttpRange.parseRanges(header);
+      return (ranges.size() == 1 ? ranges.get(0) : null);
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  private static File imageFile(SolarNodeImage image) {
+    if (image instanceof ResourceSolarNodeImage) {
+      Resource rsrc = ((ResourceSolarNodeImage) image).getImageResource();
+      if (rsrc instanceof FileSystemResource) {
+        return ((FileSystemResource) rsrc).getFile();
+      }
+    }
+    return null;
+  }
+
+  private static void sendFile(File file, long start, long count, HttpServletRequest request,
+      HttpServletResponse response) throws IOException {
+    if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT_ATTR))) {
+      // let the container write the file directly to the socket
+      request.setAttribute(SENDFILE_FILENAME_ATTR, file.getAbsolutePath());
+      request.setAttribute(SENDFILE_START_ATTR, start);
+      request.setAttribute(SENDFILE_END_ATTR, start + count);
+      return;
+    }
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+      long pos = start;
+      long remaining = count;
+      while (remaining > 0) {
+        long n = channel.transferTo(pos, remaining, out);
+        if (n <= 0) {
+          throw new EOFException("Image file " + file + " shorter than expected");
+        }
+        pos += n;
+        remaining -= n;
+      }
+    }
+  }
+
+  /**
+   * Set the mapper to serialize the image info list with.
+   * 
+   * @param objectMapper
+   *          the mapper to use
+   * @since 1.1
+   */
+  @Autowired(required = false)
+  public void setObjectMapper(ObjectMapper objectMapper) {
+    this.objectMapper = objectMapper;
+  }
+
+  /**
+   * Set the amount of time to reuse the serialized image info list for, if the repository does not
+   * track changes.
+   * 
+   * @param infosTtl
+   *          the time, in seconds; defaults to {@literal 60}
+   * @since 1.1
+   */
+  @Value("${repo.source.infos.ttl:60}")
+  public void setInfosTtl(int infosTtl) {
+    this.infosTtl = TimeUnit.SECONDS.toMillis(infosTtl);
+  }
+
+  /**
+   * Set the maximum size of a request body to customize an image with.
+   * 
+   * @param maximumUploadSize
+   *          the maximum size, in MB, or {@literal 0} for no limit; defaults to {@literal 250}
+   * @since 1.1
+   */
+  @Value("${service.upload.maxSize:250}")
+  public void setMaximumUploadSize(int maximumUploadSize) {
+    this.maximumUploadSize = (maximumUploadSize > 0 ? maximumUploadSize * 1024L * 1024L : -1);
   }
 }
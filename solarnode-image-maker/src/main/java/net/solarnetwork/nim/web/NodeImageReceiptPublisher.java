@@ -0,0 +1,436 @@
+/* ==================================================================
+ * NodeImageReceiptPublisher.java - 18/10/2026 5:12:44 AM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.nim.web;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageDeliveryException;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.MessagingException;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageSendingOperations;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.broker.AbstractBrokerMessageHandler;
+import org.springframework.messaging.support.ChannelInterceptorAdapter;
+import org.springframework.messaging.support.ExecutorChannelInterceptor;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import net.solarnetwork.nim.AuthorizationException;
+import net.solarnetwork.nim.domain.SolarNodeImageReceipt;
+import net.solarnetwork.nim.service.NodeImageService;
+import net.solarnetwork.web.domain.Response;
+
+/**
+ * Publish the progress of image tasks to STOMP clients subscribed to their receipts.
+ * 
+ * <p>
+ * Clients subscribe to {@literal /topic/receipt/{receiptId}/{key}}, using the same values they
+ * would pass to {@link NodeImageController#getReceipt(String, String)}. Subscriptions are
+ * authorized when they are made, by getting the receipt from the {@link NodeImageService}, and
+ * rejected if the receipt is not available. Any other subscription to {@link #TOPIC_PREFIX}
+ * destinations, including patterns that would match other receipts, and all messages sent to them
+ * by clients are rejected too. This class must therefore be added as an interceptor on the client
+ * inbound channel.
+ * </p>
+ * 
+ * <p>
+ * Once subscribed, the receipt is sent right away and then again whenever the task progress
+ * changes, but not more often than every {@code minimumInterval}, so all the changes made in that
+ * time are coalesced into one message. Messages have an {@literal event} header of
+ * {@literal progress}, except for the last message sent once the task is done, which has an
+ * {@literal event} header of {@literal done} and, if the task succeeded, a {@literal downloadUrl}
+ * header with the URL to download the image from. After that no more messages are sent to the
+ * destination.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.1
+ */
+public class NodeImageReceiptPublisher extends ChannelInterceptorAdapter
+    implements ExecutorChannelInterceptor {
+
+  /** The prefix of all broker destinations. */
+  public static final String TOPIC_PREFIX = "/topic";
+
+  /** The prefix of all receipt destinations. */
+  public static final String DESTINATION_PREFIX = TOPIC_PREFIX + "/receipt/";
+
+  /** The message header with the type of event. */
+  public static final String EVENT_HEADER = "event";
+
+  /** The message header with the download URL of a completed image. */
+  public static final String DOWNLOAD_URL_HEADER = "downloadUrl";
+
+  /** The event header value for progress messages. */
+  public static final String PROGRESS_EVENT = "progress";
+
+  /** The event header value for the final message of a task. */
+  public static final String DONE_EVENT = "done";
+
+  /** The default minimum interval between messages to a destination: 1 second. */
+  public static final long DEFAULT_MINIMUM_INTERVAL = TimeUnit.SECONDS.toMillis(1);
+
+  private static final long FINISHING_DELAY = 100;
+
+  private static final Pattern PATTERN_CHARACTERS = Pattern.compile("[*?{}]");
+
+  private final NodeImageService nodeImageService;
+  private final SimpMessageSendingOperations messagingTemplate;
+
+  // active destinations, and the destination of each subscription; all guarded by destinations
+  private final ConcurrentMap<String, Destination> destinations = new ConcurrentHashMap<>(16);
+  private final Map<String, String> subscriptions = new HashMap<>(16);
+
+  private long minimumInterval = DEFAULT_MINIMUM_INTERVAL;
+  private ScheduledExecutorService executorService;
+
+  private final Logger log = LoggerFactory.getLogger(getClass());
+
+  /**
+   * The subscriptions to a single receipt.
+   */
+  private final class Destination implements Runnable {
+
+    private final String path;
+    private final String receiptId;
+    private final String key;
+    private final SolarNodeImageReceipt receipt;
+    private int subscriptionCount;
+    private boolean listening;
+
+    // guarded by this
+    private boolean scheduled;
+    private boolean closed;
+    private long lastSent;
+
+    private Destination(String path, String receiptId, String key,
+        SolarNodeImageReceipt receipt) {
+      super();
+      this.path = path;
+      this.receiptId = receiptId;
+      this.key = key;
+      this.receipt = receipt;
+    }
+
+    @Override
+    public void run() {
+      changed(this, false);
+    }
+
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param nodeImageService
+   *          the service to get receipts from
+   * @param messagingTemplate
+   *          the template to send messages with
+   */
+  public NodeImageReceiptPublisher(NodeImageService nodeImageService,
+      SimpMessageSendingOperations messagingTemplate) {
+    super();
+    this.nodeImageService = nodeImageService;
+    this.messagingTemplate = messagingTemplate;
+  }
+
+  /**
+   * Start publishing.
+   */
+  public synchronized void startup() {
+    if (executorService != null) {
+      return;
+    }
+    CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("receipt-publish-");
+    threadFactory.setDaemon(true);
+    executorService = new ScheduledThreadPoolExecutor(1, threadFactory);
+  }
+
+  /**
+   * Stop publishing, and forget all subscriptions.
+   */
+  public synchronized void shutdown() {
+    if (executorService != null) {
+      executorService.shutdownNow();
+      executorService = null;
+    }
+    synchronized (destinations) {
+      for (Destination dest : destinations.values()) {
+        close(dest);
+      }
+      subscriptions.clear();
+    }
+  }
+
+  /**
+   * Get the number of destinations with subscriptions.
+   * 
+   * @return the number of destinations
+   */
+  public int getDestinationCount() {
+    return destinations.size();
+  }
+
+  @Override
+  public Message<?> preSend(Message<?> message, MessageChannel channel) {
+    final Map<String, Object> headers = message.getHeaders();
+    final SimpMessageType type = SimpMessageHeaderAccessor.getMessageType(headers);
+    if (type != SimpMessageType.SUBSCRIBE && type != SimpMessageType.MESSAGE) {
+      return message;
+    }
+    final String path = SimpMessageHeaderAccessor.getDestination(headers);
+    if (path == null || !(path.equals(TOPIC_PREFIX) || path.startsWith(TOPIC_PREFIX + "/"))) {
+      return message;
+    }
+    if (type == SimpMessageType.MESSAGE) {
+      // only this publisher sends to topics
+      throw new MessageDeliveryException(message, "Sending to " + path + " is not allowed");
+    }
+    // the broker treats subscriptions as patterns, so only exact receipt destinations are allowed
+    String[] ids = (path.startsWith(DESTINATION_PREFIX)
+        ? path.substring(DESTINATION_PREFIX.length()).split("/", -1)
+        : new String[0]);
+    if (ids.length != 2 || ids[0].isEmpty() || ids[1].isEmpty()
+        || PATTERN_CHARACTERS.matcher(path).find()) {
+      throw new MessageDeliveryException(message, "Receipt destination must be "
+          + DESTINATION_PREFIX + "{receiptId}/{key}");
+    }
+    try {
+      if (nodeImageService.getReceipt(ids[1], ids[0]) == null) {
+        throw new MessageDeliveryException(message, "Receipt not found");
+      }
+    } catch (AuthorizationException e) {
+      throw new MessageDeliveryException(message, e.getMessage());
+    }
+    return message;
+  }
+
+  @Override
+  public Message<?> beforeHandle(Message<?> message, MessageChannel channel,
+      MessageHandler handler) {
+    return message;
+  }
+
+  @Override
+  public void afterMessageHandled(Message<?> message, MessageChannel channel,
+      MessageHandler handler, Exception ex) {
+    // act once the broker has handled the message, so the first message sent to a new
+    // subscription is not missed
+    if (ex != null || !(handler instanceof AbstractBrokerMessageHandler)) {
+      return;
+    }
+    final Map<String, Object> headers = message.getHeaders();
+    final SimpMessageType type = SimpMessageHeaderAccessor.getMessageType(headers);
+    final String sessionId = SimpMessageHeaderAccessor.getSessionId(headers);
+    if (type == SimpMessageType.SUBSCRIBE) {
+      String path = SimpMessageHeaderAccessor.getDestination(headers);
+      if (path != null && path.startsWith(DESTINATION_PREFIX)) {
+        subscribe(sessionId + '/' + SimpMessageHeaderAccessor.getSubscriptionId(headers), path);
+      }
+    } else if (type == SimpMessageType.UNSUBSCRIBE) {
+      unsubscribe(sessionId + '/' + SimpMessageHeaderAccessor.getSubscriptionId(headers));
+    } else if (type == SimpMessageType.DISCONNECT) {
+      disconnect(sessionId);
+    }
+  }
+
+  /**
+   * Subscribe to the receipt of a destination.
+   * 
+   * @param subscription
+   *          a unique ID for the subscription
+   * @param path
+   *          the destination, starting with {@link #DESTINATION_PREFIX}
+   */
+  public void subscribe(String subscription, String path) {
+    String[] ids = path.substring(DESTINATION_PREFIX.length()).split("/");
+    if (ids.length != 2) {
+      return;
+    }
+    final String receiptId = ids[0];
+    final String key = ids[1];
+    final Destination dest;
+    synchronized (destinations) {
+      Destination existing = destinations.get(path);
+      if (existing == null) {
+        SolarNodeImageReceipt receipt;
+        try {
+          receipt = nodeImageService.getReceipt(key, receiptId);
+        } catch (AuthorizationException e) {
+          receipt = null;
+        }
+        if (receipt == null) {
+          return;
+        }
+        existing = new Destination(path, receiptId, key, receipt);
+        existing.listening = receipt.addProgressListener(existing);
+        destinations.put(path, existing);
+      }
+      if (subscriptions.put(subscription, path) == null) {
+        existing.subscriptionCount++;
+      }
+      dest = existing;
+    }
+    log.debug("Subscribed {} to receipt {}", subscription, receiptId);
+    changed(dest, false);
+  }
+
+  /**
+   * Cancel a subscription.
+   * 
+   * @param subscription
+   *          the ID of the subscription, as previously passed to
+   *          {@link #subscribe(String, String)}
+   */
+  public void unsubscribe(String subscription) {
+    synchronized (destinations) {
+      String path = subscriptions.remove(subscription);
+      Destination dest = (path != null ? destinations.get(path) : null);
+      if (dest != null && --dest.subscriptionCount < 1) {
+        destinations.remove(path, dest);
+        close(dest);
+      }
+    }
+  }
+
+  private void disconnect(String sessionId) {
+    final String prefix = sessionId + '/';
+    synchronized (destinations) {
+      String[] ids = subscriptions.keySet().stream().filter(s -> s.startsWith(prefix))
+          .toArray(String[]::new);
+      for (String subscription : ids) {
+        unsubscribe(subscription);
+      }
+    }
+  }
+
+  private void close(Destination dest) {
+    synchronized (dest) {
+      dest.closed = true;
+    }
+    dest.receipt.removeProgressListener(dest);
+  }
+
+  /**
+   * Schedule a message to a destination, no sooner than {@code minimumInterval} after the last one.
+   */
+  private void changed(Destination dest, boolean retry) {
+    final ScheduledExecutorService executor;
+    synchronized (this) {
+      executor = executorService;
+    }
+    if (executor == null) {
+      return;
+    }
+    final long delay;
+    synchronized (dest) {
+      if (dest.closed || (dest.scheduled && !retry)) {
+        return;
+      }
+      dest.scheduled = true;
+      delay = (retry ? FINISHING_DELAY
+          : Math.max(0, dest.lastSent + minimumInterval - System.currentTimeMillis()));
+    }
+    try {
+      executor.schedule(() -> publish(dest), delay, TimeUnit.MILLISECONDS);
+    } catch (RuntimeException e) {
+      // shutting down
+      log.debug("Unable to schedule receipt {} message: {}", dest.receiptId, e.getMessage());
+    }
+  }
+
+  private void publish(Destination dest) {
+    synchronized (dest) {
+      if (dest.closed) {
+        return;
+      }
+      dest.scheduled = false;
+      dest.lastSent = System.currentTimeMillis();
+    }
+    final SolarNodeImageReceipt receipt = dest.receipt;
+    final boolean done = receipt.isDone();
+    if (!done && receipt.getCompletedDate() != null) {
+      // the work has finished, but the result is not available quite yet
+      changed(dest, true);
+      return;
+    }
+    Map<String, Object> headers = new HashMap<>(2);
+    headers.put(EVENT_HEADER, done ? DONE_EVENT : PROGRESS_EVENT);
+    if (done) {
+      synchronized (destinations) {
+        destinations.remove(dest.path, dest);
+        subscriptions.values().removeIf(dest.path::equals);
+      }
+      close(dest);
+      String downloadUrl = downloadUrl(dest);
+      if (downloadUrl != null) {
+        headers.put(DOWNLOAD_URL_HEADER, downloadUrl);
+      }
+    }
+    try {
+      messagingTemplate.convertAndSend(dest.path, Response.response(receipt), headers);
+    } catch (MessagingException | IllegalArgumentException e) {
+      log.warn("Error publishing receipt {}: {}", dest.receiptId, e.getMessage());
+    }
+    if (!done && !dest.listening) {
+      // changes are not reported by the receipt, so check again later
+      changed(dest, false);
+    }
+  }
+
+  private static String downloadUrl(Destination dest) {
+    if (dest.receipt.getImageInfo() == null) {
+      // the task failed
+      return null;
+    }
+    String url = null;
+    try {
+      url = dest.receipt.getDownloadUrl();
+    } catch (RuntimeException e) {
+      // fall back to download from this service
+    }
+    return (url != null ? url : "/api/v1/images/" + dest.receiptId + "/" + dest.key);
+  }
+
+  /**
+   * Set the minimum amount of time between messages to a single destination.
+   * 
+   * @param minimumInterval
+   *          the minimum interval, in milliseconds; defaults to {@link #DEFAULT_MINIMUM_INTERVAL}
+   */
+  public void setMinimumInterval(long minimumInterval) {
+    this.minimumInterval = minimumInterval;
+  }
+
+}
@@ -33,6 +33,7 @@ import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RestController;
 
 import io.swagger.annotations.ApiOperation;
+import net.solarnetwork.nim.service.DataStreamCache;
 import net.solarnetwork.nim.service.NodeImageService;
 import net.solarnetwork.web.domain.Response;
 
@@ -40,7 +41,7 @@ import net.solarnetwork.web.domain.Response;
  * Web controller for health check type requests.
  * 
  * @author matt
- * @version 1.0
+ * @version 1.1
  */
 @RestController
 @RequestMapping(path = "/api/v1", method = RequestMethod.GET)
@@ -49,6 +50,9 @@ public class PingController {
   @Autowired
   private Collection<NodeImageService> imageServices = Collections.emptyList();
 
+  @Autowired(required = false)
+  private Collection<DataStreamCache> dataStreamCaches = Collections.emptyList();
+
   @RequestMapping("/ping")
   @ApiOperation(value = "", notes = "Validate the server's health. The health can be "
       + "considered good if the response data contains an `allGood` key with " + "a `true` value.")
@@ -59,6 +63,15 @@ public class PingController {
     int activeSessionCount = imageServices.stream().mapToInt(s -> s.activeSessionCount()).sum();
     data.put("activeSessionCount", activeSessionCount);
 
+    Map<String, Long> statistics = new LinkedHashMap<>();
+    for (NodeImageService s : imageServices) {
+      s.statistics().forEach((k, v) -> statistics.merge(k, v, Long::sum));
+    }
+    for (DataStreamCache c : dataStreamCaches) {
+      c.statistics().forEach((k, v) -> statistics.merge(k, v, Long::sum));
+    }
+    data.put("statistics", statistics);
+
     return Response.response(data);
   }
 
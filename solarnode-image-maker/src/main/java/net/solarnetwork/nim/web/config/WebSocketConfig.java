@@ -0,0 +1,101 @@
+/* ==================================================================
+ * WebSocketConfig.java - 18/10/2026 5:48:20 AM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.nim.web.config;
+
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.converter.MessageConverter;
+import org.springframework.messaging.simp.SimpMessageSendingOperations;
+import org.springframework.messaging.simp.config.ChannelRegistration;
+import org.springframework.messaging.simp.config.MessageBrokerRegistry;
+import org.springframework.web.socket.config.annotation.AbstractWebSocketMessageBrokerConfigurer;
+import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
+import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import net.solarnetwork.nim.service.NodeImageService;
+import net.solarnetwork.nim.web.NodeImageReceiptPublisher;
+
+/**
+ * WebSocket configuration, for STOMP clients to subscribe to receipt progress.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+@Configuration
+@EnableWebSocketMessageBroker
+public class WebSocketConfig extends AbstractWebSocketMessageBrokerConfigurer {
+
+  @Autowired
+  private NodeImageService nodeImageService;
+
+  @Autowired
+  private ObjectMapper objectMapper;
+
+  // lazy because the template is created by the same configuration that uses this class
+  @Lazy
+  @Autowired
+  private SimpMessageSendingOperations messagingTemplate;
+
+  @Override
+  public void registerStompEndpoints(StompEndpointRegistry registry) {
+    registry.addEndpoint("/ws").setAllowedOrigins("*");
+  }
+
+  @Override
+  public void configureMessageBroker(MessageBrokerRegistry registry) {
+    registry.enableSimpleBroker("/topic");
+    registry.setApplicationDestinationPrefixes("/app");
+  }
+
+  @Override
+  public void configureClientInboundChannel(ChannelRegistration registration) {
+    registration.setInterceptors(receiptPublisher());
+  }
+
+  @Override
+  public boolean configureMessageConverters(List<MessageConverter> messageConverters) {
+    // serialize receipts the same way as the REST API
+    MappingJackson2MessageConverter converter = new MappingJackson2MessageConverter();
+    converter.setObjectMapper(objectMapper);
+    messageConverters.add(converter);
+    return true;
+  }
+
+  /**
+   * The publisher of receipt progress to subscribed clients.
+   * 
+   * @return the publisher
+   */
+  @Bean(initMethod = "startup", destroyMethod = "shutdown")
+  public NodeImageReceiptPublisher receiptPublisher() {
+    return new NodeImageReceiptPublisher(nodeImageService, messagingTemplate);
+  }
+
+}
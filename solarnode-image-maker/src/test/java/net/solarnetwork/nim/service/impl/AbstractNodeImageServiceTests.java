@@ -0,0 +1,312 @@
+/* ==================================================================
+ * AbstractNodeImageServiceTests.java - 18/10/2026 12:20:35 PM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.nim.service.impl;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.compress.compressors.xz.XZCompressorOutputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.util.FileSystemUtils;
+
+import net.solarnetwork.nim.domain.BasicSolarNodeImageInfo;
+import net.solarnetwork.nim.domain.JobJournalEntry;
+import net.solarnetwork.nim.domain.SolarNodeImage;
+import net.solarnetwork.nim.domain.SolarNodeImageInfo;
+import net.solarnetwork.nim.domain.SolarNodeImageOptions;
+import net.solarnetwork.nim.domain.SolarNodeImageReceipt;
+import net.solarnetwork.nim.domain.SolarNodeImageResource;
+import net.solarnetwork.nim.domain.TaskPriority;
+import net.solarnetwork.nim.util.TaskStepTracker;
+import net.solarnetwork.nim.web.MultipartFileSolarNodeImageResource;
+
+/**
+ * Test cases for the {@link AbstractNodeImageService} class.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class AbstractNodeImageServiceTests {
+
+  private static final String KEY = "test-key";
+  private static final String RECEIPT_ID = "test-receipt";
+  private static final String TASK_ID = DigestUtils.sha256Hex(RECEIPT_ID + KEY);
+
+  private Path dir;
+  private Path stagingDir;
+  private Path journalFile;
+  private FileSystemNodeImageRepository sourceRepo;
+  private FileSystemNodeImageRepository destRepo;
+  private FileSystemJobJournal journal;
+  private TestNodeImageService service;
+
+  private static class TestNodeImageService extends AbstractNodeImageService {
+
+    private CountDownLatch gate;
+    private int setupCount;
+
+    @Override
+    protected ImageSetupResult createImageInternal(String key, SolarNodeImageInfo imageInfo,
+        Path imageFile, List<Path> resources, SolarNodeImageOptions options,
+        TaskStepTracker tracker) throws IOException {
+      setupCount++;
+      if (gate != null) {
+        try {
+          gate.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          throw new IOException(e);
+        }
+      }
+      return new ImageSetupResult(imageFile, "OK", true);
+    }
+
+  }
+
+  @Before
+  public void setup() throws Exception {
+    dir = Files.createTempDirectory("image-service-");
+    stagingDir = Files.createDirectory(dir.resolve("staging"));
+    journalFile = dir.resolve("journal.json");
+
+    Path sourceDir = Files.createDirectory(dir.resolve("source"));
+    byte[] data = new byte[64 * 1024];
+    Arrays.fill(data, 0, 100, (byte) 1);
+    try (OutputStream out = new XZCompressorOutputStream(
+        Files.newOutputStream(sourceDir.resolve("base.img.xz")))) {
+      out.write(data);
+    }
+    FileSystemNodeImageRepository.OBJECT_MAPPER.writeValue(
+        sourceDir.resolve("base.json").toFile(),
+        new BasicSolarNodeImageInfo("base", null, 0, DigestUtils.sha256Hex(data), data.length));
+    sourceRepo = new FileSystemNodeImageRepository(sourceDir);
+    destRepo = new FileSystemNodeImageRepository(Files.createDirectory(dir.resolve("dest")));
+    destRepo.setCompressionRatio(0.1f);
+    service = createService();
+  }
+
+  @After
+  public void teardown() {
+    journal.close();
+    FileSystemUtils.deleteRecursively(dir.toFile());
+  }
+
+  private TestNodeImageService createService() {
+    if (journal != null) {
+      journal.close();
+    }
+    journal = new FileSystemJobJournal(journalFile);
+    TestNodeImageService s = new TestNodeImageService();
+    s.setStagingDir(stagingDir);
+    s.setNodeImageRepository(destRepo);
+    s.setSourceImageRepository(sourceRepo);
+    s.setJobJournal(journal);
+    return s;
+  }
+
+  private static List<SolarNodeImageResource> resources(String content) {
+    return Collections.singletonList(new MultipartFileSolarNodeImageResource(
+        new MockMultipartFile("file", "foo.fish", null, content.getBytes())));
+  }
+
+  @Test
+  public void coalesceQueuedTask() throws Exception {
+    service.gate = new CountDownLatch(1);
+    SolarNodeImage source = sourceRepo.findOne("base");
+    SolarNodeImageReceipt receipt1 = service.createImage(KEY, source, resources("foo"), null);
+    SolarNodeImageOptions options = new SolarNodeImageOptions();
+    options.setPriority(TaskPriority.Batch);
+    SolarNodeImageReceipt receipt2 = service.createImage(KEY, source, resources("foo"), options);
+    assertThat("Separate receipts", receipt1.getId().equals(receipt2.getId()), equalTo(false));
+    assertThat("Waiting", receipt2.isDone(), equalTo(false));
+
+    service.gate.countDown();
+    SolarNodeImage output1 = receipt1.get(10, TimeUnit.SECONDS);
+    SolarNodeImage output2 = receipt2.get(10, TimeUnit.SECONDS);
+    assertThat("Same output", output2.getId(), equalTo(output1.getId()));
+    assertThat("Setup once", service.setupCount, equalTo(1));
+
+    Map<String, Long> stats = service.statistics();
+    assertThat("Requested", stats.get("taskRequestCount"), equalTo(2L));
+    assertThat("Coalesced", stats.get("taskCoalescedCount"), equalTo(1L));
+    assertThat("Reused", stats.get("taskReusedCount"), equalTo(0L));
+  }
+
+  @Test
+  public void reuseCompletedTask() throws Exception {
+    SolarNodeImage source = sourceRepo.findOne("base");
+    SolarNodeImageReceipt receipt1 = service.createImage(KEY, source, resources("foo"), null);
+    SolarNodeImage output1 = receipt1.get(10, TimeUnit.SECONDS);
+
+    SolarNodeImageReceipt receipt2 = service.createImage(KEY, source, resources("foo"), null);
+    assertThat("Done immediately", receipt2.isDone(), equalTo(true));
+    assertThat("Same output", receipt2.get().getId(), equalTo(output1.getId()));
+
+    SolarNodeImageReceipt receipt3 = service.createImage(KEY, source, resources("bar"), null);
+    SolarNodeImage output3 = receipt3.get(10, TimeUnit.SECONDS);
+    assertThat("Different resources not shared", output3.getId().equals(output1.getId()),
+        equalTo(false));
+    assertThat("Setup per unique task", service.setupCount, equalTo(2));
+    assertThat("Reused", service.statistics().get("taskReusedCount"), equalTo(1L));
+
+    // restored receipts share the output again
+    service = createService();
+    assertThat("Restored receipts", service.restoreJobs(), equalTo(3));
+    assertThat("Restored shared receipt", service.getReceipt(KEY, receipt2.getId()).get().getId(),
+        equalTo(output1.getId()));
+    SolarNodeImageReceipt receipt4 = service.createImage(KEY, source, resources("foo"), null);
+    assertThat("Reused after restart", receipt4.get().getId(), equalTo(output1.getId()));
+    assertThat("No setup after restart", service.setupCount, equalTo(0));
+  }
+
+  @Test
+  public void storedResource() throws Exception {
+    service.setResourceStore(
+        new FileSystemResourceStore(Files.createDirectory(dir.resolve("resources"))));
+    String sha = service.storeResource(KEY, null, new ByteArrayInputStream("foo".getBytes()));
+    assertThat("Stored", service.isResourceStored(KEY, sha), equalTo(true));
+
+    SolarNodeImage source = sourceRepo.findOne("base");
+    SolarNodeImageReceipt receipt1 = service.createImage(KEY, source,
+        Collections.singletonList(service.storedResource(sha, "foo.fish")), null);
+    SolarNodeImage output1 = receipt1.get(10, TimeUnit.SECONDS);
+
+    SolarNodeImageReceipt receipt2 = service.createImage(KEY, source, resources("foo"), null);
+    assertThat("Same as inline resource", receipt2.get().getId(), equalTo(output1.getId()));
+
+    try {
+      service.createImage(KEY, source, Collections.singletonList(
+          service.storedResource(DigestUtils.sha256Hex("bar"), "bar.fish")), null);
+      fail("Missing stored resource should fail");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void restoreCompletedReceipt() throws Exception {
+    SolarNodeImage source = sourceRepo.findOne("base");
+    SolarNodeImageReceipt receipt = service.createImage(KEY, source,
+        Collections.emptyList(), null);
+    SolarNodeImage output = receipt.get(10, TimeUnit.SECONDS);
+    assertThat("Output created", output, notNullValue());
+
+    service = createService();
+    assertThat("Restored receipts", service.restoreJobs(), equalTo(1));
+    SolarNodeImageReceipt restored = service.getReceipt(KEY, receipt.getId());
+    assertThat("Receipt restored", restored, notNullValue());
+    assertThat("Created date", restored.getCreatedDate(), equalTo(receipt.getCreatedDate()));
+    assertThat("Done", restored.isDone(), equalTo(true));
+    assertThat("Output ID", restored.getImageInfo().getId(), equalTo(output.getId()));
+    assertThat("Output SHA", restored.getImageInfo().getSha256(), equalTo(output.getSha256()));
+  }
+
+  @Test
+  public void compactJournalAfterCleaning() throws Exception {
+    SolarNodeImage source = sourceRepo.findOne("base");
+    SolarNodeImageReceipt receipt = service.createImage(KEY, source, resources("foo"), null);
+    receipt.get(10, TimeUnit.SECONDS);
+
+    // restore to have all entries written to the journal
+    service = createService();
+    assertThat("Restored receipts", service.restoreJobs(), equalTo(1));
+    assertThat("Journal entries", journal.replay().size(), equalTo(2));
+
+    service.setReceiptMaxAgeSeconds(0);
+    Thread.sleep(10);
+    assertThat("Removed receipts", service.cleanExpiredReceipts(), equalTo(1));
+    journal.close();
+    // the removal itself might be written before or after compacting
+    for (JobJournalEntry entry : journal.replay()) {
+      assertThat("Only removal left in journal", entry.getType(),
+          equalTo(JobJournalEntry.Type.Removed));
+    }
+
+    service = createService();
+    assertThat("Nothing restored", service.restoreJobs(), equalTo(0));
+  }
+
+  @Test
+  public void resumeQueuedTask() throws Exception {
+    Path root = Files.createTempDirectory(stagingDir, "node-image-");
+    Files.write(root.resolve("foo.fish"), new byte[] { 1 });
+    JobJournalEntry submission = new JobJournalEntry(JobJournalEntry.Type.Submitted, TASK_ID);
+    submission.setKey(KEY);
+    submission.setReceiptId(RECEIPT_ID);
+    submission.setSourceImageId("base");
+    submission.setOutputId("output-1");
+    submission.setStagingPath(root.toString());
+    submission.setResources(Collections.singletonList("foo.fish"));
+    journal.compact(Collections.singletonList(submission));
+
+    service.restoreJobs();
+    SolarNodeImageReceipt receipt = service.getReceipt(KEY, RECEIPT_ID);
+    assertThat("Receipt restored", receipt, notNullValue());
+    SolarNodeImage output = receipt.get(10, TimeUnit.SECONDS);
+    assertThat("Task resumed", output.getId(), equalTo("output-1"));
+    assertThat("Staging removed", Files.exists(root), equalTo(false));
+  }
+
+  @Test
+  public void failInterruptedTask() throws Exception {
+    JobJournalEntry submission = new JobJournalEntry(JobJournalEntry.Type.Submitted, TASK_ID);
+    submission.setKey(KEY);
+    submission.setReceiptId(RECEIPT_ID);
+    submission.setSourceImageId("base");
+    submission.setOutputId("output-1");
+    submission.setStagingPath(stagingDir.resolve("gone").toString());
+    journal.compact(Arrays.asList(submission,
+        new JobJournalEntry(JobJournalEntry.Type.Started, TASK_ID)));
+
+    service.restoreJobs();
+    SolarNodeImageReceipt receipt = service.getReceipt(KEY, RECEIPT_ID);
+    assertThat("Receipt restored", receipt, notNullValue());
+    assertThat("Done", receipt.isDone(), equalTo(true));
+    assertThat("Message", receipt.getMessage(), equalTo("Task interrupted by restart"));
+    assertThat("No image", receipt.getImageInfo(), nullValue());
+
+    service = createService();
+    service.restoreJobs();
+    assertThat("Failure kept in journal", service.getReceipt(KEY, RECEIPT_ID).getMessage(),
+        equalTo("Task interrupted by restart"));
+  }
+
+}
@@ -0,0 +1,172 @@
+/* ==================================================================
+ * FileSystemBaseImageCacheTests.java - 18/10/2026 4:48:12 PM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.nim.service.impl;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.FileSystemUtils;
+
+import net.solarnetwork.nim.util.FileCloner;
+
+/**
+ * Test cases for the {@link FileSystemBaseImageCache} class.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class FileSystemBaseImageCacheTests {
+
+  private Path cacheDir;
+  private Path workDir;
+  private FileSystemBaseImageCache cache;
+
+  @Before
+  public void setup() throws Exception {
+    cacheDir = Files.createTempDirectory("base-image-cache-");
+    workDir = Files.createTempDirectory("base-image-work-");
+    cache = new FileSystemBaseImageCache(cacheDir);
+  }
+
+  @After
+  public void teardown() {
+    FileSystemUtils.deleteRecursively(cacheDir.toFile());
+    FileSystemUtils.deleteRecursively(workDir.toFile());
+  }
+
+  private String createImage(String name, byte[] data) throws Exception {
+    Files.write(workDir.resolve(name), data);
+    return DigestUtils.sha256Hex(data);
+  }
+
+  @Test
+  public void miss() throws Exception {
+    Path dest = workDir.resolve("dest.img");
+    assertThat(cache.copyTo(DigestUtils.sha256Hex("foo"), dest), equalTo(false));
+    assertThat(Files.exists(dest), equalTo(false));
+  }
+
+  @Test
+  public void putThenCopy() throws Exception {
+    byte[] data = new byte[64 * 1024];
+    data[10] = 1;
+    String sha = createImage("a.img", data);
+    cache.put(sha, workDir.resolve("a.img"));
+
+    // modifying the source must not affect the cache
+    Files.write(workDir.resolve("a.img"), new byte[] { 1 });
+
+    Path dest = workDir.resolve("dest.img");
+    assertThat(cache.copyTo(sha.toUpperCase(), dest), equalTo(true));
+    assertThat(Arrays.equals(Files.readAllBytes(dest), data), equalTo(true));
+  }
+
+  @Test
+  public void evictLeastRecentlyUsed() throws Exception {
+    cache.setMaximumSize(250);
+    String sha1 = createImage("1.img", new byte[] { 1, 2, 3, 4 });
+    final String sha2 = createImage("2.img", new byte[] { 2, 2, 3, 4 });
+    final String sha3 = createImage("3.img", new byte[100]);
+    Files.write(workDir.resolve("1.img"), new byte[100]);
+    Files.write(workDir.resolve("2.img"), new byte[100]);
+
+    cache.put(sha1, workDir.resolve("1.img"));
+    cache.put(sha2, workDir.resolve("2.img"));
+    Files.setLastModifiedTime(cacheDir.resolve(sha1 + ".img"), FileTime.fromMillis(1000));
+    Files.setLastModifiedTime(cacheDir.resolve(sha2 + ".img"), FileTime.fromMillis(2000));
+
+    cache.put(sha3, workDir.resolve("3.img"));
+    assertThat("Oldest evicted", cache.copyTo(sha1, workDir.resolve("d1.img")), equalTo(false));
+    assertThat("Newer kept", cache.copyTo(sha2, workDir.resolve("d2.img")), equalTo(true));
+    assertThat("Added kept", cache.copyTo(sha3, workDir.resolve("d3.img")), equalTo(true));
+  }
+
+  @Test
+  public void concurrentPutsCopyOnce() throws Exception {
+    final String sha = createImage("a.img", new byte[] { 1, 2, 3 });
+    final AtomicInteger cloneCount = new AtomicInteger(0);
+    final CountDownLatch cloning = new CountDownLatch(1);
+    final CountDownLatch proceed = new CountDownLatch(1);
+    cache.setFileCloner(new FileCloner() {
+
+      @Override
+      public void cloneFile(Path source, Path dest) throws IOException {
+        cloneCount.incrementAndGet();
+        cloning.countDown();
+        try {
+          proceed.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          throw new InterruptedIOException();
+        }
+        super.cloneFile(source, dest);
+      }
+
+    });
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      final Future<?> first = executor.submit(() -> {
+        cache.put(sha, workDir.resolve("a.img"));
+        return null;
+      });
+      assertThat("First put copying", cloning.await(5, TimeUnit.SECONDS), equalTo(true));
+      cache.put(sha, workDir.resolve("a.img"));
+      proceed.countDown();
+      first.get(5, TimeUnit.SECONDS);
+    } finally {
+      executor.shutdownNow();
+    }
+    assertThat("Copied once", cloneCount.get(), equalTo(1));
+    assertThat("Cached", cache.copyTo(sha, workDir.resolve("dest.img")), equalTo(true));
+  }
+
+  @Test
+  public void deleteAbandonedTemporaryFiles() throws Exception {
+    Path tmpFile = cacheDir.resolve("." + DigestUtils.sha256Hex("foo") + ".img-123");
+    Files.write(tmpFile, new byte[] { 1, 2, 3 });
+    cache = new FileSystemBaseImageCache(cacheDir);
+    assertThat("Temporary file deleted", Files.exists(tmpFile), equalTo(false));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void invalidKey() throws Exception {
+    cache.copyTo("../foo", workDir.resolve("dest.img"));
+  }
+
+}
@@ -0,0 +1,360 @@
+/* ==================================================================
+ * FileSystemDataStreamCacheTests.java - 18/10/2026 3:34:18 PM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.nim.service.impl;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.util.StreamUtils;
+
+import net.solarnetwork.nim.service.RangedDataSupplier;
+
+/**
+ * Test cases for the {@link FileSystemDataStreamCache} class.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class FileSystemDataStreamCacheTests {
+
+  private static final String KEY = "test.img";
+  private static final int RANGE_SIZE = 1000;
+
+  private Path cacheDir;
+  private FileSystemDataStreamCache cache;
+  private byte[] data;
+
+  private class TestSupplier implements RangedDataSupplier {
+
+    private final AtomicInteger requestCount = new AtomicInteger(0);
+    private final AtomicInteger dataRequestCount = new AtomicInteger(0);
+    private final AtomicInteger failures = new AtomicInteger(0);
+    private String sha256 = DigestUtils.sha256Hex(data);
+
+    @Override
+    public long getContentLength() {
+      return data.length;
+    }
+
+    @Override
+    public String getSha256() {
+      return sha256;
+    }
+
+    @Override
+    public InputStream getRange(long offset, long length) throws IOException {
+      requestCount.incrementAndGet();
+      if (failures.getAndDecrement() > 0) {
+        throw new IOException("Connection reset");
+      }
+      return new ByteArrayInputStream(data, (int) offset, (int) length);
+    }
+
+    @Override
+    public InputStream getData() throws IOException {
+      dataRequestCount.incrementAndGet();
+      return new ByteArrayInputStream(data);
+    }
+
+  }
+
+  /**
+   * A stream that waits for a latch before returning the second half of the data.
+   */
+  private class GatedInputStream extends ByteArrayInputStream {
+
+    private final CountDownLatch gate = new CountDownLatch(1);
+    private volatile boolean closed = false;
+
+    private GatedInputStream() {
+      super(data);
+    }
+
+    @Override
+    public synchronized int read(byte[] b, int off, int len) {
+      if (pos >= data.length / 2) {
+        try {
+          gate.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          return -1;
+        }
+        if (closed) {
+          throw new IllegalStateException("Stream closed");
+        }
+      }
+      return super.read(b, off, Math.min(len, Math.max(1, data.length / 2 - pos)));
+    }
+
+    @Override
+    public void close() throws IOException {
+      closed = true;
+      gate.countDown();
+    }
+
+  }
+
+  @Before
+  public void setup() throws Exception {
+    cacheDir = Files.createTempDirectory("data-stream-cache-");
+    cache = new FileSystemDataStreamCache(cacheDir);
+    cache.setRangeSize(RANGE_SIZE);
+    cache.setRangeConcurrency(3);
+    cache.setRangeRetryDelay(1);
+    data = new byte[RANGE_SIZE * 10 + 123];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) (i % 251);
+    }
+  }
+
+  @After
+  public void teardown() {
+    FileSystemUtils.deleteRecursively(cacheDir.toFile());
+  }
+
+  private byte[] read(RangedDataSupplier supplier) throws IOException {
+    try (InputStream in = cache.get(KEY, supplier)) {
+      return StreamUtils.copyToByteArray(in);
+    }
+  }
+
+  private byte[] read(String key, int length) throws IOException {
+    try (InputStream in = cache.get(key, () -> new ByteArrayInputStream(data, 0, length))) {
+      return StreamUtils.copyToByteArray(in);
+    }
+  }
+
+  @Test
+  public void evictLeastFrequent() throws IOException {
+    cache.setMaximumSize(2500);
+    cache.setFetchOverhead(0);
+    read("a", 1000);
+    read("b", 1000);
+    read("a", 1000);
+    read("c", 1000);
+    assertThat("Frequent file kept", Files.exists(cacheDir.resolve("a")), equalTo(true));
+    assertThat("Infrequent file evicted", Files.exists(cacheDir.resolve("b")), equalTo(false));
+    assertThat("New file kept", Files.exists(cacheDir.resolve("c")), equalTo(true));
+
+    Map<String, Long> stats = cache.statistics();
+    assertThat("Hits", stats.get("cacheHitCount"), equalTo(1L));
+    assertThat("Misses", stats.get("cacheMissCount"), equalTo(3L));
+    assertThat("Evictions", stats.get("cacheEvictionCount"), equalTo(1L));
+    assertThat("Saved bytes", stats.get("cacheSavedBytes"), equalTo(1000L));
+    assertThat("Size", stats.get("cacheSize"), equalTo(2000L));
+    assertThat("File count", stats.get("cacheFileCount"), equalTo(2L));
+  }
+
+  @Test
+  public void keepOpenFiles() throws IOException {
+    cache.setMaximumSize(1500);
+    read("a", 1000);
+    try (InputStream in = cache.get("a", () -> new ByteArrayInputStream(data))) {
+      read("b", 1000);
+      assertThat("Open file kept", Files.exists(cacheDir.resolve("a")), equalTo(true));
+      assertThat("Data", Arrays.equals(StreamUtils.copyToByteArray(in),
+          Arrays.copyOfRange(data, 0, 1000)), equalTo(true));
+    }
+    read("c", 1000);
+    assertThat("Closed file evicted", Files.exists(cacheDir.resolve("a")), equalTo(false));
+    assertThat("Evictions", cache.statistics().get("cacheEvictionCount"), equalTo(2L));
+  }
+
+  @Test
+  public void rebuildIndex() throws IOException {
+    read("a", 1000);
+    read("b", 1000);
+    Files.write(cacheDir.resolve(".c-123"), new byte[10]);
+    Files.write(cacheDir.resolve("." + KEY + ".part"), new byte[10]);
+
+    cache = new FileSystemDataStreamCache(cacheDir);
+    assertThat("Abandoned fill deleted", Files.exists(cacheDir.resolve(".c-123")),
+        equalTo(false));
+    assertThat("Partial ranged fill kept", Files.exists(cacheDir.resolve("." + KEY + ".part")),
+        equalTo(true));
+    assertThat("Size", cache.statistics().get("cacheSize"), equalTo(2000L));
+
+    final AtomicInteger requestCount = new AtomicInteger(0);
+    try (InputStream in = cache.get("a", () -> {
+      requestCount.incrementAndGet();
+      return new ByteArrayInputStream(data);
+    })) {
+      assertThat("Cached data", StreamUtils.copyToByteArray(in).length, equalTo(1000));
+    }
+    assertThat("No request", requestCount.get(), equalTo(0));
+
+    cache.setMaximumSize(2500);
+    read("c", 1000);
+    assertThat("Evictions", cache.statistics().get("cacheEvictionCount"), equalTo(1L));
+    assertThat("Requested file kept", Files.exists(cacheDir.resolve("a")), equalTo(true));
+  }
+
+  @Test(timeout = 10000)
+  public void replaceUnindexedFile() throws IOException {
+    Files.write(cacheDir.resolve("a"), new byte[10]);
+    assertThat("Data", Arrays.equals(read("a", 1000), Arrays.copyOfRange(data, 0, 1000)),
+        equalTo(true));
+    assertThat("Cached", Files.size(cacheDir.resolve("a")), equalTo(1000L));
+    assertThat("Misses", cache.statistics().get("cacheMissCount"), equalTo(1L));
+
+    Files.write(cacheDir.resolve(KEY), new byte[10]);
+    assertThat("Ranged data", Arrays.equals(read(new TestSupplier()), data), equalTo(true));
+    assertThat("Ranged cached", Files.size(cacheDir.resolve(KEY)), equalTo((long) data.length));
+  }
+
+  @Test
+  public void shareFill() throws Exception {
+    final GatedInputStream source = new GatedInputStream();
+    final AtomicInteger requestCount = new AtomicInteger(0);
+    InputStream in1 = cache.get(KEY, () -> {
+      requestCount.incrementAndGet();
+      return source;
+    });
+    byte[] half = new byte[data.length / 2];
+    StreamUtils.copyRange(in1, new ByteArrayOutputStream(), 0, half.length - 1);
+
+    // a second reader shares the same fill, reading what has been filled so far
+    InputStream in2 = cache.get(KEY, () -> {
+      requestCount.incrementAndGet();
+      return new ByteArrayInputStream(data);
+    });
+    assertThat("Second reader progresses", in2.read(half), equalTo(half.length));
+    source.gate.countDown();
+    final byte[] rest1 = StreamUtils.copyToByteArray(in1);
+    final byte[] rest2 = StreamUtils.copyToByteArray(in2);
+    in1.close();
+    in2.close();
+    assertThat("Single request", requestCount.get(), equalTo(1));
+    assertThat("First reader rest", rest1.length, equalTo(data.length - half.length));
+    assertThat("Second reader data",
+        Arrays.equals(Arrays.copyOfRange(data, half.length, data.length), rest2), equalTo(true));
+    assertThat("Cached", Files.exists(cacheDir.resolve(KEY)), equalTo(true));
+  }
+
+  @Test
+  public void cancelAbandonedFill() throws Exception {
+    final GatedInputStream source = new GatedInputStream();
+    InputStream in = cache.get(KEY, () -> source);
+    assertThat("Read some data", in.read(new byte[10]), equalTo(10));
+    in.close();
+
+    // the fill is cancelled, so a new request starts a new fill
+    final AtomicInteger requestCount = new AtomicInteger(0);
+    try (InputStream in2 = cache.get(KEY, () -> {
+      requestCount.incrementAndGet();
+      return new ByteArrayInputStream(data);
+    })) {
+      assertThat("Data", Arrays.equals(StreamUtils.copyToByteArray(in2), data), equalTo(true));
+    }
+    assertThat("New request", requestCount.get(), equalTo(1));
+    try (Stream<Path> files = Files.list(cacheDir)) {
+      assertThat("Only cached file remains", files.count(), equalTo(1L));
+    }
+  }
+
+  @Test
+  public void fillRanges() throws IOException {
+    TestSupplier supplier = new TestSupplier();
+    assertThat("Data", Arrays.equals(read(supplier), data), equalTo(true));
+    assertThat("Range requests", supplier.requestCount.get(), equalTo(11));
+    assertThat("Cached", Files.exists(cacheDir.resolve(KEY)), equalTo(true));
+
+    assertThat("Cached data", Arrays.equals(read(supplier), data), equalTo(true));
+    assertThat("No more requests", supplier.requestCount.get(), equalTo(11));
+  }
+
+  @Test
+  public void unknownLengthNotRanged() throws IOException {
+    TestSupplier supplier = new TestSupplier() {
+
+      @Override
+      public long getContentLength() {
+        return 0;
+      }
+
+    };
+    assertThat("Data", Arrays.equals(read(supplier), data), equalTo(true));
+    assertThat("No range requests", supplier.requestCount.get(), equalTo(0));
+    assertThat("Single request", supplier.dataRequestCount.get(), equalTo(1));
+    assertThat("Cached", Files.exists(cacheDir.resolve(KEY)), equalTo(true));
+  }
+
+  @Test
+  public void resumeFill() throws IOException {
+    TestSupplier supplier = new TestSupplier();
+    byte[] partial = new byte[data.length];
+    System.arraycopy(data, 0, partial, 0, RANGE_SIZE * 5);
+    Files.write(cacheDir.resolve("." + KEY + ".part"), partial);
+    Files.write(cacheDir.resolve("." + KEY + ".ranges"),
+        (data.length + " " + RANGE_SIZE + " " + supplier.getSha256() + "\n0\n1\n2\n3\n4")
+            .getBytes(StandardCharsets.UTF_8));
+
+    assertThat("Data", Arrays.equals(read(supplier), data), equalTo(true));
+    assertThat("Only missing ranges requested", supplier.requestCount.get(), equalTo(6));
+    assertThat("Progress removed", Files.exists(cacheDir.resolve("." + KEY + ".ranges")),
+        equalTo(false));
+  }
+
+  @Test
+  public void retryRange() throws IOException {
+    TestSupplier supplier = new TestSupplier();
+    supplier.failures.set(2);
+    assertThat("Data", Arrays.equals(read(supplier), data), equalTo(true));
+    assertThat("Range requests", supplier.requestCount.get(), equalTo(13));
+  }
+
+  @Test
+  public void digestMismatch() throws IOException {
+    TestSupplier supplier = new TestSupplier();
+    supplier.sha256 = DigestUtils.sha256Hex("foo");
+    try {
+      read(supplier);
+      fail("Digest mismatch should fail");
+    } catch (IOException e) {
+      // expected
+    }
+    assertThat("Not cached", Files.exists(cacheDir.resolve(KEY)), equalTo(false));
+    assertThat("Partial removed", Files.exists(cacheDir.resolve("." + KEY + ".part")),
+        equalTo(false));
+  }
+
+}
@@ -0,0 +1,130 @@
+/* ==================================================================
+ * FileSystemJobJournalTests.java - 18/10/2026 11:47:09 AM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.nim.service.impl;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.FileSystemUtils;
+
+import net.solarnetwork.nim.domain.JobJournalEntry;
+import net.solarnetwork.nim.domain.SolarNodeImageOptions;
+import net.solarnetwork.nim.domain.TaskPriority;
+
+/**
+ * Test cases for the {@link FileSystemJobJournal} class.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class FileSystemJobJournalTests {
+
+  private Path dir;
+  private Path file;
+
+  @Before
+  public void setup() throws Exception {
+    dir = Files.createTempDirectory("job-journal-");
+    file = dir.resolve("journal.json");
+  }
+
+  @After
+  public void teardown() {
+    FileSystemUtils.deleteRecursively(dir.toFile());
+  }
+
+  private static List<String> taskIds(List<JobJournalEntry> entries) {
+    return entries.stream().map(JobJournalEntry::getTaskId).collect(Collectors.toList());
+  }
+
+  @Test
+  public void replayMissingFile() throws Exception {
+    assertThat(new FileSystemJobJournal(file).replay().isEmpty(), equalTo(true));
+  }
+
+  @Test
+  public void appendThenReplay() throws Exception {
+    final FileSystemJobJournal journal = new FileSystemJobJournal(file);
+    JobJournalEntry submitted = new JobJournalEntry(JobJournalEntry.Type.Submitted, "a");
+    submitted.setResources(Arrays.asList("foo.fish", "bar.firstboot"));
+    SolarNodeImageOptions options = new SolarNodeImageOptions();
+    options.setPriority(TaskPriority.Batch);
+    options.setEnvironment(Collections.singletonMap("FOO", "bar"));
+    submitted.setOptions(options);
+    journal.append(submitted);
+    journal.append(new JobJournalEntry(JobJournalEntry.Type.Started, "a"));
+    journal.append(new JobJournalEntry(JobJournalEntry.Type.Submitted, "b"));
+    journal.close();
+
+    List<JobJournalEntry> entries = new FileSystemJobJournal(file).replay();
+    assertThat(taskIds(entries), contains("a", "a", "b"));
+    JobJournalEntry entry = entries.get(0);
+    assertThat(entry.getType(), equalTo(JobJournalEntry.Type.Submitted));
+    assertThat(entry.getDate(), equalTo(submitted.getDate()));
+    assertThat(entry.getResources(), contains("foo.fish", "bar.firstboot"));
+    assertThat(entry.getOptions().getPriority(), equalTo(TaskPriority.Batch));
+    assertThat(entry.getOptions().getEnvironment().get("FOO"), equalTo("bar"));
+    assertThat(entries.get(1).getType(), equalTo(JobJournalEntry.Type.Started));
+  }
+
+  @Test
+  public void skipPartialLine() throws Exception {
+    FileSystemJobJournal journal = new FileSystemJobJournal(file);
+    journal.append(new JobJournalEntry(JobJournalEntry.Type.Submitted, "a"));
+    journal.close();
+    Files.write(file, "{\"type\":\"Sta".getBytes(StandardCharsets.UTF_8),
+        StandardOpenOption.APPEND);
+
+    assertThat(taskIds(new FileSystemJobJournal(file).replay()), contains("a"));
+  }
+
+  @Test
+  public void compactThenAppend() throws Exception {
+    FileSystemJobJournal journal = new FileSystemJobJournal(file);
+    journal.append(new JobJournalEntry(JobJournalEntry.Type.Submitted, "a"));
+    journal.append(new JobJournalEntry(JobJournalEntry.Type.Submitted, "b"));
+    journal.close();
+
+    journal = new FileSystemJobJournal(file);
+    List<JobJournalEntry> entries = journal.replay();
+    journal.compact(entries.subList(1, 2));
+    journal.append(new JobJournalEntry(JobJournalEntry.Type.Started, "b"));
+    journal.close();
+
+    assertThat(taskIds(new FileSystemJobJournal(file).replay()), contains("b", "b"));
+  }
+
+}
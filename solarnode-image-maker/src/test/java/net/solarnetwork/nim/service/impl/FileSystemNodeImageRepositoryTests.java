@@ -24,25 +24,33 @@ package net.solarnetwork.nim.service.impl;
 
 import static com.spotify.hamcrest.pojo.IsPojo.pojo;
 import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.notNullValue;
 import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.assertThat;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.springframework.util.FileCopyUtils;
+import org.springframework.util.FileSystemUtils;
 
 import net.solarnetwork.nim.domain.SolarNodeImage;
 import net.solarnetwork.nim.domain.SolarNodeImageInfo;
 import net.solarnetwork.nim.util.DecompressingSolarNodeImage;
+import net.solarnetwork.nim.util.MaxCompressorStreamFactory;
+import net.solarnetwork.nim.util.ResourceBudget;
 
 /**
  * Test cases for the {@link FileSystemNodeImageRepository} class.
@@ -86,4 +94,75 @@ public class FileSystemNodeImageRepositoryTests {
     assertThat(image, nullValue());
   }
 
+  @Test
+  public void reduceCompressionLevelToFitBudget() throws Exception {
+    final long level3 = new MaxCompressorStreamFactory(3 / 9f).estimateMemoryUsage("xz");
+    final ResourceBudget budget = new ResourceBudget("test", level3 + 1);
+    repo.setCompressionType("xz");
+    repo.setCompressionRatio(1f);
+    repo.setCompressionMemoryBudget(budget);
+    try (OutputStream out = repo.createCompressorOutputStream(new ByteArrayOutputStream())) {
+      assertThat("Reduced level reserved", budget.getAvailable(), is(1L));
+    }
+    assertThat("Memory released", budget.getAvailable(), is(level3 + 1));
+  }
+
+  private static SolarNodeImage awaitImage(FileSystemNodeImageRepository repo, String id,
+      boolean present) throws InterruptedException {
+    final long end = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(20);
+    SolarNodeImage image = repo.findOne(id);
+    while ((image != null) != present && System.currentTimeMillis() < end) {
+      Thread.sleep(50);
+      image = repo.findOne(id);
+    }
+    return image;
+  }
+
+  @Test
+  public void watchChanges() throws Exception {
+    final Path dir = Files.createTempDirectory("image-repo-");
+    final FileSystemNodeImageRepository watched = new FileSystemNodeImageRepository(dir);
+    try {
+      watched.startup();
+      assertThat("Empty", watched.findAll().iterator().hasNext(), is(false));
+      final long version = watched.getVersion();
+
+      Files.write(dir.resolve("added.img.xz"), new byte[] { 1, 2, 3 });
+      Files.write(dir.resolve("added.json"), "{\"id\":\"added\"}".getBytes("UTF-8"));
+      SolarNodeImage image = awaitImage(watched, "added", true);
+      assertThat("Added image indexed", image, notNullValue());
+      assertThat("Image file", image.getFilename(), is("added.img.xz"));
+      assertThat("Version changed", watched.getVersion(), greaterThan(version));
+
+      Path sub = Files.createDirectory(dir.resolve("sub"));
+      Thread.sleep(200);
+      Files.write(sub.resolve("nested.img"), new byte[] { 1 });
+      Files.write(sub.resolve("nested.json"), "{\"id\":\"nested\"}".getBytes("UTF-8"));
+      assertThat("Nested image indexed", awaitImage(watched, "nested", true), notNullValue());
+
+      Files.delete(dir.resolve("added.json"));
+      assertThat("Removed image unindexed", awaitImage(watched, "added", false), nullValue());
+    } finally {
+      watched.shutdown();
+      FileSystemUtils.deleteRecursively(dir.toFile());
+    }
+  }
+
+  @Test
+  public void deleteImage() throws IOException {
+    final Path dir = Files.createTempDirectory("image-repo-");
+    try {
+      Files.write(dir.resolve("gone.img.xz"), new byte[] { 1, 2, 3 });
+      Files.write(dir.resolve("gone.json"), "{\"id\":\"gone\"}".getBytes("UTF-8"));
+      FileSystemNodeImageRepository r = new FileSystemNodeImageRepository(dir);
+      assertThat("Found", r.findOne("gone"), notNullValue());
+      r.delete("gone");
+      assertThat("Not found", r.findOne("gone"), nullValue());
+      assertThat("Metadata deleted", Files.exists(dir.resolve("gone.json")), is(false));
+      assertThat("Image deleted", Files.exists(dir.resolve("gone.img.xz")), is(false));
+    } finally {
+      FileSystemUtils.deleteRecursively(dir.toFile());
+    }
+  }
+
 }
@@ -0,0 +1,183 @@
+/* ==================================================================
+ * FileSystemResourceStoreTests.java - 18/10/2026 8:02:36 AM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.nim.service.impl;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.util.StreamUtils;
+
+/**
+ * Test cases for the {@link FileSystemResourceStore} class.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class FileSystemResourceStoreTests {
+
+  private Path storeDir;
+  private Path workDir;
+  private FileSystemResourceStore store;
+
+  @Before
+  public void setup() throws Exception {
+    storeDir = Files.createTempDirectory("resource-store-");
+    workDir = Files.createTempDirectory("resource-work-");
+    store = new FileSystemResourceStore(storeDir);
+  }
+
+  @After
+  public void teardown() {
+    FileSystemUtils.deleteRecursively(storeDir.toFile());
+    FileSystemUtils.deleteRecursively(workDir.toFile());
+  }
+
+  private static byte[] data(int length, int seed) {
+    byte[] data = new byte[length];
+    for (int i = 0; i < length; i++) {
+      data[i] = (byte) (i + seed);
+    }
+    return data;
+  }
+
+  @Test
+  public void miss() throws Exception {
+    String sha = DigestUtils.sha256Hex("foo");
+    Path dest = workDir.resolve("dest.txt");
+    assertThat("Not stored", store.contains(sha), equalTo(false));
+    assertThat("Not copied", store.copyTo(sha, dest), equalTo(false));
+    assertThat("No destination", Files.exists(dest), equalTo(false));
+    assertThat("No stream", store.getInputStream(sha), nullValue());
+  }
+
+  @Test
+  public void putThenCopy() throws Exception {
+    byte[] data = data(10000, 0);
+    String sha = DigestUtils.sha256Hex(data);
+    assertThat("Digest", store.put(new ByteArrayInputStream(data), sha), equalTo(sha));
+    assertThat("Stored", store.contains(sha.toUpperCase()), equalTo(true));
+
+    Path dest = workDir.resolve("dest.txt");
+    Files.write(dest, new byte[] { 1, 2, 3 });
+    assertThat("Copied", store.copyTo(sha, dest), equalTo(true));
+    assertThat("Copy data", Arrays.equals(Files.readAllBytes(dest), data), equalTo(true));
+    try (InputStream in = store.getInputStream(sha)) {
+      assertThat("Stream data", Arrays.equals(StreamUtils.copyToByteArray(in), data),
+          equalTo(true));
+    }
+  }
+
+  @Test
+  public void modifyCopy() throws Exception {
+    byte[] data = data(10000, 0);
+    String sha = DigestUtils.sha256Hex(data);
+    store.put(new ByteArrayInputStream(data), sha);
+
+    Path dest = workDir.resolve("dest.txt");
+    assertThat("Copied", store.copyTo(sha, dest), equalTo(true));
+    dest.toFile().setWritable(true);
+    Files.write(dest, new byte[] { 1, 2, 3 });
+    try (InputStream in = store.getInputStream(sha)) {
+      assertThat("Stored data unchanged",
+          Arrays.equals(StreamUtils.copyToByteArray(in), data), equalTo(true));
+    }
+  }
+
+  @Test
+  public void putWithoutDigest() throws Exception {
+    byte[] data = data(100, 1);
+    assertThat("Digest", store.put(new ByteArrayInputStream(data), null),
+        equalTo(DigestUtils.sha256Hex(data)));
+    assertThat("Stored", store.contains(DigestUtils.sha256Hex(data)), equalTo(true));
+  }
+
+  @Test
+  public void digestMismatch() throws Exception {
+    byte[] data = data(100, 0);
+    String sha = DigestUtils.sha256Hex("foo");
+    try {
+      store.put(new ByteArrayInputStream(data), sha);
+      fail("Digest mismatch should be rejected");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    assertThat("Not stored", store.contains(sha), equalTo(false));
+    assertThat("Not stored by actual digest", store.contains(DigestUtils.sha256Hex(data)),
+        equalTo(false));
+    assertThat("No files left", storeDir.toFile().list().length, equalTo(0));
+  }
+
+  @Test
+  public void evictLeastRecentlyUsed() throws Exception {
+    store.setMaximumSize(2500);
+    byte[] a = data(1000, 1);
+    byte[] b = data(1000, 2);
+    byte[] c = data(1000, 3);
+    String shaA = store.put(new ByteArrayInputStream(a), null);
+    String shaB = store.put(new ByteArrayInputStream(b), null);
+    Files.setLastModifiedTime(storeDir.resolve(shaA + ".dat"), FileTime.fromMillis(1000));
+    Files.setLastModifiedTime(storeDir.resolve(shaB + ".dat"), FileTime.fromMillis(2000));
+
+    String shaC = store.put(new ByteArrayInputStream(c), null);
+    assertThat("Oldest evicted", store.contains(shaA), equalTo(false));
+    assertThat("Newer kept", store.contains(shaB), equalTo(true));
+    assertThat("Newest kept", store.contains(shaC), equalTo(true));
+  }
+
+  @Test
+  public void tooLarge() throws Exception {
+    store.setMaximumSize(100);
+    try {
+      store.put(new ByteArrayInputStream(data(101, 0)), null);
+      fail("Resource larger than the store should be rejected");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    assertThat("No files left", storeDir.toFile().list().length, equalTo(0));
+  }
+
+  @Test
+  public void invalidDigest() throws Exception {
+    try {
+      store.contains("../../etc/passwd");
+      fail("Invalid digest should be rejected");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+}
@@ -0,0 +1,165 @@
+/* ==================================================================
+ * GuestfishAppliancePoolTests.java - 18/10/2026 9:05:27 AM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.nim.service.impl;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Test cases for the {@link GuestfishAppliancePool} class.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class GuestfishAppliancePoolTests {
+
+  private static class TestPool extends GuestfishAppliancePool {
+
+    private final AtomicInteger launched = new AtomicInteger(0);
+    private final List<Appliance> destroyed = new ArrayList<>();
+    private final Set<Appliance> unresponsive = new HashSet<>();
+
+    private TestPool(int size) {
+      super(size);
+    }
+
+    @Override
+    protected Appliance launch() {
+      return new Appliance(String.valueOf(launched.incrementAndGet()));
+    }
+
+    @Override
+    protected synchronized boolean ping(Appliance appliance) {
+      return !unresponsive.contains(appliance);
+    }
+
+    @Override
+    protected synchronized void destroy(Appliance appliance) {
+      destroyed.add(appliance);
+    }
+
+  }
+
+  @Test
+  public void reuse() throws Exception {
+    TestPool pool = new TestPool(2);
+    GuestfishAppliancePool.Appliance a = pool.lease();
+    pool.release(a, true);
+    GuestfishAppliancePool.Appliance b = pool.lease();
+    assertThat("Same appliance", b, sameInstance(a));
+    assertThat("Use count", b.getUseCount(), equalTo(2));
+    assertThat("Launched once", pool.launched.get(), equalTo(1));
+  }
+
+  @Test
+  public void recycleAfterMaximumUses() throws Exception {
+    TestPool pool = new TestPool(1);
+    pool.setMaximumUses(2);
+    GuestfishAppliancePool.Appliance a = pool.lease();
+    pool.release(a, true);
+    pool.lease();
+    pool.release(a, true);
+    assertThat("Destroyed after uses", pool.destroyed, equalTo(Arrays.asList(a)));
+    assertThat("Count", pool.getApplianceCount(), equalTo(0));
+    assertThat("New appliance", pool.lease(), not(sameInstance(a)));
+  }
+
+  @Test
+  public void releaseUnhealthy() throws Exception {
+    TestPool pool = new TestPool(1);
+    GuestfishAppliancePool.Appliance a = pool.lease();
+    pool.release(a, false);
+    assertThat("Destroyed", pool.destroyed, equalTo(Arrays.asList(a)));
+    assertThat("New appliance", pool.lease(), not(sameInstance(a)));
+  }
+
+  @Test
+  public void replaceUnresponsive() throws Exception {
+    TestPool pool = new TestPool(1);
+    GuestfishAppliancePool.Appliance a = pool.lease();
+    pool.release(a, true);
+    synchronized (pool) {
+      pool.unresponsive.add(a);
+    }
+    GuestfishAppliancePool.Appliance b = pool.lease();
+    assertThat("New appliance", b, not(sameInstance(a)));
+    assertThat("Destroyed", pool.destroyed, equalTo(Arrays.asList(a)));
+    assertThat("Count", pool.getApplianceCount(), equalTo(1));
+  }
+
+  @Test
+  public void waitForRelease() throws Exception {
+    TestPool pool = new TestPool(1);
+    GuestfishAppliancePool.Appliance a = pool.lease();
+    CompletableFuture<GuestfishAppliancePool.Appliance> waiting = CompletableFuture
+        .supplyAsync(() -> {
+          try {
+            return pool.lease();
+          } catch (Exception e) {
+            throw new RuntimeException(e);
+          }
+        });
+    try {
+      waiting.get(200, TimeUnit.MILLISECONDS);
+      throw new AssertionError("Lease should wait while the pool is full");
+    } catch (TimeoutException e) {
+      // expected
+    }
+    pool.release(a, true);
+    assertThat("Released appliance leased", waiting.get(5, TimeUnit.SECONDS), sameInstance(a));
+    assertThat("Launched once", pool.launched.get(), equalTo(1));
+  }
+
+  @Test
+  public void startupFillsPool() throws Exception {
+    TestPool pool = new TestPool(3);
+    pool.startup();
+    try {
+      long end = System.currentTimeMillis() + 5000;
+      while (pool.launched.get() < 3 && System.currentTimeMillis() < end) {
+        Thread.sleep(10);
+      }
+      assertThat("Launched", pool.launched.get(), equalTo(3));
+      pool.lease();
+      assertThat("No more launched", pool.launched.get(), equalTo(3));
+    } finally {
+      pool.shutdown();
+    }
+    assertThat("Idle destroyed", pool.destroyed.size(), equalTo(2));
+  }
+
+}
@@ -0,0 +1,221 @@
+/* ==================================================================
+ * GuestfishInterpreterTests.java - 18/10/2026 3:36:44 PM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.nim.service.impl;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.FileSystemUtils;
+
+/**
+ * Test cases for the {@link GuestfishInterpreter} class.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class GuestfishInterpreterTests {
+
+  private Path dir;
+  private TestGuestfs api;
+  private GuestfishInterpreter interpreter;
+
+  /**
+   * Methods named and typed like the libguestfs Java bindings.
+   */
+  public static class TestGuestfs {
+
+    private final List<String> calls = new ArrayList<>();
+
+    public void touch(String path) {
+      calls.add("touch " + path);
+    }
+
+    public String cat(String path) {
+      return "cat of " + path;
+    }
+
+    public void mkdir(String path) throws Exception {
+      throw new Exception("mkdir: " + path + ": File exists");
+    }
+
+    public void upload(String filename, String remotefilename) {
+      calls.add("upload " + filename + " " + remotefilename);
+    }
+
+    public void mount(String mountable, String mountpoint) {
+      calls.add("mount " + mountable + " " + mountpoint);
+    }
+
+    public void download(String remotefilename, String filename) {
+      calls.add("download " + remotefilename + " " + filename);
+    }
+
+    public void umount_all() {
+      calls.add("umount_all");
+    }
+
+    public void launch() {
+      calls.add("launch");
+    }
+
+    /**
+     * Record the name of each archive entry.
+     * 
+     * @param tarfile
+     *          the archive
+     * @param directory
+     *          the directory to extract to
+     * @throws IOException
+     *           if the archive cannot be read
+     */
+    public void tar_in(String tarfile, String directory) throws IOException {
+      try (TarArchiveInputStream in = new TarArchiveInputStream(
+          Files.newInputStream(Paths.get(tarfile)))) {
+        TarArchiveEntry entry;
+        while ((entry = in.getNextTarEntry()) != null) {
+          calls.add("tar_in " + directory + " " + entry.getName());
+        }
+      }
+    }
+
+  }
+
+  @Before
+  public void setup() throws IOException {
+    dir = Files.createTempDirectory("nim-interpreter-");
+    api = new TestGuestfs();
+    interpreter = new GuestfishInterpreter(new GuestfsHandle(api), dir);
+  }
+
+  @After
+  public void teardown() {
+    FileSystemUtils.deleteRecursively(dir.toFile());
+  }
+
+  @Test
+  public void parseLine() {
+    assertThat("Plain words", GuestfishInterpreter.parseLine("  touch   /foo "),
+        contains("touch", "/foo"));
+    assertThat("Double quoted", GuestfishInterpreter.parseLine("write /foo \"a \\\"b\\\"\\n\""),
+        contains("write", "/foo", "a \"b\"\n"));
+    assertThat("Single quoted", GuestfishInterpreter.parseLine("write /foo 'a \\n b'"),
+        contains("write", "/foo", "a \\n b"));
+    assertThat("Hex and octal escapes", GuestfishInterpreter.parseLine("echo \"\\x41\\102\""),
+        contains("echo", "AB"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void parseLineUnterminatedQuote() {
+    GuestfishInterpreter.parseLine("write /foo \"bar");
+  }
+
+  @Test
+  public void run() throws IOException {
+    String output = interpreter.run("test.fish",
+        "# comment\n\ntouch /foo\ncat /foo\necho done \"and dusted\"\nexit\ntouch /bar\n");
+    assertThat("Calls", api.calls, contains("touch /foo"));
+    assertThat("Output", output, equalTo("cat of /foo\ndone and dusted"));
+  }
+
+  @Test
+  public void trace() throws IOException {
+    interpreter.setTrace(true);
+    String output = interpreter.run("test.fish", "cat /foo\n");
+    assertThat("Output", output, equalTo("cat /foo\ncat of /foo"));
+  }
+
+  @Test
+  public void commandErrorStopsScript() {
+    try {
+      interpreter.run("test.fish", "touch /foo\nmkdir /foo\ntouch /bar\n");
+      fail("Should have failed");
+    } catch (IOException e) {
+      assertThat("Error message", e.getMessage(), containsString("test.fish:2: "));
+      assertThat("Error message", e.getMessage(), containsString("/foo: File exists"));
+    }
+    assertThat("Calls", api.calls, contains("touch /foo"));
+  }
+
+  @Test
+  public void ignoreCommandError() throws IOException {
+    interpreter.run("test.fish", "-mkdir /foo\ntouch /bar\n");
+    assertThat("Calls", api.calls, contains("touch /bar"));
+  }
+
+  @Test
+  public void localPathResolved() throws IOException {
+    interpreter.run("test.fish", "upload foo.txt /foo.txt\n");
+    assertThat("Calls", api.calls,
+        contains("upload " + dir.resolve("foo.txt").toAbsolutePath() + " /foo.txt"));
+  }
+
+  @Test
+  public void mountAndDownload() throws IOException {
+    interpreter.run("test.fish",
+        "mount /dev/sda2 /\ndownload /etc/hostname hostname.txt\numount-all\n");
+    assertThat("Calls", api.calls, contains("mount /dev/sda2 /",
+        "download /etc/hostname " + dir.resolve("hostname.txt").toAbsolutePath(), "umount_all"));
+  }
+
+  @Test
+  public void applianceCommandRejected() {
+    try {
+      interpreter.run("test.fish", "touch /foo\nlaunch\ntouch /bar\n");
+      fail("Should have failed");
+    } catch (IOException e) {
+      assertThat("Error message", e.getMessage(), containsString("test.fish:2: "));
+      assertThat("Error message", e.getMessage(), containsString("not supported"));
+    }
+    assertThat("Calls", api.calls, contains("touch /foo"));
+  }
+
+  @Test
+  public void copyIn() throws IOException {
+    Path src = Files.createDirectories(dir.resolve("etc/solarnode"));
+    Files.write(src.resolve("a.txt"), "a".getBytes(StandardCharsets.UTF_8));
+    interpreter.run("test.fish", "copy-in etc/solarnode /etc\n");
+    assertThat("Calls", api.calls,
+        contains("tar_in /etc solarnode/", "tar_in /etc solarnode/a.txt"));
+    try (Stream<Path> s = Files.list(dir)) {
+      assertThat("Temporary archive deleted", s.count(), equalTo(1L));
+    }
+  }
+
+}
@@ -148,4 +148,48 @@ public class GuestfishScriptSanitizerTests {
     }
   }
 
+  @Test
+  public void driveCommandAllowed() throws Exception {
+    URL scriptUrl = getClass().getResource("sanitizer-test-09.fish");
+    Path scriptFile = Paths.get(scriptUrl.toURI());
+    GuestfishScriptSanitizer sanitizer = new GuestfishScriptSanitizer();
+    sanitizer.validate(scriptFile);
+  }
+
+  @Test
+  public void driveCommandRestrictedOnSharedAppliance() throws Exception {
+    URL scriptUrl = getClass().getResource("sanitizer-test-09.fish");
+    Path scriptFile = Paths.get(scriptUrl.toURI());
+    GuestfishScriptSanitizer sanitizer = new GuestfishScriptSanitizer(true);
+    try {
+      sanitizer.validate(scriptFile);
+      Assert.fail("Expected NodeImageScriptException exception");
+    } catch (NodeImageScriptException e) {
+      assertThat(e.getScriptName(), equalTo("sanitizer-test-09.fish"));
+      assertThat(e.getLineNumber(), equalTo(2));
+    }
+  }
+
+  @Test
+  public void lifecycleCommandRestrictedOnSharedAppliance() throws Exception {
+    URL scriptUrl = getClass().getResource("sanitizer-test-10.fish");
+    Path scriptFile = Paths.get(scriptUrl.toURI());
+    GuestfishScriptSanitizer sanitizer = new GuestfishScriptSanitizer(true);
+    try {
+      sanitizer.validate(scriptFile);
+      Assert.fail("Expected NodeImageScriptException exception");
+    } catch (NodeImageScriptException e) {
+      assertThat(e.getScriptName(), equalTo("sanitizer-test-10.fish"));
+      assertThat(e.getLineNumber(), equalTo(2));
+    }
+  }
+
+  @Test
+  public void fileCommandsAllowedOnSharedAppliance() throws Exception {
+    URL scriptUrl = getClass().getResource("sanitizer-test-01.fish");
+    Path scriptFile = Paths.get(scriptUrl.toURI());
+    GuestfishScriptSanitizer sanitizer = new GuestfishScriptSanitizer(true);
+    sanitizer.validate(scriptFile);
+  }
+
 }
@@ -0,0 +1,128 @@
+/* ==================================================================
+ * GuestfishSessionScriptTests.java - 18/10/2026 11:42:08 AM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.nim.service.impl;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.FileSystemUtils;
+
+/**
+ * Test cases for the {@link GuestfishSessionScript} class.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class GuestfishSessionScriptTests {
+
+  private Path dir;
+
+  @Before
+  public void setup() throws IOException {
+    dir = Files.createTempDirectory("nim-session-");
+  }
+
+  @After
+  public void teardown() {
+    FileSystemUtils.deleteRecursively(dir.toFile());
+  }
+
+  @Test
+  public void quote() {
+    assertThat("Plain", GuestfishSessionScript.quote("/foo/bar"), equalTo("\"/foo/bar\""));
+    assertThat("Escaped", GuestfishSessionScript.quote("a \"b\" \\c\nd"),
+        equalTo("\"a \\\"b\\\" \\\\c\\nd\""));
+  }
+
+  @Test
+  public void noFirstbootCommands() {
+    assertThat("Empty", GuestfishSessionScript.firstbootCommands(Collections.emptyList()),
+        equalTo(""));
+  }
+
+  @Test
+  public void firstbootCommands() {
+    Path one = Paths.get("/tmp/task/b.firstboot");
+    Path two = Paths.get("/tmp/task/a $x.firstboot");
+    String cmds = GuestfishSessionScript.firstbootCommands(Arrays.asList(one, two));
+    assertThat("Service installed", cmds,
+        containsString("write " + GuestfishSessionScript.FIRSTBOOT_SERVICE + " \""));
+    assertThat("Service enabled", cmds, containsString("ln-sf "
+        + GuestfishSessionScript.FIRSTBOOT_SERVICE
+        + " /etc/systemd/system/default.target.wants/guestfs-firstboot.service\n"));
+    assertThat("Runner executable", cmds,
+        containsString("chmod 0755 " + GuestfishSessionScript.FIRSTBOOT_RUNNER + "\n"));
+
+    String dest1 = "\"" + GuestfishSessionScript.FIRSTBOOT_SCRIPTS_DIR + "/0001-b.firstboot\"";
+    String dest2 = "\"" + GuestfishSessionScript.FIRSTBOOT_SCRIPTS_DIR
+        + "/0002-a--x.firstboot\"";
+    assertThat("First script uploaded", cmds,
+        containsString("upload \"/tmp/task/b.firstboot\" " + dest1 + "\nchmod 0755 " + dest1));
+    assertThat("Second script uploaded", cmds,
+        containsString("upload \"/tmp/task/a $x.firstboot\" " + dest2 + "\nchmod 0755 " + dest2));
+    assertThat("Scripts in order", cmds.indexOf(dest1), lessThan(cmds.indexOf(dest2)));
+  }
+
+  @Test
+  public void write() throws IOException {
+    Path script = dir.resolve("script.guestfish");
+    Files.write(script, "touch /foo".getBytes(StandardCharsets.UTF_8));
+    Path firstboot = dir.resolve("setup.firstboot");
+    Path dest = GuestfishSessionScript.write(dir.resolve("session.guestfish"), dir,
+        Collections.singletonList(firstboot), script);
+
+    String result = new String(Files.readAllBytes(dest), StandardCharsets.UTF_8);
+    assertThat("Local directory first", result,
+        startsWith("lcd \"" + dir.toAbsolutePath() + "\"\n"));
+    int upload = result.indexOf("upload \"" + firstboot.toAbsolutePath() + "\"");
+    assertThat("Firstboot script uploaded", upload, greaterThan(0));
+    assertThat("Script last", result.endsWith("\ntouch /foo\n"), equalTo(true));
+    assertThat("Firstboot before script", upload, lessThan(result.indexOf("touch /foo")));
+  }
+
+  @Test
+  public void writeScriptOnly() throws IOException {
+    Path script = dir.resolve("script.guestfish");
+    Files.write(script, "touch /foo\n".getBytes(StandardCharsets.UTF_8));
+    Path dest = GuestfishSessionScript.write(dir.resolve("session.guestfish"), null,
+        Collections.emptyList(), script);
+    assertThat("Script copied", new String(Files.readAllBytes(dest), StandardCharsets.UTF_8),
+        equalTo("touch /foo\n\n"));
+  }
+
+}
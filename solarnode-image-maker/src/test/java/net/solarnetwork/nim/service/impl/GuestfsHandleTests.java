@@ -0,0 +1,217 @@
+/* ==================================================================
+ * GuestfsHandleTests.java - 18/10/2026 3:18:06 PM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.nim.service.impl;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test cases for the {@link GuestfsHandle} class.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class GuestfsHandleTests {
+
+  private TestGuestfs api;
+  private GuestfsHandle handle;
+
+  /**
+   * Methods named and typed like the libguestfs Java bindings.
+   */
+  public static class TestGuestfs {
+
+    private final List<String> calls = new ArrayList<>();
+    private Map<String, Object> optargs;
+
+    public void add_drive(String filename) {
+      calls.add("add_drive " + filename);
+    }
+
+    public void close() {
+      calls.add("close");
+    }
+
+    public boolean is_dir(String path) {
+      calls.add("is_dir " + path);
+      return true;
+    }
+
+    /**
+     * Test a directory, with optional arguments.
+     * 
+     * @param path
+     *          the path
+     * @param optargs
+     *          the optional arguments
+     * @return always {@literal true}
+     */
+    public boolean is_dir(String path, Map<String, Object> optargs) {
+      calls.add("is_dir " + path);
+      this.optargs = optargs;
+      return true;
+    }
+
+    public void chmod(int mode, String path) {
+      calls.add("chmod " + Integer.toOctalString(mode) + " " + path);
+    }
+
+    public void write(String path, byte[] content) {
+      calls.add("write " + path + " " + new String(content));
+    }
+
+    public String[] ls(String directory) {
+      return new String[] { "a", "b" };
+    }
+
+    /**
+     * Get mount points, in an order that is not sorted.
+     * 
+     * @param root
+     *          the root device
+     * @return the mount points
+     */
+    public Map<String, String> inspect_get_mountpoints(String root) {
+      Map<String, String> m = new LinkedHashMap<>();
+      m.put("/boot", "/dev/sda1");
+      m.put("/", "/dev/sda2");
+      return m;
+    }
+
+    public void mkdir(String path) throws Exception {
+      throw new Exception("mkdir: " + path + ": File exists");
+    }
+
+  }
+
+  @Before
+  public void setup() {
+    api = new TestGuestfs();
+    handle = new GuestfsHandle(api);
+  }
+
+  @Test
+  public void convertArguments() throws IOException {
+    handle.execute("chmod", Arrays.asList("0755", "/foo"));
+    handle.execute("write", Arrays.asList("/bar", "hi"));
+    assertThat("Calls", api.calls, contains("chmod 755 /foo", "write /bar hi"));
+  }
+
+  @Test
+  public void requiredArgumentsOnly() throws IOException {
+    assertThat("Result", handle.execute("is-dir", Arrays.asList("/foo")), equalTo("true"));
+    assertThat("Calls", api.calls, contains("is_dir /foo"));
+    assertThat("No optional arguments", api.optargs, equalTo(null));
+  }
+
+  @Test
+  public void optionalArguments() throws IOException {
+    handle.execute("is-dir", Arrays.asList("/foo", "followsymlinks:true", "depth:4096",
+        "name:x"));
+    assertThat("Calls", api.calls, contains("is_dir /foo"));
+    Map<String, Object> expected = new LinkedHashMap<>();
+    expected.put("followsymlinks", Boolean.TRUE);
+    expected.put("depth", 4096);
+    expected.put("name", "x");
+    assertThat("Optional arguments", api.optargs, equalTo(expected));
+  }
+
+  @Test
+  public void formatResults() throws IOException {
+    assertThat("List", handle.execute("ls", Arrays.asList("/")), equalTo("a\nb"));
+    assertThat("Map", handle.execute("inspect-get-mountpoints", Arrays.asList("/dev/sda2")),
+        equalTo("/: /dev/sda2\n/boot: /dev/sda1"));
+  }
+
+  @Test
+  public void commandError() {
+    try {
+      handle.execute("mkdir", Arrays.asList("/foo"));
+      fail("Should have failed");
+    } catch (IOException e) {
+      assertThat("Error message", e.getMessage(), containsString("/foo: File exists"));
+    }
+  }
+
+  @Test
+  public void unknownCommand() {
+    try {
+      handle.execute("touch", Collections.emptyList());
+      fail("Should have failed");
+    } catch (IOException e) {
+      assertThat("Error message", e.getMessage(), containsString("unknown command"));
+    }
+  }
+
+  private void assertNotSupported(String command, String... args) {
+    try {
+      handle.execute(command, Arrays.asList(args));
+      fail("Should have rejected " + command);
+    } catch (IOException e) {
+      assertThat("Error message", e.getMessage(), containsString("not supported"));
+    }
+    assertThat("Not called", api.calls, hasSize(0));
+  }
+
+  @Test
+  public void closeNotSupported() {
+    assertNotSupported("close");
+  }
+
+  @Test
+  public void driveCommandNotSupported() {
+    assertNotSupported("add-drive", "/etc/shadow");
+  }
+
+  @Test
+  public void objectMethodNotSupported() {
+    assertNotSupported("wait");
+    assertNotSupported("get-class");
+  }
+
+  @Test
+  public void invalidNumber() {
+    try {
+      handle.execute("chmod", Arrays.asList("rwx", "/foo"));
+      fail("Should have failed");
+    } catch (IOException e) {
+      assertThat("Error message", e.getMessage(), containsString("invalid number"));
+    }
+  }
+
+}
@@ -0,0 +1,240 @@
+/* ==================================================================
+ * NodeImageCachePrewarmerTests.java - 18/10/2026 11:03:27 AM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.nim.service.impl;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.util.StreamUtils;
+
+import net.solarnetwork.nim.domain.SolarNodeImage;
+import net.solarnetwork.nim.domain.SolarNodeImageInfo;
+import net.solarnetwork.nim.service.NodeImageRepository;
+import net.solarnetwork.nim.service.RangedDataSupplier;
+
+/**
+ * Test cases for the {@link NodeImageCachePrewarmer} class.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class NodeImageCachePrewarmerTests {
+
+  private static final byte[] DATA = "Hello, world.".getBytes();
+
+  private Path cacheDir;
+  private FileSystemDataStreamCache cache;
+  private TestRepository repository;
+  private NodeImageCachePrewarmer prewarmer;
+
+  private static class TestImage implements SolarNodeImage, RangedDataSupplier {
+
+    private final String id;
+    private final long lastModified;
+    private final byte[] data;
+    private final AtomicInteger requestCount = new AtomicInteger(0);
+
+    private TestImage(String id, long lastModified) {
+      this(id, lastModified, DATA);
+    }
+
+    private TestImage(String id, long lastModified, byte[] data) {
+      super();
+      this.id = id;
+      this.lastModified = lastModified;
+      this.data = data;
+    }
+
+    @Override
+    public String getId() {
+      return id;
+    }
+
+    @Override
+    public String getSha256() {
+      return DigestUtils.sha256Hex(data);
+    }
+
+    @Override
+    public long getContentLength() {
+      return data.length;
+    }
+
+    @Override
+    public String getUncompressedSha256() {
+      return getSha256();
+    }
+
+    @Override
+    public long getUncompressedContentLength() {
+      return data.length;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+      return new ByteArrayInputStream(data);
+    }
+
+    @Override
+    public String getFilename() {
+      return id + ".img";
+    }
+
+    @Override
+    public InputStream getRange(long offset, long length) throws IOException {
+      requestCount.incrementAndGet();
+      return new ByteArrayInputStream(data, (int) offset, (int) length);
+    }
+
+    @Override
+    public InputStream getData() throws IOException {
+      requestCount.incrementAndGet();
+      return new ByteArrayInputStream(data);
+    }
+
+    @Override
+    public long getLastModified() {
+      return lastModified;
+    }
+
+  }
+
+  private static class TestRepository implements NodeImageRepository {
+
+    private final Map<String, TestImage> images = new LinkedHashMap<>();
+
+    private void add(TestImage image) {
+      images.put(image.getId(), image);
+    }
+
+    @Override
+    public Iterable<SolarNodeImageInfo> findAll() {
+      return new ArrayList<>(images.values());
+    }
+
+    @Override
+    public SolarNodeImage findOne(String id) {
+      return images.get(id);
+    }
+
+    @Override
+    public String getDownloadUrl(SolarNodeImage image) {
+      return null;
+    }
+
+  }
+
+  @Before
+  public void setup() throws IOException {
+    cacheDir = Files.createTempDirectory("prewarm-cache-");
+    cache = new FileSystemDataStreamCache(cacheDir);
+    repository = new TestRepository();
+    prewarmer = new NodeImageCachePrewarmer(repository, cache);
+    prewarmer.setInitialDelay(TimeUnit.HOURS.toMillis(1));
+  }
+
+  @After
+  public void teardown() {
+    prewarmer.shutdown();
+    FileSystemUtils.deleteRecursively(cacheDir.toFile());
+  }
+
+  @Test
+  public void notStarted() {
+    repository.add(new TestImage("a", 1));
+    assertThat("Nothing fetched", prewarmer.prewarm().isEmpty(), equalTo(true));
+  }
+
+  @Test
+  public void fetchNewestImages() throws Exception {
+    repository.add(new TestImage("a", 1));
+    repository.add(new TestImage("b", 3));
+    repository.add(new TestImage("c", 2));
+    prewarmer.setImageCount(2);
+    prewarmer.startup();
+
+    List<Future<Boolean>> fetches = prewarmer.prewarm();
+    assertThat("Fetch count", fetches.size(), equalTo(2));
+    for (Future<Boolean> f : fetches) {
+      assertThat("Fetched", f.get(5, TimeUnit.SECONDS), equalTo(true));
+    }
+    assertThat("Newest cached", cache.contains("b"), equalTo(true));
+    assertThat("Second newest cached", cache.contains("c"), equalTo(true));
+    assertThat("Oldest not cached", cache.contains("a"), equalTo(false));
+
+    // cached images are not fetched again, but newly published ones are
+    repository.add(new TestImage("d", 4));
+    fetches = prewarmer.prewarm();
+    assertThat("New image fetch count", fetches.size(), equalTo(1));
+    assertThat("Fetched", fetches.get(0).get(5, TimeUnit.SECONDS), equalTo(true));
+    assertThat("New image cached", cache.contains("d"), equalTo(true));
+    assertThat("Single request", repository.images.get("b").requestCount.get(), equalTo(1));
+  }
+
+  @Test
+  public void liftBandwidthLimitForJoiningReader() throws Exception {
+    final byte[] data = new byte[20000];
+    repository.add(new TestImage("a", 1, data));
+    cache.setRangeSize(1000);
+    cache.setRangeConcurrency(1);
+    prewarmer.setBandwidth(1000);
+    prewarmer.startup();
+
+    List<Future<Boolean>> fetches = prewarmer.prewarm();
+    assertThat("Fetch count", fetches.size(), equalTo(1));
+    final long end = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+    while (cache.readerCount("a") < 1 && System.currentTimeMillis() < end) {
+      Thread.sleep(10);
+    }
+    assertThat("Prewarm fill started", cache.readerCount("a"), equalTo(1));
+
+    // at the limit the fill would take 20s, but a reader joining it lifts the limit
+    final long start = System.currentTimeMillis();
+    try (InputStream in = cache.get("a", (RangedDataSupplier) repository.findOne("a"))) {
+      assertThat("Data", StreamUtils.copyToByteArray(in).length, equalTo(data.length));
+    }
+    assertThat("Fetched", fetches.get(0).get(5, TimeUnit.SECONDS), equalTo(true));
+    assertThat("Not limited", System.currentTimeMillis() - start,
+        lessThan(TimeUnit.SECONDS.toMillis(10)));
+  }
+
+}
@@ -0,0 +1,226 @@
+/* ==================================================================
+ * S3MultipartUploadOutputStreamTests.java - 18/10/2026 9:47:03 AM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.nim.service.impl;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.StreamUtils;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.AbstractAmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadResult;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadResult;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.services.s3.model.UploadPartResult;
+
+/**
+ * Test cases for the {@link S3MultipartUploadOutputStream} class.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class S3MultipartUploadOutputStreamTests {
+
+  private static final int PART_SIZE = S3MultipartUploadOutputStream.MINIMUM_PART_SIZE;
+
+  private ExecutorService executor;
+  private TestS3 client;
+
+  private static class TestS3 extends AbstractAmazonS3 {
+
+    private final SortedMap<Integer, byte[]> parts = new TreeMap<>();
+    private final AtomicInteger failures = new AtomicInteger(0);
+    private byte[] object;
+    private int partCount;
+    private boolean aborted;
+
+    @Override
+    public PutObjectResult putObject(PutObjectRequest req) {
+      try {
+        object = StreamUtils.copyToByteArray(req.getInputStream());
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+      return new PutObjectResult();
+    }
+
+    @Override
+    public InitiateMultipartUploadResult initiateMultipartUpload(
+        InitiateMultipartUploadRequest req) {
+      InitiateMultipartUploadResult result = new InitiateMultipartUploadResult();
+      result.setUploadId("test-upload");
+      return result;
+    }
+
+    @Override
+    public UploadPartResult uploadPart(UploadPartRequest req) {
+      if (failures.getAndDecrement() > 0) {
+        AmazonServiceException e = new AmazonServiceException("Slow down");
+        e.setStatusCode(503);
+        throw e;
+      }
+      try {
+        byte[] data = StreamUtils.copyToByteArray(req.getInputStream());
+        synchronized (parts) {
+          parts.put(req.getPartNumber(), data);
+        }
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+      UploadPartResult result = new UploadPartResult();
+      result.setPartNumber(req.getPartNumber());
+      result.setETag("etag-" + req.getPartNumber());
+      return result;
+    }
+
+    @Override
+    public CompleteMultipartUploadResult completeMultipartUpload(
+        CompleteMultipartUploadRequest req) {
+      partCount = req.getPartETags().size();
+      ByteArrayOutputStream byos = new ByteArrayOutputStream();
+      synchronized (parts) {
+        for (Map.Entry<Integer, byte[]> me : parts.entrySet()) {
+          byos.write(me.getValue(), 0, me.getValue().length);
+        }
+      }
+      object = byos.toByteArray();
+      return new CompleteMultipartUploadResult();
+    }
+
+    @Override
+    public void abortMultipartUpload(AbortMultipartUploadRequest req) {
+      aborted = true;
+    }
+
+  }
+
+  @Before
+  public void setup() {
+    executor = Executors.newCachedThreadPool();
+    client = new TestS3();
+  }
+
+  @After
+  public void teardown() {
+    executor.shutdownNow();
+  }
+
+  private S3MultipartUploadOutputStream createStream() {
+    S3MultipartUploadOutputStream out = new S3MultipartUploadOutputStream(client, "bucket",
+        "key", executor, PART_SIZE, 2);
+    out.setRetryDelay(1);
+    return out;
+  }
+
+  private static byte[] data(int length) {
+    byte[] data = new byte[length];
+    for (int i = 0; i < length; i++) {
+      data[i] = (byte) (i % 251);
+    }
+    return data;
+  }
+
+  @Test
+  public void singlePart() throws IOException {
+    byte[] data = data(1000);
+    S3MultipartUploadOutputStream out = createStream();
+    out.write(data);
+    out.close();
+    assertThat("Complete", out.isComplete(), equalTo(true));
+    assertThat("Uploaded as single object", client.parts.isEmpty(), equalTo(true));
+    assertThat("Object data", Arrays.equals(client.object, data), equalTo(true));
+  }
+
+  @Test
+  public void multipleParts() throws IOException {
+    byte[] data = data(PART_SIZE * 3 + 123);
+    S3MultipartUploadOutputStream out = createStream();
+    for (int i = 0; i < data.length; i += 4096) {
+      out.write(data, i, Math.min(4096, data.length - i));
+    }
+    out.close();
+    assertThat("Complete", out.isComplete(), equalTo(true));
+    assertThat("Part count", client.partCount, equalTo(4));
+    assertThat("Object data", Arrays.equals(client.object, data), equalTo(true));
+  }
+
+  @Test
+  public void retryPart() throws IOException {
+    client.failures.set(2);
+    byte[] data = data(PART_SIZE + 1);
+    S3MultipartUploadOutputStream out = createStream();
+    out.write(data);
+    out.close();
+    assertThat("Complete", out.isComplete(), equalTo(true));
+    assertThat("Object data", Arrays.equals(client.object, data), equalTo(true));
+  }
+
+  @Test
+  public void failPart() throws IOException {
+    client.failures.set(100);
+    S3MultipartUploadOutputStream out = createStream();
+    out.write(data(PART_SIZE + 1));
+    try {
+      out.close();
+      fail("Upload should fail");
+    } catch (IOException e) {
+      // expected
+    }
+    assertThat("Not complete", out.isComplete(), equalTo(false));
+    assertThat("Aborted", client.aborted, equalTo(true));
+    assertThat("No object", client.object, nullValue());
+  }
+
+  @Test
+  public void abort() throws IOException {
+    S3MultipartUploadOutputStream out = createStream();
+    out.write(data(PART_SIZE + 1));
+    out.abort();
+    out.close();
+    assertThat("Not complete", out.isComplete(), equalTo(false));
+    assertThat("Aborted", client.aborted, equalTo(true));
+    assertThat("No object", client.object, nullValue());
+  }
+
+}
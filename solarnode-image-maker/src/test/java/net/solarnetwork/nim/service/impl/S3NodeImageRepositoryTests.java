@@ -0,0 +1,310 @@
+/* ==================================================================
+ * S3NodeImageRepositoryTests.java - 18/10/2026 2:38:05 PM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.nim.service.impl;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.StreamUtils;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.AbstractAmazonS3;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest.KeyVersion;
+import com.amazonaws.services.s3.model.DeleteObjectsResult;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+import net.solarnetwork.nim.domain.SolarNodeImage;
+import net.solarnetwork.nim.domain.SolarNodeImageInfo;
+
+/**
+ * Test cases for the {@link S3NodeImageRepository} class.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class S3NodeImageRepositoryTests {
+
+  private static final String BUCKET = "bucket";
+  private static final String PREFIX = "images/";
+
+  private TestS3 client;
+  private S3NodeImageRepository repo;
+
+  private static class TestS3 extends AbstractAmazonS3 {
+
+    private final Map<String, String> objects = new TreeMap<>();
+    private final AtomicInteger getCount = new AtomicInteger(0);
+    private final AtomicInteger notModifiedCount = new AtomicInteger(0);
+    private final AtomicInteger listCount = new AtomicInteger(0);
+    private final AtomicInteger conflicts = new AtomicInteger(0);
+
+    private void putMeta(String id, long length) {
+      objects.put(PREFIX + S3NodeImageRepository.META_OBJECT_KEY_PREFIX + id + ".json",
+          "{\"id\":\"" + id + "\",\"sha256\":\"abc\",\"contentLength\":" + length
+              + ",\"uncompressedSha256\":\"def\",\"uncompressedContentLength\":" + (length * 2)
+              + "}");
+    }
+
+    private static String etag(String content) {
+      return Integer.toHexString(content.hashCode());
+    }
+
+    @Override
+    public ListObjectsV2Result listObjectsV2(ListObjectsV2Request req) {
+      listCount.incrementAndGet();
+      ListObjectsV2Result result = new ListObjectsV2Result();
+      for (Map.Entry<String, String> me : objects.entrySet()) {
+        if (!me.getKey().startsWith(req.getPrefix())) {
+          continue;
+        }
+        S3ObjectSummary summary = new S3ObjectSummary();
+        summary.setBucketName(BUCKET);
+        summary.setKey(me.getKey());
+        summary.setETag(etag(me.getValue()));
+        summary.setLastModified(new Date());
+        result.getObjectSummaries().add(summary);
+      }
+      return result;
+    }
+
+    @Override
+    public S3Object getObject(String bucketName, String key) {
+      return getObject(new GetObjectRequest(bucketName, key));
+    }
+
+    @Override
+    public S3Object getObject(GetObjectRequest req) {
+      if (req.getKey().contains(S3NodeImageRepository.META_OBJECT_KEY_PREFIX)) {
+        getCount.incrementAndGet();
+      }
+      String content = objects.get(req.getKey());
+      if (content == null) {
+        AmazonServiceException e = new AmazonServiceException("Not found");
+        e.setStatusCode(404);
+        throw e;
+      }
+      String etag = etag(content);
+      if (req.getNonmatchingETagConstraints().contains(etag)) {
+        notModifiedCount.incrementAndGet();
+        return null;
+      }
+      S3Object object = new S3Object();
+      object.setBucketName(BUCKET);
+      object.setKey(req.getKey());
+      ObjectMetadata meta = new ObjectMetadata();
+      meta.setHeader("ETag", etag);
+      meta.setLastModified(new Date());
+      object.setObjectMetadata(meta);
+      object.setObjectContent(
+          new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
+      return object;
+    }
+
+    @Override
+    public PutObjectResult putObject(PutObjectRequest req) {
+      String current = objects.get(req.getKey());
+      String ifMatch = req.getCustomRequestHeaders() != null
+          ? req.getCustomRequestHeaders().get("If-Match")
+          : null;
+      if (conflicts.getAndDecrement() > 0 || (ifMatch != null
+          ? current == null || !ifMatch.equals(etag(current))
+          : current != null)) {
+        AmazonServiceException e = new AmazonServiceException("Precondition failed");
+        e.setStatusCode(412);
+        throw e;
+      }
+      try {
+        String content = StreamUtils.copyToString(req.getInputStream(), StandardCharsets.UTF_8);
+        objects.put(req.getKey(), content);
+        PutObjectResult result = new PutObjectResult();
+        result.setETag(etag(content));
+        return result;
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    @Override
+    public DeleteObjectsResult deleteObjects(DeleteObjectsRequest req) {
+      for (KeyVersion key : req.getKeys()) {
+        objects.remove(key.getKey());
+      }
+      return new DeleteObjectsResult(Collections.emptyList());
+    }
+
+    @Override
+    public void deleteObject(String bucketName, String key) {
+      objects.remove(key);
+    }
+
+  }
+
+  @Before
+  public void setup() {
+    client = new TestS3();
+    repo = new S3NodeImageRepository(client, BUCKET, PREFIX);
+  }
+
+  private List<String> findAllIds() {
+    List<String> ids = new ArrayList<>();
+    for (SolarNodeImageInfo info : repo.findAll()) {
+      ids.add(info.getId());
+    }
+    return ids;
+  }
+
+  @Test
+  public void findAllCachesMetadata() {
+    // list every time, without a manifest
+    repo.setManifestTtl(0);
+    client.putMeta("a", 1);
+    client.putMeta("b", 2);
+    client.putMeta("c", 3);
+    assertThat("Listed", findAllIds(), contains("a", "b", "c"));
+    assertThat("Metadata fetched", client.getCount.get(), equalTo(3));
+
+    assertThat("Listed again", findAllIds(), contains("a", "b", "c"));
+    assertThat("Metadata cached", client.getCount.get(), equalTo(3));
+
+    client.putMeta("b", 22);
+    client.objects.remove(PREFIX + S3NodeImageRepository.META_OBJECT_KEY_PREFIX + "c.json");
+    List<SolarNodeImageInfo> infos = new ArrayList<>();
+    repo.findAll().forEach(infos::add);
+    assertThat("Changed metadata fetched", client.getCount.get(), equalTo(4));
+    assertThat("Deleted image removed", infos.size(), equalTo(2));
+    assertThat("Changed metadata", infos.get(1).getContentLength(), equalTo(22L));
+  }
+
+  @Test
+  public void findOneRevalidates() {
+    client.putMeta("a", 1);
+    SolarNodeImage image = repo.findOne("a");
+    assertThat("Found", image.getContentLength(), equalTo(1L));
+    assertThat("Fetched", client.getCount.get(), equalTo(1));
+
+    repo.findOne("a");
+    assertThat("Cached within TTL", client.getCount.get(), equalTo(1));
+
+    repo.setMetadataTtl(0);
+    image = repo.findOne("a");
+    assertThat("Revalidated", client.getCount.get(), equalTo(2));
+    assertThat("Not modified", client.notModifiedCount.get(), equalTo(1));
+    assertThat("Cached metadata", image.getContentLength(), equalTo(1L));
+
+    client.putMeta("a", 11);
+    image = repo.findOne("a");
+    assertThat("Modified", client.notModifiedCount.get(), equalTo(1));
+    assertThat("Changed metadata", image.getContentLength(), equalTo(11L));
+  }
+
+  @Test
+  public void findAllFromManifest() {
+    client.putMeta("a", 1);
+    client.putMeta("b", 2);
+    assertThat("Listed", findAllIds(), contains("a", "b"));
+    assertThat("List requests", client.listCount.get(), equalTo(1));
+    assertThat("Manifest written",
+        client.objects.containsKey(PREFIX + S3NodeImageRepository.MANIFEST_OBJECT_KEY),
+        equalTo(true));
+
+    repo = new S3NodeImageRepository(client, BUCKET, PREFIX);
+    assertThat("Listed from manifest", findAllIds(), contains("a", "b"));
+    assertThat("No list request", client.listCount.get(), equalTo(1));
+    assertThat("No metadata requests", client.getCount.get(), equalTo(2));
+    assertThat("Found from manifest", repo.findOne("b").getContentLength(), equalTo(2L));
+    assertThat("No metadata request", client.getCount.get(), equalTo(2));
+  }
+
+  @Test
+  public void deleteUpdatesManifest() {
+    client.putMeta("a", 1);
+    client.putMeta("b", 2);
+    findAllIds();
+
+    // another writer changes the manifest first, so the update must be retried
+    client.conflicts.set(1);
+    repo.delete("a");
+
+    repo = new S3NodeImageRepository(client, BUCKET, PREFIX);
+    assertThat("Listed from manifest", findAllIds(), contains("b"));
+    assertThat("No list request", client.listCount.get(), equalTo(1));
+  }
+
+  @Test
+  public void manifestKeptAfterConflicts() {
+    client.putMeta("a", 1);
+    client.putMeta("b", 2);
+    findAllIds();
+
+    // other writers keep changing the manifest, so every attempt fails
+    client.conflicts.set(4);
+    repo.delete("a");
+    assertThat("Manifest not deleted",
+        client.objects.containsKey(PREFIX + S3NodeImageRepository.MANIFEST_OBJECT_KEY),
+        equalTo(true));
+
+    assertThat("Listed after rebuild", findAllIds(), contains("b"));
+    assertThat("List requests", client.listCount.get(), equalTo(2));
+
+    repo = new S3NodeImageRepository(client, BUCKET, PREFIX);
+    assertThat("Listed from rebuilt manifest", findAllIds(), contains("b"));
+    assertThat("No list request", client.listCount.get(), equalTo(2));
+  }
+
+  @Test
+  public void rebuildStaleManifest() throws InterruptedException {
+    repo.setManifestTtl(50);
+    client.putMeta("a", 1);
+    findAllIds();
+
+    // published without updating the manifest
+    client.putMeta("b", 2);
+    assertThat("Listed from manifest", findAllIds(), contains("a"));
+    Thread.sleep(100);
+    assertThat("Listed after rebuild", findAllIds(), contains("a", "b"));
+    assertThat("List requests", client.listCount.get(), equalTo(2));
+  }
+
+}
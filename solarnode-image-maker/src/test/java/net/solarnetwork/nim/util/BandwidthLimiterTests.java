@@ -0,0 +1,91 @@
+/* ==================================================================
+ * BandwidthLimiterTests.java - 18/10/2026 11:26:40 AM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.nim.util;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.springframework.util.StreamUtils;
+
+/**
+ * Test cases for the {@link BandwidthLimiter} class.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class BandwidthLimiterTests {
+
+  @Test
+  public void unlimited() {
+    InputStream in = new ByteArrayInputStream(new byte[10]);
+    assertThat("Stream not wrapped", new BandwidthLimiter(0).limit(in), sameInstance(in));
+  }
+
+  @Test
+  public void limitRead() throws IOException {
+    final BandwidthLimiter limiter = new BandwidthLimiter(10000);
+    final long start = System.nanoTime();
+    try (InputStream in = limiter.limit(new ByteArrayInputStream(new byte[4000]))) {
+      byte[] buf = new byte[1000];
+      int total = 0;
+      int n;
+      while ((n = in.read(buf)) > 0) {
+        total += n;
+      }
+      assertThat("Read all", total, equalTo(4000));
+    }
+    final long ms = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    // the first 1000 bytes are free, the other 3000 take 300ms
+    assertThat("Limited", ms, greaterThanOrEqualTo(290L));
+    assertThat("Not too limited", ms, lessThan(2000L));
+  }
+
+  @Test
+  public void shareLimit() throws Exception {
+    final BandwidthLimiter limiter = new BandwidthLimiter(10000);
+    final long start = System.nanoTime();
+    Thread t = new Thread(() -> {
+      try {
+        StreamUtils.drain(limiter.limit(new ByteArrayInputStream(new byte[1000])));
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    });
+    t.start();
+    StreamUtils.drain(limiter.limit(new ByteArrayInputStream(new byte[1000])));
+    StreamUtils.drain(limiter.limit(new ByteArrayInputStream(new byte[1000])));
+    t.join();
+    final long ms = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    assertThat("Limit shared by streams", ms, greaterThanOrEqualTo(190L));
+  }
+
+}
@@ -0,0 +1,119 @@
+/* ==================================================================
+ * FairTaskSchedulerTests.java - 18/10/2026 3:05:51 PM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.nim.util;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import net.solarnetwork.nim.domain.TaskPriority;
+
+/**
+ * Test cases for the {@link FairTaskScheduler} class.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class FairTaskSchedulerTests {
+
+  private FairTaskScheduler scheduler;
+
+  /**
+   * Shut down the scheduler created by the test, if any.
+   */
+  @After
+  public void teardown() {
+    if (scheduler != null) {
+      scheduler.shutdown();
+    }
+  }
+
+  private Future<?> blockWorker(CountDownLatch started, CountDownLatch release) throws Exception {
+    Future<?> f = scheduler.submit("block", null, () -> {
+      started.countDown();
+      return release.await(10, TimeUnit.SECONDS);
+    });
+    assertThat("Blocking task started", started.await(10, TimeUnit.SECONDS), equalTo(true));
+    return f;
+  }
+
+  @Test
+  public void fairOrder() throws Exception {
+    scheduler = new FairTaskScheduler(1, 0);
+    CountDownLatch release = new CountDownLatch(1);
+    blockWorker(new CountDownLatch(1), release);
+
+    List<String> order = Collections.synchronizedList(new ArrayList<>());
+    final Future<?> c1 = scheduler.submit("c", TaskPriority.Batch, () -> order.add("c1"));
+    Future<?> a1 = scheduler.submit("a", null, () -> order.add("a1"));
+    Future<?> a2 = scheduler.submit("a", null, () -> order.add("a2"));
+    final Future<?> a3 = scheduler.submit("a", TaskPriority.Interactive, () -> order.add("a3"));
+    Future<?> b1 = scheduler.submit("b", null, () -> order.add("b1"));
+
+    assertThat("a1 position", scheduler.getQueuePosition(a1), equalTo(1));
+    assertThat("b1 position", scheduler.getQueuePosition(b1), equalTo(2));
+    assertThat("a2 position", scheduler.getQueuePosition(a2), equalTo(3));
+    assertThat("a3 position", scheduler.getQueuePosition(a3), equalTo(4));
+    assertThat("c1 position", scheduler.getQueuePosition(c1), equalTo(5));
+
+    release.countDown();
+    c1.get(10, TimeUnit.SECONDS);
+    assertThat(order, contains("a1", "b1", "a2", "a3", "c1"));
+    assertThat("Not queued", scheduler.getQueuePosition(c1), equalTo(0));
+  }
+
+  @Test
+  public void keyLimit() throws Exception {
+    scheduler = new FairTaskScheduler(1, 2);
+    CountDownLatch release = new CountDownLatch(1);
+    blockWorker(new CountDownLatch(1), release);
+    scheduler.submit("a", null, () -> 1);
+    Future<?> a2 = scheduler.submit("a", null, () -> 2);
+    try {
+      scheduler.submit("a", null, () -> 3);
+      throw new AssertionError("Submission over limit should be rejected");
+    } catch (RejectedExecutionException e) {
+      // expected
+    }
+
+    // other keys unaffected
+    scheduler.submit("b", null, () -> 1);
+
+    // cancelling a queued task frees a slot
+    a2.cancel(false);
+    scheduler.submit("a", null, () -> 3);
+    release.countDown();
+  }
+
+}
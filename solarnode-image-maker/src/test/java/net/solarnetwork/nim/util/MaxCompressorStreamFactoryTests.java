@@ -0,0 +1,169 @@
+/* ==================================================================
+ * MaxCompressorStreamFactoryTests.java - 18/10/2026 11:02:37 AM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.nim.util;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.compress.compressors.CompressorStreamFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.FileCopyUtils;
+
+/**
+ * Test cases for the {@link MaxCompressorStreamFactory} class.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class MaxCompressorStreamFactoryTests {
+
+  private static final int BLOCK_SIZE = 64 * 1024;
+
+  private ExecutorService executor;
+
+  @Before
+  public void setup() {
+    executor = Executors.newFixedThreadPool(3);
+  }
+
+  @After
+  public void teardown() {
+    executor.shutdownNow();
+  }
+
+  private static byte[] testData(int length) {
+    // mix of random and zero runs, like a disk image
+    byte[] data = new byte[length];
+    Random r = new Random(123);
+    for (int i = 0; i < length; i += 4096) {
+      if (r.nextBoolean()) {
+        byte[] chunk = new byte[Math.min(4096, length - i)];
+        r.nextBytes(chunk);
+        System.arraycopy(chunk, 0, data, i, chunk.length);
+      }
+    }
+    return data;
+  }
+
+  private byte[] compress(String type, byte[] data) throws Exception {
+    MaxCompressorStreamFactory factory = new MaxCompressorStreamFactory(0.5f, executor,
+        BLOCK_SIZE);
+    ByteArrayOutputStream byos = new ByteArrayOutputStream();
+    try (OutputStream out = factory.createCompressorOutputStream(type, byos)) {
+      assertThat(out, instanceOf(ParallelBlockCompressorOutputStream.class));
+      // write in odd sized chunks to cross block boundaries
+      for (int i = 0; i < data.length; i += 10000) {
+        out.write(data, i, Math.min(10000, data.length - i));
+      }
+    }
+    return byos.toByteArray();
+  }
+
+  private byte[] decompress(String type, byte[] data) throws Exception {
+    // the default factory does not decompress concatenated streams, so a single stream is required
+    try (InputStream in = new CompressorStreamFactory()
+        .createCompressorInputStream(type, new ByteArrayInputStream(data))) {
+      return FileCopyUtils.copyToByteArray(in);
+    }
+  }
+
+  @Test
+  public void parallelXz() throws Exception {
+    byte[] data = testData(BLOCK_SIZE * 5 + 1234);
+    byte[] compressed = compress(CompressorStreamFactory.XZ, data);
+    assertThat(Arrays.equals(decompress(CompressorStreamFactory.XZ, compressed), data),
+        equalTo(true));
+  }
+
+  @Test
+  public void parallelXzExactBlockMultiple() throws Exception {
+    byte[] data = testData(BLOCK_SIZE * 3);
+    byte[] compressed = compress(CompressorStreamFactory.XZ, data);
+    assertThat(Arrays.equals(decompress(CompressorStreamFactory.XZ, compressed), data),
+        equalTo(true));
+  }
+
+  @Test
+  public void parallelXzEmpty() throws Exception {
+    byte[] compressed = compress(CompressorStreamFactory.XZ, new byte[0]);
+    assertThat(decompress(CompressorStreamFactory.XZ, compressed).length, equalTo(0));
+  }
+
+  @Test
+  public void parallelGzip() throws Exception {
+    byte[] data = testData(BLOCK_SIZE * 5 + 1234);
+    byte[] compressed = compress(CompressorStreamFactory.GZIP, data);
+    assertThat(Arrays.equals(decompress(CompressorStreamFactory.GZIP, compressed), data),
+        equalTo(true));
+  }
+
+  @Test
+  public void parallelGzipExactBlockMultiple() throws Exception {
+    byte[] data = testData(BLOCK_SIZE * 3);
+    byte[] compressed = compress(CompressorStreamFactory.GZIP, data);
+    try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+      assertThat(Arrays.equals(FileCopyUtils.copyToByteArray(in), data), equalTo(true));
+    }
+  }
+
+  @Test
+  public void parallelMemoryEstimate() {
+    MaxCompressorStreamFactory factory = new MaxCompressorStreamFactory(1f, executor, BLOCK_SIZE);
+    // each stream has up to two blocks pending per thread, each with input and output buffers
+    assertThat("Stream buffers", factory.estimateMemoryUsage(CompressorStreamFactory.GZIP),
+        equalTo(2L * BLOCK_SIZE * 2 * 3));
+    assertThat("Thread encoders", factory.estimatePoolMemoryUsage(CompressorStreamFactory.GZIP),
+        equalTo(3 * 256 * 1024L));
+
+    MaxCompressorStreamFactory serial = new MaxCompressorStreamFactory(1f);
+    assertThat("Stream encoder", serial.estimateMemoryUsage(CompressorStreamFactory.GZIP),
+        equalTo(256 * 1024L));
+    assertThat("No thread encoders", serial.estimatePoolMemoryUsage(CompressorStreamFactory.GZIP),
+        equalTo(0L));
+  }
+
+  @Test(expected = IOException.class)
+  public void writeAfterFinish() throws Exception {
+    MaxCompressorStreamFactory factory = new MaxCompressorStreamFactory(0.5f, executor,
+        BLOCK_SIZE);
+    ParallelBlockCompressorOutputStream<?> out = (ParallelBlockCompressorOutputStream<?>) factory
+        .createCompressorOutputStream(CompressorStreamFactory.XZ, new ByteArrayOutputStream());
+    out.finish();
+    out.write(1);
+  }
+
+}
@@ -0,0 +1,195 @@
+/* ==================================================================
+ * MultipartStreamTests.java - 18/10/2026 7:02:44 AM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.nim.util;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.springframework.util.StreamUtils;
+
+/**
+ * Test cases for the {@link MultipartStream} class.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class MultipartStreamTests {
+
+  private static final String BOUNDARY = "----TestBoundary7MA4YWxk";
+
+  private static byte[] data(int length) {
+    byte[] data = new byte[length];
+    for (int i = 0; i < length; i++) {
+      // include bytes that look like the start of a delimiter
+      data[i] = (i % 97 == 0 ? (byte) '\r' : i % 89 == 0 ? (byte) '-' : (byte) (i % 251));
+    }
+    return data;
+  }
+
+  private static byte[] body(String preamble, Object... parts) throws IOException {
+    ByteArrayOutputStream byos = new ByteArrayOutputStream();
+    byos.write(preamble.getBytes(StandardCharsets.ISO_8859_1));
+    for (int i = 0; i < parts.length; i += 2) {
+      byos.write(("--" + BOUNDARY + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+      byos.write(((String) parts[i]).getBytes(StandardCharsets.ISO_8859_1));
+      byos.write("\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+      byos.write((byte[]) parts[i + 1]);
+      byos.write("\r\n".getBytes(StandardCharsets.ISO_8859_1));
+    }
+    byos.write(("--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.ISO_8859_1));
+    return byos.toByteArray();
+  }
+
+  private static String disposition(String name, String filename) {
+    return "Content-Disposition: form-data; name=\"" + name + "\""
+        + (filename != null ? "; filename=\"" + filename + "\"" : "");
+  }
+
+  @Test
+  public void boundary() {
+    assertThat("Boundary", MultipartStream.boundary("multipart/form-data; boundary=abc"),
+        equalTo("abc"));
+    assertThat("Quoted boundary",
+        MultipartStream.boundary("multipart/form-data; charset=utf-8; boundary=\"a b\""),
+        equalTo("a b"));
+    assertThat("Not multipart", MultipartStream.boundary("application/json"), nullValue());
+    assertThat("No boundary", MultipartStream.boundary("multipart/form-data"), nullValue());
+  }
+
+  @Test
+  public void parseParts() throws IOException {
+    byte[] file = data(10000);
+    byte[] body = body("", disposition("options", null), "{\"verbose\":true}".getBytes(),
+        disposition("dataFile", "test.txt") + "\r\nContent-Type: text/plain", file);
+    MultipartStream stream = new MultipartStream(new ByteArrayInputStream(body), BOUNDARY);
+
+    MultipartStream.Part part = stream.next();
+    assertThat("Part 1", part, notNullValue());
+    assertThat("Part 1 name", part.getName(), equalTo("options"));
+    assertThat("Part 1 not a file", part.getFilename(), nullValue());
+    assertThat("Part 1 data",
+        StreamUtils.copyToString(part.getInputStream(), StandardCharsets.UTF_8),
+        equalTo("{\"verbose\":true}"));
+
+    part = stream.next();
+    assertThat("Part 2", part, notNullValue());
+    assertThat("Part 2 name", part.getName(), equalTo("dataFile"));
+    assertThat("Part 2 filename", part.getFilename(), equalTo("test.txt"));
+    assertThat("Part 2 content type", part.getHeader("CONTENT-TYPE"), equalTo("text/plain"));
+    assertThat("Part 2 data",
+        Arrays.equals(StreamUtils.copyToByteArray(part.getInputStream()), file), equalTo(true));
+
+    assertThat("No more parts", stream.next(), nullValue());
+    assertThat("Still no more parts", stream.next(), nullValue());
+  }
+
+  @Test
+  public void skipPreambleAndUnreadParts() throws IOException {
+    byte[] file = data(5000);
+    byte[] body = body("This is a preamble.\r\n", disposition("a", "a.bin"), data(7000),
+        disposition("b", "b.bin"), file);
+    MultipartStream stream = new MultipartStream(new ByteArrayInputStream(body), BOUNDARY);
+
+    MultipartStream.Part part = stream.next();
+    assertThat("Part 1 name", part.getName(), equalTo("a"));
+    part.getInputStream().read(new byte[10]);
+
+    part = stream.next();
+    assertThat("Part 2 name", part.getName(), equalTo("b"));
+    assertThat("Part 2 data",
+        Arrays.equals(StreamUtils.copyToByteArray(part.getInputStream()), file), equalTo(true));
+    assertThat("No more parts", stream.next(), nullValue());
+  }
+
+  @Test
+  public void smallBuffer() throws IOException {
+    byte[] file1 = data(3001);
+    byte[] file2 = new byte[0];
+    byte[] file3 = data(517);
+    byte[] body = body("", disposition("f", "1"), file1, disposition("f", "2"), file2,
+        disposition("f", "3"), file3);
+    // one byte at a time, so boundaries are split across reads
+    MultipartStream stream = new MultipartStream(new ByteArrayInputStream(body) {
+
+      @Override
+      public synchronized int read(byte[] b, int off, int len) {
+        return super.read(b, off, Math.min(len, 1));
+      }
+
+    }, BOUNDARY, 16);
+
+    for (byte[] expected : new byte[][] { file1, file2, file3 }) {
+      MultipartStream.Part part = stream.next();
+      assertThat("Part", part, notNullValue());
+      assertThat("Part data", Arrays.equals(StreamUtils.copyToByteArray(part.getInputStream()),
+          expected), equalTo(true));
+    }
+    assertThat("No more parts", stream.next(), nullValue());
+  }
+
+  @Test
+  public void filenameWithoutPath() throws IOException {
+    byte[] body = body("", disposition("a", "C:\\Users\\me\\a.txt"), new byte[1],
+        disposition("b", "../../b.txt"), new byte[1]);
+    MultipartStream stream = new MultipartStream(new ByteArrayInputStream(body), BOUNDARY);
+    assertThat("Windows path removed", stream.next().getFilename(), equalTo("a.txt"));
+    assertThat("Relative path removed", stream.next().getFilename(), equalTo("b.txt"));
+  }
+
+  @Test
+  public void sizeLimit() throws IOException {
+    byte[] body = body("", disposition("a", "a.bin"), data(10000));
+    MultipartStream stream = new MultipartStream(new ByteArrayInputStream(body), BOUNDARY, 1024);
+    stream.setMaximumSize(5000);
+    try {
+      StreamUtils.copyToByteArray(stream.next().getInputStream());
+      fail("Size limit should be enforced");
+    } catch (MultipartStream.SizeLimitExceededException e) {
+      assertThat("Maximum size", e.getMaximumSize(), equalTo(5000L));
+    }
+  }
+
+  @Test
+  public void truncated() throws IOException {
+    byte[] body = body("", disposition("a", "a.bin"), data(1000));
+    MultipartStream stream = new MultipartStream(
+        new ByteArrayInputStream(Arrays.copyOf(body, body.length - BOUNDARY.length())), BOUNDARY);
+    try {
+      StreamUtils.copyToByteArray(stream.next().getInputStream());
+      fail("Missing final boundary should fail");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+}
@@ -0,0 +1,141 @@
+/* ==================================================================
+ * Qcow2InputStreamTests.java - 18/10/2026 11:20:44 AM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.nim.util;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.FileCopyUtils;
+import org.springframework.util.FileSystemUtils;
+
+/**
+ * Test cases for the {@link Qcow2InputStream} class.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class Qcow2InputStreamTests {
+
+  private static final int CLUSTER_BITS = 9;
+  private static final int CLUSTER_SIZE = 1 << CLUSTER_BITS;
+  private static final long COPIED = 1L << 63;
+
+  private Path dir;
+
+  @Before
+  public void setup() throws Exception {
+    dir = Files.createTempDirectory("qcow2-test-");
+  }
+
+  @After
+  public void teardown() {
+    FileSystemUtils.deleteRecursively(dir.toFile());
+  }
+
+  /**
+   * Create a minimal overlay with two L2 tables worth of clusters: the first cluster is allocated,
+   * the second is a zero cluster, and all others fall through to the backing file.
+   */
+  private Path createOverlay(String backingName, long size) throws IOException {
+    ByteBuffer buf = ByteBuffer.allocate(CLUSTER_SIZE * 4);
+    buf.putInt(0, Qcow2InputStream.MAGIC);
+    buf.putInt(4, 3);
+    if (backingName != null) {
+      byte[] name = backingName.getBytes(StandardCharsets.UTF_8);
+      buf.putLong(8, 112);
+      buf.putInt(16, name.length);
+      buf.position(112);
+      buf.put(name);
+    }
+    buf.putInt(20, CLUSTER_BITS);
+    buf.putLong(24, size);
+    buf.putInt(36, 2); // L1 size
+    buf.putLong(40, CLUSTER_SIZE); // L1 offset
+    buf.putInt(96, 4); // refcount order
+    buf.putInt(100, 104); // header length
+
+    // L1
+    buf.putLong(CLUSTER_SIZE, (CLUSTER_SIZE * 2) | COPIED);
+
+    // L2
+    buf.putLong(CLUSTER_SIZE * 2, (CLUSTER_SIZE * 3) | COPIED);
+    buf.putLong(CLUSTER_SIZE * 2 + 8, 1L);
+
+    // data
+    for (int i = CLUSTER_SIZE * 3; i < CLUSTER_SIZE * 4; i++) {
+      buf.put(i, (byte) 0xAB);
+    }
+    Path overlay = dir.resolve("overlay.qcow2");
+    Files.write(overlay, buf.array());
+    return overlay;
+  }
+
+  @Test
+  public void mergedWithBacking() throws Exception {
+    final long size = CLUSTER_SIZE * 64 * 2;
+    byte[] base = new byte[(int) size - 5000];
+    new Random(123).nextBytes(base);
+    Files.write(dir.resolve("base.img"), base);
+
+    byte[] expected = Arrays.copyOf(base, (int) size);
+    Arrays.fill(expected, 0, CLUSTER_SIZE, (byte) 0xAB);
+    Arrays.fill(expected, CLUSTER_SIZE, CLUSTER_SIZE * 2, (byte) 0);
+
+    try (InputStream in = new Qcow2InputStream(createOverlay("base.img", size))) {
+      assertThat(Arrays.equals(FileCopyUtils.copyToByteArray(in), expected), equalTo(true));
+    }
+  }
+
+  @Test
+  public void noBacking() throws Exception {
+    final long size = CLUSTER_SIZE * 10;
+    byte[] expected = new byte[(int) size];
+    Arrays.fill(expected, 0, CLUSTER_SIZE, (byte) 0xAB);
+    Qcow2Resource rsrc = new Qcow2Resource(createOverlay(null, size), "foo.img");
+    assertThat("Size", rsrc.contentLength(), equalTo(size));
+    assertThat("Filename", rsrc.getFilename(), equalTo("foo.img"));
+    try (InputStream in = rsrc.getInputStream()) {
+      assertThat(Arrays.equals(FileCopyUtils.copyToByteArray(in), expected), equalTo(true));
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void notQcow2() throws Exception {
+    Path file = dir.resolve("raw.img");
+    Files.write(file, new byte[CLUSTER_SIZE]);
+    new Qcow2InputStream(file).close();
+  }
+
+}
@@ -0,0 +1,83 @@
+/* ==================================================================
+ * ResourceBudgetTests.java - 18/10/2026 5:12:40 PM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.nim.util;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Test cases for the {@link ResourceBudget} class.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class ResourceBudgetTests {
+
+  @Test
+  public void tryReserveWithinCapacity() {
+    ResourceBudget budget = new ResourceBudget("test", 100);
+    assertThat("Reserved", budget.tryReserve(60), equalTo(60L));
+    assertThat("Not enough left", budget.tryReserve(60), equalTo(-1L));
+    assertThat("Available", budget.getAvailable(), equalTo(40L));
+    budget.release(60);
+    assertThat("Reserved after release", budget.tryReserve(60), equalTo(60L));
+  }
+
+  @Test
+  public void tryReserveLargerThanCapacity() {
+    ResourceBudget budget = new ResourceBudget("test", 100);
+    assertThat("Capped at capacity", budget.tryReserve(500), equalTo(100L));
+    assertThat("Available", budget.getAvailable(), equalTo(0L));
+  }
+
+  @Test
+  public void reserveWaitsForRelease() throws Exception {
+    final ResourceBudget budget = new ResourceBudget("test", 100);
+    final long first = budget.tryReserve(80);
+    final CountDownLatch waiting = new CountDownLatch(1);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<Long> f = executor.submit(() -> {
+        waiting.countDown();
+        return budget.reserve(50);
+      });
+      waiting.await(5, TimeUnit.SECONDS);
+      Thread.sleep(200);
+      assertThat("Still waiting", f.isDone(), equalTo(false));
+      budget.release(first);
+      assertThat("Reserved after release", f.get(5, TimeUnit.SECONDS), equalTo(50L));
+      assertThat("Available", budget.getAvailable(), equalTo(50L));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+}
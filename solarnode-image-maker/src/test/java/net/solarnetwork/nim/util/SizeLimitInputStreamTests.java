@@ -0,0 +1,75 @@
+/* ==================================================================
+ * SizeLimitInputStreamTests.java - 18/10/2026 9:20:12 AM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.nim.util;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+import org.junit.Test;
+import org.springframework.util.StreamUtils;
+
+/**
+ * Test cases for the {@link SizeLimitInputStream} class.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class SizeLimitInputStreamTests {
+
+  @Test
+  public void withinLimit() throws Exception {
+    byte[] data = new byte[100];
+    try (InputStream in = new SizeLimitInputStream(new ByteArrayInputStream(data), 100)) {
+      assertThat("Data read", StreamUtils.copyToByteArray(in).length, equalTo(100));
+    }
+  }
+
+  @Test
+  public void exceedLimit() throws Exception {
+    byte[] data = new byte[101];
+    try (InputStream in = new SizeLimitInputStream(new ByteArrayInputStream(data), 100)) {
+      StreamUtils.copyToByteArray(in);
+      fail("Reading past the limit should fail");
+    } catch (MultipartStream.SizeLimitExceededException e) {
+      assertThat("Maximum size", e.getMaximumSize(), equalTo(100L));
+    }
+  }
+
+  @Test
+  public void exceedLimitSingleBytes() throws Exception {
+    byte[] data = new byte[3];
+    try (InputStream in = new SizeLimitInputStream(new ByteArrayInputStream(data), 2)) {
+      assertThat("First byte", in.read(), equalTo(0));
+      assertThat("Second byte", in.read(), equalTo(0));
+      in.read();
+      fail("Reading past the limit should fail");
+    } catch (MultipartStream.SizeLimitExceededException e) {
+      assertThat("Maximum size", e.getMaximumSize(), equalTo(2L));
+    }
+  }
+
+}
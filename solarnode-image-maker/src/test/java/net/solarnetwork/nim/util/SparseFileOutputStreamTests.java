@@ -0,0 +1,114 @@
+/* ==================================================================
+ * SparseFileOutputStreamTests.java - 18/10/2026 3:10:27 PM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.nim.util;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test cases for the {@link SparseFileOutputStream} class.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class SparseFileOutputStreamTests {
+
+  private static final int BLOCK_SIZE = 4096;
+
+  private File file;
+
+  @Before
+  public void setup() throws Exception {
+    file = File.createTempFile("sparse-test-", ".img");
+  }
+
+  @After
+  public void teardown() {
+    file.delete();
+  }
+
+  private void write(byte[] data, int chunkSize) throws Exception {
+    try (SparseFileOutputStream out = new SparseFileOutputStream(file, BLOCK_SIZE)) {
+      for (int i = 0; i < data.length; i += chunkSize) {
+        out.write(data, i, Math.min(chunkSize, data.length - i));
+      }
+    }
+  }
+
+  @Test
+  public void mixedBlocks() throws Exception {
+    byte[] data = new byte[BLOCK_SIZE * 10 + 100];
+    Random r = new Random(123);
+    for (int i = 0; i < data.length; i += BLOCK_SIZE * 3) {
+      byte[] chunk = new byte[Math.min(BLOCK_SIZE, data.length - i)];
+      r.nextBytes(chunk);
+      System.arraycopy(chunk, 0, data, i, chunk.length);
+    }
+    // write in chunks not aligned to blocks
+    write(data, 5000);
+    assertThat(Arrays.equals(Files.readAllBytes(file.toPath()), data), equalTo(true));
+  }
+
+  @Test
+  public void trailingHoles() throws Exception {
+    byte[] data = new byte[BLOCK_SIZE * 4];
+    data[0] = 1;
+    SparseFileOutputStream out = new SparseFileOutputStream(file, BLOCK_SIZE);
+    out.write(data);
+    out.close();
+    assertThat("Sparse length", out.getSparseLength(), equalTo((long) BLOCK_SIZE * 3));
+    assertThat("File length", file.length(), equalTo((long) data.length));
+    assertThat(Arrays.equals(Files.readAllBytes(file.toPath()), data), equalTo(true));
+  }
+
+  @Test
+  public void unalignedDataThenZeroBlock() throws Exception {
+    // data ending mid-block, then the rest of that block and a whole zero block in one write
+    byte[] data = new byte[BLOCK_SIZE * 2 + 10];
+    Arrays.fill(data, 0, BLOCK_SIZE, (byte) 1);
+    Arrays.fill(data, BLOCK_SIZE * 2, data.length, (byte) 2);
+    SparseFileOutputStream out = new SparseFileOutputStream(file, BLOCK_SIZE);
+    out.write(data, 0, 100);
+    out.write(data, 100, data.length - 100);
+    out.close();
+    assertThat("Sparse length", out.getSparseLength(), equalTo((long) BLOCK_SIZE));
+    assertThat(Arrays.equals(Files.readAllBytes(file.toPath()), data), equalTo(true));
+  }
+
+  @Test
+  public void truncatesExisting() throws Exception {
+    Files.write(file.toPath(), new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+    write(new byte[] { 9 }, 1);
+    assertThat(Arrays.equals(Files.readAllBytes(file.toPath()), new byte[] { 9 }), equalTo(true));
+  }
+
+}
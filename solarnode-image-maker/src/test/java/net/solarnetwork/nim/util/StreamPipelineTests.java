@@ -0,0 +1,109 @@
+/* ==================================================================
+ * StreamPipelineTests.java - 18/10/2026 2:05:19 PM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.nim.util;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.mutable.MutableLong;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test cases for the {@link StreamPipeline} class.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class StreamPipelineTests {
+
+  private ExecutorService executor;
+
+  @Before
+  public void setup() {
+    executor = Executors.newCachedThreadPool();
+  }
+
+  @After
+  public void teardown() {
+    executor.shutdownNow();
+  }
+
+  private static byte[] testData(int length) {
+    byte[] data = new byte[length];
+    new Random(123).nextBytes(data);
+    return data;
+  }
+
+  @Test
+  public void digestAndWrite() throws Exception {
+    byte[] data = testData(4096 * 10 + 123);
+    MessageDigest digest = DigestUtils.getSha256Digest();
+    MutableLong length = new MutableLong(0);
+    ByteArrayOutputStream byos = new ByteArrayOutputStream();
+    long count = new StreamPipeline(executor, 4096, 3).copy(new ByteArrayInputStream(data),
+        StreamPipeline.digestStage(digest, length), StreamPipeline.outputStage(byos));
+    assertThat("Count", count, equalTo((long) data.length));
+    assertThat("Digest length", length.longValue(), equalTo((long) data.length));
+    assertThat("Digest", Arrays.equals(digest.digest(), DigestUtils.sha256(data)), equalTo(true));
+    assertThat("Output", Arrays.equals(byos.toByteArray(), data), equalTo(true));
+  }
+
+  @Test
+  public void empty() throws Exception {
+    ByteArrayOutputStream byos = new ByteArrayOutputStream();
+    long count = new StreamPipeline(executor, 4096, 3).copy(new ByteArrayInputStream(new byte[0]),
+        StreamPipeline.outputStage(byos));
+    assertThat("Count", count, equalTo(0L));
+    assertThat("Output", byos.size(), equalTo(0));
+  }
+
+  @Test
+  public void stageFailure() throws Exception {
+    IOException err = new IOException("Boom");
+    MutableLong length = new MutableLong(0);
+    try {
+      new StreamPipeline(executor, 4096, 2).copy(new ByteArrayInputStream(testData(4096 * 20)),
+          StreamPipeline.digestStage(DigestUtils.getSha256Digest(), length), (buf, len) -> {
+            throw err;
+          });
+      fail("Stage failure should have been thrown");
+    } catch (IOException e) {
+      assertThat(e, sameInstance(err));
+    }
+  }
+
+}
@@ -23,8 +23,11 @@
 package net.solarnetwork.nim.util;
 
 import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.equalTo;
 import static org.junit.Assert.assertThat;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.junit.Test;
 
 /**
@@ -80,4 +83,21 @@ public class TaskStepTrackerTests {
     assertThat(t.getOverallPercentComplete(), closeTo(1.0, 0.001));
   }
 
+  @Test
+  public void listeners() {
+    TaskStepTracker t = new TaskStepTracker(2);
+    AtomicInteger count = new AtomicInteger(0);
+    Runnable listener = count::incrementAndGet;
+    t.addListener(listener);
+    t.start();
+    t.setMessage("Working");
+    t.setStepPercentComplete(0.5);
+    t.completeStep();
+    t.complete();
+    assertThat("Called for every change", count.get(), equalTo(5));
+    t.removeListener(listener);
+    t.completeStep();
+    assertThat("Not called after removed", count.get(), equalTo(5));
+  }
+
 }
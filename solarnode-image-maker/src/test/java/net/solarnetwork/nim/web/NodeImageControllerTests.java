@@ -0,0 +1,296 @@
+/* ==================================================================
+ * NodeImageControllerTests.java - 18/10/2026 10:04:51 AM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.nim.web;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import net.solarnetwork.nim.domain.BasicSolarNodeImageInfo;
+import net.solarnetwork.nim.domain.ResourceSolarNodeImage;
+import net.solarnetwork.nim.domain.SolarNodeImage;
+import net.solarnetwork.nim.domain.SolarNodeImageOptions;
+import net.solarnetwork.nim.domain.SolarNodeImageReceipt;
+import net.solarnetwork.nim.domain.SolarNodeImageResource;
+import net.solarnetwork.nim.service.NodeImageService;
+import net.solarnetwork.nim.util.SolarNodeImageReceiptFuture;
+import net.solarnetwork.nim.util.TaskStepTracker;
+
+/**
+ * Test cases for downloading images and storing resources with the {@link NodeImageController}
+ * class.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class NodeImageControllerTests {
+
+  private static final String SENDFILE_ATTR_PREFIX = "org.apache.tomcat.sendfile.";
+
+  private byte[] data;
+  private String etag;
+  private Path imageFile;
+  private CompletableFuture<SolarNodeImage> result;
+  private NodeImageController controller;
+
+  private final class TestNodeImageService implements NodeImageService {
+
+    private final SolarNodeImageReceipt receipt = new SolarNodeImageReceiptFuture("r", "base",
+        result, new TaskStepTracker(1));
+
+    @Override
+    public String authorize(String authorization, Date authorizationDate) {
+      return null;
+    }
+
+    @Override
+    public SolarNodeImageReceipt createImage(String key, SolarNodeImage sourceImage,
+        Iterable<SolarNodeImageResource> resources, SolarNodeImageOptions options) {
+      return null;
+    }
+
+    @Override
+    public SolarNodeImageReceipt getReceipt(String key, String id) {
+      return ("k".equals(key) && "r".equals(id) ? receipt : null);
+    }
+
+    @Override
+    public int activeSessionCount() {
+      return 0;
+    }
+
+  }
+
+  @Before
+  public void setup() throws Exception {
+    data = new byte[1000];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) (i % 251);
+    }
+    imageFile = Files.createTempFile("image-", ".img");
+    Files.write(imageFile, data);
+    final String sha256 = DigestUtils.sha256Hex(data);
+    etag = "\"" + sha256 + "\"";
+    result = new CompletableFuture<>();
+    result.complete(new ResourceSolarNodeImage(
+        new BasicSolarNodeImageInfo("out", sha256, data.length, null, 0),
+        new FileSystemResource(imageFile.toFile())));
+    controller = new NodeImageController(null, new TestNodeImageService());
+  }
+
+  @After
+  public void teardown() throws Exception {
+    Files.deleteIfExists(imageFile);
+  }
+
+  private static MockHttpServletRequest request(String range) {
+    MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/v1/images/r/k");
+    if (range != null) {
+      request.addHeader(HttpHeaders.RANGE, range);
+    }
+    return request;
+  }
+
+  private MockHttpServletResponse get(MockHttpServletRequest request) throws Exception {
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    controller.getImageFile("k", "r", request, response);
+    return response;
+  }
+
+  private void assertFullImage(MockHttpServletResponse response) {
+    assertThat("Status", response.getStatus(), equalTo(200));
+    assertThat("Content range", response.getHeader(HttpHeaders.CONTENT_RANGE), nullValue());
+    assertThat("Content length", response.getContentLengthLong(), equalTo((long) data.length));
+    assertThat("Body", Arrays.equals(response.getContentAsByteArray(), data), equalTo(true));
+  }
+
+  private void assertRange(MockHttpServletResponse response, int start, int end) {
+    assertThat("Status", response.getStatus(), equalTo(206));
+    assertThat("Content range", response.getHeader(HttpHeaders.CONTENT_RANGE),
+        equalTo("bytes " + start + "-" + end + "/" + data.length));
+    assertThat("Content length", response.getContentLengthLong(),
+        equalTo((long) (end - start + 1)));
+    assertThat("Body", Arrays.equals(response.getContentAsByteArray(),
+        Arrays.copyOfRange(data, start, end + 1)), equalTo(true));
+  }
+
+  @Test
+  public void notFound() throws Exception {
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    controller.getImageFile("k", "nope", request(null), response);
+    assertThat("Status", response.getStatus(), equalTo(404));
+  }
+
+  @Test
+  public void notReady() throws Exception {
+    result = new CompletableFuture<>();
+    controller = new NodeImageController(null, new TestNodeImageService());
+    MockHttpServletResponse response = get(request(null));
+    assertThat("Status", response.getStatus(), equalTo(503));
+    assertThat("Retry after", response.getHeader(HttpHeaders.RETRY_AFTER), equalTo("60"));
+  }
+
+  @Test
+  public void fullImage() throws Exception {
+    MockHttpServletResponse response = get(request(null));
+    assertFullImage(response);
+    assertThat("ETag", response.getHeader(HttpHeaders.ETAG), equalTo(etag));
+    assertThat("Accept ranges", response.getHeader(HttpHeaders.ACCEPT_RANGES), equalTo("bytes"));
+    assertThat("Disposition", response.getHeader(HttpHeaders.CONTENT_DISPOSITION),
+        equalTo("attachment; filename=" + imageFile.getFileName()));
+  }
+
+  @Test
+  public void notModified() throws Exception {
+    MockHttpServletRequest request = request(null);
+    request.addHeader(HttpHeaders.IF_NONE_MATCH, etag);
+    MockHttpServletResponse response = get(request);
+    assertThat("Status", response.getStatus(), equalTo(304));
+    assertThat("ETag", response.getHeader(HttpHeaders.ETAG), equalTo(etag));
+    assertThat("No body", response.getContentAsByteArray().length, equalTo(0));
+  }
+
+  @Test
+  public void modified() throws Exception {
+    MockHttpServletRequest request = request(null);
+    request.addHeader(HttpHeaders.IF_NONE_MATCH, "\"other\"");
+    assertFullImage(get(request));
+  }
+
+  @Test
+  public void singleRange() throws Exception {
+    assertRange(get(request("bytes=10-19")), 10, 19);
+  }
+
+  @Test
+  public void openEndedRange() throws Exception {
+    assertRange(get(request("bytes=990-")), 990, 999);
+  }
+
+  @Test
+  public void suffixRange() throws Exception {
+    assertRange(get(request("bytes=-100")), 900, 999);
+  }
+
+  @Test
+  public void rangePastEndTruncated() throws Exception {
+    assertRange(get(request("bytes=900-2000")), 900, 999);
+  }
+
+  @Test
+  public void unsatisfiableRange() throws Exception {
+    MockHttpServletResponse response = get(request("bytes=1000-1100"));
+    assertThat("Status", response.getStatus(), equalTo(416));
+    assertThat("Content range", response.getHeader(HttpHeaders.CONTENT_RANGE),
+        equalTo("bytes */" + data.length));
+    assertThat("No body", response.getContentAsByteArray().length, equalTo(0));
+  }
+
+  @Test
+  public void matchingIfRange() throws Exception {
+    MockHttpServletRequest request = request("bytes=10-19");
+    request.addHeader(HttpHeaders.IF_RANGE, etag);
+    assertRange(get(request), 10, 19);
+  }
+
+  @Test
+  public void mismatchedIfRange() throws Exception {
+    MockHttpServletRequest request = request("bytes=10-19");
+    request.addHeader(HttpHeaders.IF_RANGE, "\"other\"");
+    assertFullImage(get(request));
+  }
+
+  @Test
+  public void dateIfRange() throws Exception {
+    MockHttpServletRequest request = request("bytes=10-19");
+    request.addHeader(HttpHeaders.IF_RANGE, "Sat, 17 Oct 2026 10:00:00 GMT");
+    assertFullImage(get(request));
+  }
+
+  @Test
+  public void multipleRanges() throws Exception {
+    assertFullImage(get(request("bytes=0-9,20-29")));
+  }
+
+  @Test
+  public void invalidRange() throws Exception {
+    assertFullImage(get(request("bytes=foo")));
+  }
+
+  @Test
+  public void sendFileRange() throws Exception {
+    MockHttpServletRequest request = request("bytes=10-19");
+    request.setAttribute(SENDFILE_ATTR_PREFIX + "support", Boolean.TRUE);
+    MockHttpServletResponse response = get(request);
+    assertThat("Status", response.getStatus(), equalTo(206));
+    assertThat("Content length", response.getContentLengthLong(), equalTo(10L));
+    assertThat("Sendfile file", request.getAttribute(SENDFILE_ATTR_PREFIX + "filename"),
+        equalTo(imageFile.toFile().getAbsolutePath()));
+    assertThat("Sendfile start", request.getAttribute(SENDFILE_ATTR_PREFIX + "start"),
+        equalTo(10L));
+    // the end is exclusive
+    assertThat("Sendfile end", request.getAttribute(SENDFILE_ATTR_PREFIX + "end"), equalTo(20L));
+    assertThat("Body left to container", response.getContentAsByteArray().length, equalTo(0));
+  }
+
+  @Test
+  public void sendFileFullImage() throws Exception {
+    MockHttpServletRequest request = request(null);
+    request.setAttribute(SENDFILE_ATTR_PREFIX + "support", Boolean.TRUE);
+    MockHttpServletResponse response = get(request);
+    assertThat("Status", response.getStatus(), equalTo(200));
+    assertThat("Sendfile start", request.getAttribute(SENDFILE_ATTR_PREFIX + "start"),
+        equalTo(0L));
+    assertThat("Sendfile end", request.getAttribute(SENDFILE_ATTR_PREFIX + "end"),
+        equalTo((long) data.length));
+  }
+
+  @Test
+  public void storeResourceNotEnabled() throws Exception {
+    MockMvcBuilders.standaloneSetup(controller).build()
+        .perform(put("/api/v1/images/resources/abc/k").content(new byte[] { 1 }))
+        .andExpect(status().isNotImplemented())
+        .andExpect(content().string(containsString("Resources cannot be stored.")));
+  }
+
+}
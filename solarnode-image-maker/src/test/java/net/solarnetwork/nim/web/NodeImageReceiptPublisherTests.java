@@ -0,0 +1,248 @@
+/* ==================================================================
+ * NodeImageReceiptPublisherTests.java - 18/10/2026 6:21:09 AM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.nim.web;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageDeliveryException;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.MessageBuilder;
+
+import net.solarnetwork.nim.domain.BasicSolarNodeImageInfo;
+import net.solarnetwork.nim.domain.ResourceSolarNodeImage;
+import net.solarnetwork.nim.domain.SolarNodeImage;
+import net.solarnetwork.nim.domain.SolarNodeImageOptions;
+import net.solarnetwork.nim.domain.SolarNodeImageReceipt;
+import net.solarnetwork.nim.domain.SolarNodeImageResource;
+import net.solarnetwork.nim.service.NodeImageService;
+import net.solarnetwork.nim.util.SolarNodeImageReceiptFuture;
+import net.solarnetwork.nim.util.TaskStepTracker;
+
+/**
+ * Test cases for the {@link NodeImageReceiptPublisher} class.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class NodeImageReceiptPublisherTests {
+
+  private static final String DESTINATION = NodeImageReceiptPublisher.DESTINATION_PREFIX + "r/k";
+
+  private final List<Message<?>> messages = new CopyOnWriteArrayList<>();
+  private TaskStepTracker tracker;
+  private CompletableFuture<SolarNodeImage> result;
+  private NodeImageReceiptPublisher publisher;
+
+  private final class TestNodeImageService implements NodeImageService {
+
+    private final SolarNodeImageReceipt receipt = new SolarNodeImageReceiptFuture("r", "base",
+        result, tracker);
+
+    @Override
+    public String authorize(String authorization, Date authorizationDate) {
+      return null;
+    }
+
+    @Override
+    public SolarNodeImageReceipt createImage(String key, SolarNodeImage sourceImage,
+        Iterable<SolarNodeImageResource> resources, SolarNodeImageOptions options) {
+      return null;
+    }
+
+    @Override
+    public SolarNodeImageReceipt getReceipt(String key, String id) {
+      return ("k".equals(key) && "r".equals(id) ? receipt : null);
+    }
+
+    @Override
+    public int activeSessionCount() {
+      return 0;
+    }
+
+  }
+
+  private final class TestChannel implements MessageChannel {
+
+    @Override
+    public boolean send(Message<?> message) {
+      messages.add(message);
+      return true;
+    }
+
+    @Override
+    public boolean send(Message<?> message, long timeout) {
+      return send(message);
+    }
+
+  }
+
+  @Before
+  public void setup() {
+    tracker = new TaskStepTracker(2);
+    result = new CompletableFuture<>();
+    publisher = new NodeImageReceiptPublisher(new TestNodeImageService(),
+        new SimpMessagingTemplate(new TestChannel()));
+    publisher.setMinimumInterval(200);
+    publisher.startup();
+  }
+
+  @After
+  public void teardown() {
+    publisher.shutdown();
+  }
+
+  private static Message<?> subscribeMessage(String destination) {
+    return message(SimpMessageType.SUBSCRIBE, destination);
+  }
+
+  private static Message<?> message(SimpMessageType type, String destination) {
+    SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(type);
+    accessor.setDestination(destination);
+    accessor.setSessionId("s");
+    accessor.setSubscriptionId("1");
+    return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+  }
+
+  private static String event(Message<?> message) {
+    return SimpMessageHeaderAccessor.wrap(message)
+        .getFirstNativeHeader(NodeImageReceiptPublisher.EVENT_HEADER);
+  }
+
+  private void awaitMessages(int count) throws InterruptedException {
+    for (int i = 0; i < 50 && messages.size() < count; i++) {
+      Thread.sleep(20);
+    }
+  }
+
+  @Test
+  public void coalesceProgress() throws InterruptedException {
+    publisher.subscribe("s/1", DESTINATION);
+    awaitMessages(1);
+    assertThat("Receipt sent on subscribe", messages.size(), equalTo(1));
+    assertThat("Progress event", event(messages.get(0)), equalTo("progress"));
+
+    tracker.start();
+    for (int i = 1; i <= 100; i++) {
+      tracker.setStepPercentComplete(i / 100.0);
+    }
+    Thread.sleep(500);
+    assertThat("Changes coalesced", messages.size(), equalTo(2));
+    assertThat("Destination published to", messages.get(1).getHeaders()
+        .get(SimpMessageHeaderAccessor.DESTINATION_HEADER), equalTo(DESTINATION));
+  }
+
+  @Test
+  public void doneEvent() throws InterruptedException {
+    publisher.subscribe("s/1", DESTINATION);
+    awaitMessages(1);
+
+    tracker.start();
+    tracker.completeStep();
+    tracker.completeStep();
+    tracker.complete();
+    Thread.sleep(50);
+    result.complete(new ResourceSolarNodeImage(new BasicSolarNodeImageInfo("out", null, 0, null, 0),
+        null));
+    awaitMessages(2);
+    Thread.sleep(300);
+    assertThat("Message count", messages.size(), lessThanOrEqualTo(3));
+    Message<?> last = messages.get(messages.size() - 1);
+    assertThat("Done event", event(last), equalTo("done"));
+    assertThat("Download URL", SimpMessageHeaderAccessor.wrap(last)
+        .getFirstNativeHeader(NodeImageReceiptPublisher.DOWNLOAD_URL_HEADER),
+        equalTo("/api/v1/images/r/k"));
+    assertThat("Destination closed", publisher.getDestinationCount(), equalTo(0));
+
+    tracker.setMessage("Ignored");
+    Thread.sleep(300);
+    assertThat("No messages after done", event(messages.get(messages.size() - 1)),
+        equalTo("done"));
+  }
+
+  @Test
+  public void unsubscribe() throws InterruptedException {
+    publisher.subscribe("s/1", DESTINATION);
+    publisher.subscribe("s/2", DESTINATION);
+    assertThat("Destination count", publisher.getDestinationCount(), equalTo(1));
+    publisher.unsubscribe("s/1");
+    assertThat("Destination kept", publisher.getDestinationCount(), equalTo(1));
+    publisher.unsubscribe("s/2");
+    assertThat("Destination closed", publisher.getDestinationCount(), equalTo(0));
+  }
+
+  @Test
+  public void rejectUnknownReceipt() {
+    publisher.preSend(subscribeMessage(DESTINATION), null);
+    try {
+      publisher.preSend(subscribeMessage(NodeImageReceiptPublisher.DESTINATION_PREFIX + "x/k"),
+          null);
+      fail("Subscription should be rejected");
+    } catch (MessageDeliveryException e) {
+      // expected
+    }
+  }
+
+  private void assertRejected(Message<?> message) {
+    try {
+      publisher.preSend(message, null);
+      fail("Message should be rejected");
+    } catch (MessageDeliveryException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void rejectPatternSubscriptions() {
+    assertRejected(subscribeMessage("/topic/**"));
+    assertRejected(subscribeMessage("/topic"));
+    assertRejected(subscribeMessage(NodeImageReceiptPublisher.DESTINATION_PREFIX + "*/k"));
+    assertRejected(subscribeMessage(NodeImageReceiptPublisher.DESTINATION_PREFIX + "r/*"));
+    assertRejected(subscribeMessage(NodeImageReceiptPublisher.DESTINATION_PREFIX + "r/{k}"));
+    assertRejected(subscribeMessage(NodeImageReceiptPublisher.DESTINATION_PREFIX + "r/k/"));
+    assertRejected(subscribeMessage("/topic/other"));
+  }
+
+  @Test
+  public void rejectClientSend() {
+    assertRejected(message(SimpMessageType.MESSAGE, DESTINATION));
+    assertRejected(message(SimpMessageType.MESSAGE, "/topic/other"));
+    Message<?> app = message(SimpMessageType.MESSAGE, "/app/other");
+    assertThat("Application message allowed", publisher.preSend(app, null), equalTo(app));
+  }
+
+}
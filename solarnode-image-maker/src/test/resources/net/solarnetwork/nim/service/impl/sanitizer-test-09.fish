@@ -0,0 +1,2 @@
+# Drive command test
+add-drive /etc/shadow
@@ -0,0 +1,2 @@
+# Lifecycle command test
+-shutdown